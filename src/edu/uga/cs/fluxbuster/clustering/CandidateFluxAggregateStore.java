@@ -0,0 +1,343 @@
+/*
+* Copyright (C) 2012 Chris Neasbitt
+* Author: Chris Neasbitt
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 2 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package edu.uga.cs.fluxbuster.clustering;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * This class keeps the merged candidate flux domains of a time window in
+ * a file, together with the name, size and modification time of each data
+ * file merged into it.  When the window is loaded again only the data
+ * files which follow the recorded files are parsed and merged into the
+ * stored domains.  If a recorded file has changed or disappeared, a file
+ * sorting before a recorded file has appeared, or the domain filter has
+ * changed the window is loaded from scratch.
+ *
+ * The aggregate file is written under a temporary name, synced and then
+ * renamed, and it ends with a CRC of its contents, so a crash while
+ * writing leaves either the previous aggregate or none.  An aggregate
+ * which can not be read is ignored.
+ *
+ * @author Chris Neasbitt
+ */
+public class CandidateFluxAggregateStore {
+
+	private static final String EXTENSION = ".fba";
+
+	private static final int MAGIC = 0x46424147;
+
+	private static final int VERSION = 1;
+
+	private static final int BUFSIZE = 65536;
+
+	private File dir = null;
+
+	private static Log log = LogFactory.getLog(CandidateFluxAggregateStore.class);
+
+	/**
+	 * Instantiates a new aggregate store.
+	 *
+	 * @param dir the directory holding the aggregate files
+	 */
+	public CandidateFluxAggregateStore(File dir) {
+		this.dir = dir;
+	}
+
+	/**
+	 * Loads the merged candidate flux domains of a time window.  The data
+	 * files not yet contained in the window's aggregate are merged into
+	 * it and the aggregate is updated.
+	 *
+	 * @param startTime the start time of the window in sec.
+	 * @param endTime the end time of the window in sec.
+	 * @param filterKey identifies the loader's domain filter, an
+	 * 		aggregate built with a different filter is not used
+	 * @param filenames the paths of the window's data files in merge order
+	 * @param loader the loader parsing the data files
+	 * @return the merged candidate flux domains keyed by domain name
+	 * @throws Exception if the data files can not be loaded
+	 */
+	public HashMap<String, CandidateFluxDomainAccumulator> load(long startTime,
+			long endTime, String filterKey, List<String> filenames,
+			CandidateFluxDomainLoader loader) throws Exception {
+		List<FileEntry> entries = new ArrayList<FileEntry>();
+		for (String filename : filenames) {
+			entries.add(new FileEntry(new File(filename)));
+		}
+		File file = getAggregateFile(startTime, endTime);
+		HashMap<String, CandidateFluxDomainAccumulator> domains =
+				new HashMap<String, CandidateFluxDomainAccumulator>();
+		int numContained = 0;
+		if (file.exists()) {
+			try {
+				numContained = read(file, filterKey, entries, domains);
+			} catch (IOException e) {
+				if(log.isWarnEnabled()){
+					log.warn("Ignoring unreadable aggregate " + file, e);
+				}
+				domains.clear();
+				numContained = 0;
+			}
+		}
+		if(log.isInfoEnabled()){
+			log.info("Aggregate " + file.getName() + " contains " + numContained
+					+ " of " + filenames.size() + " data files.");
+		}
+		if (numContained == filenames.size()) {
+			return domains;
+		}
+		HashMap<String, CandidateFluxDomainAccumulator> retval =
+				loader.loadAccumulators(
+						filenames.subList(numContained, filenames.size()), domains);
+		try {
+			write(file, startTime, endTime, filterKey, entries, retval);
+		} catch (IOException e) {
+			if(log.isErrorEnabled()){
+				log.error("Unable to write aggregate " + file, e);
+			}
+		}
+		return retval;
+	}
+
+	/**
+	 * Gets the aggregate file of a time window.
+	 *
+	 * @param startTime the start time of the window in sec.
+	 * @param endTime the end time of the window in sec.
+	 * @return the aggregate file
+	 */
+	private File getAggregateFile(long startTime, long endTime) {
+		return new File(dir, "candidate_aggregate." + startTime + "." + endTime
+				+ EXTENSION);
+	}
+
+	/**
+	 * Reads an aggregate if it can be extended with the current data files.
+	 *
+	 * @param file the aggregate file
+	 * @param filterKey the current domain filter
+	 * @param entries the current data files in merge order
+	 * @param domains the map to read the merged domains into
+	 * @return the number of leading data files contained in the aggregate,
+	 * 		0 if the aggregate can not be used
+	 * @throws IOException if the aggregate is corrupt
+	 */
+	private int read(File file, String filterKey, List<FileEntry> entries,
+			HashMap<String, CandidateFluxDomainAccumulator> domains)
+					throws IOException {
+		verifyChecksum(file);
+		DataInputStream in = new DataInputStream(new BufferedInputStream(
+				new FileInputStream(file), BUFSIZE));
+		try {
+			if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+				throw new IOException("Not an aggregate of a supported version.");
+			}
+			in.readLong();
+			in.readLong();
+			if (!in.readUTF().equals(filterKey)) {
+				if(log.isInfoEnabled()){
+					log.info("The domain filter of " + file + " has changed.");
+				}
+				return 0;
+			}
+			int numFiles = in.readInt();
+			if (numFiles > entries.size()) {
+				return 0;
+			}
+			for (int i = 0; i < numFiles; i++) {
+				FileEntry entry = new FileEntry(in.readUTF(), in.readLong(),
+						in.readLong());
+				if (!entry.equals(entries.get(i))) {
+					if(log.isInfoEnabled()){
+						log.info(entry.name + " in " + file + " has changed.");
+					}
+					return 0;
+				}
+			}
+			int numDomains = in.readInt();
+			for (int i = 0; i < numDomains; i++) {
+				CandidateFluxDomainAccumulator acc =
+						CandidateFluxDomainAccumulator.readFrom(in);
+				domains.put(acc.getDomainName(), acc);
+			}
+			return numFiles;
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Verifies the CRC at the end of an aggregate before any of its
+	 * counts are trusted.
+	 *
+	 * @param file the aggregate file
+	 * @throws IOException if the file can not be read or the CRC does
+	 * 		not match
+	 */
+	private void verifyChecksum(File file) throws IOException {
+		long length = file.length() - 8;
+		if (length < 0) {
+			throw new IOException("Aggregate too short.");
+		}
+		CheckedInputStream in = new CheckedInputStream(new BufferedInputStream(
+				new FileInputStream(file), BUFSIZE), new CRC32());
+		try {
+			byte[] buf = new byte[BUFSIZE];
+			long remaining = length;
+			while (remaining > 0) {
+				int n = in.read(buf, 0, (int) Math.min(buf.length, remaining));
+				if (n < 0) {
+					throw new IOException("Aggregate truncated.");
+				}
+				remaining -= n;
+			}
+			long crc = in.getChecksum().getValue();
+			if (new DataInputStream(in).readLong() != crc) {
+				throw new IOException("Checksum mismatch.");
+			}
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Writes an aggregate.
+	 *
+	 * @param file the aggregate file
+	 * @param startTime the start time of the window in sec.
+	 * @param endTime the end time of the window in sec.
+	 * @param filterKey the domain filter
+	 * @param entries the data files merged into the domains
+	 * @param domains the merged domains
+	 * @throws IOException if the aggregate can not be written
+	 */
+	private void write(File file, long startTime, long endTime,
+			String filterKey, List<FileEntry> entries,
+			HashMap<String, CandidateFluxDomainAccumulator> domains)
+					throws IOException {
+		if (!dir.isDirectory() && !dir.mkdirs()) {
+			throw new IOException("Unable to create " + dir);
+		}
+		File tempFile = new File(file.getPath() + ".tmp");
+		FileOutputStream fout = new FileOutputStream(tempFile);
+		boolean written = false;
+		try {
+			BufferedOutputStream bout = new BufferedOutputStream(fout, BUFSIZE);
+			CheckedOutputStream cout = new CheckedOutputStream(bout, new CRC32());
+			DataOutputStream out = new DataOutputStream(cout);
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeLong(startTime);
+			out.writeLong(endTime);
+			out.writeUTF(filterKey);
+			out.writeInt(entries.size());
+			for (FileEntry entry : entries) {
+				out.writeUTF(entry.name);
+				out.writeLong(entry.size);
+				out.writeLong(entry.modified);
+			}
+			out.writeInt(domains.size());
+			for (CandidateFluxDomainAccumulator acc : domains.values()) {
+				acc.writeTo(out);
+			}
+			out.flush();
+			DataOutputStream trailer = new DataOutputStream(bout);
+			trailer.writeLong(cout.getChecksum().getValue());
+			trailer.flush();
+			fout.getFD().sync();
+			written = true;
+		} finally {
+			fout.close();
+			if (!written) {
+				tempFile.delete();
+			}
+		}
+		if (!tempFile.renameTo(file)) {
+			// some platforms do not replace an existing file
+			if (!file.delete() || !tempFile.renameTo(file)) {
+				tempFile.delete();
+				throw new IOException("Unable to rename " + tempFile + " to "
+						+ file);
+			}
+		}
+	}
+
+	/**
+	 * The identity of a data file.
+	 */
+	private static class FileEntry {
+
+		private String name = null;
+
+		private long size = 0, modified = 0;
+
+		/**
+		 * Instantiates a new file entry for an existing file.
+		 *
+		 * @param file the data file
+		 */
+		public FileEntry(File file) {
+			this(file.getAbsolutePath(), file.length(), file.lastModified());
+		}
+
+		/**
+		 * Instantiates a new file entry.
+		 *
+		 * @param name the absolute path of the file
+		 * @param size the file size
+		 * @param modified the modification time of the file
+		 */
+		public FileEntry(String name, long size, long modified) {
+			this.name = name;
+			this.size = size;
+			this.modified = modified;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof FileEntry)) {
+				return false;
+			}
+			FileEntry other = (FileEntry) obj;
+			return name.equals(other.name) && size == other.size
+					&& modified == other.modified;
+		}
+
+		@Override
+		public int hashCode() {
+			return name.hashCode();
+		}
+	}
+}
@@ -21,15 +21,10 @@ package edu.uga.cs.fluxbuster.clustering;
 import java.io.Serializable;
 import java.net.Inet4Address;
 import java.net.InetAddress;
-import java.text.SimpleDateFormat;
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.HashSet;
 import java.util.Set;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-
-import edu.uga.cs.fluxbuster.utils.DomainNameUtils;
 
 /**
  * This class represents a single domain to be used as the input
@@ -99,6 +94,13 @@ public class CandidateFluxDomain implements Serializable {
 		this.setLastGrowthEntriesQueries(lastGrowthEntriesQueries);
 	}
 
+	/**
+	 * Instantiates a candidate flux domain without any values.  Used by
+	 * subclasses which do not keep their values in this class's fields.
+	 */
+	CandidateFluxDomain() {
+	}
+
 	/**
 	 * Creates a CandidateFluxDomain object from a line in the input
 	 * data.
@@ -106,66 +108,15 @@ public class CandidateFluxDomain implements Serializable {
 	 * @param logline the log line
 	 * @return the candidate flux domain
 	 * @throws Exception if there is an error parsing the log line
+	 * @see CandidateFluxDomainParser
 	 */
 	public static CandidateFluxDomain parseFromLog(String logline)
 			throws Exception {
-		SimpleDateFormat df = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
-
-		String[] elems = logline.split(" ");
-
-		String domainName = DomainNameUtils.stripDots(elems[0].trim());
-		long numMessages = Long.parseLong(elems[1].trim());
-		long numQueries = Long.parseLong(elems[2].trim());
-		double avgTTL = Double.parseDouble(elems[3].trim());
-		long minTTL = Long.parseLong(elems[4].trim());
-		long maxTTL = Long.parseLong(elems[5].toString());
-
-		Date firstSeen = df.parse(elems[6].trim() + " " + elems[7].trim());
-		Date lastSeen = df.parse(elems[8].trim() + " " + elems[9].trim());
-
-		String temp = elems[11].split("\\.")[0].trim();
-		Date reportedAt = df.parse(elems[10] + " " + temp);
-
-		long totalNumIps = Long.parseLong(elems[12].trim());
-		long otherIps = 0;
-		HashSet<InetAddress> ips = new HashSet<InetAddress>();
-		Pattern ipregex = Pattern
-				.compile("\\d{1,3}\\.\\d{1,3}\\.\\d{1,3}\\.\\d{1,3}");
-		int i;
-		for (i = 13; i < 13 + totalNumIps; i++) {
-			Matcher ipmatcher = ipregex.matcher(elems[i]);
-			ipmatcher.find();
-			String ipstr = ipmatcher.group(0);
-			InetAddress addr = InetAddress
-					.getByAddress(convertIPv4StringToByteArray(ipstr));
-
-			if (isPublicIP((Inet4Address) addr)) {
-				ips.add(addr);
-			} else {
-				otherIps++;
-			}
+		CandidateFluxDomainParser parser = new CandidateFluxDomainParser();
+		if (!parser.parse(logline)) {
+			throw new Exception("Unable to parse log line: " + logline);
 		}
-
-		double publicIPsRatio = ips.size() / (double) (ips.size() + otherIps);
-		ArrayList<Double> growth = new ArrayList<Double>();
-		Pattern digitregex = Pattern.compile("\\d+");
-		for (; i < elems.length; i++) {
-			Matcher digitmatcher = digitregex.matcher(elems[i]);
-			digitmatcher.find();
-			String digitstr = digitmatcher.group(0);
-			growth.add(Integer.parseInt(digitstr) * publicIPsRatio);
-		}
-
-		Double lastGrowthRatioSingleEntry = null;
-		if (numMessages > 1) {
-			double avgQueriesPerMsg = numQueries / (double) numMessages;
-			lastGrowthRatioSingleEntry = (growth.get(growth.size() - 1) - growth
-					.get(growth.size() - 2)) / avgQueriesPerMsg;
-		}
-
-		return new CandidateFluxDomain(domainName, firstSeen, lastSeen,
-				reportedAt, numMessages, numQueries, minTTL, maxTTL, avgTTL,
-				lastGrowthRatioSingleEntry, ips, new HashSet<InetAddress>(), 0);
+		return parser.toCandidateFluxDomain();
 	}
 
 	// the parameter succeeds the calling object
@@ -228,54 +179,6 @@ public class CandidateFluxDomain implements Serializable {
 				lastGrowthEntriesQueries);
 	}
 
-	// network byte order
-	/**
-	 * Convert a version 4 IP address string into a byte array
-	 * in network byte order.
-	 *
-	 * @param ipstr the IP address string
-	 * @return the byte array version of the address
-	 * @throws Exception if the address is not a valid IPv4 address
-	 */
-	private static byte[] convertIPv4StringToByteArray(String ipstr)
-			throws Exception {
-		String[] parts = ipstr.split("\\.");
-		if (parts.length != 4) {
-			throw new Exception("Invalid IPv4 address");
-		}
-		byte[] bytes = new byte[4];
-		for (int i = 0; i < bytes.length; i++) {
-			bytes[i] = (byte) Integer.parseInt(parts[i]);
-		}
-		return bytes;
-	}
-
-	// IANA private address
-	// 10.0.0.0 – 10.255.255.255 (Total Addresses: 16,777,216)
-	// 172.16.0.0 – 172.31.255.255 (Total Addresses: 1,048,576)
-	// 192.168.0.0 – 192.168.255.255 (Total Addresses: 65,536)
-	/**
-	 * Determine if the supplied version 4 IP address is in the
-	 * public range.
-	 *
-	 * @param addr the IP address
-	 * @return true, if it is a public ip
-	 */
-	private static boolean isPublicIP(Inet4Address addr) {
-		boolean retval = true;
-		byte[] ipbytes = addr.getAddress();
-		if (ipbytes[0] == 10) {
-			retval = false;
-		}
-		if (ipbytes[0] == 172 && ipbytes[1] >= 16 && ipbytes[1] <= 31) {
-			retval = false;
-		}
-		if (ipbytes[0] == 192 && ipbytes[1] == 168) {
-			retval = false;
-		}
-		return retval;
-	}
-
 	/**
 	 * Gets the domain name.
 	 *
@@ -478,6 +381,41 @@ public class CandidateFluxDomain implements Serializable {
 		return retval;
 	}
 
+	/**
+	 * Gets the IPv4 addresses as 32 bit integers in network byte order,
+	 * sorted in ascending order.  Addresses of other versions are not
+	 * included.
+	 *
+	 * @return the array of IPv4 addresses
+	 */
+	public int[] getIPv4Addresses() {
+		return toIPv4Addresses(ips);
+	}
+
+	/**
+	 * Converts the IPv4 addresses in a set of IP addresses to 32 bit
+	 * integers in network byte order, sorted in ascending order.
+	 *
+	 * @param ips the set of IP addresses
+	 * @return the array of IPv4 addresses
+	 */
+	static int[] toIPv4Addresses(Set<InetAddress> ips) {
+		int[] retval = new int[ips.size()];
+		int len = 0;
+		for (InetAddress ip : ips) {
+			if (ip instanceof Inet4Address) {
+				byte[] addr = ip.getAddress();
+				retval[len++] = (addr[0] & 0xFF) << 24 | (addr[1] & 0xFF) << 16
+						| (addr[2] & 0xFF) << 8 | (addr[3] & 0xFF);
+			}
+		}
+		if (len < retval.length) {
+			retval = Arrays.copyOf(retval, len);
+		}
+		Arrays.sort(retval);
+		return retval;
+	}
+
 	/**
 	 * Sets the IP addresses.
 	 *
@@ -0,0 +1,417 @@
+/*
+* Copyright (C) 2012 Chris Neasbitt
+* Author: Chris Neasbitt
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 2 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package edu.uga.cs.fluxbuster.clustering;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * This class merges the sightings of a single domain in place.  Merging
+ * a sighting into an accumulator produces the same values as
+ * CandidateFluxDomain.merge, but instead of copying both IP address sets
+ * only the addresses of the later sighting are looked up in a hash table
+ * of the accumulated addresses, so a merge costs time proportional to
+ * the size of the later sighting.  The CandidateFluxDomain is built once
+ * all sightings are merged.
+ *
+ * Only IPv4 addresses are supported.
+ *
+ * @author Chris Neasbitt
+ */
+public class CandidateFluxDomainAccumulator {
+
+	private static final int[] EMPTY = new int[0];
+
+	private String domainName = null;
+
+	private long firstSeen, lastSeen, reportedAt;
+
+	private long numMessages, numQueries, minTTL, maxTTL,
+			lastGrowthEntriesQueries;
+
+	private double avgTTL;
+
+	private boolean hasLastGrowthRatio = false;
+
+	private double lastGrowthRatioSingleEntry;
+
+	// the accumulated addresses, in ascending order until the first merge
+	private int[] ips = null;
+
+	private int numIPs = 0;
+
+	// open addressing table of index + 1 into ips, 0 marks an empty slot.
+	// created on the first merge.
+	private int[] table = null;
+
+	private int[] lastGrowthIPs = EMPTY;
+
+	private int numLastGrowthIPs = 0;
+
+	/**
+	 * Instantiates a new empty accumulator to be filled by readFrom.
+	 */
+	private CandidateFluxDomainAccumulator() {}
+
+	/**
+	 * Instantiates a new accumulator holding the current record of an
+	 * input data reader.
+	 *
+	 * @param record the reader's current record
+	 */
+	CandidateFluxDomainAccumulator(CandidateFluxDomainRecord record) {
+		this.domainName = record.getDomainName();
+		this.firstSeen = record.getFirstSeen() * 1000;
+		this.lastSeen = record.getLastSeen() * 1000;
+		this.reportedAt = record.getReportedAt() * 1000;
+		this.numMessages = record.getNumMessages();
+		this.numQueries = record.getNumQueries();
+		this.minTTL = record.getMinTTL();
+		this.maxTTL = record.getMaxTTL();
+		this.avgTTL = record.getAvgTTL();
+		this.hasLastGrowthRatio = record.hasLastGrowthRatioSingleEntry();
+		this.lastGrowthRatioSingleEntry = record.getLastGrowthRatioSingleEntry();
+		this.ips = Arrays.copyOf(record.getIPs(), record.getNumIPs());
+		this.numIPs = this.ips.length;
+	}
+
+	/**
+	 * Instantiates a new accumulator holding a candidate flux domain.
+	 *
+	 * @param cfd the candidate flux domain
+	 * @throws IllegalArgumentException if the domain has IP addresses
+	 * 		which are not IPv4
+	 */
+	public CandidateFluxDomainAccumulator(CandidateFluxDomain cfd) {
+		this.domainName = cfd.getDomainName();
+		this.firstSeen = cfd.getFirstSeen().getTime();
+		this.lastSeen = cfd.getLastSeen().getTime();
+		this.reportedAt = cfd.getReportedAt().getTime();
+		this.numMessages = cfd.getNumMessages();
+		this.numQueries = cfd.getNumQueries();
+		this.minTTL = cfd.getMinTTL();
+		this.maxTTL = cfd.getMaxTTL();
+		this.avgTTL = cfd.getAvgTTL();
+		Double ratio = cfd.getLastGrowthRatioSingleEntry();
+		if (ratio != null) {
+			this.hasLastGrowthRatio = true;
+			this.lastGrowthRatioSingleEntry = ratio;
+		}
+		this.ips = cfd.getIPv4Addresses();
+		this.numIPs = this.ips.length;
+		Set<InetAddress> lastGrowth = cfd.getLastGrowthEntriesIPs();
+		this.lastGrowthIPs = CandidateFluxDomain.toIPv4Addresses(lastGrowth);
+		this.numLastGrowthIPs = this.lastGrowthIPs.length;
+		this.lastGrowthEntriesQueries = cfd.getLastGrowthEntriesQueries();
+		if (this.numIPs != cfd.getNumIPs()
+				|| this.numLastGrowthIPs != lastGrowth.size()) {
+			throw new IllegalArgumentException(domainName
+					+ " has IP addresses which are not IPv4.");
+		}
+	}
+
+	/**
+	 * Merges a candidate flux domain which succeeds in time the
+	 * accumulated sightings.
+	 *
+	 * @param cfd the succeeding candidate flux domain
+	 * @return this accumulator
+	 * @throws IllegalArgumentException if the domain has IP addresses
+	 * 		which are not IPv4
+	 */
+	public CandidateFluxDomainAccumulator merge(CandidateFluxDomain cfd) {
+		return merge(new CandidateFluxDomainAccumulator(cfd));
+	}
+
+	/**
+	 * Merges the sightings held by another accumulator, which succeed in
+	 * time the sightings held by this accumulator.  The other accumulator
+	 * is not changed.
+	 *
+	 * @param later the succeeding sightings
+	 * @return this accumulator
+	 */
+	public CandidateFluxDomainAccumulator merge(
+			CandidateFluxDomainAccumulator later) {
+		long mergedQueries = this.numQueries + later.numQueries;
+		this.avgTTL = (this.avgTTL * this.numQueries + later.avgTTL
+				* later.numQueries) / mergedQueries;
+		this.numMessages += later.numMessages;
+		this.numQueries = mergedQueries;
+		this.minTTL = Math.min(this.minTTL, later.minTTL);
+		this.maxTTL = Math.max(this.maxTTL, later.maxTTL);
+		this.firstSeen = Math.min(this.firstSeen, later.firstSeen);
+		this.lastSeen = Math.max(this.lastSeen, later.lastSeen);
+		this.reportedAt = Math.max(this.reportedAt, later.reportedAt);
+		this.hasLastGrowthRatio = later.hasLastGrowthRatio;
+		this.lastGrowthRatioSingleEntry = later.lastGrowthRatioSingleEntry;
+		this.lastGrowthEntriesQueries = later.numQueries;
+
+		if (table == null) {
+			rehash(tableLength(numIPs + later.numIPs));
+		}
+		if (lastGrowthIPs.length < later.numIPs) {
+			lastGrowthIPs = new int[later.numIPs];
+		}
+		numLastGrowthIPs = 0;
+		for (int i = 0; i < later.numIPs; i++) {
+			int ip = later.ips[i];
+			if (addIP(ip)) {
+				lastGrowthIPs[numLastGrowthIPs++] = ip;
+			}
+		}
+		return this;
+	}
+
+	/**
+	 * Gets the domain name.
+	 *
+	 * @return the domain name
+	 */
+	public String getDomainName() {
+		return domainName;
+	}
+
+	/**
+	 * Builds a candidate flux domain from the accumulated sightings.
+	 *
+	 * @return the candidate flux domain
+	 */
+	public CandidateFluxDomain toCandidateFluxDomain() {
+		Double lastGrowthRatio = null;
+		if (hasLastGrowthRatio) {
+			lastGrowthRatio = lastGrowthRatioSingleEntry;
+		}
+		return new CandidateFluxDomain(domainName, new Date(firstSeen),
+				new Date(lastSeen), new Date(reportedAt), numMessages,
+				numQueries, minTTL, maxTTL, avgTTL, lastGrowthRatio,
+				toSet(ips, numIPs), toSet(lastGrowthIPs, numLastGrowthIPs),
+				lastGrowthEntriesQueries);
+	}
+
+	/**
+	 * Adds the accumulated sightings to a candidate flux domain store.
+	 *
+	 * @param store the store
+	 * @return the id of the stored domain
+	 * @throws IOException if the IP addresses can not be stored
+	 * @throws IllegalArgumentException if the domain is already stored
+	 */
+	public int appendTo(CandidateFluxDomainStore store) throws IOException {
+		int[] sortedIPs = sorted(ips, numIPs);
+		int[] sortedLastGrowthIPs = sorted(lastGrowthIPs, numLastGrowthIPs);
+		return store.add(domainName, firstSeen, lastSeen, reportedAt,
+				numMessages, numQueries, minTTL, maxTTL, avgTTL,
+				hasLastGrowthRatio, lastGrowthRatioSingleEntry, sortedIPs,
+				sortedIPs.length, sortedLastGrowthIPs,
+				sortedLastGrowthIPs.length, lastGrowthEntriesQueries);
+	}
+
+	/**
+	 * Writes the state of this accumulator, so merging into the
+	 * accumulator read back produces the same values as merging into
+	 * this accumulator.
+	 *
+	 * @param out the output to write to
+	 * @throws IOException if the output can not be written
+	 */
+	void writeTo(DataOutput out) throws IOException {
+		out.writeUTF(domainName);
+		out.writeLong(firstSeen);
+		out.writeLong(lastSeen);
+		out.writeLong(reportedAt);
+		out.writeLong(numMessages);
+		out.writeLong(numQueries);
+		out.writeLong(minTTL);
+		out.writeLong(maxTTL);
+		out.writeLong(lastGrowthEntriesQueries);
+		out.writeDouble(avgTTL);
+		out.writeBoolean(hasLastGrowthRatio);
+		out.writeDouble(lastGrowthRatioSingleEntry);
+		writeIPs(out, sorted(ips, numIPs));
+		writeIPs(out, sorted(lastGrowthIPs, numLastGrowthIPs));
+	}
+
+	/**
+	 * Reads the state of an accumulator written by writeTo.
+	 *
+	 * @param in the input to read from
+	 * @return the accumulator
+	 * @throws IOException if the input can not be read
+	 */
+	static CandidateFluxDomainAccumulator readFrom(DataInput in)
+			throws IOException {
+		CandidateFluxDomainAccumulator retval = new CandidateFluxDomainAccumulator();
+		retval.domainName = in.readUTF();
+		retval.firstSeen = in.readLong();
+		retval.lastSeen = in.readLong();
+		retval.reportedAt = in.readLong();
+		retval.numMessages = in.readLong();
+		retval.numQueries = in.readLong();
+		retval.minTTL = in.readLong();
+		retval.maxTTL = in.readLong();
+		retval.lastGrowthEntriesQueries = in.readLong();
+		retval.avgTTL = in.readDouble();
+		retval.hasLastGrowthRatio = in.readBoolean();
+		retval.lastGrowthRatioSingleEntry = in.readDouble();
+		retval.ips = readIPs(in);
+		retval.numIPs = retval.ips.length;
+		retval.lastGrowthIPs = readIPs(in);
+		retval.numLastGrowthIPs = retval.lastGrowthIPs.length;
+		return retval;
+	}
+
+	/**
+	 * Writes a count prefixed run of addresses.
+	 *
+	 * @param out the output to write to
+	 * @param src the addresses
+	 * @throws IOException if the output can not be written
+	 */
+	private static void writeIPs(DataOutput out, int[] src) throws IOException {
+		out.writeInt(src.length);
+		for (int ip : src) {
+			out.writeInt(ip);
+		}
+	}
+
+	/**
+	 * Reads a count prefixed run of addresses.
+	 *
+	 * @param in the input to read from
+	 * @return the addresses
+	 * @throws IOException if the input can not be read or the count
+	 * 		is negative
+	 */
+	private static int[] readIPs(DataInput in) throws IOException {
+		int len = in.readInt();
+		if (len < 0) {
+			throw new IOException("Corrupt address count " + len);
+		}
+		int[] retval = new int[len];
+		for (int i = 0; i < len; i++) {
+			retval[i] = in.readInt();
+		}
+		return retval;
+	}
+
+	/**
+	 * Adds an address to the accumulated addresses.
+	 *
+	 * @param ip the address
+	 * @return true, if the address was not already present
+	 */
+	private boolean addIP(int ip) {
+		int mask = table.length - 1;
+		int slot = mix(ip) & mask;
+		while (table[slot] != 0) {
+			if (ips[table[slot] - 1] == ip) {
+				return false;
+			}
+			slot = (slot + 1) & mask;
+		}
+		if (numIPs == ips.length) {
+			ips = Arrays.copyOf(ips, Math.max(4, ips.length * 2));
+		}
+		ips[numIPs++] = ip;
+		table[slot] = numIPs;
+		if (numIPs * 2 > table.length) {
+			rehash(table.length * 2);
+		}
+		return true;
+	}
+
+	/**
+	 * Rebuilds the address table with a new size.
+	 *
+	 * @param length the new table length, a power of 2
+	 */
+	private void rehash(int length) {
+		table = new int[length];
+		int mask = length - 1;
+		for (int i = 0; i < numIPs; i++) {
+			int slot = mix(ips[i]) & mask;
+			while (table[slot] != 0) {
+				slot = (slot + 1) & mask;
+			}
+			table[slot] = i + 1;
+		}
+	}
+
+	/**
+	 * Calculates a table length which holds a number of addresses at a
+	 * load factor of at most 1/2.
+	 *
+	 * @param count the number of addresses
+	 * @return the table length, a power of 2
+	 */
+	private static int tableLength(int count) {
+		int retval = 16;
+		while (retval < count * 2) {
+			retval <<= 1;
+		}
+		return retval;
+	}
+
+	/**
+	 * Spreads the bits of an address so addresses in the same subnet do
+	 * not cluster in the table.
+	 *
+	 * @param ip the address
+	 * @return the mixed value
+	 */
+	private static int mix(int ip) {
+		ip *= 0x9E3779B9;
+		return ip ^ (ip >>> 16);
+	}
+
+	/**
+	 * Copies and sorts a run of addresses.
+	 *
+	 * @param src the addresses
+	 * @param len the number of addresses
+	 * @return the sorted copy
+	 */
+	private static int[] sorted(int[] src, int len) {
+		int[] retval = Arrays.copyOf(src, len);
+		Arrays.sort(retval);
+		return retval;
+	}
+
+	/**
+	 * Converts a run of IPv4 addresses to a set.
+	 *
+	 * @param src the addresses
+	 * @param len the number of addresses
+	 * @return the set of IP addresses
+	 */
+	private static Set<InetAddress> toSet(int[] src, int len) {
+		HashSet<InetAddress> retval = new HashSet<InetAddress>();
+		for (int i = 0; i < len; i++) {
+			retval.add(CandidateFluxDomainParser.toInetAddress(src[i]));
+		}
+		return retval;
+	}
+}
@@ -0,0 +1,556 @@
+/*
+* Copyright (C) 2012 Chris Neasbitt
+* Author: Chris Neasbitt
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 2 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package edu.uga.cs.fluxbuster.clustering;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import edu.uga.cs.fluxbuster.utils.AsciiLineReader;
+import edu.uga.cs.fluxbuster.utils.ParallelGzipInputStream;
+
+/**
+ * This class loads and merges the candidate flux domains contained in a
+ * list of data files.  Loading is done in three stages: a pool of parser
+ * threads parses files into batches of a fixed number of sightings, a 
+ * sequencer hands the batches on in file order and a set of aggregator 
+ * threads merges them.  Each aggregator owns a disjoint stripe of the 
+ * domain names, so the merge requires no locking, and every stripe sees 
+ * the sightings of a domain in the same order as a serial read of the 
+ * files would produce.  The number of files parsed ahead, the batches 
+ * queued by each parser and the batches queued at each aggregator are all
+ * bounded, so the sightings not yet merged take a bounded amount of 
+ * memory whatever the size of the files, and a slow merge stage throttles
+ * the parsers.
+ * Gzip files made of multiple members are additionally inflated in
+ * parallel by a shared pool of decompression threads.
+ *
+ * @author Chris Neasbitt
+ */
+public class CandidateFluxDomainLoader {
+
+	/**
+	 * Decides which domain names are kept during loading.
+	 */
+	public interface DomainFilter {
+
+		/**
+		 * Determines if a candidate flux domain should be loaded.
+		 *
+		 * @param domainname the domain name
+		 * @return true, if the domain should be loaded
+		 */
+		public boolean accept(String domainname);
+	}
+
+	private static final int FILESPERTHREAD = 2;
+
+	private static final int BATCHSIZE = 4096;
+
+	private static final int PARSEDBATCHES = 2;
+
+	private static final int QUEUEDBATCHES = 4;
+
+	private static final List<CandidateFluxDomainAccumulator> ENDOFINPUT =
+			new ArrayList<CandidateFluxDomainAccumulator>();
+
+	private int numThreads = 1;
+
+	private DomainFilter filter = null;
+
+	private AtomicLong badLines = new AtomicLong();
+
+	private static Log log = LogFactory.getLog(CandidateFluxDomainLoader.class);
+
+	/**
+	 * Instantiates a new candidate flux domain loader.
+	 *
+	 * @param numThreads the number of parser threads, the same number
+	 * 		of aggregator threads is used.  Values less than 1 are
+	 * 		treated as 1.
+	 * @param filter the filter deciding which domains are loaded, if null
+	 * 		all domains are loaded
+	 */
+	public CandidateFluxDomainLoader(int numThreads, DomainFilter filter) {
+		this.numThreads = Math.max(1, numThreads);
+		this.filter = filter;
+	}
+
+	/**
+	 * Loads the candidate flux domains in the supplied files.  Sightings of
+	 * the same domain are merged in the order of the file list and, within
+	 * a file, in line order.
+	 *
+	 * @param filenames the paths of the gzip'd text or binary data files
+	 * 		in merge order
+	 * @return the merged candidate flux domains keyed by domain name
+	 * @throws Exception if the loading threads fail or are interrupted
+	 */
+	public HashMap<String, CandidateFluxDomain> load(List<String> filenames)
+			throws Exception {
+		HashMap<String, CandidateFluxDomain> retval =
+				new HashMap<String, CandidateFluxDomain>();
+		for (HashMap<String, CandidateFluxDomainAccumulator> stripe : loadStripes(filenames)) {
+			Iterator<CandidateFluxDomainAccumulator> iter = stripe.values().iterator();
+			while (iter.hasNext()) {
+				CandidateFluxDomainAccumulator acc = iter.next();
+				retval.put(acc.getDomainName(), acc.toCandidateFluxDomain());
+				iter.remove();
+			}
+		}
+		return retval;
+	}
+
+	/**
+	 * Loads the candidate flux domains in the supplied files into a
+	 * store.  Sightings of the same domain are merged as by
+	 * {@link #load(List)}, the merged domains are then moved into the
+	 * store one stripe at a time.
+	 *
+	 * @param filenames the paths of the gzip'd text or binary data files
+	 * 		in merge order
+	 * @param store the store to add the merged domains to
+	 * @throws Exception if the loading threads fail or are interrupted or
+	 * 		the domains can not be stored
+	 */
+	public void load(List<String> filenames, CandidateFluxDomainStore store)
+			throws Exception {
+		for (HashMap<String, CandidateFluxDomainAccumulator> stripe : loadStripes(filenames)) {
+			Iterator<CandidateFluxDomainAccumulator> iter = stripe.values().iterator();
+			while (iter.hasNext()) {
+				iter.next().appendTo(store);
+				iter.remove();
+			}
+		}
+	}
+
+	/**
+	 * Merges the candidate flux domains in the supplied files into
+	 * previously accumulated sightings.  The sightings in the files
+	 * succeed in time the previous sightings.
+	 *
+	 * @param filenames the paths of the gzip'd text or binary data files
+	 * 		in merge order
+	 * @param previous the previously accumulated sightings keyed by
+	 * 		domain name, they are merged in place
+	 * @return the accumulated sightings keyed by domain name
+	 * @throws Exception if the loading threads fail or are interrupted
+	 */
+	public HashMap<String, CandidateFluxDomainAccumulator> loadAccumulators(
+			List<String> filenames,
+			Map<String, CandidateFluxDomainAccumulator> previous)
+					throws Exception {
+		List<HashMap<String, CandidateFluxDomainAccumulator>> initial =
+				new ArrayList<HashMap<String, CandidateFluxDomainAccumulator>>();
+		for (int i = 0; i < numThreads; i++) {
+			initial.add(new HashMap<String, CandidateFluxDomainAccumulator>());
+		}
+		for (CandidateFluxDomainAccumulator acc : previous.values()) {
+			initial.get(stripeOf(acc.getDomainName(), numThreads)).put(
+					acc.getDomainName(), acc);
+		}
+		HashMap<String, CandidateFluxDomainAccumulator> retval =
+				new HashMap<String, CandidateFluxDomainAccumulator>();
+		for (HashMap<String, CandidateFluxDomainAccumulator> stripe : loadStripes(
+				filenames, initial)) {
+			retval.putAll(stripe);
+		}
+		return retval;
+	}
+
+	/**
+	 * Loads the candidate flux domains in the supplied files.
+	 *
+	 * @param filenames the paths of the gzip'd text or binary data files
+	 * 		in merge order
+	 * @return the accumulated sightings of each stripe keyed
+	 * 		by domain name
+	 * @throws Exception if the loading threads fail or are interrupted
+	 */
+	private List<HashMap<String, CandidateFluxDomainAccumulator>> loadStripes(
+			List<String> filenames) throws Exception {
+		List<HashMap<String, CandidateFluxDomainAccumulator>> initial =
+				new ArrayList<HashMap<String, CandidateFluxDomainAccumulator>>();
+		for (int i = 0; i < numThreads; i++) {
+			initial.add(new HashMap<String, CandidateFluxDomainAccumulator>());
+		}
+		return loadStripes(filenames, initial);
+	}
+
+	/**
+	 * Loads the candidate flux domains in the supplied files into the
+	 * accumulated sightings of each stripe.
+	 *
+	 * @param filenames the paths of the gzip'd text or binary data files
+	 * 		in merge order
+	 * @param initial the previously accumulated sightings of each stripe
+	 * @return the accumulated sightings of each stripe keyed
+	 * 		by domain name
+	 * @throws Exception if the loading threads fail or are interrupted
+	 */
+	private List<HashMap<String, CandidateFluxDomainAccumulator>> loadStripes(
+			List<String> filenames,
+			List<HashMap<String, CandidateFluxDomainAccumulator>> initial)
+					throws Exception {
+		int numStripes = initial.size();
+		ExecutorService parsers = Executors.newFixedThreadPool(numThreads);
+		ExecutorService aggregators = Executors.newFixedThreadPool(numStripes);
+		ExecutorService inflaters = Executors.newFixedThreadPool(numThreads);
+		try {
+			List<BlockingQueue<List<CandidateFluxDomainAccumulator>>> queues =
+					new ArrayList<BlockingQueue<List<CandidateFluxDomainAccumulator>>>();
+			List<Future<HashMap<String, CandidateFluxDomainAccumulator>>> stripes =
+					new ArrayList<Future<HashMap<String, CandidateFluxDomainAccumulator>>>();
+			for (int i = 0; i < numStripes; i++) {
+				BlockingQueue<List<CandidateFluxDomainAccumulator>> queue =
+						new ArrayBlockingQueue<List<CandidateFluxDomainAccumulator>>(QUEUEDBATCHES);
+				queues.add(queue);
+				stripes.add(aggregators.submit(new Aggregator(queue,
+						initial.get(i))));
+			}
+
+			// the batches of the files are handed to the aggregators strictly
+			// in file order while at most a fixed window of files is parsed
+			// ahead, the parsers are started in file order so the first file
+			// of the window is always being parsed
+			LinkedList<FileParser> window = new LinkedList<FileParser>();
+			int maxInFlight = numThreads * FILESPERTHREAD;
+			int next = 0;
+			try {
+				while (next < filenames.size() || !window.isEmpty()) {
+					while (next < filenames.size() && window.size() < maxInFlight) {
+						FileParser parser = new FileParser(filenames.get(next++),
+								numStripes, inflaters);
+						parser.result = parsers.submit(parser);
+						window.add(parser);
+					}
+					FileParser parser = window.removeFirst();
+					List<List<CandidateFluxDomainAccumulator>> parsed;
+					while ((parsed = takeBatch(parser)) != null) {
+						for (int i = 0; i < numStripes; i++) {
+							if (parsed.get(i).size() > 0) {
+								putBatch(queues.get(i), parsed.get(i), 
+										stripes.get(i));
+							}
+						}
+					}
+				}
+			} finally {
+				for (int i = 0; i < numStripes; i++) {
+					putBatch(queues.get(i), ENDOFINPUT, stripes.get(i));
+				}
+			}
+
+			List<HashMap<String, CandidateFluxDomainAccumulator>> retval =
+					new ArrayList<HashMap<String, CandidateFluxDomainAccumulator>>();
+			for (Future<HashMap<String, CandidateFluxDomainAccumulator>> stripe : stripes) {
+				retval.add(stripe.get());
+			}
+			return retval;
+		} finally {
+			parsers.shutdownNow();
+			aggregators.shutdownNow();
+			inflaters.shutdownNow();
+		}
+	}
+
+	/**
+	 * Gets the number of malformed lines skipped by this loader.
+	 *
+	 * @return the bad line count
+	 */
+	public long getBadLines() {
+		return badLines.get();
+	}
+
+	/**
+	 * Takes the next batch of a file parser.
+	 *
+	 * @param parser the file parser
+	 * @return the next batch, or null once the file is parsed
+	 * @throws Exception if the parser failed or the wait is interrupted
+	 */
+	private List<List<CandidateFluxDomainAccumulator>> takeBatch(
+			FileParser parser) throws Exception {
+		while (true) {
+			List<List<CandidateFluxDomainAccumulator>> retval =
+					parser.batches.poll(100, TimeUnit.MILLISECONDS);
+			if (retval != null) {
+				return retval;
+			}
+			if (parser.result.isDone()) {
+				// a batch may have been queued before the parser finished
+				retval = parser.batches.poll();
+				if (retval == null) {
+					parser.result.get();
+				}
+				return retval;
+			}
+		}
+	}
+
+	/**
+	 * Queues a batch for an aggregator.  If the aggregator has already
+	 * terminated the batch is dropped, the aggregator's failure is reported
+	 * when its result is retrieved.
+	 *
+	 * @param queue the aggregator's queue
+	 * @param batch the batch of sightings
+	 * @param stripe the aggregator's result
+	 * @throws InterruptedException if interrupted while waiting for
+	 * 		space in the queue
+	 */
+	private void putBatch(BlockingQueue<List<CandidateFluxDomainAccumulator>> queue,
+			List<CandidateFluxDomainAccumulator> batch,
+			Future<HashMap<String, CandidateFluxDomainAccumulator>> stripe)
+					throws InterruptedException {
+		while (!stripe.isDone()) {
+			if (queue.offer(batch, 100, TimeUnit.MILLISECONDS)) {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Calculates the stripe a domain name belongs to.
+	 *
+	 * @param domainname the domain name
+	 * @param numStripes the number of stripes
+	 * @return the stripe index
+	 */
+	private static int stripeOf(String domainname, int numStripes) {
+		return (domainname.hashCode() & Integer.MAX_VALUE) % numStripes;
+	}
+
+	/**
+	 * Parses a single data file into batches of single line sightings in
+	 * line order, each batch split into per stripe lists.  The parser
+	 * waits while its queue of batches is full.
+	 */
+	private class FileParser implements Callable<Void> {
+
+		private String filename = null;
+
+		private int numStripes = 1;
+
+		private ExecutorService inflaters = null;
+
+		private BlockingQueue<List<List<CandidateFluxDomainAccumulator>>> batches =
+				new ArrayBlockingQueue<List<List<CandidateFluxDomainAccumulator>>>(PARSEDBATCHES);
+
+		private Future<Void> result = null;
+
+		private List<List<CandidateFluxDomainAccumulator>> batch = null;
+
+		private int batchSize = 0;
+
+		/**
+		 * Instantiates a new file parser.
+		 *
+		 * @param filename the path to the data file
+		 * @param numStripes the number of stripes
+		 * @param inflaters the pool of decompression threads
+		 */
+		public FileParser(String filename, int numStripes,
+				ExecutorService inflaters) {
+			this.filename = filename;
+			this.numStripes = numStripes;
+			this.inflaters = inflaters;
+		}
+
+		/**
+		 * Parses the data file.  Malformed lines are counted and skipped,
+		 * an error reading the file ends the parsing of the file but the
+		 * lines read before it are kept.
+		 *
+		 * @see java.util.concurrent.Callable#call()
+		 */
+		@Override
+		public Void call() throws Exception {
+			newBatch();
+			if (filename.endsWith(CandidateFluxFileReader.EXTENSION)) {
+				readBinaryFile();
+			} else {
+				readTextFile();
+			}
+			if (batchSize > 0) {
+				batches.put(batch);
+			}
+			return null;
+		}
+
+		/**
+		 * Starts a new empty batch.
+		 */
+		private void newBatch() {
+			batch = new ArrayList<List<CandidateFluxDomainAccumulator>>();
+			for (int i = 0; i < numStripes; i++) {
+				batch.add(new ArrayList<CandidateFluxDomainAccumulator>());
+			}
+			batchSize = 0;
+		}
+
+		/**
+		 * Parses a gzip'd text data file.
+		 *
+		 * @throws IOException if the file can not be closed
+		 * @throws InterruptedException if interrupted while waiting to
+		 * 		queue a batch
+		 */
+		private void readTextFile() throws IOException, InterruptedException {
+			CandidateFluxDomainParser parser = new CandidateFluxDomainParser();
+			AsciiLineReader reader = null;
+			try {
+				reader = new AsciiLineReader(ParallelGzipInputStream.open(
+						filename, inflaters, numThreads));
+				int len;
+				while ((len = reader.readLine()) >= 0) {
+					if (parser.parse(reader.getLine(), 0, len)) {
+						addSighting(parser);
+					}
+				}
+			} catch (IOException e) {
+				if(log.isErrorEnabled()){
+					log.error("Error reading data file " + filename, e);
+				}
+			} finally {
+				if (reader != null) {
+					reader.close();
+				}
+			}
+			if (parser.getBadLines() > 0) {
+				badLines.addAndGet(parser.getBadLines());
+				if(log.isWarnEnabled()){
+					log.warn("Skipped " + parser.getBadLines()
+							+ " malformed lines in " + filename);
+				}
+			}
+		}
+
+		/**
+		 * Reads a binary data file.
+		 *
+		 * @throws IOException if the file can not be closed
+		 * @throws InterruptedException if interrupted while waiting to
+		 * 		queue a batch
+		 */
+		private void readBinaryFile() throws IOException, InterruptedException {
+			CandidateFluxFileReader reader = null;
+			try {
+				reader = new CandidateFluxFileReader(filename);
+				while (reader.next()) {
+					addSighting(reader);
+				}
+			} catch (IOException e) {
+				if(log.isErrorEnabled()){
+					log.error("Error reading data file " + filename, e);
+				}
+			} finally {
+				if (reader != null) {
+					reader.close();
+				}
+			}
+		}
+
+		/**
+		 * Adds the current record of a reader to its stripe's list of the
+		 * current batch if the domain passes the filter, and queues the 
+		 * batch once it is full.
+		 *
+		 * @param record the current record
+		 * @throws InterruptedException if interrupted while waiting to
+		 * 		queue the batch
+		 */
+		private void addSighting(CandidateFluxDomainRecord record)
+				throws InterruptedException {
+			String domainname = record.getDomainName();
+			if (filter != null && !filter.accept(domainname)) {
+				return;
+			}
+			batch.get(stripeOf(domainname, numStripes)).add(
+					new CandidateFluxDomainAccumulator(record));
+			if (++batchSize == BATCHSIZE) {
+				batches.put(batch);
+				newBatch();
+			}
+		}
+	}
+
+	/**
+	 * Merges the batches of a single stripe in the order they are queued.
+	 * The first sighting of a domain becomes the domain's accumulator,
+	 * later sightings are merged into it in place.
+	 */
+	private static class Aggregator implements Callable<HashMap<String, CandidateFluxDomainAccumulator>> {
+
+		private BlockingQueue<List<CandidateFluxDomainAccumulator>> queue = null;
+
+		private HashMap<String, CandidateFluxDomainAccumulator> seenDomains = null;
+
+		/**
+		 * Instantiates a new aggregator.
+		 *
+		 * @param queue the queue of batches to merge
+		 * @param seenDomains the previously accumulated sightings of
+		 * 		the stripe
+		 */
+		public Aggregator(BlockingQueue<List<CandidateFluxDomainAccumulator>> queue,
+				HashMap<String, CandidateFluxDomainAccumulator> seenDomains) {
+			this.queue = queue;
+			this.seenDomains = seenDomains;
+		}
+
+		/**
+		 * Merges batches until the end of input marker is received.
+		 *
+		 * @see java.util.concurrent.Callable#call()
+		 */
+		@Override
+		public HashMap<String, CandidateFluxDomainAccumulator> call() throws Exception {
+			List<CandidateFluxDomainAccumulator> batch;
+			while ((batch = queue.take()) != ENDOFINPUT) {
+				for (CandidateFluxDomainAccumulator sighting : batch) {
+					String domainname = sighting.getDomainName();
+					CandidateFluxDomainAccumulator prev = seenDomains.get(domainname);
+					if (prev != null) {
+						prev.merge(sighting);
+					} else {
+						seenDomains.put(domainname, sighting);
+					}
+				}
+			}
+			return seenDomains;
+		}
+	}
+}
@@ -0,0 +1,645 @@
+/*
+* Copyright (C) 2012 Chris Neasbitt
+* Author: Chris Neasbitt
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 2 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package edu.uga.cs.fluxbuster.clustering;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.HashSet;
+
+/**
+ * This class parses lines of the input data into primitive values.  A
+ * line has the space separated layout
+ *
+ * <pre>
+ * domain messages queries avgTTL minTTL maxTTL firstSeen(date time)
+ * lastSeen(date time) reportedAt(date time) numIPs ip... growth...
+ * </pre>
+ *
+ * where the IP addresses are written as a python set and the growth
+ * counters as a python list.  The fields are scanned directly from the
+ * characters of the line, timestamps are stored as epoch seconds and IPv4
+ * addresses as ints.  Only the domain name is allocated per line.  A
+ * parser reuses its buffers between lines, so each thread needs its own.
+ *
+ * @author Chris Neasbitt
+ */
+public class CandidateFluxDomainParser implements CandidateFluxDomainRecord {
+
+	private static final double[] POWERSOF10 = new double[23];
+
+	private static final long MAXEXACTMANTISSA = 1L << 53;
+
+	static {
+		POWERSOF10[0] = 1.0;
+		for (int i = 1; i < POWERSOF10.length; i++) {
+			POWERSOF10[i] = POWERSOF10[i - 1] * 10;
+		}
+	}
+
+	private Calendar calendar = Calendar.getInstance();
+
+	private char[] scratch = new char[256];
+
+	private int pos = 0, end = 0;
+
+	private char[] line = null;
+
+	private long badLines = 0;
+
+	private String domainName = null;
+
+	private long numMessages, numQueries, minTTL, maxTTL;
+
+	private double avgTTL;
+
+	private long firstSeen, lastSeen, reportedAt;
+
+	private int[] ips = new int[16];
+
+	private int numIPs = 0;
+
+	private boolean hasLastGrowthRatio = false;
+
+	private double lastGrowthRatioSingleEntry;
+
+	/**
+	 * Instantiates a new candidate flux domain parser.
+	 */
+	public CandidateFluxDomainParser() {
+		calendar.setLenient(true);
+	}
+
+	/**
+	 * Parses a line of the input data.
+	 *
+	 * @param logline the log line
+	 * @return true, if the line was parsed, false if it is malformed
+	 */
+	public boolean parse(String logline) {
+		int len = logline.length();
+		if (scratch.length < len) {
+			scratch = new char[len];
+		}
+		logline.getChars(0, len, scratch, 0);
+		return parse(scratch, 0, len);
+	}
+
+	/**
+	 * Parses a line of the input data.  If the line is malformed the bad
+	 * line count is incremented and the values of the previous line are no
+	 * longer valid.
+	 *
+	 * @param buf the buffer holding the line
+	 * @param off the offset of the line in the buffer
+	 * @param len the length of the line
+	 * @return true, if the line was parsed, false if it is malformed
+	 */
+	public boolean parse(char[] buf, int off, int len) {
+		line = buf;
+		pos = off;
+		end = off + len;
+		try {
+			if (parseFields()) {
+				return true;
+			}
+		} catch (NumberFormatException e) {
+			// falls through to the bad line count
+		}
+		domainName = null;
+		badLines++;
+		return false;
+	}
+
+	/**
+	 * Scans the fields of the current line.
+	 *
+	 * @return true, if all fields were scanned
+	 */
+	private boolean parseFields() {
+		if (!nextToken()) {
+			return false;
+		}
+		domainName = scanDomainName();
+
+		if (!nextToken()) {
+			return false;
+		}
+		numMessages = scanLong();
+		if (!nextToken()) {
+			return false;
+		}
+		numQueries = scanLong();
+		if (!nextToken()) {
+			return false;
+		}
+		avgTTL = scanDouble();
+		if (!nextToken()) {
+			return false;
+		}
+		minTTL = scanLong();
+		if (!nextToken()) {
+			return false;
+		}
+		maxTTL = scanLong();
+
+		if ((firstSeen = scanTimestamp()) == Long.MIN_VALUE
+				|| (lastSeen = scanTimestamp()) == Long.MIN_VALUE
+				|| (reportedAt = scanTimestamp()) == Long.MIN_VALUE) {
+			return false;
+		}
+
+		if (!nextToken()) {
+			return false;
+		}
+		long totalNumIps = scanLong();
+		numIPs = 0;
+		long otherIps = 0;
+		for (long i = 0; i < totalNumIps; i++) {
+			if (!nextToken()) {
+				return false;
+			}
+			int ip = scanIPv4();
+			if (isPublicIP(ip)) {
+				if (numIPs == ips.length) {
+					ips = Arrays.copyOf(ips, ips.length * 2);
+				}
+				ips[numIPs++] = ip;
+			} else {
+				otherIps++;
+			}
+		}
+		Arrays.sort(ips, 0, numIPs);
+		int distinct = 0;
+		for (int i = 0; i < numIPs; i++) {
+			if (i == 0 || ips[i] != ips[distinct - 1]) {
+				ips[distinct++] = ips[i];
+			}
+		}
+		numIPs = distinct;
+
+		int numGrowth = 0, lastGrowth = 0, prevGrowth = 0;
+		while (nextToken()) {
+			prevGrowth = lastGrowth;
+			lastGrowth = scanFirstInt();
+			numGrowth++;
+		}
+
+		hasLastGrowthRatio = false;
+		if (numMessages > 1) {
+			if (numGrowth < 2) {
+				return false;
+			}
+			double publicIPsRatio = numIPs / (double) (numIPs + otherIps);
+			double avgQueriesPerMsg = numQueries / (double) numMessages;
+			lastGrowthRatioSingleEntry = (lastGrowth * publicIPsRatio
+					- prevGrowth * publicIPsRatio) / avgQueriesPerMsg;
+			hasLastGrowthRatio = true;
+		}
+		return true;
+	}
+
+	/**
+	 * Advances to the start of the next space separated token.
+	 *
+	 * @return true, if there is another token on the line
+	 */
+	private boolean nextToken() {
+		while (pos < end && line[pos] == ' ') {
+			pos++;
+		}
+		return pos < end;
+	}
+
+	/**
+	 * Determines if the current position is at the end of a token.
+	 *
+	 * @return true, if at the end of the token
+	 */
+	private boolean atTokenEnd() {
+		return pos == end || line[pos] == ' ';
+	}
+
+	/**
+	 * Skips the remainder of the current token.
+	 */
+	private void skipToken() {
+		while (!atTokenEnd()) {
+			pos++;
+		}
+	}
+
+	/**
+	 * Scans the domain name token and strips a leading and a trailing dot.
+	 *
+	 * @return the domain name
+	 */
+	private String scanDomainName() {
+		int start = pos;
+		skipToken();
+		int stop = pos;
+		while (start < stop && line[start] <= ' ') {
+			start++;
+		}
+		while (stop > start && line[stop - 1] <= ' ') {
+			stop--;
+		}
+		if (stop > start && line[stop - 1] == '.') {
+			stop--;
+		}
+		if (stop > start && line[start] == '.') {
+			start++;
+		}
+		return new String(line, start, stop - start);
+	}
+
+	/**
+	 * Scans a token consisting of a signed decimal integer.
+	 *
+	 * @return the value of the token
+	 * @throws NumberFormatException if the token is not an integer
+	 */
+	private long scanLong() {
+		boolean negative = false;
+		if (line[pos] == '-' || line[pos] == '+') {
+			negative = line[pos] == '-';
+			pos++;
+		}
+		long retval = scanDigits(Long.MAX_VALUE);
+		if (!atTokenEnd()) {
+			throw new NumberFormatException();
+		}
+		return negative ? -retval : retval;
+	}
+
+	/**
+	 * Scans a run of at least one decimal digit.
+	 *
+	 * @param max the largest acceptable value
+	 * @return the value of the digits
+	 * @throws NumberFormatException if there are no digits or the value
+	 * 		exceeds the maximum
+	 */
+	private long scanDigits(long max) {
+		int start = pos;
+		long retval = 0;
+		while (pos < end && line[pos] >= '0' && line[pos] <= '9') {
+			int digit = line[pos++] - '0';
+			if (retval > (max - digit) / 10) {
+				throw new NumberFormatException();
+			}
+			retval = retval * 10 + digit;
+		}
+		if (pos == start) {
+			throw new NumberFormatException();
+		}
+		return retval;
+	}
+
+	/**
+	 * Scans a token consisting of a decimal floating point number.  Plain
+	 * decimals with at most 15 significant digits are converted directly,
+	 * the quotient of two exactly representable doubles is correctly
+	 * rounded so the result equals Double.parseDouble.  Any other token is
+	 * handed to Double.parseDouble.
+	 *
+	 * @return the value of the token
+	 * @throws NumberFormatException if the token is not a number
+	 */
+	private double scanDouble() {
+		int start = pos;
+		boolean negative = false;
+		if (line[pos] == '-') {
+			negative = true;
+			pos++;
+		}
+		long mantissa = 0;
+		int fractionDigits = 0, digits = 0;
+		boolean point = false, exact = true;
+		while (!atTokenEnd()) {
+			char c = line[pos++];
+			if (c >= '0' && c <= '9') {
+				if (mantissa >= MAXEXACTMANTISSA / 10) {
+					exact = false;
+				} else {
+					mantissa = mantissa * 10 + (c - '0');
+				}
+				digits++;
+				if (point) {
+					fractionDigits++;
+				}
+			} else if (c == '.' && !point) {
+				point = true;
+			} else {
+				exact = false;
+			}
+		}
+		if (exact && digits > 0 && fractionDigits < POWERSOF10.length) {
+			double retval = mantissa / POWERSOF10[fractionDigits];
+			return negative ? -retval : retval;
+		}
+		return Double.parseDouble(new String(line, start, pos - start));
+	}
+
+	/**
+	 * Scans a date token and a time token, e.g. 2010-10-08 20:44:41,
+	 * and converts them to epoch seconds in the default time zone.  Any
+	 * characters following the seconds in the time token are ignored.
+	 *
+	 * @return the epoch seconds or Long.MIN_VALUE if the tokens are
+	 * 		malformed
+	 */
+	private long scanTimestamp() {
+		if (!nextToken()) {
+			return Long.MIN_VALUE;
+		}
+		int year = (int) scanDigits(Integer.MAX_VALUE);
+		if (!expect('-')) {
+			return Long.MIN_VALUE;
+		}
+		int month = (int) scanDigits(Integer.MAX_VALUE);
+		if (!expect('-')) {
+			return Long.MIN_VALUE;
+		}
+		int day = (int) scanDigits(Integer.MAX_VALUE);
+		if (!atTokenEnd() || !nextToken()) {
+			return Long.MIN_VALUE;
+		}
+		int hour = (int) scanDigits(Integer.MAX_VALUE);
+		if (!expect(':')) {
+			return Long.MIN_VALUE;
+		}
+		int minute = (int) scanDigits(Integer.MAX_VALUE);
+		if (!expect(':')) {
+			return Long.MIN_VALUE;
+		}
+		int second = (int) scanDigits(Integer.MAX_VALUE);
+		skipToken();
+
+		calendar.clear();
+		calendar.set(year, month - 1, day, hour, minute, second);
+		return calendar.getTimeInMillis() / 1000;
+	}
+
+	/**
+	 * Consumes a separator character.
+	 *
+	 * @param c the expected separator
+	 * @return true, if the separator was present
+	 */
+	private boolean expect(char c) {
+		if (pos < end && line[pos] == c) {
+			pos++;
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Scans the first dotted quad IPv4 address in a token, e.g. the
+	 * address in "Set(['1.2.3.4',", and skips the rest of the token.
+	 *
+	 * @return the address in network byte order
+	 * @throws NumberFormatException if the token contains no address
+	 */
+	private int scanIPv4() {
+		while (!atTokenEnd() && (line[pos] < '0' || line[pos] > '9')) {
+			pos++;
+		}
+		int retval = 0;
+		for (int i = 0; i < 4; i++) {
+			if (i > 0 && !expect('.')) {
+				throw new NumberFormatException();
+			}
+			retval = (retval << 8) | (int) scanDigits(255);
+		}
+		skipToken();
+		return retval;
+	}
+
+	/**
+	 * Scans the first run of digits in a token, e.g. the counter in "[12,",
+	 * and skips the rest of the token.
+	 *
+	 * @return the value of the digits
+	 * @throws NumberFormatException if the token contains no digits
+	 */
+	private int scanFirstInt() {
+		while (!atTokenEnd() && (line[pos] < '0' || line[pos] > '9')) {
+			pos++;
+		}
+		int retval = (int) scanDigits(Integer.MAX_VALUE);
+		skipToken();
+		return retval;
+	}
+
+	/**
+	 * Determine if the supplied version 4 IP address is in the public
+	 * range.  The octets are compared as signed bytes, as the address
+	 * bytes of an Inet4Address are.
+	 *
+	 * @param ip the address in network byte order
+	 * @return true, if it is a public ip
+	 */
+	static boolean isPublicIP(int ip) {
+		byte octet0 = (byte) (ip >>> 24);
+		byte octet1 = (byte) (ip >>> 16);
+		boolean retval = true;
+		if (octet0 == 10) {
+			retval = false;
+		}
+		if (octet0 == 172 && octet1 >= 16 && octet1 <= 31) {
+			retval = false;
+		}
+		if (octet0 == 192 && octet1 == 168) {
+			retval = false;
+		}
+		return retval;
+	}
+
+	/**
+	 * Converts an IPv4 address to an InetAddress.
+	 *
+	 * @param ip the address in network byte order
+	 * @return the InetAddress
+	 */
+	static InetAddress toInetAddress(int ip) {
+		try {
+			return InetAddress.getByAddress(new byte[] {(byte) (ip >>> 24),
+					(byte) (ip >>> 16), (byte) (ip >>> 8), (byte) ip});
+		} catch (UnknownHostException e) {
+			// only thrown for addresses of illegal length
+			throw new IllegalArgumentException(e);
+		}
+	}
+
+	/**
+	 * Creates a CandidateFluxDomain from the last parsed line.
+	 *
+	 * @return the candidate flux domain
+	 */
+	public CandidateFluxDomain toCandidateFluxDomain() {
+		HashSet<InetAddress> addrs = new HashSet<InetAddress>();
+		for (int i = 0; i < numIPs; i++) {
+			addrs.add(toInetAddress(ips[i]));
+		}
+		Double lastGrowthRatio = null;
+		if (hasLastGrowthRatio) {
+			lastGrowthRatio = lastGrowthRatioSingleEntry;
+		}
+		return new CandidateFluxDomain(domainName, new Date(firstSeen * 1000),
+				new Date(lastSeen * 1000), new Date(reportedAt * 1000),
+				numMessages, numQueries, minTTL, maxTTL, avgTTL,
+				lastGrowthRatio, addrs, new HashSet<InetAddress>(), 0);
+	}
+
+	/**
+	 * Gets the number of malformed lines seen by this parser.
+	 *
+	 * @return the bad line count
+	 */
+	public long getBadLines() {
+		return badLines;
+	}
+
+	/**
+	 * Gets the domain name of the last parsed line.
+	 *
+	 * @return the domain name
+	 */
+	public String getDomainName() {
+		return domainName;
+	}
+
+	/**
+	 * Gets the number of messages of the last parsed line.
+	 *
+	 * @return the number of messages
+	 */
+	public long getNumMessages() {
+		return numMessages;
+	}
+
+	/**
+	 * Gets the number of dns queries of the last parsed line.
+	 *
+	 * @return the number of dns queries
+	 */
+	public long getNumQueries() {
+		return numQueries;
+	}
+
+	/**
+	 * Gets the avg ttl of the last parsed line.
+	 *
+	 * @return the avg ttl
+	 */
+	public double getAvgTTL() {
+		return avgTTL;
+	}
+
+	/**
+	 * Gets the min ttl of the last parsed line.
+	 *
+	 * @return the min ttl
+	 */
+	public long getMinTTL() {
+		return minTTL;
+	}
+
+	/**
+	 * Gets the max ttl of the last parsed line.
+	 *
+	 * @return the max ttl
+	 */
+	public long getMaxTTL() {
+		return maxTTL;
+	}
+
+	/**
+	 * Gets the first seen time of the last parsed line.
+	 *
+	 * @return the first seen time in epoch seconds
+	 */
+	public long getFirstSeen() {
+		return firstSeen;
+	}
+
+	/**
+	 * Gets the last seen time of the last parsed line.
+	 *
+	 * @return the last seen time in epoch seconds
+	 */
+	public long getLastSeen() {
+		return lastSeen;
+	}
+
+	/**
+	 * Gets the reported at time of the last parsed line.
+	 *
+	 * @return the reported at time in epoch seconds
+	 */
+	public long getReportedAt() {
+		return reportedAt;
+	}
+
+	/**
+	 * Gets the number of distinct public IP addresses of the last
+	 * parsed line.
+	 *
+	 * @return the number of IP addresses
+	 */
+	public int getNumIPs() {
+		return numIPs;
+	}
+
+	/**
+	 * Gets the buffer of distinct public IPv4 addresses of the last parsed
+	 * line in ascending order.  Only the first getNumIPs() entries are
+	 * valid and the buffer is reused by the next line.
+	 *
+	 * @return the IP address buffer
+	 */
+	public int[] getIPs() {
+		return ips;
+	}
+
+	/**
+	 * Determines if the last parsed line has a last growth ratio single
+	 * entry feature.  The feature exists only for domains seen in more than
+	 * one message.
+	 *
+	 * @return true, if the feature exists
+	 */
+	public boolean hasLastGrowthRatioSingleEntry() {
+		return hasLastGrowthRatio;
+	}
+
+	/**
+	 * Gets the last growth ratio single entry feature of the last parsed
+	 * line.
+	 *
+	 * @return the last growth ratio single entry feature
+	 */
+	public double getLastGrowthRatioSingleEntry() {
+		return lastGrowthRatioSingleEntry;
+	}
+}
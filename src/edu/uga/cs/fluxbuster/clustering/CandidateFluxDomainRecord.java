@@ -0,0 +1,121 @@
+/*
+* Copyright (C) 2012 Chris Neasbitt
+* Author: Chris Neasbitt
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 2 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package edu.uga.cs.fluxbuster.clustering;
+
+/**
+ * The primitive values of the current record of an input data reader,
+ * i.e. of a single sighting of a candidate flux domain.  The values are
+ * only valid until the reader advances to the next record.
+ *
+ * @author Chris Neasbitt
+ */
+interface CandidateFluxDomainRecord {
+
+	/**
+	 * Gets the domain name.
+	 *
+	 * @return the domain name
+	 */
+	public String getDomainName();
+
+	/**
+	 * Gets the number of messages.
+	 *
+	 * @return the number of messages
+	 */
+	public long getNumMessages();
+
+	/**
+	 * Gets the number of dns queries.
+	 *
+	 * @return the number of dns queries
+	 */
+	public long getNumQueries();
+
+	/**
+	 * Gets the avg ttl.
+	 *
+	 * @return the avg ttl
+	 */
+	public double getAvgTTL();
+
+	/**
+	 * Gets the min ttl.
+	 *
+	 * @return the min ttl
+	 */
+	public long getMinTTL();
+
+	/**
+	 * Gets the max ttl.
+	 *
+	 * @return the max ttl
+	 */
+	public long getMaxTTL();
+
+	/**
+	 * Gets the first seen time.
+	 *
+	 * @return the first seen time in epoch seconds
+	 */
+	public long getFirstSeen();
+
+	/**
+	 * Gets the last seen time.
+	 *
+	 * @return the last seen time in epoch seconds
+	 */
+	public long getLastSeen();
+
+	/**
+	 * Gets the reported at time.
+	 *
+	 * @return the reported at time in epoch seconds
+	 */
+	public long getReportedAt();
+
+	/**
+	 * Gets the number of distinct public IP addresses.
+	 *
+	 * @return the number of IP addresses
+	 */
+	public int getNumIPs();
+
+	/**
+	 * Gets the buffer of distinct public IPv4 addresses in ascending
+	 * order.  Only the first getNumIPs() entries are valid.
+	 *
+	 * @return the IP address buffer
+	 */
+	public int[] getIPs();
+
+	/**
+	 * Determines if the last growth ratio single entry feature exists.
+	 *
+	 * @return true, if the feature exists
+	 */
+	public boolean hasLastGrowthRatioSingleEntry();
+
+	/**
+	 * Gets the last growth ratio single entry feature.
+	 *
+	 * @return the last growth ratio single entry feature
+	 */
+	public double getLastGrowthRatioSingleEntry();
+}
@@ -0,0 +1,799 @@
+/*
+* Copyright (C) 2012 Chris Neasbitt
+* Author: Chris Neasbitt
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 2 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package edu.uga.cs.fluxbuster.clustering;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectStreamException;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import edu.uga.cs.fluxbuster.utils.IntArena;
+
+/**
+ * This class stores a set of candidate flux domains in columns of
+ * primitive values instead of one object graph per domain.  Each domain
+ * is identified by an integer id assigned in the order the domains are
+ * added.  The domain names are kept in a single character array, the
+ * dates as epoch milliseconds and the IP address sets as sorted IPv4
+ * addresses in a shared IntArena, which may be kept outside of the java
+ * heap.  Views over the stored domains are CandidateFluxDomain objects
+ * that read their values from the store.
+ *
+ * The store is filled by a single thread.  Once filled, it and its views
+ * may be read by any number of threads.
+ *
+ * @author Chris Neasbitt
+ */
+public class CandidateFluxDomainStore {
+
+	private static final int INITIALCAPACITY = 1024;
+
+	private int size = 0;
+
+	private char[] names = new char[INITIALCAPACITY * 16];
+
+	private int namesLength = 0;
+
+	private int[] nameOffsets = new int[INITIALCAPACITY + 1];
+
+	private int[] nameHashes = new int[INITIALCAPACITY];
+
+	// open addressing table of id + 1, 0 marks an empty slot
+	private int[] table = new int[INITIALCAPACITY * 2];
+
+	private long[] firstSeen = new long[INITIALCAPACITY],
+			lastSeen = new long[INITIALCAPACITY],
+			reportedAt = new long[INITIALCAPACITY],
+			numMessages = new long[INITIALCAPACITY],
+			numQueries = new long[INITIALCAPACITY],
+			minTTL = new long[INITIALCAPACITY],
+			maxTTL = new long[INITIALCAPACITY],
+			lastGrowthEntriesQueries = new long[INITIALCAPACITY];
+
+	private double[] avgTTL = new double[INITIALCAPACITY],
+			lastGrowthRatioSingleEntry = new double[INITIALCAPACITY];
+
+	private BitSet hasLastGrowthRatioSingleEntry = new BitSet();
+
+	private long[] ipOffsets = new long[INITIALCAPACITY],
+			lastGrowthIPOffsets = new long[INITIALCAPACITY];
+
+	private int[] numIPs = new int[INITIALCAPACITY],
+			numLastGrowthIPs = new int[INITIALCAPACITY];
+
+	private IntArena arena = null;
+
+	/**
+	 * Instantiates a new candidate flux domain store whose IP addresses
+	 * are kept on the java heap.
+	 */
+	public CandidateFluxDomainStore() {
+		try {
+			arena = IntArena.create(IntArena.Backing.HEAP, null);
+		} catch (IOException e) {
+			// a heap arena never creates a file
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Instantiates a new candidate flux domain store.
+	 *
+	 * @param backing the storage used for the IP addresses
+	 * @param dir the directory of the temporary file used by the
+	 * 		MAPPED backing, if null the default temporary file directory
+	 * 		is used
+	 * @throws IOException if the temporary file can not be created
+	 */
+	public CandidateFluxDomainStore(IntArena.Backing backing, File dir)
+			throws IOException {
+		arena = IntArena.create(backing, dir);
+	}
+
+	/**
+	 * Adds a candidate flux domain to the store.
+	 *
+	 * @param cfd the candidate flux domain
+	 * @return the id of the stored domain
+	 * @throws IOException if the IP addresses can not be stored
+	 * @throws IllegalArgumentException if the domain name is already
+	 * 		stored or the domain has IP addresses which are not IPv4
+	 */
+	public int add(CandidateFluxDomain cfd) throws IOException {
+		int[] ips = cfd.getIPv4Addresses();
+		if (ips.length != cfd.getNumIPs()) {
+			throw new IllegalArgumentException(cfd.getDomainName()
+					+ " has IP addresses which are not IPv4.");
+		}
+		Set<InetAddress> lastGrowth = cfd.getLastGrowthEntriesIPs();
+		int[] lastGrowthIPs = CandidateFluxDomain.toIPv4Addresses(lastGrowth);
+		if (lastGrowthIPs.length != lastGrowth.size()) {
+			throw new IllegalArgumentException(cfd.getDomainName()
+					+ " has IP addresses which are not IPv4.");
+		}
+		Double ratio = cfd.getLastGrowthRatioSingleEntry();
+		return add(cfd.getDomainName(), cfd.getFirstSeen().getTime(),
+				cfd.getLastSeen().getTime(), cfd.getReportedAt().getTime(),
+				cfd.getNumMessages(), cfd.getNumQueries(), cfd.getMinTTL(),
+				cfd.getMaxTTL(), cfd.getAvgTTL(), ratio != null,
+				ratio != null ? ratio : 0.0, ips, ips.length, lastGrowthIPs,
+				lastGrowthIPs.length, cfd.getLastGrowthEntriesQueries());
+	}
+
+	/**
+	 * Adds a candidate flux domain to the store from its primitive values.
+	 *
+	 * @param domainName the domain name
+	 * @param firstSeen the first seen date in epoch ms
+	 * @param lastSeen the last seen date in epoch ms
+	 * @param reportedAt the reported at date in epoch ms
+	 * @param numMessages the number of messages
+	 * @param numQueries the number of dns queries
+	 * @param minTTL the min ttl
+	 * @param maxTTL the max ttl
+	 * @param avgTTL the avg ttl
+	 * @param hasLastGrowthRatio true, if the last growth ratio single
+	 * 		entry feature is present
+	 * @param lastGrowthRatio the last growth ratio single entry feature
+	 * @param ips the IPv4 addresses in ascending order
+	 * @param numIPs the number of addresses in ips
+	 * @param lastGrowthIPs the last growth entries IPv4 addresses in
+	 * 		ascending order
+	 * @param numLastGrowthIPs the number of addresses in lastGrowthIPs
+	 * @param lastGrowthEntriesQueries the last growth entries queries
+	 * @return the id of the stored domain
+	 * @throws IOException if the IP addresses can not be stored
+	 * @throws IllegalArgumentException if the domain name is already
+	 * 		stored
+	 */
+	int add(String domainName, long firstSeen, long lastSeen,
+			long reportedAt, long numMessages, long numQueries, long minTTL,
+			long maxTTL, double avgTTL, boolean hasLastGrowthRatio,
+			double lastGrowthRatio, int[] ips, int numIPs,
+			int[] lastGrowthIPs, int numLastGrowthIPs,
+			long lastGrowthEntriesQueries) throws IOException {
+		int hash = domainName.hashCode();
+		int slot = findSlot(domainName, hash);
+		if (table[slot] != 0) {
+			throw new IllegalArgumentException(domainName
+					+ " is already stored.");
+		}
+		if (size == this.firstSeen.length) {
+			grow();
+		}
+		int id = size;
+		this.ipOffsets[id] = arena.append(ips, 0, numIPs);
+		this.lastGrowthIPOffsets[id] = arena.append(lastGrowthIPs, 0,
+				numLastGrowthIPs);
+		this.numIPs[id] = numIPs;
+		this.numLastGrowthIPs[id] = numLastGrowthIPs;
+
+		if (namesLength + domainName.length() > names.length) {
+			names = Arrays.copyOf(names, Math.max(names.length * 2,
+					namesLength + domainName.length()));
+		}
+		domainName.getChars(0, domainName.length(), names, namesLength);
+		namesLength += domainName.length();
+		nameOffsets[id + 1] = namesLength;
+		nameHashes[id] = hash;
+
+		this.firstSeen[id] = firstSeen;
+		this.lastSeen[id] = lastSeen;
+		this.reportedAt[id] = reportedAt;
+		this.numMessages[id] = numMessages;
+		this.numQueries[id] = numQueries;
+		this.minTTL[id] = minTTL;
+		this.maxTTL[id] = maxTTL;
+		this.avgTTL[id] = avgTTL;
+		this.hasLastGrowthRatioSingleEntry.set(id, hasLastGrowthRatio);
+		this.lastGrowthRatioSingleEntry[id] = lastGrowthRatio;
+		this.lastGrowthEntriesQueries[id] = lastGrowthEntriesQueries;
+
+		size++;
+		table[slot] = size;
+		if (size * 2 > table.length) {
+			rehash(table.length * 2);
+		}
+		return id;
+	}
+
+	/**
+	 * Gets the number of stored domains.
+	 *
+	 * @return the number of domains
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Draws a sample of the stored domains without replacement.
+	 *
+	 * @param sampleSize the maximum number of domains
+	 * @param rand the source of randomness
+	 * @return the views of the sampled domains in the order of their ids
+	 */
+	public List<CandidateFluxDomain> sample(int sampleSize, Random rand) {
+		int[] ids = new int[size];
+		for (int id = 0; id < size; id++) {
+			ids[id] = id;
+		}
+		int len = Math.min(sampleSize, size);
+		// a partial Fisher-Yates shuffle moves the sample to the front
+		for (int k = 0; k < len; k++) {
+			int l = k + rand.nextInt(size - k);
+			int tmp = ids[k];
+			ids[k] = ids[l];
+			ids[l] = tmp;
+		}
+		Arrays.sort(ids, 0, len);
+		List<CandidateFluxDomain> retval = 
+			new ArrayList<CandidateFluxDomain>(len);
+		for (int k = 0; k < len; k++) {
+			retval.add(get(ids[k]));
+		}
+		return retval;
+	}
+
+	/**
+	 * Gets the id of a stored domain.
+	 *
+	 * @param domainName the domain name
+	 * @return the id or -1 if the domain is not stored
+	 */
+	public int getId(String domainName) {
+		return table[findSlot(domainName, domainName.hashCode())] - 1;
+	}
+
+	/**
+	 * Gets a view of a stored domain.  The view reads its values from
+	 * this store, its setters are not supported.  When serialized the
+	 * view is replaced by a plain CandidateFluxDomain.
+	 *
+	 * @param id the domain id
+	 * @return the view
+	 */
+	public CandidateFluxDomain get(int id) {
+		checkId(id);
+		return new View(this, id);
+	}
+
+	/**
+	 * Creates a plain CandidateFluxDomain holding the values of a stored
+	 * domain.
+	 *
+	 * @param id the domain id
+	 * @return the candidate flux domain
+	 */
+	public CandidateFluxDomain materialize(int id) {
+		checkId(id);
+		return new CandidateFluxDomain(getDomainName(id),
+				new Date(firstSeen[id]), new Date(lastSeen[id]),
+				new Date(reportedAt[id]), numMessages[id], numQueries[id],
+				minTTL[id], maxTTL[id], avgTTL[id],
+				getLastGrowthRatioSingleEntry(id), getIpSet(id),
+				getLastGrowthEntriesIpSet(id), lastGrowthEntriesQueries[id]);
+	}
+
+	/**
+	 * Gets the domain name of a stored domain.
+	 *
+	 * @param id the domain id
+	 * @return the domain name
+	 */
+	public String getDomainName(int id) {
+		return new String(names, nameOffsets[id],
+				nameOffsets[id + 1] - nameOffsets[id]);
+	}
+
+	/**
+	 * Gets the first seen date of a stored domain.
+	 *
+	 * @param id the domain id
+	 * @return the first seen date in epoch ms
+	 */
+	public long getFirstSeen(int id) {
+		return firstSeen[id];
+	}
+
+	/**
+	 * Gets the last seen date of a stored domain.
+	 *
+	 * @param id the domain id
+	 * @return the last seen date in epoch ms
+	 */
+	public long getLastSeen(int id) {
+		return lastSeen[id];
+	}
+
+	/**
+	 * Gets the reported at date of a stored domain.
+	 *
+	 * @param id the domain id
+	 * @return the reported at date in epoch ms
+	 */
+	public long getReportedAt(int id) {
+		return reportedAt[id];
+	}
+
+	/**
+	 * Gets the number of messages of a stored domain.
+	 *
+	 * @param id the domain id
+	 * @return the number of messages
+	 */
+	public long getNumMessages(int id) {
+		return numMessages[id];
+	}
+
+	/**
+	 * Gets the number of dns queries of a stored domain.
+	 *
+	 * @param id the domain id
+	 * @return the number of dns queries
+	 */
+	public long getNumQueries(int id) {
+		return numQueries[id];
+	}
+
+	/**
+	 * Gets the min ttl of a stored domain.
+	 *
+	 * @param id the domain id
+	 * @return the min ttl
+	 */
+	public long getMinTTL(int id) {
+		return minTTL[id];
+	}
+
+	/**
+	 * Gets the max ttl of a stored domain.
+	 *
+	 * @param id the domain id
+	 * @return the max ttl
+	 */
+	public long getMaxTTL(int id) {
+		return maxTTL[id];
+	}
+
+	/**
+	 * Gets the avg ttl of a stored domain.
+	 *
+	 * @param id the domain id
+	 * @return the avg ttl
+	 */
+	public double getAvgTTL(int id) {
+		return avgTTL[id];
+	}
+
+	/**
+	 * Gets the last growth ratio single entry feature of a stored domain.
+	 *
+	 * @param id the domain id
+	 * @return the feature value or null if it is not present
+	 */
+	public Double getLastGrowthRatioSingleEntry(int id) {
+		if (hasLastGrowthRatioSingleEntry.get(id)) {
+			return lastGrowthRatioSingleEntry[id];
+		}
+		return null;
+	}
+
+	/**
+	 * Gets the last growth entries queries feature of a stored domain.
+	 *
+	 * @param id the domain id
+	 * @return the last growth entries queries
+	 */
+	public long getLastGrowthEntriesQueries(int id) {
+		return lastGrowthEntriesQueries[id];
+	}
+
+	/**
+	 * Gets the number of IP addresses of a stored domain.
+	 *
+	 * @param id the domain id
+	 * @return the number of IP addresses
+	 */
+	public int getNumIPs(int id) {
+		return numIPs[id];
+	}
+
+	/**
+	 * Gets the IPv4 addresses of a stored domain in ascending order.
+	 *
+	 * @param id the domain id
+	 * @return the addresses in network byte order
+	 */
+	public int[] getIPs(int id) {
+		int[] retval = new int[numIPs[id]];
+		arena.get(ipOffsets[id], retval, 0, retval.length);
+		return retval;
+	}
+
+	/**
+	 * Gets the number of last growth entries IP addresses of a
+	 * stored domain.
+	 *
+	 * @param id the domain id
+	 * @return the number of last growth entries IP addresses
+	 */
+	public int getNumLastGrowthEntriesIPs(int id) {
+		return numLastGrowthIPs[id];
+	}
+
+	/**
+	 * Gets the last growth entries IPv4 addresses of a stored domain in
+	 * ascending order.
+	 *
+	 * @param id the domain id
+	 * @return the addresses in network byte order
+	 */
+	public int[] getLastGrowthEntriesIPs(int id) {
+		int[] retval = new int[numLastGrowthIPs[id]];
+		arena.get(lastGrowthIPOffsets[id], retval, 0, retval.length);
+		return retval;
+	}
+
+	/**
+	 * Gets the number of bytes used by the stored IP addresses.
+	 *
+	 * @return the allocated bytes
+	 */
+	public long getAllocatedIPBytes() {
+		return arena.getAllocatedBytes();
+	}
+
+	/**
+	 * Releases the storage of the IP addresses.  Neither the store nor
+	 * its views can be used afterwards.
+	 *
+	 * @throws IOException if the backing file can not be closed
+	 */
+	public void close() throws IOException {
+		arena.close();
+	}
+
+	/**
+	 * Gets the IP addresses of a stored domain as a set.
+	 *
+	 * @param id the domain id
+	 * @return the set of IP addresses
+	 */
+	private Set<InetAddress> getIpSet(int id) {
+		return toSet(ipOffsets[id], numIPs[id]);
+	}
+
+	/**
+	 * Gets the last growth entries IP addresses of a stored domain
+	 * as a set.
+	 *
+	 * @param id the domain id
+	 * @return the set of IP addresses
+	 */
+	private Set<InetAddress> getLastGrowthEntriesIpSet(int id) {
+		return toSet(lastGrowthIPOffsets[id], numLastGrowthIPs[id]);
+	}
+
+	/**
+	 * Converts a run of IPv4 addresses in the arena to a set.
+	 *
+	 * @param offset the arena index of the first address
+	 * @param len the number of addresses
+	 * @return the set of IP addresses
+	 */
+	private Set<InetAddress> toSet(long offset, int len) {
+		HashSet<InetAddress> retval = new HashSet<InetAddress>();
+		for (int i = 0; i < len; i++) {
+			retval.add(CandidateFluxDomainParser.toInetAddress(
+					arena.get(offset + i)));
+		}
+		return retval;
+	}
+
+	/**
+	 * Checks that an id belongs to a stored domain.
+	 *
+	 * @param id the domain id
+	 */
+	private void checkId(int id) {
+		if (id < 0 || id >= size) {
+			throw new IndexOutOfBoundsException("No domain with id " + id);
+		}
+	}
+
+	/**
+	 * Finds the table slot of a domain name.
+	 *
+	 * @param domainName the domain name
+	 * @param hash the hash code of the domain name
+	 * @return the slot holding the domain's id or the empty slot
+	 * 		where it would be inserted
+	 */
+	private int findSlot(String domainName, int hash) {
+		int mask = table.length - 1;
+		int slot = mix(hash) & mask;
+		while (table[slot] != 0) {
+			int id = table[slot] - 1;
+			if (nameHashes[id] == hash && nameEquals(id, domainName)) {
+				break;
+			}
+			slot = (slot + 1) & mask;
+		}
+		return slot;
+	}
+
+	/**
+	 * Compares a stored domain name to a string.
+	 *
+	 * @param id the domain id
+	 * @param domainName the domain name
+	 * @return true, if the names are equal
+	 */
+	private boolean nameEquals(int id, String domainName) {
+		int off = nameOffsets[id];
+		int len = nameOffsets[id + 1] - off;
+		if (len != domainName.length()) {
+			return false;
+		}
+		for (int i = 0; i < len; i++) {
+			if (names[off + i] != domainName.charAt(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Spreads the bits of a hash code so nearby hash codes do not
+	 * cluster in the table.
+	 *
+	 * @param hash the hash code
+	 * @return the mixed hash code
+	 */
+	private static int mix(int hash) {
+		hash *= 0x9E3779B9;
+		return hash ^ (hash >>> 16);
+	}
+
+	/**
+	 * Rebuilds the table with a new size.
+	 *
+	 * @param length the new table length, a power of 2
+	 */
+	private void rehash(int length) {
+		table = new int[length];
+		int mask = length - 1;
+		for (int id = 0; id < size; id++) {
+			int slot = mix(nameHashes[id]) & mask;
+			while (table[slot] != 0) {
+				slot = (slot + 1) & mask;
+			}
+			table[slot] = id + 1;
+		}
+	}
+
+	/**
+	 * Doubles the capacity of the columns.
+	 */
+	private void grow() {
+		int capacity = firstSeen.length * 2;
+		nameOffsets = Arrays.copyOf(nameOffsets, capacity + 1);
+		nameHashes = Arrays.copyOf(nameHashes, capacity);
+		firstSeen = Arrays.copyOf(firstSeen, capacity);
+		lastSeen = Arrays.copyOf(lastSeen, capacity);
+		reportedAt = Arrays.copyOf(reportedAt, capacity);
+		numMessages = Arrays.copyOf(numMessages, capacity);
+		numQueries = Arrays.copyOf(numQueries, capacity);
+		minTTL = Arrays.copyOf(minTTL, capacity);
+		maxTTL = Arrays.copyOf(maxTTL, capacity);
+		lastGrowthEntriesQueries = Arrays.copyOf(lastGrowthEntriesQueries,
+				capacity);
+		avgTTL = Arrays.copyOf(avgTTL, capacity);
+		lastGrowthRatioSingleEntry = Arrays.copyOf(
+				lastGrowthRatioSingleEntry, capacity);
+		ipOffsets = Arrays.copyOf(ipOffsets, capacity);
+		lastGrowthIPOffsets = Arrays.copyOf(lastGrowthIPOffsets, capacity);
+		numIPs = Arrays.copyOf(numIPs, capacity);
+		numLastGrowthIPs = Arrays.copyOf(numLastGrowthIPs, capacity);
+	}
+
+	/**
+	 * A read only CandidateFluxDomain backed by a stored domain.
+	 */
+	private static class View extends CandidateFluxDomain {
+
+		private static final long serialVersionUID = 6187512385441367243L;
+
+		private transient CandidateFluxDomainStore store = null;
+
+		private transient int id;
+
+		/**
+		 * Instantiates a new view.
+		 *
+		 * @param store the store
+		 * @param id the domain id
+		 */
+		public View(CandidateFluxDomainStore store, int id) {
+			this.store = store;
+			this.id = id;
+		}
+
+		/**
+		 * Replaces the view with a plain CandidateFluxDomain when
+		 * serialized.
+		 *
+		 * @return the materialized candidate flux domain
+		 * @throws ObjectStreamException never
+		 */
+		private Object writeReplace() throws ObjectStreamException {
+			return store.materialize(id);
+		}
+
+		@Override
+		public String getDomainName() {
+			return store.getDomainName(id);
+		}
+
+		@Override
+		public Date getFirstSeen() {
+			return new Date(store.getFirstSeen(id));
+		}
+
+		@Override
+		public Date getLastSeen() {
+			return new Date(store.getLastSeen(id));
+		}
+
+		@Override
+		public Date getReportedAt() {
+			return new Date(store.getReportedAt(id));
+		}
+
+		@Override
+		public double getAvgTTL() {
+			return store.getAvgTTL(id);
+		}
+
+		@Override
+		public Double getLastGrowthRatioSingleEntry() {
+			return store.getLastGrowthRatioSingleEntry(id);
+		}
+
+		@Override
+		public long getNumMessages() {
+			return store.getNumMessages(id);
+		}
+
+		@Override
+		public long getNumQueries() {
+			return store.getNumQueries(id);
+		}
+
+		@Override
+		public long getMinTTL() {
+			return store.getMinTTL(id);
+		}
+
+		@Override
+		public long getMaxTTL() {
+			return store.getMaxTTL(id);
+		}
+
+		@Override
+		public int getNumIPs() {
+			return store.getNumIPs(id);
+		}
+
+		@Override
+		public Set<InetAddress> getIps() {
+			return store.getIpSet(id);
+		}
+
+		@Override
+		public int[] getIPv4Addresses() {
+			return store.getIPs(id);
+		}
+
+		@Override
+		public Set<InetAddress> getLastGrowthEntriesIPs() {
+			return store.getLastGrowthEntriesIpSet(id);
+		}
+
+		@Override
+		public long getLastGrowthEntriesQueries() {
+			return store.getLastGrowthEntriesQueries(id);
+		}
+
+		@Override
+		public void setDomainName(String domainName) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public void setFirstSeen(Date firstSeen) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public void setLastSeen(Date lastSeen) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public void setReportedAt(Date reportedAt) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public void setAvgTTL(double avgTTL) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public void setLastGrowthRatioSingleEntry(
+				Double lastGrowthRatioSingleEntry) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public void setNumMessages(long numMessages) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public void setNumQueries(long numQueries) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public void setMinTTL(long minTTL) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public void setMaxTTL(long maxTTL) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public void setIps(Set<InetAddress> ips) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public void setLastGrowthEntriesIPs(Set<InetAddress> ips) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public void setLastGrowthEntriesQueries(long lastGrowthEntriesQueries) {
+			throw new UnsupportedOperationException();
+		}
+	}
+}
@@ -0,0 +1,352 @@
+/*
+* Copyright (C) 2012 Chris Neasbitt
+* Author: Chris Neasbitt
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 2 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package edu.uga.cs.fluxbuster.clustering;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * This class reads candidate flux files in the binary format written by
+ * CandidateFluxFileWriter.  The file is memory mapped and the fields of
+ * each record are read directly from the mapped buffer into primitive
+ * values, only the domain name of a record is allocated.  All values are
+ * big endian.  A file has the layout
+ *
+ * <pre>
+ * header:  int magic 'FBCF', int version
+ * records: int length of the rest of the record,
+ *          short name length, name as ISO-8859-1 bytes,
+ *          byte flags (bit 0 set if the last growth ratio exists),
+ *          long messages, long queries, long minTTL, long maxTTL,
+ *          double avgTTL, long firstSeen, long lastSeen, long reportedAt
+ *          (epoch seconds), double last growth ratio,
+ *          int number of IPs, int IPv4 address...
+ * index:   int records per index entry, int number of entries,
+ *          long file offset of the first record of each entry...
+ * footer:  long index offset, long number of records, int magic 'FBCI'
+ * </pre>
+ *
+ * The IP addresses of a record are the distinct public addresses in
+ * ascending order.  The file is mapped in segments that start at indexed
+ * records, so files larger than a single mapping can be read.
+ *
+ * @author Chris Neasbitt
+ */
+public class CandidateFluxFileReader implements CandidateFluxDomainRecord {
+
+	/** The file name extension of binary candidate flux files. */
+	public static final String EXTENSION = ".fbc";
+
+	static final int MAGIC = 0x46424346;
+
+	static final int FOOTERMAGIC = 0x46424349;
+
+	static final int VERSION = 1;
+
+	static final int HEADERSIZE = 8;
+
+	static final int FOOTERSIZE = 20;
+
+	// the record size without the name and the IP addresses
+	static final int FIXEDRECORDSIZE = 2 + 1 + 8 * 9 + 4;
+
+	private static final int MAXSEGMENTSIZE = 1 << 30;
+
+	private RandomAccessFile raf = null;
+
+	private FileChannel channel = null;
+
+	private long[] indexOffsets = null;
+
+	private long indexOffset = 0;
+
+	private long numRecords = 0;
+
+	private int nextSegment = 0;
+
+	private ByteBuffer buf = null;
+
+	private char[] name = new char[256];
+
+	private String domainName = null;
+
+	private long numMessages, numQueries, minTTL, maxTTL;
+
+	private double avgTTL;
+
+	private long firstSeen, lastSeen, reportedAt;
+
+	private boolean hasLastGrowthRatio = false;
+
+	private double lastGrowthRatioSingleEntry;
+
+	private int[] ips = new int[16];
+
+	private int numIPs = 0;
+
+	/**
+	 * Opens a binary candidate flux file.
+	 *
+	 * @param filename the path to the file
+	 * @throws IOException if the file can not be read or is not a
+	 * 		complete binary candidate flux file of a supported version
+	 */
+	public CandidateFluxFileReader(String filename) throws IOException {
+		raf = new RandomAccessFile(filename, "r");
+		try {
+			channel = raf.getChannel();
+			long size = channel.size();
+			if (size < HEADERSIZE + FOOTERSIZE) {
+				throw new IOException(filename + " is too short.");
+			}
+			ByteBuffer header = read(0, HEADERSIZE);
+			if (header.getInt() != MAGIC) {
+				throw new IOException(filename
+						+ " is not a binary candidate flux file.");
+			}
+			int version = header.getInt();
+			if (version != VERSION) {
+				throw new IOException(filename + " has unsupported version "
+						+ version);
+			}
+			ByteBuffer footer = read(size - FOOTERSIZE, FOOTERSIZE);
+			indexOffset = footer.getLong();
+			numRecords = footer.getLong();
+			if (footer.getInt() != FOOTERMAGIC || indexOffset < HEADERSIZE
+					|| indexOffset > size - FOOTERSIZE - 8) {
+				throw new IOException(filename + " is incomplete.");
+			}
+			ByteBuffer index = read(indexOffset, (int) (size - FOOTERSIZE
+					- indexOffset));
+			index.getInt();
+			int numEntries = index.getInt();
+			if (numEntries < 0 || index.remaining() != numEntries * 8L) {
+				throw new IOException(filename + " has a corrupt index.");
+			}
+			indexOffsets = new long[numEntries];
+			for (int i = 0; i < numEntries; i++) {
+				indexOffsets[i] = index.getLong();
+			}
+		} catch (IOException e) {
+			raf.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Advances to the next record.
+	 *
+	 * @return true, if there is a next record, false at the end of
+	 * 		the file
+	 * @throws IOException if the record is corrupt or can not be mapped
+	 */
+	public boolean next() throws IOException {
+		while (buf == null || !buf.hasRemaining()) {
+			if (nextSegment == indexOffsets.length) {
+				return false;
+			}
+			mapNextSegment();
+		}
+		if (buf.remaining() < 4) {
+			throw new IOException("Truncated record of " 
+					+ buf.remaining() + " bytes");
+		}
+		int length = buf.getInt();
+		if (length < FIXEDRECORDSIZE || length > buf.remaining()) {
+			throw new IOException("Corrupt record length " + length);
+		}
+		int end = buf.position() + length;
+		int nameLength = buf.getShort() & 0xFFFF;
+		if (FIXEDRECORDSIZE + nameLength > length) {
+			throw new IOException("Corrupt record name length " + nameLength);
+		}
+		if (name.length < nameLength) {
+			name = new char[Math.max(name.length * 2, nameLength)];
+		}
+		for (int i = 0; i < nameLength; i++) {
+			name[i] = (char) (buf.get() & 0xFF);
+		}
+		domainName = new String(name, 0, nameLength);
+		hasLastGrowthRatio = (buf.get() & 1) != 0;
+		numMessages = buf.getLong();
+		numQueries = buf.getLong();
+		minTTL = buf.getLong();
+		maxTTL = buf.getLong();
+		avgTTL = buf.getDouble();
+		firstSeen = buf.getLong();
+		lastSeen = buf.getLong();
+		reportedAt = buf.getLong();
+		lastGrowthRatioSingleEntry = buf.getDouble();
+		numIPs = buf.getInt();
+		if (numIPs < 0 || end - buf.position() != numIPs * 4L) {
+			throw new IOException("Corrupt record address count " + numIPs);
+		}
+		if (ips.length < numIPs) {
+			ips = new int[Math.max(ips.length * 2, numIPs)];
+		}
+		for (int i = 0; i < numIPs; i++) {
+			ips[i] = buf.getInt();
+		}
+		return true;
+	}
+
+	/**
+	 * Gets the number of records in the file.
+	 *
+	 * @return the number of records
+	 */
+	public long getNumRecords() {
+		return numRecords;
+	}
+
+	/**
+	 * Closes the file.
+	 *
+	 * @throws IOException if the file can not be closed
+	 */
+	public void close() throws IOException {
+		buf = null;
+		raf.close();
+	}
+
+	/**
+	 * Maps the records of as many index entries, starting with the next
+	 * one, as fit in the maximum segment size.  At least one index entry
+	 * is mapped.
+	 *
+	 * @throws IOException if the segment can not be mapped
+	 */
+	private void mapNextSegment() throws IOException {
+		long start = indexOffsets[nextSegment];
+		int last = nextSegment + 1;
+		while (last < indexOffsets.length
+				&& getEntryEnd(last + 1) - start <= MAXSEGMENTSIZE) {
+			last++;
+		}
+		long end = getEntryEnd(last);
+		if (end - start > Integer.MAX_VALUE || end < start) {
+			throw new IOException("Index entry at " + start + " is too large.");
+		}
+		MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY,
+				start, end - start);
+		buf = mapped;
+		nextSegment = last;
+	}
+
+	/**
+	 * Gets the file offset where the records of the index entries before
+	 * an index entry end.
+	 *
+	 * @param entry the index entry
+	 * @return the file offset
+	 */
+	private long getEntryEnd(int entry) {
+		if (entry < indexOffsets.length) {
+			return indexOffsets[entry];
+		}
+		return indexOffset;
+	}
+
+	/**
+	 * Reads a region of the file into a buffer.
+	 *
+	 * @param position the file position of the region
+	 * @param length the length of the region
+	 * @return the buffer positioned at the start of the region
+	 * @throws IOException if the region can not be read
+	 */
+	private ByteBuffer read(long position, int length) throws IOException {
+		ByteBuffer retval = ByteBuffer.allocate(length);
+		while (retval.hasRemaining()) {
+			if (channel.read(retval, position + retval.position()) < 0) {
+				throw new IOException("Unexpected end of file.");
+			}
+		}
+		retval.flip();
+		return retval;
+	}
+
+	@Override
+	public String getDomainName() {
+		return domainName;
+	}
+
+	@Override
+	public long getNumMessages() {
+		return numMessages;
+	}
+
+	@Override
+	public long getNumQueries() {
+		return numQueries;
+	}
+
+	@Override
+	public double getAvgTTL() {
+		return avgTTL;
+	}
+
+	@Override
+	public long getMinTTL() {
+		return minTTL;
+	}
+
+	@Override
+	public long getMaxTTL() {
+		return maxTTL;
+	}
+
+	@Override
+	public long getFirstSeen() {
+		return firstSeen;
+	}
+
+	@Override
+	public long getLastSeen() {
+		return lastSeen;
+	}
+
+	@Override
+	public long getReportedAt() {
+		return reportedAt;
+	}
+
+	@Override
+	public int getNumIPs() {
+		return numIPs;
+	}
+
+	@Override
+	public int[] getIPs() {
+		return ips;
+	}
+
+	@Override
+	public boolean hasLastGrowthRatioSingleEntry() {
+		return hasLastGrowthRatio;
+	}
+
+	@Override
+	public double getLastGrowthRatioSingleEntry() {
+		return lastGrowthRatioSingleEntry;
+	}
+}
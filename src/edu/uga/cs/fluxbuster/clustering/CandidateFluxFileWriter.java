@@ -0,0 +1,261 @@
+/*
+* Copyright (C) 2012 Chris Neasbitt
+* Author: Chris Neasbitt
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 2 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package edu.uga.cs.fluxbuster.clustering;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import edu.uga.cs.fluxbuster.utils.AsciiLineReader;
+
+/**
+ * This class writes candidate flux files in the binary format read by
+ * CandidateFluxFileReader.  The file is written under a temporary name
+ * and renamed when it is closed, so an interrupted write never leaves a
+ * partial file under the final name.
+ *
+ * The main method converts gzip'd text candidate flux files to the binary
+ * format.
+ *
+ * usage: java -cp .:../lib/* edu.uga.cs.fluxbuster.clustering.CandidateFluxFileWriter file.gz|dir ...
+ *
+ * @author Chris Neasbitt
+ */
+public class CandidateFluxFileWriter {
+
+	private static final int INDEXINTERVAL = 1024;
+
+	private static final int BUFSIZE = 65536;
+
+	private File file = null, tempFile = null;
+
+	private DataOutputStream out = null;
+
+	private long position = 0;
+
+	private long numRecords = 0;
+
+	private long[] indexOffsets = new long[16];
+
+	private int numIndexEntries = 0;
+
+	private static Log log = LogFactory.getLog(CandidateFluxFileWriter.class);
+
+	/**
+	 * Creates a new binary candidate flux file.
+	 *
+	 * @param filename the path of the file
+	 * @throws IOException if the temporary file can not be created
+	 */
+	public CandidateFluxFileWriter(String filename) throws IOException {
+		file = new File(filename);
+		tempFile = new File(filename + ".tmp");
+		out = new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(tempFile), BUFSIZE));
+		out.writeInt(CandidateFluxFileReader.MAGIC);
+		out.writeInt(CandidateFluxFileReader.VERSION);
+		position = CandidateFluxFileReader.HEADERSIZE;
+	}
+
+	/**
+	 * Appends a record to the file.
+	 *
+	 * @param record the record
+	 * @throws IOException if the record can not be written
+	 * @throws IllegalArgumentException if the domain name is longer than
+	 * 		65535 characters or contains characters which are not
+	 * 		ISO-8859-1
+	 */
+	void write(CandidateFluxDomainRecord record) throws IOException {
+		String domainName = record.getDomainName();
+		int nameLength = domainName.length();
+		if (nameLength > 0xFFFF) {
+			throw new IllegalArgumentException("Domain name too long.");
+		}
+		for (int i = 0; i < nameLength; i++) {
+			if (domainName.charAt(i) > 0xFF) {
+				throw new IllegalArgumentException(domainName
+						+ " is not ISO-8859-1.");
+			}
+		}
+		if (numRecords % INDEXINTERVAL == 0) {
+			if (numIndexEntries == indexOffsets.length) {
+				indexOffsets = Arrays.copyOf(indexOffsets, numIndexEntries * 2);
+			}
+			indexOffsets[numIndexEntries++] = position;
+		}
+		int numIPs = record.getNumIPs();
+		int[] ips = record.getIPs();
+		int length = CandidateFluxFileReader.FIXEDRECORDSIZE + nameLength
+				+ numIPs * 4;
+		out.writeInt(length);
+		out.writeShort(nameLength);
+		out.writeBytes(domainName);
+		out.writeByte(record.hasLastGrowthRatioSingleEntry() ? 1 : 0);
+		out.writeLong(record.getNumMessages());
+		out.writeLong(record.getNumQueries());
+		out.writeLong(record.getMinTTL());
+		out.writeLong(record.getMaxTTL());
+		out.writeDouble(record.getAvgTTL());
+		out.writeLong(record.getFirstSeen());
+		out.writeLong(record.getLastSeen());
+		out.writeLong(record.getReportedAt());
+		out.writeDouble(record.getLastGrowthRatioSingleEntry());
+		out.writeInt(numIPs);
+		for (int i = 0; i < numIPs; i++) {
+			out.writeInt(ips[i]);
+		}
+		position += 4 + length;
+		numRecords++;
+	}
+
+	/**
+	 * Writes the index and footer, closes the file and moves it to
+	 * its final name.
+	 *
+	 * @throws IOException if the file can not be written or renamed
+	 */
+	public void close() throws IOException {
+		long indexOffset = position;
+		out.writeInt(INDEXINTERVAL);
+		out.writeInt(numIndexEntries);
+		for (int i = 0; i < numIndexEntries; i++) {
+			out.writeLong(indexOffsets[i]);
+		}
+		out.writeLong(indexOffset);
+		out.writeLong(numRecords);
+		out.writeInt(CandidateFluxFileReader.FOOTERMAGIC);
+		out.close();
+		if (!tempFile.renameTo(file)) {
+			// some platforms do not replace an existing file
+			if (!file.delete() || !tempFile.renameTo(file)) {
+				throw new IOException("Unable to rename " + tempFile
+						+ " to " + file);
+			}
+		}
+	}
+
+	/**
+	 * Closes and deletes the temporary file without creating the
+	 * binary file.
+	 */
+	public void abort() {
+		try {
+			out.close();
+		} catch (IOException e) {
+			// the file is deleted anyway
+		}
+		tempFile.delete();
+	}
+
+	/**
+	 * Converts a gzip'd text candidate flux file to a binary candidate
+	 * flux file.  Malformed lines are skipped.
+	 *
+	 * @param gzfile the path to the gzip'd text file
+	 * @param binfile the path of the binary file
+	 * @return the number of lines skipped
+	 * @throws IOException if either file can not be accessed
+	 */
+	public static long convert(String gzfile, String binfile)
+			throws IOException {
+		CandidateFluxDomainParser parser = new CandidateFluxDomainParser();
+		AsciiLineReader reader = new AsciiLineReader(new GZIPInputStream(
+				new FileInputStream(gzfile)));
+		CandidateFluxFileWriter writer = null;
+		try {
+			writer = new CandidateFluxFileWriter(binfile);
+			int len;
+			while ((len = reader.readLine()) >= 0) {
+				if (parser.parse(reader.getLine(), 0, len)) {
+					writer.write(parser);
+				}
+			}
+			writer.close();
+			writer = null;
+		} finally {
+			reader.close();
+			if (writer != null) {
+				writer.abort();
+			}
+		}
+		return parser.getBadLines();
+	}
+
+	/**
+	 * Gets the name of the binary file for a gzip'd text file.
+	 *
+	 * @param gzfile the path to the gzip'd text file
+	 * @return the path of the binary file
+	 */
+	public static String getBinaryFileName(String gzfile) {
+		String retval = gzfile;
+		if (retval.endsWith(".gz")) {
+			retval = retval.substring(0, retval.length() - 3);
+		}
+		return retval + CandidateFluxFileReader.EXTENSION;
+	}
+
+	/**
+	 * Converts the gzip'd text candidate flux files given as arguments,
+	 * or contained in directories given as arguments, to binary files
+	 * next to them.
+	 *
+	 * @param args the files and directories to convert
+	 */
+	public static void main(String[] args) {
+		if (args.length == 0) {
+			System.out.println("usage: CandidateFluxFileWriter file.gz|dir ...");
+			return;
+		}
+		for (String arg : args) {
+			File argfile = new File(arg);
+			File[] files = new File[] {argfile};
+			if (argfile.isDirectory()) {
+				files = argfile.listFiles();
+				Arrays.sort(files);
+			}
+			for (File gzfile : files) {
+				if (!gzfile.getName().endsWith(".gz")) {
+					continue;
+				}
+				String binfile = getBinaryFileName(gzfile.getPath());
+				try {
+					long badLines = convert(gzfile.getPath(), binfile);
+					if(log.isInfoEnabled()){
+						log.info("Converted " + gzfile + " to " + binfile
+								+ ", skipped " + badLines + " malformed lines.");
+					}
+				} catch (IOException e) {
+					if(log.isErrorEnabled()){
+						log.error("Unable to convert " + gzfile, e);
+					}
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,129 @@
+/*
+* Copyright (C) 2012 Chris Neasbitt
+* Author: Chris Neasbitt
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 2 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package edu.uga.cs.fluxbuster.clustering;
+
+/**
+ * This class holds the parsed properties used to score and select the
+ * candidate flux domains to cluster.  It is immutable, so a snapshot
+ * taken at the start of a selection is used for every domain.
+ *
+ * @author Chris Neasbitt
+ */
+public class CandidateSelectionConfig {
+
+	private int minTotalRrsetSize = 0;
+
+	private double minTotalDiversity = 0.0;
+
+	private double veryShortTTL = 0.0;
+
+	private double goodCandidateThreshold = 0.0;
+
+	private int maxCandidateDomains = 0;
+
+	/**
+	 * Instantiates a new candidate selection config.
+	 *
+	 * @param minTotalRrsetSize the minimum number of IP addresses of a
+	 * 		domain with a diverse address set
+	 * @param minTotalDiversity the IP diversity a domain's address set
+	 * 		must exceed
+	 * @param veryShortTTL the average TTL at or below which a single
+	 * 		address domain is a candidate
+	 * @param goodCandidateThreshold the candidate score threshold
+	 * @param maxCandidateDomains the total number of domains to select
+	 */
+	public CandidateSelectionConfig(int minTotalRrsetSize,
+			double minTotalDiversity, double veryShortTTL,
+			double goodCandidateThreshold, int maxCandidateDomains) {
+		this.minTotalRrsetSize = minTotalRrsetSize;
+		this.minTotalDiversity = minTotalDiversity;
+		this.veryShortTTL = veryShortTTL;
+		this.goodCandidateThreshold = goodCandidateThreshold;
+		this.maxCandidateDomains = maxCandidateDomains;
+	}
+
+	/**
+	 * Gets the minimum number of IP addresses of a domain with a diverse
+	 * address set.
+	 *
+	 * @return the minimum total rrset size
+	 */
+	public int getMinTotalRrsetSize() {
+		return minTotalRrsetSize;
+	}
+
+	/**
+	 * Gets the IP diversity a domain's address set must exceed.
+	 *
+	 * @return the minimum total diversity
+	 */
+	public double getMinTotalDiversity() {
+		return minTotalDiversity;
+	}
+
+	/**
+	 * Gets the average TTL at or below which a single address domain is
+	 * a candidate.
+	 *
+	 * @return the very short ttl
+	 */
+	public double getVeryShortTTL() {
+		return veryShortTTL;
+	}
+
+	/**
+	 * Gets the candidate score threshold.
+	 *
+	 * @return the good candidate threshold
+	 */
+	public double getGoodCandidateThreshold() {
+		return goodCandidateThreshold;
+	}
+
+	/**
+	 * Gets the total number of domains to select.
+	 *
+	 * @return the max candidate domains
+	 */
+	public int getMaxCandidateDomains() {
+		return maxCandidateDomains;
+	}
+
+	/**
+	 * Calculates the clustering potential of a candidate flux domain.
+	 *
+	 * @param numIPs the number of IP addresses of the domain
+	 * @param avgTTL the average TTL of the domain
+	 * @param ipv4Addresses the domain's IPv4 addresses in ascending order,
+	 * 		only read if the domain has at least the minimum total rrset
+	 * 		size of addresses
+	 * @return the candidate score
+	 */
+	public double calcCandidateScore(int numIPs, double avgTTL,
+			int[] ipv4Addresses) {
+		if (numIPs >= minTotalRrsetSize && IPDiversityCalculator.ipDiversity(
+				ipv4Addresses, ipv4Addresses.length) > minTotalDiversity) {
+			return 1.0;
+		} else if (numIPs == 1 && avgTTL <= veryShortTTL) {
+			return 1.0;
+		}
+		return 0.0;
+	}
+}
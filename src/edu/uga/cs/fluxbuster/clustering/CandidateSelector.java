@@ -0,0 +1,442 @@
+/*
+* Copyright (C) 2012 Chris Neasbitt
+* Author: Chris Neasbitt
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 2 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package edu.uga.cs.fluxbuster.clustering;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import edu.uga.cs.fluxbuster.utils.DomainNameUtils;
+
+/**
+ * This class selects the candidate flux domains to cluster from a store
+ * of candidate flux domains.  Domains are selected in priority order:
+ * the domains listed in a domain file, the domains whose 2LD was recently
+ * part of a flux cluster, the domains whose candidate score exceeds the
+ * threshold in descending score order and finally random domains, until
+ * the configured number of domains is selected.
+ *
+ * Each step makes a single pass over the unselected domains.  When a step
+ * has more eligible domains than remaining slots, the recent flux and
+ * random steps keep a uniform random sample of the eligible domains with
+ * reservoir sampling and the threshold step keeps the best scoring domains
+ * in a bounded heap, breaking ties between equal scores randomly.  The
+ * candidate score of a domain is computed once.
+ *
+ * @author Chris Neasbitt
+ */
+public class CandidateSelector {
+
+	private static final int[] EMPTY = new int[0];
+
+	private CandidateSelectionConfig config = null;
+
+	private CandidateFluxDomainStore store = null;
+
+	private Random rand = null;
+
+	private BitSet selected = null;
+
+	private List<CandidateFluxDomain> selection = new ArrayList<CandidateFluxDomain>();
+
+	private static Log log = LogFactory.getLog(CandidateSelector.class);
+
+	/**
+	 * Instantiates a new candidate selector.
+	 *
+	 * @param config the scoring and selection properties
+	 * @param store the store of candidate flux domains to select from
+	 * @param rand the source of randomness for sampling and tie breaking
+	 */
+	public CandidateSelector(CandidateSelectionConfig config,
+			CandidateFluxDomainStore store, Random rand) {
+		this.config = config;
+		this.store = store;
+		this.rand = rand;
+		this.selected = new BitSet(store.size());
+	}
+
+	/**
+	 * Selects the candidate flux domains to cluster.
+	 *
+	 * @param domainfile a file containing the list of domains that should
+	 * 		be selected regardless of the candidate score.  If null the
+	 * 		list is ignored.
+	 * @param recentFluxDomains the 2LD's of recent flux domains
+	 * @return the selected domains
+	 * @throws IOException if the domain file can not be read
+	 */
+	public List<CandidateFluxDomain> select(String domainfile,
+			Set<String> recentFluxDomains) throws IOException {
+		if (domainfile != null) {
+			addDomainsFromFile(domainfile);
+		}
+		if (getRemaining() > 0 && recentFluxDomains.size() > 0) {
+			addRecentFluxDomains(recentFluxDomains);
+		}
+		if (getRemaining() > 0) {
+			addThresholdMeetingDomains();
+		}
+		if (getRemaining() > 0) {
+			addRandomDomains();
+		}
+		return selection;
+	}
+
+	/**
+	 * Gets the number of domains which can still be selected.
+	 *
+	 * @return the number of free slots
+	 */
+	private int getRemaining() {
+		return config.getMaxCandidateDomains() - selection.size();
+	}
+
+	/**
+	 * Selects a stored domain.  The domain is copied out of the store, so
+	 * the store may be closed once the selection is made.
+	 *
+	 * @param id the id of the domain
+	 */
+	private void select(int id) {
+		selection.add(store.materialize(id));
+		selected.set(id);
+	}
+
+	/**
+	 * Selects the domains listed in a domain file, in file order.
+	 *
+	 * @param domainfile the file from which to read the domains
+	 * @throws IOException if the file can not be read
+	 */
+	private void addDomainsFromFile(String domainfile) throws IOException {
+		BufferedReader br = new BufferedReader(new FileReader(new File(domainfile)));
+		try {
+			String line = null;
+			while (getRemaining() > 0 && (line = br.readLine()) != null) {
+				line = DomainNameUtils.stripDots(line.trim());
+				int id = store.getId(line);
+				if (id >= 0 && !selected.get(id)) {
+					if(log.isDebugEnabled()){
+						log.debug("Adding domain " + line + " from domains file.");
+					}
+					select(id);
+				} else {
+					if(log.isDebugEnabled()){
+						log.debug("Unable to load domain " + line + " from domains file.");
+					}
+				}
+			}
+		} finally {
+			br.close();
+		}
+	}
+
+	/**
+	 * Selects a random sample of the unselected domains whose 2LD is in
+	 * a set of recent flux 2LD's.
+	 *
+	 * @param recentFluxDomains the recent flux 2LD's
+	 */
+	private void addRecentFluxDomains(Set<String> recentFluxDomains) {
+		int[] reservoir = new int[getRemaining()];
+		long seen = 0;
+		for (int id = selected.nextClearBit(0); id < store.size();
+				id = selected.nextClearBit(id + 1)) {
+			String domainname = store.getDomainName(id);
+			// the 2LD is a suffix of the domain name, so the costly 2LD
+			// extraction is only done for names with a matching suffix
+			if (!hasSuffixIn(domainname, recentFluxDomains)) {
+				continue;
+			}
+			String domainname2LD = DomainNameUtils.extractEffective2LD(domainname);
+			if (domainname2LD != null && recentFluxDomains.contains(domainname2LD)) {
+				seen = sample(reservoir, seen, id);
+			}
+		}
+		addSample(reservoir, seen);
+	}
+
+	/**
+	 * Selects the unselected domains whose candidate score exceeds the
+	 * threshold, best scores first.
+	 */
+	private void addThresholdMeetingDomains() {
+		double threshold = config.getGoodCandidateThreshold();
+		int minTotalRrsetSize = config.getMinTotalRrsetSize();
+		ScoreHeap heap = new ScoreHeap(getRemaining());
+		for (int id = selected.nextClearBit(0); id < store.size();
+				id = selected.nextClearBit(id + 1)) {
+			int numIPs = store.getNumIPs(id);
+			int[] ips = numIPs >= minTotalRrsetSize ? store.getIPs(id) : EMPTY;
+			double score = config.calcCandidateScore(numIPs,
+					store.getAvgTTL(id), ips);
+			if (score > threshold) {
+				heap.offer(id, score, rand.nextLong());
+			}
+		}
+		for (int id : heap.drainDescending()) {
+			select(id);
+		}
+	}
+
+	/**
+	 * Selects a random sample of the unselected domains.
+	 */
+	private void addRandomDomains() {
+		int[] reservoir = new int[getRemaining()];
+		long seen = 0;
+		for (int id = selected.nextClearBit(0); id < store.size();
+				id = selected.nextClearBit(id + 1)) {
+			seen = sample(reservoir, seen, id);
+		}
+		addSample(reservoir, seen);
+	}
+
+	/**
+	 * Offers an eligible domain to a reservoir sample.
+	 *
+	 * @param reservoir the reservoir
+	 * @param seen the number of eligible domains offered before
+	 * @param id the id of the domain
+	 * @return the number of eligible domains offered
+	 */
+	private long sample(int[] reservoir, long seen, int id) {
+		if (seen < reservoir.length) {
+			reservoir[(int) seen] = id;
+		} else {
+			long j = (long) (rand.nextDouble() * (seen + 1));
+			if (j < reservoir.length) {
+				reservoir[(int) j] = id;
+			}
+		}
+		return seen + 1;
+	}
+
+	/**
+	 * Selects the domains of a reservoir sample in random order.
+	 *
+	 * @param reservoir the reservoir
+	 * @param seen the number of eligible domains offered to the reservoir
+	 */
+	private void addSample(int[] reservoir, long seen) {
+		int len = (int) Math.min(seen, reservoir.length);
+		for (int i = len - 1; i > 0; i--) {
+			int j = rand.nextInt(i + 1);
+			int temp = reservoir[i];
+			reservoir[i] = reservoir[j];
+			reservoir[j] = temp;
+		}
+		for (int i = 0; i < len; i++) {
+			select(reservoir[i]);
+		}
+	}
+
+	/**
+	 * Determines if the domain name or one of its parent domains is in a
+	 * set of lower case domain names, ignoring ASCII case.
+	 *
+	 * @param domainname the domain name
+	 * @param domains the set of domain names
+	 * @return true, if a suffix of the domain name is in the set
+	 */
+	private static boolean hasSuffixIn(String domainname, Set<String> domains) {
+		String lower = toLowerCaseAscii(domainname);
+		int start = 0;
+		while (start >= 0) {
+			if (domains.contains(lower.substring(start))) {
+				return true;
+			}
+			start = lower.indexOf('.', start);
+			if (start >= 0) {
+				start++;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Converts the ASCII upper case letters of a string to lower case.
+	 *
+	 * @param str the string
+	 * @return the converted string
+	 */
+	private static String toLowerCaseAscii(String str) {
+		char[] chars = null;
+		for (int i = 0; i < str.length(); i++) {
+			char c = str.charAt(i);
+			if (c >= 'A' && c <= 'Z') {
+				if (chars == null) {
+					chars = str.toCharArray();
+				}
+				chars[i] = (char) (c + ('a' - 'A'));
+			}
+		}
+		return chars == null ? str : new String(chars);
+	}
+
+	/**
+	 * A bounded min-heap keeping the ids of the highest scoring domains.
+	 * Equal scores are ordered by a random key.
+	 */
+	private static class ScoreHeap {
+
+		private int[] ids = null;
+
+		private double[] scores = null;
+
+		private long[] keys = null;
+
+		private int size = 0;
+
+		/**
+		 * Instantiates a new score heap.
+		 *
+		 * @param capacity the number of domains kept
+		 */
+		public ScoreHeap(int capacity) {
+			ids = new int[capacity];
+			scores = new double[capacity];
+			keys = new long[capacity];
+		}
+
+		/**
+		 * Offers a domain to the heap.  If the heap is full the domain
+		 * replaces the lowest ranked domain if it ranks higher.
+		 *
+		 * @param id the id of the domain
+		 * @param score the candidate score of the domain
+		 * @param key the random tie breaking key of the domain
+		 */
+		public void offer(int id, double score, long key) {
+			if (size < ids.length) {
+				set(size, id, score, key);
+				siftUp(size++);
+			} else if (size > 0 && less(scores[0], keys[0], score, key)) {
+				set(0, id, score, key);
+				siftDown(0);
+			}
+		}
+
+		/**
+		 * Removes the domains from the heap.
+		 *
+		 * @return the ids of the domains, highest ranked first
+		 */
+		public int[] drainDescending() {
+			int[] retval = new int[size];
+			while (size > 0) {
+				retval[size - 1] = ids[0];
+				size--;
+				set(0, ids[size], scores[size], keys[size]);
+				siftDown(0);
+			}
+			return retval;
+		}
+
+		/**
+		 * Compares the ranks of two domains.
+		 *
+		 * @param score1 the score of the first domain
+		 * @param key1 the tie breaking key of the first domain
+		 * @param score2 the score of the second domain
+		 * @param key2 the tie breaking key of the second domain
+		 * @return true, if the first domain ranks lower than the second
+		 */
+		private static boolean less(double score1, long key1, double score2,
+				long key2) {
+			return score1 < score2 || (score1 == score2 && key1 < key2);
+		}
+
+		/**
+		 * Stores a domain at a heap index.
+		 *
+		 * @param i the heap index
+		 * @param id the id of the domain
+		 * @param score the score of the domain
+		 * @param key the tie breaking key of the domain
+		 */
+		private void set(int i, int id, double score, long key) {
+			ids[i] = id;
+			scores[i] = score;
+			keys[i] = key;
+		}
+
+		/**
+		 * Swaps the domains at two heap indexes.
+		 *
+		 * @param i the first heap index
+		 * @param j the second heap index
+		 */
+		private void swap(int i, int j) {
+			int id = ids[i];
+			double score = scores[i];
+			long key = keys[i];
+			set(i, ids[j], scores[j], keys[j]);
+			set(j, id, score, key);
+		}
+
+		/**
+		 * Moves a domain towards the root until its parent ranks lower.
+		 *
+		 * @param i the heap index of the domain
+		 */
+		private void siftUp(int i) {
+			while (i > 0) {
+				int parent = (i - 1) / 2;
+				if (!less(scores[i], keys[i], scores[parent], keys[parent])) {
+					break;
+				}
+				swap(i, parent);
+				i = parent;
+			}
+		}
+
+		/**
+		 * Moves a domain towards the leaves until its children rank higher.
+		 *
+		 * @param i the heap index of the domain
+		 */
+		private void siftDown(int i) {
+			while (true) {
+				int smallest = i;
+				for (int child = 2 * i + 1; child <= 2 * i + 2 && child < size; child++) {
+					if (less(scores[child], keys[child], scores[smallest],
+							keys[smallest])) {
+						smallest = child;
+					}
+				}
+				if (smallest == i) {
+					break;
+				}
+				swap(i, smallest);
+				i = smallest;
+			}
+		}
+	}
+}
@@ -18,44 +18,37 @@
 
 package edu.uga.cs.fluxbuster.clustering;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.Date;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Properties;
+import java.util.Random;
 import java.util.Set;
-import java.util.Vector;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ThreadFactory;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
-import java.util.zip.GZIPInputStream;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
-import org.joda.time.DateTime;
 
-import edu.uga.cs.fluxbuster.classification.ClusterClass;
+import edu.uga.cs.fluxbuster.clustering.hierarchicalclustering.AbstractDistanceMatrix;
 import edu.uga.cs.fluxbuster.clustering.hierarchicalclustering.Dendrogram;
 import edu.uga.cs.fluxbuster.clustering.hierarchicalclustering.DistanceMatrix;
+import edu.uga.cs.fluxbuster.clustering.hierarchicalclustering.DistanceStorage;
 import edu.uga.cs.fluxbuster.clustering.hierarchicalclustering.HCluster;
 import edu.uga.cs.fluxbuster.clustering.hierarchicalclustering.HierarchicalClustering;
 import edu.uga.cs.fluxbuster.clustering.hierarchicalclustering.HierarchicalClustering.LinkageType;
+import edu.uga.cs.fluxbuster.clustering.hierarchicalclustering.SparseDistanceMatrix;
 import edu.uga.cs.fluxbuster.db.DBInterface;
 import edu.uga.cs.fluxbuster.db.DBInterfaceFactory;
+import edu.uga.cs.fluxbuster.utils.DomainWhitelist;
+import edu.uga.cs.fluxbuster.utils.IntArena;
 import edu.uga.cs.fluxbuster.utils.PropertiesUtils;
-import edu.uga.cs.fluxbuster.utils.DomainNameUtils;
 
 /**
  * This class initiates the hierarchical clustering process.
@@ -64,7 +57,9 @@ import edu.uga.cs.fluxbuster.utils.DomainNameUtils;
  */
 public class ClusterGenerator {
 
-	private ArrayList<String> domainWhitelist = null;
+	private volatile DomainWhitelist domainWhitelist = new DomainWhitelist();
+	
+	private volatile long whitelistModified = 0;
 	
 	private Properties localprops = null, appprops = null;
 
@@ -74,6 +69,8 @@ public class ClusterGenerator {
 	
 	private static final String FLUXFILEREGEXKEY = "CANDIDATE_FLUX_FILE_REGEX";
 	
+	private static final String FLUXBINFILEREGEXKEY = "CANDIDATE_FLUX_BINARY_FILE_REGEX";
+	
 	private static final String FLUXFILEPARSEREGEXKEY = "CANDIDATE_FLUX_FILE_PARSING_REGEX";
 	
 	private static final String FLUXDIRKEY = "CANDIDATE_FLUX_DIR";
@@ -95,9 +92,48 @@ public class ClusterGenerator {
 	private static final String DISTMATRIXKEY = "DIST_MATRIX_MULTITHREADED";
 	
 	private static final String DISTNUMTHREADSKEY = "DIST_MATRIX_NUMTHREADS";
+	
+	private static final String DISTSPARSEKEY = "DIST_MATRIX_SPARSE";
+	
+	private static final String DISTAPPROXKEY = "DIST_MATRIX_APPROXIMATE";
+	
+	private static final String DISTLSHRECALLKEY = "DIST_MATRIX_LSH_RECALL";
+	
+	private static final double DEFAULTLSHRECALL = 0.95;
+	
+	private static final String DISTMEMBUDGETKEY = "DIST_MATRIX_MEMORY_BUDGET";
+	
+	private static final String DISTMAPDIRKEY = "DIST_MATRIX_MAP_DIR";
+	
+	private static final String DISTBITSKEY = "DIST_MATRIX_STORAGE_BITS";
+	
+	private static final String DISTSCALEKEY = "DIST_MATRIX_QUANTIZATION_SCALE";
+
+	private static final String DISTWINDOWFILEKEY = "DIST_MATRIX_WINDOW_FILE";
+
+	private static final String COLLAPSEKEY = "COLLAPSE_IDENTICAL_IP_SETS";
+
+	private static final String COLLAPSECOMPLETEKEY = 
+			"COLLAPSE_IDENTICAL_IP_SETS_COMPLETE";
+
+	private static final String COMPONENTSKEY = "CLUSTER_COMPONENTS";
+
+	private static final String CLUSTERNUMTHREADSKEY = "CLUSTER_NUMTHREADS";
 
 	private static final String SELECTEDCFDFILEKEY = "SELECTED_CFD_FILE";
 	
+	private static final String INGESTNUMTHREADSKEY = "INGEST_NUMTHREADS";
+	
+	private static final String STOREBACKINGKEY = "CANDIDATE_STORE_BACKING";
+	
+	private static final String STOREDIRKEY = "CANDIDATE_STORE_DIR";
+	
+	private static final String AGGREGATEDIRKEY = "CANDIDATE_AGGREGATE_DIR";
+	
+	private static final String RECENTFLUXCACHEKEY = "RECENT_FLUX_CACHE_FILE";
+	
+	private static final int RECENTFLUXDAYS = 7;
+	
 	private static Log log = LogFactory.getLog(ClusterGenerator.class);
 	
 	/**
@@ -124,25 +160,57 @@ public class ClusterGenerator {
 	 * @throws IOException if the whitelist file can not be read
 	 */
 	private void loadWhitelist() throws IOException {
-		domainWhitelist = new ArrayList<String>();
-		String whitelistfile = localprops.getProperty(WHITELISTKEY);
+		File whitelistfile = new File(localprops.getProperty(WHITELISTKEY));
+		long modified = whitelistfile.lastModified();
+		DomainWhitelist whitelist = DomainWhitelist.load(whitelistfile.getPath());
+		domainWhitelist = whitelist;
+		whitelistModified = modified;
+		if(log.isDebugEnabled()){
+			log.debug("Loaded " + whitelist.size() + " whitelisted domains.");
+		}
+	}
 
-		BufferedReader br = new BufferedReader(new FileReader(whitelistfile));
-		String line;
-		while ((line = br.readLine()) != null) {
-			domainWhitelist.add(DomainNameUtils.stripDots(line.trim()));
+	/**
+	 * Reloads the domain whitelist from the whitelist file.  The new
+	 * whitelist replaces the previous one once it is fully loaded, if
+	 * the file can not be read the previous whitelist is kept.
+	 *
+	 * @throws IOException if the whitelist file can not be read
+	 */
+	public void reloadWhitelist() throws IOException {
+		loadWhitelist();
+	}
+
+	/**
+	 * Reloads the domain whitelist if the whitelist file has been
+	 * modified since it was last loaded.
+	 */
+	private void reloadWhitelistIfModified() {
+		long modified = new File(localprops.getProperty(WHITELISTKEY))
+				.lastModified();
+		if (modified == whitelistModified) {
+			return;
+		}
+		try {
+			loadWhitelist();
+		} catch (IOException e) {
+			if(log.isErrorEnabled()){
+				log.error("Error reloading domain whitelist.", e);
+			}
 		}
-		br.close();
 	}
 
 	/**
 	 * Compute a distance matrix from a list of candidate flux domains.
 	 *
 	 * @param cfds the candidate flux domains
-	 * @return the vector of values in the distance matrix in row major
-	 * 		order
+	 * @param linkage the linkage type to use when clustering
+	 * @param maxCutHeight the max cut height
+	 * @return the distance matrix
+	 * @throws Exception if the distance calculation fails
 	 */
-	private Vector<Float> computeDistanceMatrix(List<CandidateFluxDomain> cfds){
+	private AbstractDistanceMatrix computeDistanceMatrix(List<CandidateFluxDomain> cfds,
+			LinkageType linkage, double maxCutHeight) throws Exception {
 		boolean multithread = Boolean.parseBoolean(appprops
 				.getProperty(DISTMATRIXKEY));
 		if (multithread) {
@@ -151,9 +219,11 @@ public class ClusterGenerator {
 			if (numthreads < 1) {
 				numthreads = 1;
 			}
-			return computeDistanceMatrixMultiThreaded(cfds, numthreads);
+			return computeDistanceMatrixMultiThreaded(cfds, linkage, 
+					maxCutHeight, numthreads);
 		} else {
-			return computeDistanceMatrixMultiThreaded(cfds, 1);
+			return computeDistanceMatrixMultiThreaded(cfds, linkage, 
+					maxCutHeight, 1);
 		}
 
 	}
@@ -163,102 +233,207 @@ public class ClusterGenerator {
 	 * a maximum number of calculation threads.
 	 *
 	 * @param cfds the list of candidate flux domains
+	 * @param linkage the linkage type to use when clustering
+	 * @param maxCutHeight the max cut height
 	 * @param maxnumthreads the thread ceiling
-	 * @return the vector of values in the distance matrix in row major
-	 * 		order
+	 * @return the distance matrix, sparse if DIST_MATRIX_SPARSE or 
+	 * 		DIST_MATRIX_APPROXIMATE is set and the linkage is single or
+	 * 		complete linkage
+	 * @throws Exception if the distance calculation fails
 	 */
-	private Vector<Float> computeDistanceMatrixMultiThreaded(
-			List<CandidateFluxDomain> cfds, int maxnumthreads){
-		Vector<Float> retval = new Vector<Float>();
-		ThreadFactory tf = Executors.defaultThreadFactory();
+	private AbstractDistanceMatrix computeDistanceMatrixMultiThreaded(
+			List<CandidateFluxDomain> cfds, LinkageType linkage,
+			double maxCutHeight, int maxnumthreads) throws Exception {
 		double gamma = Double.parseDouble(localprops.getProperty(GAMMAKEY));
-		ArrayList<Thread> threads = new ArrayList<Thread>();
-		ArrayList<HashSet<Integer>> threadrows = new ArrayList<HashSet<Integer>>();
-
-		int interval = (int) Math.ceil((cfds.size() - 1)
-				/ (double) maxnumthreads);
-		int left = 0;
-		int right = cfds.size() - 2;
-		HashSet<Integer> curset = null;
-		boolean addLeftFirst = true;
-
-		while (left <= right) {
-			if (curset == null) {
-				curset = new HashSet<Integer>();
-			}
-
-			if (curset.size() == interval) {
-				threadrows.add(curset);
-				curset = null;
-			} else {
-				if (addLeftFirst) {
-					curset.add(left++);
-				} else {
-					curset.add(right--);
-				}
-				addLeftFirst = !addLeftFirst;
-
-				if (curset.size() == interval) {
-					continue;
-				}
-
-				if (addLeftFirst) {
-					curset.add(left++);
-				} else {
-					curset.add(right--);
-				}
-			}
+		// only single and complete linkage ignore the distances beyond the
+		// max cut height, the other linkages average them into the merges
+		boolean minMax = HierarchicalClustering.isMinMaxLinkage(linkage);
+		double pruneHeight = minMax ? maxCutHeight : Double.MAX_VALUE;
+		DistanceMatrixCalculator calc = new DistanceMatrixCalculator(gamma, cfds,
+				pruneHeight);
+		DistanceMatrixWindow window = createDistanceMatrixWindow(gamma, 
+				pruneHeight);
+		if (window != null) {
+			window.apply(cfds, calc);
+		}
+		// the distance of a pair is at least 1 - J, so only pairs with a 
+		// Jaccard index of at least 1 - maxCutHeight can be merged
+		double minSimilarity = 1.0 - maxCutHeight;
+		boolean sparseRequested = Boolean.parseBoolean(appprops
+				.getProperty(DISTSPARSEKEY)) || Boolean.parseBoolean(appprops
+				.getProperty(DISTAPPROXKEY));
+		if (sparseRequested && !minMax && log.isWarnEnabled()) {
+			log.warn("A sparse distance matrix requires single or complete "
+					+ "linkage, using a dense distance matrix for " + linkage
+					+ ".");
+		}
+		AbstractDistanceMatrix retval;
+		if (!minMax) {
+			DistanceMatrix dense = createDistanceMatrix(cfds.size(), linkage);
+			calc.compute(dense, maxnumthreads);
+			retval = dense;
+		} else if (Boolean.parseBoolean(appprops.getProperty(DISTAPPROXKEY))
+				&& minSimilarity > 0.0) {
+			SparseDistanceMatrix sparse = new SparseDistanceMatrix(cfds.size(),
+					linkage);
+			calc.compute(sparse, maxnumthreads, MinHashLSH.forThreshold(
+					minSimilarity, getLSHRecall(), MinHashLSH.DEFAULTSEED));
+			retval = sparse;
+		} else if (sparseRequested) {
+			SparseDistanceMatrix sparse = new SparseDistanceMatrix(cfds.size(),
+					linkage);
+			calc.compute(sparse, maxnumthreads);
+			retval = sparse;
+		} else {
+			DistanceMatrix dense = createDistanceMatrix(cfds.size(), linkage);
+			calc.compute(dense, maxnumthreads);
+			retval = dense;
 		}
-		if (curset != null && curset.size() > 0) {
-			threadrows.add(curset);
+		if (window != null) {
+			window.save(cfds, retval);
 		}
+		return retval;
+	}
 
-		ArrayList<Vector<Float>> resultsList = new ArrayList<Vector<Float>>(
-				cfds.size());
-		// this is necessary to make sure that the proper indexes exist in
-		// resultsList before being accessed by the threads
-		for (int i = 0; i < cfds.size() - 1; i++) {
-			resultsList.add(null);
-		}
+	/**
+	 * Creates the window which keeps the distances between periodic runs
+	 * if DIST_MATRIX_WINDOW_FILE is set.  The distances are only reused by
+	 * a run with the same distance matrix properties.
+	 *
+	 * @param gamma the gamma value to use in distance calculation
+	 * @param maxCutHeight the max cut height
+	 * @return the window, null if the property is not set
+	 */
+	private DistanceMatrixWindow createDistanceMatrixWindow(double gamma,
+			double maxCutHeight) {
+		String path = appprops.getProperty(DISTWINDOWFILEKEY);
+		if (path == null || path.trim().length() == 0) {
+			return null;
+		}
+		StringBuffer configKey = new StringBuffer();
+		configKey.append(GAMMAKEY + "=" + gamma);
+		configKey.append(";" + MAXCUTHEIGHTKEY + "=" + maxCutHeight);
+		String[] keys = new String[] {DISTSPARSEKEY, DISTAPPROXKEY, 
+				DISTLSHRECALLKEY, DISTBITSKEY, DISTSCALEKEY};
+		for (String key : keys) {
+			String value = appprops.getProperty(key);
+			configKey.append(";" + key + "=" 
+					+ (value == null ? "" : value.trim()));
+		}
+		return new DistanceMatrixWindow(new File(path.trim()), 
+				configKey.toString(), maxCutHeight);
+	}
 
-		for (int i = 0; i < threadrows.size(); i++) {
-			Thread t = tf.newThread(new DistanceMatrixCalculator(gamma,
-					threadrows.get(i), cfds, resultsList));
-			threads.add(t);
+	/**
+	 * Creates a dense distance matrix on the java heap, or in a memory 
+	 * mapped file if it does not fit the memory budget.  The distances are
+	 * quantized if DIST_MATRIX_STORAGE_BITS is 16 or 8.
+	 *
+	 * @param numInstances the number of instances
+	 * @param linkage the linkage type to use when clustering
+	 * @return the distance matrix
+	 * @throws IOException if the memory mapped file can not be created
+	 */
+	private DistanceMatrix createDistanceMatrix(int numInstances,
+			LinkageType linkage) throws IOException {
+		int bits = DistanceStorage.FLOATBITS;
+		String bitsStr = appprops.getProperty(DISTBITSKEY);
+		if (bitsStr != null && bitsStr.trim().length() > 0) {
+			bits = Integer.parseInt(bitsStr.trim());
+		}
+		long numValues = DistanceMatrix.getNumValues(numInstances);
+		long bytes = numValues * bits / 8;
+		long budget = getDistMatrixMemoryBudget();
+		boolean mapped = bytes > budget;
+		File dir = null;
+		String dirStr = appprops.getProperty(DISTMAPDIRKEY);
+		if (dirStr != null && dirStr.trim().length() > 0) {
+			dir = new File(dirStr.trim());
+		}
+		if (mapped && log.isInfoEnabled()) {
+			log.info("Mapping the " + (bytes >> 20) + " MB distance matrix "
+					+ "from a file, the memory budget is " + (budget >> 20) 
+					+ " MB.");
+		}
+		DistanceStorage storage;
+		if (bits == DistanceStorage.FLOATBITS) {
+			storage = mapped ? DistanceStorage.createMapped(numValues, dir)
+					: DistanceStorage.create(numValues);
+		} else {
+			float scale = DistanceStorage.getMaxScale(bits, 
+					SparseDistanceMatrix.MAXDISTANCE);
+			String scaleStr = appprops.getProperty(DISTSCALEKEY);
+			if (scaleStr != null && scaleStr.trim().length() > 0) {
+				scale = Float.parseFloat(scaleStr.trim());
+			}
+			storage = DistanceStorage.createQuantized(numValues, bits, scale, 
+					mapped, dir);
 		}
+		return new DistanceMatrix(numInstances, linkage, storage);
+	}
 
-		for (Thread t : threads) {
-			t.start();
+	/**
+	 * Gets the number of bytes a dense distance matrix may take on the 
+	 * java heap.
+	 *
+	 * @return the memory budget, half of the maximum heap size if the 
+	 * 		property is not set
+	 */
+	private long getDistMatrixMemoryBudget() {
+		String budget = appprops.getProperty(DISTMEMBUDGETKEY);
+		if (budget == null || budget.trim().length() == 0) {
+			return Runtime.getRuntime().maxMemory() / 2;
 		}
-		
-		for (Thread t : threads) {
-			try{
-				t.join();
-			} catch (InterruptedException e) {
-				e.printStackTrace();
-			}
+		return Long.parseLong(budget.trim()) << 20;
+	}
+
+	/**
+	 * Gets the probability with which the approximate distance matrix 
+	 * contains a pair of domains which may be merged.
+	 *
+	 * @return the recall, DEFAULTLSHRECALL if the property is not set
+	 */
+	private double getLSHRecall() {
+		String recall = appprops.getProperty(DISTLSHRECALLKEY);
+		if (recall == null || recall.trim().length() == 0) {
+			return DEFAULTLSHRECALL;
 		}
+		return Double.parseDouble(recall.trim());
+	}
 
-		for (int i = 0; i < resultsList.size(); i++) {
-			retval.addAll(resultsList.get(i));
+	/**
+	 * Gets the number of threads to use when loading the data files.
+	 *
+	 * @return the number of ingest threads, 1 if the property is not set
+	 */
+	private int getIngestThreads() {
+		String numthreads = appprops.getProperty(INGESTNUMTHREADSKEY);
+		if (numthreads == null) {
+			return 1;
 		}
+		return Math.max(1, Integer.parseInt(numthreads.trim()));
+	}
 
-		return retval;
+	/**
+	 * Gets a key identifying the whitelist applied while loading, so
+	 * aggregates built with a different whitelist are not reused.
+	 *
+	 * @return the whitelist file path and modification time
+	 */
+	private String getFilterKey() {
+		return new File(localprops.getProperty(WHITELISTKEY)).getAbsolutePath()
+				+ ":" + whitelistModified;
 	}
 
 	/**
 	 * Determines if a domain name is in the whitelist.
 	 *
 	 * @param domainname the domain name
-	 * @return true, if the domain name is on the whitelist
+	 * @return true, if the domain name or one of its parent domains
+	 * 		is on the whitelist
 	 */
 	private boolean isWhiteListable(String domainname) {
-		for (String d : domainWhitelist) {
-			if (domainname.endsWith(d)) {
-				return true;
-			}
-		}
-		return false;
+		return domainWhitelist.isWhitelisted(domainname);
 	}
 
 	// TODO improve the candidate score algorithm
@@ -271,22 +446,30 @@ public class ClusterGenerator {
 	 * @return the candidate score
 	 */
 	public double calcCandidateScore(CandidateFluxDomain cfd) {
+		return loadSelectionConfig().calcCandidateScore(cfd.getNumIPs(),
+				cfd.getAvgTTL(), cfd.getIPv4Addresses());
+	}
+
+	/**
+	 * Parses the properties used to score and select the candidate flux
+	 * domains.
+	 *
+	 * @return the candidate selection config
+	 */
+	private CandidateSelectionConfig loadSelectionConfig() {
 		int minTotalRrsetSize = Integer.parseInt(localprops
 				.getProperty(MINRRSETSIZEKEY));
 		double minTotalDiversity = Double.parseDouble(localprops
 				.getProperty(MINDIVERSITYKEY));
 		double veryShortTTL = Double.parseDouble(localprops
 				.getProperty(SHORTTTLKEY));
-
-		double ipDiv = IPDiversityCalculator.ipDiversity(IPDiversityCalculator
-				.getV4Ips(cfd.getIps()));
-
-		if (cfd.getNumIPs() >= minTotalRrsetSize && ipDiv > minTotalDiversity) {
-			return 1.0;
-		} else if (cfd.getNumIPs() == 1 && cfd.getAvgTTL() <= veryShortTTL) {
-			return 1.0;
-		}
-		return 0.0;
+		double goodCandidateThreshold = Double.parseDouble(appprops
+				.getProperty(CANDIDATETHRESHKEY));
+		int maxCandidateDomains = Integer.parseInt(appprops
+				.getProperty(MAXDOMAINSKEY));
+		return new CandidateSelectionConfig(minTotalRrsetSize,
+				minTotalDiversity, veryShortTTL, goodCandidateThreshold,
+				maxCandidateDomains);
 	}
 
 	/**
@@ -298,209 +481,106 @@ public class ClusterGenerator {
 	 * @param domainfile a file containing the list of domains that should
 	 * 		be clustered regardless of the candidate score.  If null the list
 	 * 		is ignored.
-	 * @return the list of candidate flux domains
+	 * @return the list of candidate flux domains, copied out of the store
+	 * 		of all loaded domains which is closed before returning
 	 * @throws Exception if there is an error reading the ClusterGenerator.localprops
 	 * 		or data files
 	 */
 	public List<CandidateFluxDomain> loadCandidateFluxDomains(long startTime,
 			long endTime, String domainfile) throws Exception {
 		ArrayList<CandidateFluxDomain> retval = new ArrayList<CandidateFluxDomain>();
-		HashMap<String, CandidateFluxDomain> seenDomains = new HashMap<String, CandidateFluxDomain>();
 		Set<String> recentFluxDomains = loadRecentFluxDomains(startTime);
-		String dirPath = appprops.getProperty(FLUXDIRKEY);
-		double goodCandidateThreshold = Double.parseDouble(appprops
-				.getProperty(CANDIDATETHRESHKEY));
-		int maxCandidateDomains = Integer.parseInt(appprops
-				.getProperty(MAXDOMAINSKEY));
-
-		for (String filename : getFileNames(dirPath, startTime, endTime)) {
-			BufferedReader br = null;
-			try {
-				GZIPInputStream gis = new GZIPInputStream(new FileInputStream(
-						filename));
-				br = new BufferedReader(new InputStreamReader(gis));
-				String line;
-				while ((line = br.readLine()) != null) {
-					CandidateFluxDomain cfd = CandidateFluxDomain
-							.parseFromLog(line);
-
-					if (isWhiteListable(cfd.getDomainName())) {
-						if(log.isDebugEnabled()){
-							log.debug(cfd.getDomainName() + " is whitelisted.");
-						}
-						continue;
-					}
-
-					String domainname = cfd.getDomainName();
-					if (seenDomains.containsKey(domainname)) {
-						CandidateFluxDomain prev = seenDomains.get(domainname);
-						seenDomains.put(domainname, prev.merge(cfd));
-					} else {
-						seenDomains.put(domainname, cfd);
-					}
-
-				}
-			} catch (Exception e) {
-				e.printStackTrace();
-			} finally {
-				if (br != null) {
-					br.close();
-				}
-			}
-		}
-		
-		//add all domains from a file
-		if(domainfile != null){			
-			addDomainsFromFile(domainfile, maxCandidateDomains, retval, seenDomains);
-		}
-		
-		ArrayList<String> allDomains = new ArrayList<String>();
-		allDomains.addAll(seenDomains.keySet());
-
-		// add all domains from recently seen flux domains
-		if (retval.size() < maxCandidateDomains && recentFluxDomains.size() > 0) {
-			addRecentFluxDomains(recentFluxDomains, maxCandidateDomains, retval, 
-					seenDomains, allDomains);
-		}
-
-		// then add the non-recent ones that meet the score threshold
-		if (retval.size() < maxCandidateDomains) {
-			addThresholdMeetingDomains(maxCandidateDomains, goodCandidateThreshold, 
-					retval, seenDomains, allDomains);
-		}
-
-		// then fill the rest randomly from what's left over
-		if (retval.size() < maxCandidateDomains) {
-			Collections.shuffle(allDomains);
-			for (String domainname : allDomains) {
-				if (retval.size() == maxCandidateDomains) {
-					break;
-				}
-				retval.add(seenDomains.get(domainname));
-			}
+		CandidateSelectionConfig config = loadSelectionConfig();
+		CandidateFluxDomainStore store = loadCandidateFluxDomainStore(startTime,
+				endTime);
+		try {
+			CandidateSelector selector = new CandidateSelector(config, store,
+					new Random());
+			retval.addAll(selector.select(domainfile, recentFluxDomains));
+		} finally {
+			store.close();
 		}
-
 		return retval;
 	}
-	
+
 	/**
-	 * Copies candidate flux domains into a list if its candidate score is greater
-	 * than a threshold up to a limit on the size of the list.  The candidate flux 
-	 * domains are copied from a map of candidate flux domains.  Domains are only 
-	 * considered if they appear in the all domains list.   Once a candidate flux 
-	 * domain is copied it's corresponding domain name is removed from the all 
-	 * domains list.
-	 * 
-	 * @param maxCandidateDomains the limit on the total number of domains to add
-	 * @param goodCandidateThreshold the candidate score threshold
-	 * @param resultBuf the list in which to store the candidate flux domains
-	 * @param seenDomains the map of candidate flux domains.
-	 * @param allDomains this list of domains to consider
+	 * Loads all candidate flux domains which are not whitelisted from the
+	 * data files for the time period between the start and end times, 
+	 * before any candidate flux domains are selected for clustering.
+	 *
+	 * @param startTime the start time in sec.
+	 * @param endTime the end time in sec.
+	 * @return the store of the loaded candidate flux domains, which the
+	 * 		caller must close
+	 * @throws Exception if there is an error reading the data files
 	 */
-	private void addThresholdMeetingDomains(int maxCandidateDomains, double goodCandidateThreshold,
-			List<CandidateFluxDomain> resultBuf, HashMap<String, CandidateFluxDomain> seenDomains, 
-			ArrayList<String> allDomains){
-		ArrayList<CandidateFluxDomain> sortedDomains = new ArrayList<CandidateFluxDomain>();
-		ArrayList<String> removeDomains = new ArrayList<String>();
-		// get all cfd's whose score is over the threshold
-		for (String domain : allDomains) {
-			CandidateFluxDomain temp = seenDomains.get(domain);
-			if (this.calcCandidateScore(temp) > goodCandidateThreshold) {
-				sortedDomains.add(temp);
-			}
-		}
-
-		// sort them in descending order by score
-		Collections.sort(sortedDomains,
-				new Comparator<CandidateFluxDomain>() {
+	CandidateFluxDomainStore loadCandidateFluxDomainStore(long startTime,
+			long endTime) throws Exception {
+		String dirPath = appprops.getProperty(FLUXDIRKEY);
+		reloadWhitelistIfModified();
+		CandidateFluxDomainLoader loader = new CandidateFluxDomainLoader(
+				getIngestThreads(), new CandidateFluxDomainLoader.DomainFilter() {
 					@Override
-					public int compare(CandidateFluxDomain o1,
-							CandidateFluxDomain o2) {
-						Double o1score = calcCandidateScore(o1);
-						Double o2score = calcCandidateScore(o2);
-						return o2score.compareTo(o1score); // Descending
-															// order
+					public boolean accept(String domainname) {
+						if (isWhiteListable(domainname)) {
+							if(log.isDebugEnabled()){
+								log.debug(domainname + " is whitelisted.");
+							}
+							return false;
+						}
+						return true;
 					}
 				});
-
-		for (CandidateFluxDomain cfd2 : sortedDomains) {
-			if (resultBuf.size() == maxCandidateDomains) {
-				break;
+		CandidateFluxDomainStore store = createCandidateFluxDomainStore();
+		try {
+			List<String> filenames = getFileNames(dirPath, startTime, endTime);
+			String aggregateDir = appprops.getProperty(AGGREGATEDIRKEY);
+			if (aggregateDir != null && aggregateDir.trim().length() > 0) {
+				CandidateFluxAggregateStore aggregates = new CandidateFluxAggregateStore(
+						new File(aggregateDir.trim()));
+				for (CandidateFluxDomainAccumulator acc : aggregates.load(startTime, 
+						endTime, getFilterKey(), filenames, loader).values()) {
+					acc.appendTo(store);
+				}
+			} else {
+				loader.load(filenames, store);
 			}
-			resultBuf.add(cfd2);
-			removeDomains.add(cfd2.getDomainName());
+		} catch (Exception e) {
+			store.close();
+			throw e;
 		}
-		allDomains.removeAll(removeDomains);
-	}
-	
-	/**
-	 * Copies candidate flux domains into a list if its corresponding 2LD is present
-	 * in a list of recent flux domains up to a limit on the size of the list.  The 
-	 * candidate flux domains are copied from a map of candidate flux domains.  Domains 
-	 * are only considered if they appear in the all domains list.  Once a candidate flux 
-	 * domain is copied it's corresponding domain name is removed from the all domains list.
-	 * 
-	 * @param recentFluxDomains the list of recent flux 2LD's
-	 * @param maxCandidateDomains the limit on the total number of domains to add
-	 * @param resultBuf the list in which to store the candidate flux domains
-	 * @param seenDomains the map of candidate flux domains.
-	 * @param allDomains this list of domains to consider
-	 */
-	private void addRecentFluxDomains(Set<String> recentFluxDomains, int maxCandidateDomains, 
-			List<CandidateFluxDomain> resultBuf, HashMap<String, CandidateFluxDomain> seenDomains,
-			ArrayList<String> allDomains){
-		ArrayList<String> removeDomains = new ArrayList<String>();
-		Collections.shuffle(allDomains); // this is probably not necessary
-		for (String domainname : allDomains) {
-			if (resultBuf.size() == maxCandidateDomains) {
-				break;
-			}
-			String domainname2LD = DomainNameUtils.extractEffective2LD(domainname);
-			if (domainname2LD != null && recentFluxDomains.contains(domainname2LD)) {
-				resultBuf.add(seenDomains.get(domainname));
-				removeDomains.add(domainname);
-			}
+		if (loader.getBadLines() > 0 && log.isWarnEnabled()) {
+			log.warn("Skipped " + loader.getBadLines() + " malformed lines.");
 		}
-		allDomains.removeAll(removeDomains);
+		if(log.isDebugEnabled()){
+			log.debug("Stored " + store.size() + " candidate flux domains in "
+					+ store.getAllocatedIPBytes() + " bytes of IP addresses.");
+		}
+		return store;
 	}
 	
 	/**
-	 * Copies candidate flux domains into a list if they appear in a domain file up
-	 * to a limit on the size of the list.  The candidate flux domains are copied 
-	 * from a map of candidate flux domains.  Once a candidate flux domain is copied
-	 * it is removed from the map.  
-	 * 
-	 * @param domainfile the file from which to read the domains
-	 * @param maxCandidateDomains the limit on the total number of domains to add
-	 * @param resultBuf the list in which to store the candidate flux domains
-	 * @param seenDomains the map of candidate flux domains.
-	 * @throws IOException
+	 * Creates the store for the loaded candidate flux domains. The backing
+	 * of the store's IP addresses is read from the application properties.
+	 *
+	 * @return the empty store
+	 * @throws IOException if the backing file of the store can not be created
 	 */
-	private void addDomainsFromFile(String domainfile, int maxCandidateDomains,
-			List<CandidateFluxDomain> resultBuf, HashMap<String, CandidateFluxDomain> seenDomains) throws IOException{
-		BufferedReader br = new BufferedReader(new FileReader(new File(domainfile)));
-		String line = null;
-		while((line = br.readLine()) != null){
-			if (resultBuf.size() == maxCandidateDomains) {
-				break;
-			}
-			line = DomainNameUtils.stripDots(line.trim());
-			CandidateFluxDomain d = seenDomains.get(line);
-			if(d != null){
-				if(log.isDebugEnabled()){
-					log.debug("Adding domain " + line + " from domains file.");
-				}
-				resultBuf.add(d);
-				seenDomains.remove(line);
-			} else {
-				if(log.isDebugEnabled()){
-					log.debug("Unable to load domain " + line + " from domains file.");
-				}				
-			}
-		}
-		br.close();
+	private CandidateFluxDomainStore createCandidateFluxDomainStore() 
+			throws IOException {
+		IntArena.Backing backing = IntArena.Backing.HEAP;
+		String backingStr = appprops.getProperty(STOREBACKINGKEY);
+		if (backingStr != null && backingStr.trim().length() > 0) {
+			backing = IntArena.Backing.valueOf(backingStr.trim().toUpperCase());
+		}
+		File dir = null;
+		String dirStr = appprops.getProperty(STOREDIRKEY);
+		if (dirStr != null && dirStr.trim().length() > 0) {
+			dir = new File(dirStr.trim());
+		}
+		return new CandidateFluxDomainStore(backing, dir);
 	}
-
+	
 	/**
 	 * Load recent flux 2LD's.
 	 *
@@ -508,32 +588,21 @@ public class ClusterGenerator {
 	 * @return the list of recent flux 2LD's
 	 */
 	private Set<String> loadRecentFluxDomains(long startTime) {
-		Set<String> retval = new HashSet<String>();
-		DBInterface iface = DBInterfaceFactory.loadDBInterface();
-		DateTime startDateTime = new DateTime(startTime * 1000);
-		for(int i = 1; i < 8; i++){
-			Date prevdate = new Date(startDateTime.minusDays(i).getMillis());
-			try{
-				for(StoredDomainCluster fluxCluster: iface.getClusters(prevdate, 
-						ClusterClass.FLUX)){
-					for(String domain : fluxCluster.getDomains()){
-						retval.add(DomainNameUtils.extractEffective2LD(domain));
-					}
-				}
-			} catch (Exception e) {
-				if(log.isErrorEnabled()){
-					SimpleDateFormat dateFormat = new SimpleDateFormat("yyyyMMdd");
-					log.error("Uable to load previous flux domains for " + 
-							dateFormat.format(prevdate), e);
-				}
-			}
-		}
-		return retval;
+		File cacheFile = null;
+		String cachePath = appprops.getProperty(RECENTFLUXCACHEKEY);
+		if (cachePath != null && cachePath.trim().length() > 0) {
+			cacheFile = new File(cachePath.trim());
+		}
+		RecentFluxDomainProvider provider = new RecentFluxDomainProvider(
+				DBInterfaceFactory.loadDBInterface(), cacheFile);
+		return provider.getRecentFlux2LDs(startTime, RECENTFLUXDAYS);
 	}
 
 	/**
 	 * Gets the names of the data input files from a specific 
 	 * directory for the time period between the start and end times.
+	 * If both a gzip'd text file and a binary file exist for the same
+	 * time the binary file is used.
 	 *
 	 * @param dirPath the data file directory
 	 * @param startTime the start time
@@ -543,8 +612,9 @@ public class ClusterGenerator {
 	private List<String> getFileNames(String dirPath, long startTime,
 			long endTime) {
 		ArrayList<String> retval = new ArrayList<String>();
-		ArrayList<File> selectedFiles = new ArrayList<File>();
+		HashMap<Long, File> selectedFiles = new HashMap<Long, File>();
 		String fileregex = localprops.getProperty(FLUXFILEREGEXKEY);
+		String binfileregex = localprops.getProperty(FLUXBINFILEREGEXKEY);
 		String parseregx = localprops.getProperty(FLUXFILEPARSEREGEXKEY);
 		Pattern parsepattern = Pattern.compile(parseregx);
 		File fluxdir = new File(dirPath);
@@ -552,13 +622,16 @@ public class ClusterGenerator {
 			File[] posFluxFiles = fluxdir.listFiles();
 			if (posFluxFiles != null) {
 				for (File posFluxFile : posFluxFiles) {
-					if (posFluxFile.getName().matches(fileregex)) {
+					boolean binary = binfileregex != null 
+							&& posFluxFile.getName().matches(binfileregex);
+					if (binary || posFluxFile.getName().matches(fileregex)) {
 						Matcher parsematcher = parsepattern.matcher(posFluxFile
 								.getName());
 						parsematcher.find();
 						long timestamp = Long.parseLong(parsematcher.group(0));
-						if (timestamp >= startTime && timestamp < endTime) {
-							selectedFiles.add(posFluxFile);
+						if (timestamp >= startTime && timestamp < endTime
+								&& (binary || !selectedFiles.containsKey(timestamp))) {
+							selectedFiles.put(timestamp, posFluxFile);
 						}
 					}
 				}
@@ -567,14 +640,15 @@ public class ClusterGenerator {
 		}
 
 		// sorts in ascending order by filename
-		Collections.sort(selectedFiles, new Comparator<File>() {
+		ArrayList<File> sortedFiles = new ArrayList<File>(selectedFiles.values());
+		Collections.sort(sortedFiles, new Comparator<File>() {
 			@Override
 			public int compare(File o1, File o2) {
 				return o1.getName().compareTo(o2.getName());
 			}
 		});
 
-		for (File selectedFile : selectedFiles) {
+		for (File selectedFile : sortedFiles) {
 			if(log.isDebugEnabled()){
 				log.debug("Loading file: " + selectedFile.getName());
 			}
@@ -626,11 +700,8 @@ public class ClusterGenerator {
 			String domainfile) throws Exception{
 		double maxCutHeight = Double.parseDouble(appprops
 				.getProperty(MAXCUTHEIGHTKEY));
-		String linkageTypeStr = appprops.getProperty(LINKAGETYPEKEY);
-		LinkageType linkage = LinkageType.COMPLETE_LINKAGE;
-		if (linkageTypeStr.toLowerCase().trim().equals("single")) {
-			linkage = LinkageType.SINGLE_LINKAGE;
-		}
+		LinkageType linkage = HierarchicalClustering.parseLinkageType(
+				appprops.getProperty(LINKAGETYPEKEY));
 		return this.generateClusters(startTime, endTime, domainfile, linkage, maxCutHeight);		
 	}
 
@@ -663,31 +734,57 @@ public class ClusterGenerator {
 			log.info("Loaded " + cfdList.size() + " Candidate Flux Domains.");
 		}
 		if (cfdList.size() > 0) {
+			IPSetCollapser collapser = null;
+			List<CandidateFluxDomain> repList = cfdList;
+			// only single linkage keeps its clusters when collapsing,
+			// complete linkage has to be enabled explicitly
+			boolean collapse = linkage == LinkageType.SINGLE_LINKAGE 
+					|| (linkage == LinkageType.COMPLETE_LINKAGE 
+					&& Boolean.parseBoolean(appprops
+							.getProperty(COLLAPSECOMPLETEKEY)));
+			if (Boolean.parseBoolean(appprops.getProperty(COLLAPSEKEY))
+					&& !collapse) {
+				if(log.isInfoEnabled()){
+					log.info("Not collapsing identical IP sets with " 
+							+ linkage + ".");
+				}
+			} else if (Boolean.parseBoolean(appprops.getProperty(COLLAPSEKEY))) {
+				collapser = new IPSetCollapser(Double.parseDouble(
+						localprops.getProperty(GAMMAKEY)), maxCutHeight);
+				repList = collapser.collapse(cfdList);
+				if(log.isInfoEnabled()){
+					log.info("Collapsed " + cfdList.size() + " Candidate Flux "
+							+ "Domains into " + repList.size() 
+							+ " with distinct IP sets.");
+				}
+			}
 			if(log.isInfoEnabled()){
 				log.info("Computing Distance Matrix.");
 			}
-			Vector<Float> utDistValues = this.computeDistanceMatrix(cfdList);
-			DistanceMatrix distMatrix = new DistanceMatrix(utDistValues);
+			AbstractDistanceMatrix distMatrix = this.computeDistanceMatrix(repList,
+					linkage, maxCutHeight);
 			if(log.isInfoEnabled()){
 				log.info("Distance Matrix Calculated.");
 			}
-			HierarchicalClustering hc = new HierarchicalClustering(linkage);
 			if(log.isInfoEnabled()){
 				log.info("Running Clusterer.");
 			}
-			hc.runClusterer(distMatrix, maxCutHeight);
+			List<HCluster> hclusters = this.runClusterer(distMatrix, linkage,
+					maxCutHeight);
 			if(log.isInfoEnabled()){
 				log.info("Clustering Completed.");
-			}
-			Dendrogram dgram = hc.getDendrogram();
-			if(log.isInfoEnabled()){
 				log.info("Creating Domain Clusters.");
 			}
-			Vector<HCluster> hclusters = dgram.getClusters(maxCutHeight);
 			for (HCluster hcluster : hclusters) {
 				DomainCluster dm = new DomainCluster();
-				for (int index : hcluster.getIndexes()) {
-					dm.addCandidateFluxDomain(cfdList.get(index));
+				if (collapser != null) {
+					for (CandidateFluxDomain cfd : collapser.expand(hcluster)) {
+						dm.addCandidateFluxDomain(cfd);
+					}
+				} else {
+					for (int index : hcluster.getIndexes()) {
+						dm.addCandidateFluxDomain(cfdList.get(index));
+					}
 				}
 				retval.add(dm);
 			}
@@ -705,6 +802,61 @@ public class ClusterGenerator {
 		return retval;
 	}
 
+	/**
+	 * Clusters the candidate flux domains of a distance matrix.  If
+	 * CLUSTER_COMPONENTS is set the connected components of the pairs not
+	 * beyond the max cut height are clustered separately and their
+	 * dendrograms are joined.
+	 *
+	 * @param distMatrix the distance matrix
+	 * @param linkage the linkage type
+	 * @param maxCutHeight the max cut height
+	 * @return the clusters at the max cut height
+	 * @throws Exception if the clustering of a component fails
+	 */
+	private List<HCluster> runClusterer(AbstractDistanceMatrix distMatrix,
+			LinkageType linkage, double maxCutHeight) throws Exception {
+		if (Boolean.parseBoolean(appprops.getProperty(COMPONENTSKEY))) {
+			ComponentClusterer clusterer = new ComponentClusterer(linkage, 
+					maxCutHeight, getClusterThreads(), 
+					new ComponentClusterer.MatrixFactory() {
+						@Override
+						public DistanceMatrix createDistanceMatrix(
+								int numInstances, LinkageType linkage)
+								throws IOException {
+							return ClusterGenerator.this.createDistanceMatrix(
+									numInstances, linkage);
+						}
+					});
+			Dendrogram dgram = clusterer.cluster(distMatrix);
+			if(log.isInfoEnabled()){
+				log.info("Clustered " + clusterer.getNumComponents() 
+						+ " components, the largest has " 
+						+ clusterer.getLargestComponentSize() 
+						+ " Candidate Flux Domains.");
+			}
+			return dgram.getClusters(maxCutHeight);
+		}
+		HierarchicalClustering hc = new HierarchicalClustering(linkage);
+		hc.runClusterer(distMatrix, maxCutHeight);
+		Dendrogram dgram = hc.getDendrogram();
+		return dgram.getClusters(maxCutHeight);
+	}
+
+	/**
+	 * Gets the number of threads clustering the components of the 
+	 * distance matrix.
+	 *
+	 * @return the number of clustering threads, 1 if the property is not
+	 * 		set
+	 */
+	private int getClusterThreads() {
+		String numthreads = appprops.getProperty(CLUSTERNUMTHREADSKEY);
+		if (numthreads == null || numthreads.trim().length() == 0) {
+			return 1;
+		}
+		return Math.max(1, Integer.parseInt(numthreads.trim()));
+	}
 	
 	/**
 	 * Store clusters through a db interface loaded by the DBInterfaceFactory.
@@ -0,0 +1,400 @@
+/*
+* Copyright (C) 2012 Chris Neasbitt
+* Author: Chris Neasbitt
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 2 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package edu.uga.cs.fluxbuster.clustering;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import edu.uga.cs.fluxbuster.clustering.hierarchicalclustering.AbstractDistanceMatrix;
+import edu.uga.cs.fluxbuster.clustering.hierarchicalclustering.Dendrogram;
+import edu.uga.cs.fluxbuster.clustering.hierarchicalclustering.DistanceMatrix;
+import edu.uga.cs.fluxbuster.clustering.hierarchicalclustering.HierarchicalClustering;
+import edu.uga.cs.fluxbuster.clustering.hierarchicalclustering.HierarchicalClustering.LinkageType;
+import edu.uga.cs.fluxbuster.clustering.hierarchicalclustering.SparseDistanceMatrix;
+
+/**
+ * This class splits the candidate flux domains into the connected
+ * components of the pairs whose distance is not beyond the max cut height
+ * and clusters each component on its own.  None of the linkage types
+ * merges two clusters below the smallest distance of their candidates, so
+ * two candidates of different components are never in the same cluster
+ * and the clusters are those of clustering all candidates at once.  The components are clustered by a
+ * pool of threads, the largest first, and the components of a single
+ * candidate are not clustered at all.  The dendrograms of the components
+ * are joined into the dendrogram of all candidates, which may be cut at
+ * any height not beyond the max cut height.
+ *
+ * @author Chris Neasbitt
+ */
+public class ComponentClusterer {
+
+	/**
+	 * Creates the dense distance matrices of the components.
+	 */
+	public interface MatrixFactory {
+
+		/**
+		 * Creates a dense distance matrix.
+		 *
+		 * @param numInstances the number of instances
+		 * @param linkage the linkage type to use when clustering
+		 * @return the distance matrix
+		 * @throws IOException if the storage of the matrix can not be
+		 * 		created
+		 */
+		DistanceMatrix createDistanceMatrix(int numInstances,
+				LinkageType linkage) throws IOException;
+	}
+
+	private LinkageType linkage = null;
+
+	private double maxCutHeight = 0.0;
+
+	private int numThreads = 1;
+
+	private MatrixFactory factory = null;
+
+	private int[][] components = null;
+
+	private int[] componentOf = null, positions = null;
+
+	/**
+	 * Instantiates a new component clusterer.
+	 *
+	 * @param linkage the linkage type
+	 * @param maxCutHeight the max cut height
+	 * @param numThreads the number of threads clustering the components
+	 * @param factory creates the distance matrices of the components of a
+	 * 		dense distance matrix
+	 */
+	public ComponentClusterer(LinkageType linkage, double maxCutHeight,
+			int numThreads, MatrixFactory factory) {
+		this.linkage = linkage;
+		this.maxCutHeight = maxCutHeight;
+		this.numThreads = Math.max(1, numThreads);
+		this.factory = factory;
+	}
+
+	/**
+	 * Clusters the instances of a distance matrix component by component.
+	 *
+	 * @param distMatrix the distance matrix of unmerged instances
+	 * @return the dendrogram of all instances up to the max cut height
+	 * @throws Exception if the clustering of a component fails
+	 */
+	public Dendrogram cluster(final AbstractDistanceMatrix distMatrix)
+			throws Exception {
+		// a component of all instances merges the distance matrix itself
+		int numInstances = distMatrix.getNumInstances();
+		findComponents(distMatrix);
+		List<int[]> clustered = new ArrayList<int[]>();
+		List<Callable<Dendrogram>> workers =
+			new ArrayList<Callable<Dendrogram>>();
+		for (final int[] component : components) {
+			if (component.length > 1) {
+				clustered.add(component);
+				workers.add(new Callable<Dendrogram>() {
+					@Override
+					public Dendrogram call() throws Exception {
+						return clusterComponent(distMatrix, component);
+					}
+				});
+			}
+		}
+
+		List<Dendrogram> dendrograms = new ArrayList<Dendrogram>();
+		if (workers.size() <= 1 || numThreads == 1) {
+			for (Callable<Dendrogram> worker : workers) {
+				dendrograms.add(worker.call());
+			}
+		} else {
+			// the workers are queued largest first
+			ExecutorService executor = Executors.newFixedThreadPool(
+					Math.min(numThreads, workers.size()));
+			try {
+				for (Future<Dendrogram> result : executor.invokeAll(workers)) {
+					dendrograms.add(result.get());
+				}
+			} finally {
+				executor.shutdownNow();
+			}
+		}
+		return joinDendrograms(numInstances, clustered, dendrograms);
+	}
+
+	/**
+	 * Joins the dendrograms of the components into a dendrogram of all
+	 * instances.  The merges of the components are interleaved in
+	 * ascending order of their heights, each component keeping the order
+	 * of its own merges, and merges of equal height are taken from the
+	 * component with the smaller smallest instance first.
+	 *
+	 * @param numInstances the number of instances
+	 * @param clustered the components which were clustered
+	 * @param dendrograms the dendrogram of each clustered component
+	 * @return the dendrogram of all instances
+	 */
+	private static Dendrogram joinDendrograms(int numInstances,
+			final List<int[]> clustered, final List<Dendrogram> dendrograms) {
+		Dendrogram retval = new Dendrogram(numInstances);
+		// the next merge of each component is queued as {component, merge}
+		PriorityQueue<int[]> queue = new PriorityQueue<int[]>(
+				Math.max(1, dendrograms.size()), new Comparator<int[]>() {
+					@Override
+					public int compare(int[] o1, int[] o2) {
+						int order = Double.compare(
+								dendrograms.get(o1[0]).getHeight(o1[1]),
+								dendrograms.get(o2[0]).getHeight(o2[1]));
+						if (order == 0) {
+							order = clustered.get(o1[0])[0]
+									- clustered.get(o2[0])[0];
+						}
+						return order;
+					}
+				});
+		int[][] created = new int[dendrograms.size()][];
+		for (int c = 0; c < dendrograms.size(); c++) {
+			created[c] = new int[dendrograms.get(c).getNumMerges()];
+			if (created[c].length > 0) {
+				queue.add(new int[] { c, 0 });
+			}
+		}
+		while (!queue.isEmpty()) {
+			int[] next = queue.poll();
+			int c = next[0];
+			int k = next[1];
+			Dendrogram local = dendrograms.get(c);
+			int[] component = clustered.get(c);
+			int first = local.getFirst(k);
+			int second = local.getSecond(k);
+			created[c][k] = retval.addMerge(
+					first < component.length ? component[first]
+							: created[c][first - component.length],
+					second < component.length ? component[second]
+							: created[c][second - component.length],
+					local.getHeight(k));
+			if (k + 1 < created[c].length) {
+				queue.add(new int[] { c, k + 1 });
+			}
+		}
+		return retval;
+	}
+
+	/**
+	 * Gets the number of components of the last clustering.
+	 *
+	 * @return the number of components
+	 */
+	public int getNumComponents() {
+		return components == null ? 0 : components.length;
+	}
+
+	/**
+	 * Gets the number of instances of the largest component of the last
+	 * clustering.
+	 *
+	 * @return the size of the largest component
+	 */
+	public int getLargestComponentSize() {
+		return components == null || components.length == 0 ? 0
+				: components[0].length;
+	}
+
+	/**
+	 * Finds the connected components of the instance pairs not beyond the
+	 * max cut height.  A sparse distance matrix whose missing distances are
+	 * not beyond the cut height has a single component.  The rows of a 
+	 * dense distance matrix are read in the order they are stored.
+	 *
+	 * @param distMatrix the distance matrix of unmerged instances
+	 */
+	private void findComponents(AbstractDistanceMatrix distMatrix) {
+		int n = distMatrix.getNumInstances();
+		int[] parents = new int[n];
+		for (int a = 0; a < n; a++) {
+			parents[a] = a;
+		}
+		boolean sparse = distMatrix instanceof SparseDistanceMatrix;
+		if (sparse && SparseDistanceMatrix.MAXDISTANCE <= maxCutHeight) {
+			for (int a = 1; a < n; a++) {
+				parents[a] = 0;
+			}
+		} else if (sparse) {
+			SparseDistanceMatrix sparseMatrix = (SparseDistanceMatrix) distMatrix;
+			for (int a = 0; a < n; a++) {
+				int[] cols = sparseMatrix.getNeighbors(a);
+				float[] dists = sparseMatrix.getDistances(a);
+				for (int k = 0; k < cols.length; k++) {
+					if (cols[k] > a && dists[k] <= maxCutHeight) {
+						union(parents, a, cols[k]);
+					}
+				}
+			}
+		} else {
+			DistanceMatrix dense = (DistanceMatrix) distMatrix;
+			float[] dists = new float[n];
+			for (int a = 0; a < n; a++) {
+				dense.getFollowingDistances(a, dists);
+				for (int b = a + 1; b < n; b++) {
+					if (dists[b - a - 1] <= maxCutHeight) {
+						union(parents, a, b);
+					}
+				}
+			}
+		}
+
+		// numbers the components in the order of their smallest instances
+		int[] roots = new int[n];
+		int[] sizes = new int[n];
+		int numComponents = 0;
+		componentOf = new int[n];
+		positions = new int[n];
+		Arrays.fill(roots, -1);
+		for (int a = 0; a < n; a++) {
+			int r = find(parents, a);
+			if (roots[r] < 0) {
+				roots[r] = numComponents++;
+			}
+			componentOf[a] = roots[r];
+			positions[a] = sizes[roots[r]]++;
+		}
+		components = new int[numComponents][];
+		for (int c = 0; c < numComponents; c++) {
+			components[c] = new int[sizes[c]];
+		}
+		for (int a = 0; a < n; a++) {
+			components[componentOf[a]][positions[a]] = a;
+		}
+		// the sort is stable, components of equal size stay in order
+		Arrays.sort(components, new Comparator<int[]>() {
+			@Override
+			public int compare(int[] o1, int[] o2) {
+				return o2.length - o1.length;
+			}
+		});
+	}
+
+	/**
+	 * Finds the root of the component of an instance, halving the path to
+	 * it.
+	 *
+	 * @param parents the parent of each instance
+	 * @param a the instance
+	 * @return the root
+	 */
+	private static int find(int[] parents, int a) {
+		while (parents[a] != a) {
+			parents[a] = parents[parents[a]];
+			a = parents[a];
+		}
+		return a;
+	}
+
+	/**
+	 * Joins the components of two instances.
+	 *
+	 * @param parents the parent of each instance
+	 * @param a the first instance
+	 * @param b the second instance
+	 */
+	private static void union(int[] parents, int a, int b) {
+		int ra = find(parents, a);
+		int rb = find(parents, b);
+		if (ra != rb) {
+			parents[Math.max(ra, rb)] = Math.min(ra, rb);
+		}
+	}
+
+	/**
+	 * Clusters the instances of a component.
+	 *
+	 * @param distMatrix the distance matrix of all instances
+	 * @param component the instances of the component in ascending order
+	 * @return the dendrogram of the component, whose instances are the
+	 * 		positions in the component
+	 * @throws IOException if the distance matrix of the component can
+	 * 		not be created
+	 */
+	private Dendrogram clusterComponent(AbstractDistanceMatrix distMatrix,
+			int[] component) throws IOException {
+		AbstractDistanceMatrix compMatrix = distMatrix;
+		if (component.length < distMatrix.getNumInstances()) {
+			compMatrix = createComponentMatrix(distMatrix, component);
+		}
+		HierarchicalClustering hc = new HierarchicalClustering(linkage);
+		hc.runClusterer(compMatrix, maxCutHeight);
+		return hc.getDendrogram();
+	}
+
+	/**
+	 * Copies the distances of the instances of a component into a new
+	 * distance matrix of the same kind.
+	 *
+	 * @param distMatrix the distance matrix of all instances
+	 * @param component the instances of the component in ascending order
+	 * @return the distance matrix of the component
+	 * @throws IOException if the distance matrix can not be created
+	 */
+	private AbstractDistanceMatrix createComponentMatrix(
+			AbstractDistanceMatrix distMatrix, int[] component)
+			throws IOException {
+		int m = component.length;
+		if (distMatrix instanceof SparseDistanceMatrix) {
+			SparseDistanceMatrix sparse = (SparseDistanceMatrix) distMatrix;
+			SparseDistanceMatrix retval = new SparseDistanceMatrix(m, linkage);
+			int c = componentOf[component[0]];
+			int[] rowcols = new int[m];
+			float[] rowdists = new float[m];
+			for (int a = 0; a < m; a++) {
+				int[] cols = sparse.getNeighbors(component[a]);
+				float[] dists = sparse.getDistances(component[a]);
+				int len = 0;
+				for (int k = 0; k < cols.length; k++) {
+					if (componentOf[cols[k]] == c && positions[cols[k]] > a) {
+						rowcols[len] = positions[cols[k]];
+						rowdists[len] = dists[k];
+						len++;
+					}
+				}
+				retval.setRow(a, rowcols, rowdists, len);
+			}
+			retval.complete();
+			return retval;
+		}
+		DistanceMatrix dense = (DistanceMatrix) distMatrix;
+		DistanceMatrix retval = factory.createDistanceMatrix(m, linkage);
+		float[] dists = new float[dense.getNumInstances()];
+		for (int a = 0; a < m; a++) {
+			dense.getFollowingDistances(component[a], dists);
+			for (int b = a + 1; b < m; b++) {
+				retval.setDistance(a, b, 
+						dists[component[b] - component[a] - 1]);
+			}
+		}
+		return retval;
+	}
+}
@@ -19,98 +19,761 @@
 package edu.uga.cs.fluxbuster.clustering;
 
 import java.net.InetAddress;
-import java.util.HashSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Set;
-import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import edu.uga.cs.fluxbuster.clustering.hierarchicalclustering.DistanceMatrix;
+import edu.uga.cs.fluxbuster.clustering.hierarchicalclustering.SparseDistanceMatrix;
 
 /**
  * This class calculates the distance matrix of a set of candidate
  * flux domains.  The Jaccard index is used as the distance metric.
+ * The distances are computed by an {@link IPSimilarityKernel}.
+ * 
+ * The upper triangle of a dense matrix is cut into square tiles spanning
+ * a block of rows and a block of columns, sized so that the addresses of
+ * both blocks of candidates fit in the processor cache.  The calculation
+ * threads repeatedly take the next uncalculated tile from a shared cursor,
+ * so a thread which draws tiles of small address sets simply calculates
+ * more of them.
+ * 
+ * The distance of two candidates without a common address is 1.0, so a
+ * sparse matrix only needs the distances of candidates sharing an 
+ * address.  These pairs are found with an index of the candidates of each
+ * address, and the size of their intersection is counted while walking
+ * the index.  An approximate sparse matrix only contains the distances of
+ * the pairs proposed by a {@link MinHashLSH}, pairs with a distance below
+ * the cut height may be missing.
+ * 
+ * The candidates are calculated in ascending order of their address set
+ * sizes.  The lower bound of the distance of a candidate to the larger
+ * candidates following it only grows with their size, so once it exceeds
+ * the max cut height the rest of the row is beyond the cut height and
+ * is skipped.  Such pairs can never be merged, a dense matrix records
+ * the maximum distance of 1.0 as their distance and a sparse matrix does
+ * not store them.  The bound itself may be just above the cut height,
+ * so a quantized matrix could round it to a distance which is merged.
+ * 
+ * The distances of pairs of candidates whose addresses have not changed
+ * since a previous calculation may be supplied as known distances, only
+ * the pairs with a new or changed candidate are then calculated.
  * 
  * @author Chris Neasbitt
  */
-public class DistanceMatrixCalculator implements Runnable {
+public class DistanceMatrixCalculator {
 
-	double gamma = 0.0;
-	
-	Set<Integer> rows = null;
+	private static final int CACHEBYTES = 256 * 1024;
+
+	private static final int MINBLOCKSIZE = 16;
+
+	private static final int MAXBLOCKSIZE = 1024;
+
+	private static final int TILESPERTHREAD = 4;
+
+	private static final int ROWBATCH = 32;
+
+	private double gamma = 0.0;
+
+	private double maxCutHeight = Double.MAX_VALUE;
 	
-	List<CandidateFluxDomain> cfds = null;
+	private List<CandidateFluxDomain> cfds = null;
 	
-	List<Vector<Float>> resultList = null;
+	private DistanceMatrix distMatrix = null;
+
+	private SparseDistanceMatrix sparseMatrix = null;
+
+	private IPSimilarityKernel kernel = null;
+
+	private int[] order = null, ranks = null;
+
+	private boolean[] known = null;
+
+	private int[][] knownCols = null;
+
+	private float[][] knownDists = null;
+
+	private int[] limits = null;
+
+	private long numPairs = 0, numPruned = 0;
+
+	private int[][] addrRanks = null;
+
+	private int[] postingStarts = null, postings = null;
+
+	private int[] proposalStarts = null, proposals = null;
+
+	private AtomicInteger nextRow = new AtomicInteger();
+
+	private int blockSize = 0;
+
+	private int[] tileRows = null, tileCols = null;
+
+	private long[] tileTimes = null;
+
+	private AtomicInteger nextTile = new AtomicInteger();
+
+	private static Log log = LogFactory.getLog(DistanceMatrixCalculator.class);
+
+	/**
+	 * Instantiates a new distance matrix calculator which calculates the
+	 * distance of every pair.
+	 *
+	 * @param gamma the gamma value to use in distance calculation
+	 * @param cfds the list of candidate flux domains
+	 */
+	public DistanceMatrixCalculator(double gamma,
+			List<CandidateFluxDomain> cfds) {
+		this(gamma, cfds, Double.MAX_VALUE);
+	}
 
 	/**
-	 * Instantiates a new distance matrix calculator.
+	 * Instantiates a new distance matrix calculator which skips the pairs
+	 * whose address set sizes show they are beyond a cut height.
 	 *
 	 * @param gamma the gamma value to use in distance calculation
-	 * @param rows the rows of the upper triangular distance matrix to
-	 * 		calculate.
 	 * @param cfds the list of candidate flux domains
-	 * @param resultList the buffer in which to place the results of the
-	 * 		calculations
+	 * @param maxCutHeight the max cut height
 	 */
-	public DistanceMatrixCalculator(double gamma, Set<Integer> rows,
-			List<CandidateFluxDomain> cfds, List<Vector<Float>> resultList) {
+	public DistanceMatrixCalculator(double gamma,
+			List<CandidateFluxDomain> cfds, double maxCutHeight) {
 		this.gamma = gamma;
-		this.rows = rows;
 		this.cfds = cfds;
-		this.resultList = resultList;
+		this.maxCutHeight = maxCutHeight;
+	}
 
+	/**
+	 * Sets the distances known from a previous calculation, which are not
+	 * calculated again.  The distance of two known candidates is the 
+	 * listed distance, or the maximum distance of 1.0 if it is not listed.
+	 * So every distance between known candidates below 1.0 and not beyond
+	 * the max cut height must be listed.
+	 *
+	 * @param known true for each candidate whose distances to the other
+	 * 		known candidates are known
+	 * @param knownCols the known candidates each known candidate has a
+	 * 		listed distance to in ascending order
+	 * @param knownDists the listed distances
+	 */
+	public void setKnownDistances(boolean[] known, int[][] knownCols,
+			float[][] knownDists) {
+		this.known = known;
+		this.knownCols = knownCols;
+		this.knownDists = knownDists;
 	}
 
 	/**
-	 * Compute distance matrix.
+	 * Checks whether the distance of two candidates is known.
+	 *
+	 * @param a the first candidate
+	 * @param b the second candidate
+	 * @return true if the distance is known
 	 */
-	private void computeDistanceMatrix() {
-		for (int i : rows) {
-			Vector<Float> rowvals = new Vector<Float>();
-			for (int j = i + 1; j < cfds.size(); j++) {
-				float dist = computeCFDDistance(cfds.get(j), cfds.get(i));
-				rowvals.add(dist);
-			}
-			resultList.set(i, rowvals);
+	private boolean isKnown(int a, int b) {
+		return known != null && known[a] && known[b];
+	}
+
+	/**
+	 * Gets the known distance of two known candidates.
+	 *
+	 * @param a the first candidate
+	 * @param b the second candidate
+	 * @return the distance
+	 */
+	private float getKnownDistance(int a, int b) {
+		int k = Arrays.binarySearch(knownCols[a], b);
+		return k >= 0 ? knownDists[a][k] : SparseDistanceMatrix.MAXDISTANCE;
+	}
+
+	/**
+	 * Computes the distances of every pair of candidates.
+	 *
+	 * @param distMatrix the distance matrix in which to place the results
+	 * 		of the calculations
+	 * @param numThreads the number of calculation threads
+	 * @throws IllegalArgumentException if the distance matrix stores the
+	 * 		skipped pairs at or below the max cut height
+	 * @throws Exception if a calculation thread fails or is interrupted
+	 */
+	public void compute(DistanceMatrix distMatrix, int numThreads)
+			throws Exception {
+		if (maxCutHeight < SparseDistanceMatrix.MAXDISTANCE
+				&& distMatrix.getStoredDistance(SparseDistanceMatrix.MAXDISTANCE)
+				<= maxCutHeight) {
+			throw new IllegalArgumentException("The distance matrix stores "
+					+ "the maximum distance at or below the max cut height " 
+					+ maxCutHeight + ".");
+		}
+		this.distMatrix = distMatrix;
+		int[][] addrs = sortBySize(getAddressSets(cfds));
+		long totalIPs = 0;
+		for (int[] set : addrs) {
+			totalIPs += set.length;
 		}
+		kernel = new IPSimilarityKernel(gamma, addrs);
+		calcLimits();
+		blockSize = calcBlockSize(totalIPs, numThreads);
+		createTiles();
+		nextTile.set(0);
+
+		List<Callable<Long>> workers = new ArrayList<Callable<Long>>();
+		for (int i = 0; i < numThreads; i++) {
+			workers.add(new TileWorker());
+		}
+		long start = System.nanoTime();
+		long busy = runWorkers(workers);
+		long wall = System.nanoTime() - start;
+		logTileTimes(numThreads, busy, wall);
+		logPruned();
 	}
 
 	/**
-	 * Computes the Jaccard index between two candidate flux domains.
+	 * Computes the distances of the pairs of candidates sharing an
+	 * address.
 	 *
-	 * @param cfd1 the first candidate flux domain
-	 * @param cfd2 the second candidate flux domain
-	 * @return the distance value
+	 * @param sparseMatrix the sparse distance matrix in which to place the
+	 * 		results of the calculations
+	 * @param numThreads the number of calculation threads
+	 * @throws Exception if a calculation thread fails or is interrupted
 	 */
-	private float computeCFDDistance(CandidateFluxDomain cfd1,
-			CandidateFluxDomain cfd2) {
-		float retval = 1.0f;
+	public void compute(SparseDistanceMatrix sparseMatrix, int numThreads)
+			throws Exception {
+		this.sparseMatrix = sparseMatrix;
+		long start = System.nanoTime();
+		int[][] addrs = sortBySize(getAddressSets(cfds));
+		kernel = new IPSimilarityKernel(gamma, addrs);
+		calcLimits();
+		createIndex(addrs);
+		nextRow.set(0);
 
-		HashSet<InetAddress> intersection = new HashSet<InetAddress>(
-				cfd1.getIps());
-		intersection.retainAll(cfd2.getIps());
+		List<Callable<Long>> workers = new ArrayList<Callable<Long>>();
+		for (int i = 0; i < numThreads; i++) {
+			workers.add(new RowWorker());
+		}
+		long pairs = runWorkers(workers);
+		sparseMatrix.complete();
+		addrRanks = null;
+		postings = null;
+		postingStarts = null;
+		if(log.isInfoEnabled()){
+			log.info("Computed " + sparseMatrix.getNumStored() + " distances of "
+					+ pairs + " pairs sharing an address within the cut height "
+					+ "bound out of " + numPairs
+					+ " pairs with " + numThreads + " threads in " 
+					+ (System.nanoTime() - start) / 1000000 + " ms.");
+		}
+		logPruned();
+	}
 
-		HashSet<InetAddress> union = new HashSet<InetAddress>(cfd1.getIps());
-		union.addAll(cfd2.getIps());
+	/**
+	 * Computes the distances of the pairs of candidates proposed by a
+	 * locality sensitive hash of their address sets.
+	 *
+	 * @param sparseMatrix the sparse distance matrix in which to place the
+	 * 		results of the calculations
+	 * @param numThreads the number of calculation threads
+	 * @param lsh the locality sensitive hash
+	 * @throws Exception if a calculation thread fails or is interrupted
+	 */
+	public void compute(SparseDistanceMatrix sparseMatrix, int numThreads,
+			MinHashLSH lsh) throws Exception {
+		this.sparseMatrix = sparseMatrix;
+		long start = System.nanoTime();
+		int[][] addrs = sortBySize(getAddressSets(cfds));
+		kernel = new IPSimilarityKernel(gamma, addrs);
+		calcLimits();
+		long[] pairs = lsh.proposePairs(addrs);
+		proposalStarts = new int[addrs.length + 1];
+		proposals = new int[pairs.length];
+		for (int k = 0; k < pairs.length; k++) {
+			proposalStarts[(int) (pairs[k] >>> 32) + 1]++;
+			proposals[k] = (int) pairs[k];
+		}
+		for (int i = 0; i < addrs.length; i++) {
+			proposalStarts[i + 1] += proposalStarts[i];
+		}
+		nextRow.set(0);
+
+		List<Callable<Long>> workers = new ArrayList<Callable<Long>>();
+		for (int i = 0; i < numThreads; i++) {
+			workers.add(new RowWorker());
+		}
+		runWorkers(workers);
+		sparseMatrix.complete();
+		proposals = null;
+		proposalStarts = null;
+		if(log.isInfoEnabled()){
+			log.info("Computed " + sparseMatrix.getNumStored() + " distances of "
+					+ pairs.length + " pairs proposed by " + lsh.getNumBands()
+					+ " bands of " + lsh.getNumRows() + " rows out of " 
+					+ numPairs + " pairs with " + numThreads + " threads in " 
+					+ (System.nanoTime() - start) / 1000000 + " ms.");
+		}
+		logPruned();
+	}
+
+	/**
+	 * Sorts the address sets in ascending order of their sizes and keeps
+	 * the index of the candidate of each sorted set.
+	 *
+	 * @param addrs the address sets in the order of the candidates
+	 * @return the address sets in ascending order of their sizes
+	 */
+	private int[][] sortBySize(int[][] addrs) {
+		// each key holds the size in the upper and the candidate in the
+		// lower 32 bits, so candidates of equal size keep their order
+		long[] keys = new long[addrs.length];
+		for (int i = 0; i < addrs.length; i++) {
+			keys[i] = (long) addrs[i].length << 32 | i;
+		}
+		Arrays.sort(keys);
+		order = new int[addrs.length];
+		ranks = new int[addrs.length];
+		int[][] retval = new int[addrs.length][];
+		for (int p = 0; p < keys.length; p++) {
+			order[p] = (int) keys[p];
+			ranks[order[p]] = p;
+			retval[p] = addrs[order[p]];
+		}
+		return retval;
+	}
+
+	/**
+	 * Finds, for each sorted candidate, the first following candidate
+	 * whose distance bound exceeds the max cut height.  The bound does not
+	 * decrease along a row, so every candidate from there on is beyond
+	 * the cut height.
+	 */
+	private void calcLimits() {
+		int n = order.length;
+		limits = new int[n];
+		numPairs = (long) n * (n - 1) / 2;
+		numPruned = 0;
+		for (int p = 0; p < n; p++) {
+			int lo = p + 1, hi = n;
+			while (lo < hi) {
+				int mid = (lo + hi) >>> 1;
+				if (kernel.distanceBound(p, mid) > maxCutHeight) {
+					hi = mid;
+				} else {
+					lo = mid + 1;
+				}
+			}
+			limits[p] = lo;
+			numPruned += n - lo;
+		}
+	}
+
+	/**
+	 * Logs the fraction of pairs skipped because they are beyond the 
+	 * cut height.
+	 */
+	private void logPruned() {
+		if(log.isInfoEnabled()){
+			log.info(numPruned + " of " + numPairs + " pairs ("
+					+ String.format("%.2f", 100.0 * numPruned 
+							/ Math.max(1, numPairs)) 
+					+ "%) are beyond the cut height " + maxCutHeight 
+					+ " by their address set sizes.");
+		}
+	}
+
+	/**
+	 * Gets the number of pairs of candidates of the last computation.
+	 *
+	 * @return the number of pairs
+	 */
+	public long getNumPairs() {
+		return numPairs;
+	}
 
-		int ilen = intersection.size();
-		int ulen = union.size();
+	/**
+	 * Gets the number of pairs of candidates of the last computation 
+	 * which were skipped because their address set sizes show they are
+	 * beyond the max cut height.
+	 *
+	 * @return the number of skipped pairs
+	 */
+	public long getNumPruned() {
+		return numPruned;
+	}
 
-		if (ulen == 0) {
+	/**
+	 * Runs calculation workers until they are done.
+	 *
+	 * @param workers the workers
+	 * @return the sum of the workers' results
+	 * @throws Exception if a worker fails or is interrupted
+	 */
+	private long runWorkers(List<Callable<Long>> workers) throws Exception {
+		long retval = 0;
+		if (workers.size() <= 1) {
+			for (Callable<Long> worker : workers) {
+				retval += worker.call();
+			}
 			return retval;
 		}
+		ExecutorService executor = Executors.newFixedThreadPool(workers.size());
+		try {
+			for (Future<Long> result : executor.invokeAll(workers)) {
+				retval += result.get();
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+		return retval;
+	}
 
-		float G = (float) Math.exp(gamma
-				- Math.min(cfd1.getIps().size(), cfd2.getIps().size()));
-		retval = 1.0f - ilen / ((float) ulen) * (1 / (1 + G));
+	/**
+	 * Creates the index of the candidates of each address.  Each address
+	 * is replaced by its rank among all addresses.
+	 *
+	 * @param addrs the address sets of the candidates
+	 */
+	private void createIndex(int[][] addrs) {
+		int total = 0;
+		for (int[] set : addrs) {
+			total += set.length;
+		}
+		int[] universe = new int[total];
+		int len = 0;
+		for (int[] set : addrs) {
+			System.arraycopy(set, 0, universe, len, set.length);
+			len += set.length;
+		}
+		Arrays.sort(universe);
+		int distinct = 0;
+		for (int i = 0; i < len; i++) {
+			if (distinct == 0 || universe[i] != universe[distinct - 1]) {
+				universe[distinct++] = universe[i];
+			}
+		}
+		addrRanks = new int[addrs.length][];
+		postingStarts = new int[distinct + 1];
+		for (int i = 0; i < addrs.length; i++) {
+			int[] ranks = new int[addrs[i].length];
+			for (int k = 0; k < ranks.length; k++) {
+				ranks[k] = Arrays.binarySearch(universe, 0, distinct, 
+						addrs[i][k]);
+				postingStarts[ranks[k] + 1]++;
+			}
+			addrRanks[i] = ranks;
+		}
+		for (int r = 0; r < distinct; r++) {
+			postingStarts[r + 1] += postingStarts[r];
+		}
+		// candidates are added in ascending order, so each posting list is
+		// sorted
+		int[] fill = Arrays.copyOf(postingStarts, distinct);
+		postings = new int[total];
+		for (int i = 0; i < addrRanks.length; i++) {
+			for (int r : addrRanks[i]) {
+				postings[fill[r]++] = i;
+			}
+		}
+	}
 
+	/**
+	 * Gets the address set of each candidate flux domain as a sorted
+	 * array of integers.  If every candidate flux domain has only IPv4
+	 * addresses the integers are the addresses, otherwise each distinct
+	 * address is numbered.
+	 *
+	 * @param cfds the candidate flux domains
+	 * @return the address sets in the order of the candidates
+	 */
+	static int[][] getAddressSets(List<CandidateFluxDomain> cfds) {
+		int[][] retval = new int[cfds.size()][];
+		boolean allIPv4 = true;
+		for (int i = 0; i < cfds.size() && allIPv4; i++) {
+			retval[i] = cfds.get(i).getIPv4Addresses();
+			allIPv4 = retval[i].length == cfds.get(i).getNumIPs();
+		}
+		if (allIPv4) {
+			return retval;
+		}
+		HashMap<InetAddress, Integer> ids = new HashMap<InetAddress, Integer>();
+		for (int i = 0; i < cfds.size(); i++) {
+			Set<InetAddress> ips = cfds.get(i).getIps();
+			int[] set = new int[ips.size()];
+			int len = 0;
+			for (InetAddress ip : ips) {
+				Integer id = ids.get(ip);
+				if (id == null) {
+					id = ids.size();
+					ids.put(ip, id);
+				}
+				set[len++] = id;
+			}
+			Arrays.sort(set);
+			retval[i] = set;
+		}
 		return retval;
 	}
 
 	/**
-	 * @see java.lang.Runnable#run()
+	 * Calculates the number of candidates in a block so the addresses of
+	 * a tile's row and column blocks fit in the cache and each thread
+	 * gets several tiles.
+	 *
+	 * @param totalIPs the total number of addresses of all candidates
+	 * @param numThreads the number of calculation threads
+	 * @return the block size
+	 */
+	private int calcBlockSize(long totalIPs, int numThreads) {
+		double avgBytes = 4.0 * totalIPs / Math.max(1, cfds.size());
+		int size = (int) (CACHEBYTES / (2 * Math.max(avgBytes, 1.0)));
+		size = Math.max(MINBLOCKSIZE, Math.min(MAXBLOCKSIZE, size));
+		// n blocks make n(n+1)/2 tiles
+		int minBlocks = (int) Math.ceil(Math.sqrt(2.0 * TILESPERTHREAD
+				* Math.max(1, numThreads)));
+		size = Math.min(size, (cfds.size() + minBlocks - 1) / minBlocks);
+		return Math.max(1, size);
+	}
+
+	/**
+	 * Cuts the upper triangle into tiles of blocks of rows and columns.
+	 */
+	private void createTiles() {
+		int numBlocks = (cfds.size() + blockSize - 1) / blockSize;
+		int numTiles = numBlocks * (numBlocks + 1) / 2;
+		tileRows = new int[numTiles];
+		tileCols = new int[numTiles];
+		tileTimes = new long[numTiles];
+		int t = 0;
+		for (int r = 0; r < numBlocks; r++) {
+			for (int c = r; c < numBlocks; c++) {
+				tileRows[t] = r;
+				tileCols[t] = c;
+				t++;
+			}
+		}
+	}
+
+	/**
+	 * Computes the distances in a tile.
+	 *
+	 * @param tile the index of the tile
 	 */
-	@Override
-	public void run() {
-		computeDistanceMatrix();
+	private void computeTile(int tile) {
+		int rowStart = tileRows[tile] * blockSize;
+		int rowEnd = Math.min(rowStart + blockSize, cfds.size());
+		int colStart = tileCols[tile] * blockSize;
+		int colEnd = Math.min(colStart + blockSize, cfds.size());
+		for (int i = rowStart; i < rowEnd; i++) {
+			int limit = Math.max(colStart, Math.min(colEnd, limits[i]));
+			for (int j = Math.max(colStart, i + 1); j < limit; j++) {
+				if (isKnown(order[i], order[j])) {
+					distMatrix.setDistance(order[i], order[j], 
+							getKnownDistance(order[i], order[j]));
+				} else {
+					distMatrix.setDistance(order[i], order[j], 
+							kernel.distance(j, i));
+				}
+			}
+			// the rest of the row is beyond the cut height
+			for (int j = Math.max(limit, i + 1); j < colEnd; j++) {
+				distMatrix.setDistance(order[i], order[j], 
+						SparseDistanceMatrix.MAXDISTANCE);
+			}
+		}
 	}
 
+	/**
+	 * Logs the calculation times of the tiles.
+	 *
+	 * @param numThreads the number of calculation threads
+	 * @param busy the total time the threads spent calculating tiles in
+	 * 		nanoseconds
+	 * @param wall the elapsed time in nanoseconds
+	 */
+	private void logTileTimes(int numThreads, long busy, long wall) {
+		if(log.isDebugEnabled()){
+			for (int t = 0; t < tileTimes.length; t++) {
+				log.debug("Tile (" + tileRows[t] + ", " + tileCols[t] 
+						+ ") computed in " + tileTimes[t] / 1000 + " us.");
+			}
+		}
+		if(log.isInfoEnabled()){
+			long max = 0;
+			for (long time : tileTimes) {
+				max = Math.max(max, time);
+			}
+			log.info("Computed " + tileTimes.length + " tiles of "
+					+ blockSize + " candidates with " + numThreads 
+					+ " threads in " + wall / 1000000 + " ms, mean tile "
+					+ busy / Math.max(1, tileTimes.length) / 1000 
+					+ " us, max tile " + max / 1000 + " us, busy/elapsed "
+					+ String.format("%.2f", busy / (double) Math.max(1, wall)));
+		}
+	}
+
+	/**
+	 * Gets the calculation time of each tile of the last computation.
+	 *
+	 * @return the tile times in nanoseconds in the order the tiles are
+	 * 		handed out
+	 */
+	public long[] getTileTimes() {
+		return tileTimes;
+	}
+
+	/**
+	 * Calculates tiles until none are left.
+	 */
+	private class TileWorker implements Callable<Long> {
+
+		/**
+		 * Calculates tiles until none are left.
+		 * 
+		 * @return the time spent calculating tiles in nanoseconds
+		 * @see java.util.concurrent.Callable#call()
+		 */
+		@Override
+		public Long call() {
+			long busy = 0;
+			int tile;
+			while ((tile = nextTile.getAndIncrement()) < tileTimes.length) {
+				long start = System.nanoTime();
+				computeTile(tile);
+				tileTimes[tile] = System.nanoTime() - start;
+				busy += tileTimes[tile];
+			}
+			return busy;
+		}
+	}
+
+	/**
+	 * Calculates the distances of batches of rows of the sparse matrix
+	 * until none are left.
+	 */
+	private class RowWorker implements Callable<Long> {
+
+		private int[] counts = new int[cfds.size()];
+
+		private int[] cols = new int[cfds.size()];
+
+		private float[] dists = new float[cfds.size()];
+
+		/**
+		 * Calculates the distances of batches of rows until none are left.
+		 * 
+		 * @return the number of pairs evaluated
+		 * @see java.util.concurrent.Callable#call()
+		 */
+		@Override
+		public Long call() {
+			long pairs = 0;
+			int first;
+			while ((first = nextRow.getAndAdd(ROWBATCH)) < cfds.size()) {
+				int last = Math.min(first + ROWBATCH, cfds.size());
+				for (int i = first; i < last; i++) {
+					if (proposals != null) {
+						pairs += computeProposedRow(i);
+					} else {
+						pairs += computeRow(i);
+					}
+				}
+			}
+			return pairs;
+		}
+
+		/**
+		 * Calculates the distances of a candidate to the following
+		 * candidates proposed with it which are not beyond the cut height
+		 * by their sizes.
+		 * 
+		 * @param i the position of the candidate in ascending order of size
+		 * @return the number of following candidates proposed whose 
+		 * 		distance is not known
+		 */
+		private int computeProposedRow(int i) {
+			int len = 0;
+			for (int k = proposalStarts[i]; k < proposalStarts[i + 1]; k++) {
+				int j = proposals[k];
+				if (j >= limits[i]) {
+					break;
+				}
+				if (!isKnown(order[i], order[j])) {
+					cols[len] = order[j];
+					dists[len] = kernel.distance(j, i);
+					len++;
+				}
+			}
+			int computed = len;
+			len = addKnownDistances(i, len);
+			sparseMatrix.setRow(order[i], cols, dists, len);
+			return computed;
+		}
+
+		/**
+		 * Adds the known distances of a known candidate to the following
+		 * known candidates to the row being calculated.
+		 * 
+		 * @param i the position of the candidate in ascending order of size
+		 * @param len the length of the row
+		 * @return the new length of the row
+		 */
+		private int addKnownDistances(int i, int len) {
+			int a = order[i];
+			if (known != null && known[a]) {
+				for (int k = 0; k < knownCols[a].length; k++) {
+					if (ranks[knownCols[a][k]] > i) {
+						cols[len] = knownCols[a][k];
+						dists[len] = knownDists[a][k];
+						len++;
+					}
+				}
+			}
+			return len;
+		}
+
+		/**
+		 * Calculates the distances of a candidate to the following
+		 * candidates sharing an address with it which are not beyond the
+		 * cut height by their sizes.
+		 * 
+		 * @param i the position of the candidate in ascending order of size
+		 * @return the number of following candidates sharing an address
+		 * 		whose distance is not known
+		 */
+		private int computeRow(int i) {
+			int len = 0;
+			int limit = limits[i];
+			boolean rowKnown = known != null && known[order[i]];
+			for (int r : addrRanks[i]) {
+				int end = postingStarts[r + 1];
+				int k = Arrays.binarySearch(postings, postingStarts[r], end, i);
+				for (k++; k < end && postings[k] < limit; k++) {
+					int j = postings[k];
+					if (rowKnown && known[order[j]]) {
+						continue;
+					}
+					if (counts[j]++ == 0) {
+						cols[len++] = j;
+					}
+				}
+			}
+			for (int k = 0; k < len; k++) {
+				int j = cols[k];
+				dists[k] = kernel.distance(j, i, counts[j]);
+				counts[j] = 0;
+				cols[k] = order[j];
+			}
+			int computed = len;
+			len = addKnownDistances(i, len);
+			sparseMatrix.setRow(order[i], cols, dists, len);
+			return computed;
+		}
+	}
 }
@@ -0,0 +1,413 @@
+/*
+* Copyright (C) 2012 Chris Neasbitt
+* Author: Chris Neasbitt
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 2 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package edu.uga.cs.fluxbuster.clustering;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import edu.uga.cs.fluxbuster.clustering.hierarchicalclustering.AbstractDistanceMatrix;
+import edu.uga.cs.fluxbuster.clustering.hierarchicalclustering.SparseDistanceMatrix;
+
+/**
+ * This class keeps the distances of the candidate flux domains of a
+ * sliding window between runs.  When the window is reclustered
+ * periodically most candidates have the same addresses as in the previous
+ * run, so the distances between them are taken from the previous run and
+ * only the distances of new or changed candidates are calculated.  The
+ * candidates which left the window are dropped.
+ *
+ * The domain names, the addresses and the distances below 1.0 which are
+ * not beyond the max cut height are kept in a state file, along with a key
+ * of the configuration the distances were calculated with.  The state of
+ * a different configuration is ignored.
+ *
+ * @author Chris Neasbitt
+ */
+public class DistanceMatrixWindow {
+
+	private static final int MAGIC = 0x46424457;
+
+	private static final int VERSION = 1;
+
+	private static final int BUFSIZE = 65536;
+
+	private File stateFile = null;
+
+	private String configKey = null;
+
+	private double maxCutHeight = 0.0;
+
+	private static Log log = LogFactory.getLog(DistanceMatrixWindow.class);
+
+	/**
+	 * Instantiates a new distance matrix window.
+	 *
+	 * @param stateFile the file in which the distances are kept between runs
+	 * @param configKey the key of the configuration the distances are
+	 * 		calculated with
+	 * @param maxCutHeight the max cut height, distances beyond it are not
+	 * 		kept
+	 */
+	public DistanceMatrixWindow(File stateFile, String configKey,
+			double maxCutHeight) {
+		this.stateFile = stateFile;
+		this.configKey = configKey;
+		this.maxCutHeight = maxCutHeight;
+	}
+
+	/**
+	 * Supplies the distances of the previous run between the candidates
+	 * whose addresses have not changed to a distance matrix calculator.
+	 *
+	 * @param cfds the candidate flux domains of this run
+	 * @param calc the calculator of the distance matrix of this run
+	 * @return the number of candidates whose distances are reused
+	 */
+	public int apply(List<CandidateFluxDomain> cfds,
+			DistanceMatrixCalculator calc) {
+		State state = readState();
+		if (state == null) {
+			return 0;
+		}
+		HashMap<String, Integer> indexes = new HashMap<String, Integer>();
+		for (int i = 0; i < cfds.size(); i++) {
+			String name = cfds.get(i).getDomainName();
+			// the distances of a name found twice are calculated
+			indexes.put(name, indexes.containsKey(name) ? -1 : i);
+		}
+		int[] mapping = new int[state.names.length];
+		boolean[] known = new boolean[cfds.size()];
+		int numKnown = 0;
+		for (int a = 0; a < mapping.length; a++) {
+			Integer i = indexes.get(state.names[a]);
+			mapping[a] = -1;
+			if (i != null && i >= 0
+					&& equalAddresses(getAddresses(cfds.get(i)), state.addrs[a])) {
+				mapping[a] = i;
+				known[i] = true;
+				numKnown++;
+			}
+		}
+
+		int[] counts = new int[cfds.size()];
+		for (int a = 0; a < mapping.length; a++) {
+			for (int b : state.cols[a]) {
+				if (mapping[a] >= 0 && mapping[b] >= 0) {
+					counts[mapping[a]]++;
+					counts[mapping[b]]++;
+				}
+			}
+		}
+		// each entry holds the candidate in the upper and the distance in
+		// the lower 32 bits, so sorting the entries sorts the candidates
+		long[][] entries = new long[cfds.size()][];
+		int[] fill = new int[cfds.size()];
+		for (int i = 0; i < entries.length; i++) {
+			entries[i] = new long[counts[i]];
+		}
+		long numReused = 0;
+		for (int a = 0; a < mapping.length; a++) {
+			for (int k = 0; k < state.cols[a].length; k++) {
+				int i = mapping[a], j = mapping[state.cols[a][k]];
+				if (i >= 0 && j >= 0) {
+					long bits = Float.floatToRawIntBits(state.dists[a][k])
+							& 0xFFFFFFFFL;
+					entries[i][fill[i]++] = (long) j << 32 | bits;
+					entries[j][fill[j]++] = (long) i << 32 | bits;
+					numReused++;
+				}
+			}
+		}
+		int[][] knownCols = new int[cfds.size()][];
+		float[][] knownDists = new float[cfds.size()][];
+		for (int i = 0; i < entries.length; i++) {
+			long[] row = entries[i];
+			Arrays.sort(row);
+			knownCols[i] = new int[row.length];
+			knownDists[i] = new float[row.length];
+			for (int k = 0; k < row.length; k++) {
+				knownCols[i][k] = (int) (row[k] >>> 32);
+				knownDists[i][k] = Float.intBitsToFloat((int) row[k]);
+			}
+			entries[i] = null;
+		}
+		calc.setKnownDistances(known, knownCols, knownDists);
+		if(log.isInfoEnabled()){
+			log.info("Reusing " + numReused + " distances of " + numKnown
+					+ " unchanged candidates, " + (mapping.length - numKnown)
+					+ " candidates of the previous run expired or changed and "
+					+ (cfds.size() - numKnown) + " candidates are new or "
+					+ "changed.");
+		}
+		return numKnown;
+	}
+
+	/**
+	 * Keeps the distances of this run for the next run.  Must be called
+	 * before the distance matrix is clustered.
+	 *
+	 * @param cfds the candidate flux domains of this run
+	 * @param distMatrix the distance matrix of this run
+	 */
+	public void save(List<CandidateFluxDomain> cfds,
+			AbstractDistanceMatrix distMatrix) {
+		State state = new State();
+		int n = cfds.size();
+		state.names = new String[n];
+		state.addrs = new byte[n][][];
+		state.cols = new int[n][];
+		state.dists = new float[n][];
+		int[] cols = new int[n];
+		float[] dists = new float[n];
+		for (int i = 0; i < n; i++) {
+			state.names[i] = cfds.get(i).getDomainName();
+			state.addrs[i] = getAddresses(cfds.get(i));
+			int len = 0;
+			if (distMatrix instanceof SparseDistanceMatrix) {
+				SparseDistanceMatrix sparse = (SparseDistanceMatrix) distMatrix;
+				int[] rowcols = sparse.getNeighbors(i);
+				float[] rowdists = sparse.getDistances(i);
+				for (int k = 0; k < rowcols.length; k++) {
+					if (rowcols[k] > i && rowdists[k] <= maxCutHeight) {
+						cols[len] = rowcols[k];
+						dists[len] = rowdists[k];
+						len++;
+					}
+				}
+			} else {
+				for (int j = i + 1; j < n; j++) {
+					float d = distMatrix.distance(i, j);
+					if (d < SparseDistanceMatrix.MAXDISTANCE
+							&& d <= maxCutHeight) {
+						cols[len] = j;
+						dists[len] = d;
+						len++;
+					}
+				}
+			}
+			state.cols[i] = Arrays.copyOf(cols, len);
+			state.dists[i] = Arrays.copyOf(dists, len);
+		}
+		writeState(state);
+	}
+
+	/**
+	 * Gets the addresses of a candidate flux domain in a canonical order.
+	 *
+	 * @param cfd the candidate flux domain
+	 * @return the raw addresses sorted by length and then by their bytes
+	 */
+	private static byte[][] getAddresses(CandidateFluxDomain cfd) {
+		byte[][] retval = new byte[cfd.getIps().size()][];
+		int len = 0;
+		for (InetAddress ip : cfd.getIps()) {
+			retval[len++] = ip.getAddress();
+		}
+		Arrays.sort(retval, new Comparator<byte[]>() {
+			@Override
+			public int compare(byte[] o1, byte[] o2) {
+				if (o1.length != o2.length) {
+					return o1.length - o2.length;
+				}
+				for (int k = 0; k < o1.length; k++) {
+					int c = (o1[k] & 0xFF) - (o2[k] & 0xFF);
+					if (c != 0) {
+						return c;
+					}
+				}
+				return 0;
+			}
+		});
+		return retval;
+	}
+
+	/**
+	 * Checks whether two address sets in canonical order are equal.
+	 *
+	 * @param a the first address set
+	 * @param b the second address set
+	 * @return true if the sets are equal
+	 */
+	private static boolean equalAddresses(byte[][] a, byte[][] b) {
+		if (a.length != b.length) {
+			return false;
+		}
+		for (int k = 0; k < a.length; k++) {
+			if (!Arrays.equals(a[k], b[k])) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Reads the state of the previous run.
+	 *
+	 * @return the state, null if there is no state, it can not be read or
+	 * 		it was kept with a different configuration
+	 */
+	private State readState() {
+		if (stateFile == null || !stateFile.exists()) {
+			return null;
+		}
+		try {
+			DataInputStream in = new DataInputStream(new BufferedInputStream(
+					new FileInputStream(stateFile), BUFSIZE));
+			try {
+				if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+					throw new IOException("Not a distance matrix window of a "
+							+ "supported version.");
+				}
+				if (!in.readUTF().equals(configKey)) {
+					if(log.isInfoEnabled()){
+						log.info("Ignoring distance matrix window " + stateFile
+								+ " of a different configuration.");
+					}
+					return null;
+				}
+				State retval = new State();
+				int n = in.readInt();
+				retval.names = new String[n];
+				retval.addrs = new byte[n][][];
+				retval.cols = new int[n][];
+				retval.dists = new float[n][];
+				for (int i = 0; i < n; i++) {
+					retval.names[i] = in.readUTF();
+					byte[][] addrs = new byte[in.readInt()][];
+					for (int k = 0; k < addrs.length; k++) {
+						addrs[k] = new byte[in.readUnsignedByte()];
+						in.readFully(addrs[k]);
+					}
+					retval.addrs[i] = addrs;
+				}
+				for (int i = 0; i < n; i++) {
+					int len = in.readInt();
+					retval.cols[i] = new int[len];
+					retval.dists[i] = new float[len];
+					for (int k = 0; k < len; k++) {
+						retval.cols[i][k] = in.readInt();
+						retval.dists[i][k] = in.readFloat();
+						if (retval.cols[i][k] <= i || retval.cols[i][k] >= n) {
+							throw new IOException("Invalid candidate index "
+									+ retval.cols[i][k]);
+						}
+					}
+				}
+				return retval;
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			if(log.isWarnEnabled()){
+				log.warn("Ignoring unreadable distance matrix window "
+						+ stateFile, e);
+			}
+			return null;
+		}
+	}
+
+	/**
+	 * Writes the state of this run.  The state is written under a
+	 * temporary name and renamed, so an interrupted write leaves the
+	 * previous state.
+	 *
+	 * @param state the state
+	 */
+	private void writeState(State state) {
+		if (stateFile == null) {
+			return;
+		}
+		File tempFile = new File(stateFile.getPath() + ".tmp");
+		try {
+			FileOutputStream fout = new FileOutputStream(tempFile);
+			try {
+				DataOutputStream out = new DataOutputStream(
+						new BufferedOutputStream(fout, BUFSIZE));
+				out.writeInt(MAGIC);
+				out.writeInt(VERSION);
+				out.writeUTF(configKey);
+				out.writeInt(state.names.length);
+				for (int i = 0; i < state.names.length; i++) {
+					out.writeUTF(state.names[i]);
+					out.writeInt(state.addrs[i].length);
+					for (byte[] addr : state.addrs[i]) {
+						out.writeByte(addr.length);
+						out.write(addr);
+					}
+				}
+				for (int i = 0; i < state.names.length; i++) {
+					out.writeInt(state.cols[i].length);
+					for (int k = 0; k < state.cols[i].length; k++) {
+						out.writeInt(state.cols[i][k]);
+						out.writeFloat(state.dists[i][k]);
+					}
+				}
+				out.flush();
+				fout.getFD().sync();
+			} finally {
+				fout.close();
+			}
+			if (!tempFile.renameTo(stateFile)) {
+				// some platforms do not replace an existing file
+				if (!stateFile.delete() || !tempFile.renameTo(stateFile)) {
+					throw new IOException("Unable to rename " + tempFile
+							+ " to " + stateFile);
+				}
+			}
+		} catch (IOException e) {
+			tempFile.delete();
+			if(log.isErrorEnabled()){
+				log.error("Unable to write distance matrix window "
+						+ stateFile, e);
+			}
+		}
+	}
+
+	/**
+	 * The candidates of a run and the distances between them.
+	 */
+	private static class State {
+
+		/** The domain names of the candidates. */
+		String[] names = null;
+
+		/** The addresses of the candidates in canonical order. */
+		byte[][][] addrs = null;
+
+		/** The following candidates each candidate has a kept distance to. */
+		int[][] cols = null;
+
+		/** The kept distances. */
+		float[][] dists = null;
+	}
+}
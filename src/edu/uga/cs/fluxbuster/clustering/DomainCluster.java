@@ -107,8 +107,9 @@ public class DomainCluster implements Serializable {
 					.getLastGrowthRatioSingleEntry());
 		}
 
-		if (cfd.getLastGrowthEntriesIPs().size() > 0) {
-			this.lastGrowthEntriesIPs.add(cfd.getLastGrowthEntriesIPs());
+		Set<InetAddress> cfdLastGrowthEntriesIPs = cfd.getLastGrowthEntriesIPs();
+		if (cfdLastGrowthEntriesIPs.size() > 0) {
+			this.lastGrowthEntriesIPs.add(cfdLastGrowthEntriesIPs);
 			this.lastGrowthEntriesQueries
 					.add(cfd.getLastGrowthEntriesQueries());
 		}
@@ -73,6 +73,32 @@ public class IPDiversityCalculator {
 		return retval;
 	}
 
+	/**
+	 * Calculates the Kullback–Leibler divergence of a set of version 4
+	 * IP addresses given as ints in ascending order, as returned by
+	 * CandidateFluxDomain.getIPv4Addresses.  Addresses in the same /16
+	 * are adjacent, so the groups are counted without a map.
+	 *
+	 * @param addrs the distinct addresses in ascending order
+	 * @param len the number of addresses
+	 * @return the metric value
+	 */
+	public static double ipDiversity(int[] addrs, int len) {
+		if (len < 2) {
+			return 0.0;
+		}
+		double entropy = 0.0;
+		int start = 0;
+		for (int i = 1; i <= len; i++) {
+			if (i == len || addrs[i] >> 16 != addrs[start] >> 16) {
+				double prob = ((double) (i - start)) / len;
+				entropy -= prob * (Math.log(prob) / Math.log(2)); // lg prob
+				start = i;
+			}
+		}
+		return entropy / (Math.log(len) / Math.log(2)); // lg len
+	}
+
 	/**
 	 * Extracts the version 4 IP addresses of a list of InetAddress
 	 * objects.
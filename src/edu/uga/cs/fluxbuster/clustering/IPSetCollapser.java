@@ -0,0 +1,168 @@
+/*
+* Copyright (C) 2012 Chris Neasbitt
+* Author: Chris Neasbitt
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 2 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package edu.uga.cs.fluxbuster.clustering;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+import edu.uga.cs.fluxbuster.clustering.hierarchicalclustering.HCluster;
+
+/**
+ * This class collapses the candidate flux domains with identical IP
+ * address sets into one representative before clustering.  The rows of
+ * such candidates in the distance matrix are identical, and if their
+ * distance to each other is not beyond the max cut height they always
+ * end up in the same cluster, so only the representative is clustered
+ * and its cluster is expanded to all candidates it represents.  Since the
+ * distance of identical sets grows as the sets shrink, the candidates
+ * with small identical sets which may not be merged are left as they are.
+ *
+ * With single linkage the clusters are the same as when every candidate
+ * is clustered.  With complete linkage the candidates of a representative
+ * are kept in one cluster, which may change the clusters, so it is only
+ * collapsed if enabled explicitly.
+ *
+ * @author Chris Neasbitt
+ */
+public class IPSetCollapser {
+
+	private double gamma = 0.0;
+
+	private double maxCutHeight = 0.0;
+
+	private List<CandidateFluxDomain> cfds = null;
+
+	private int[][] groups = null;
+
+	/**
+	 * Instantiates a new IP set collapser.
+	 *
+	 * @param gamma the gamma value to use in distance calculation
+	 * @param maxCutHeight the max cut height
+	 */
+	public IPSetCollapser(double gamma, double maxCutHeight) {
+		this.gamma = gamma;
+		this.maxCutHeight = maxCutHeight;
+	}
+
+	/**
+	 * Collapses the candidate flux domains with identical IP address sets.
+	 *
+	 * @param cfds the candidate flux domains
+	 * @return the representatives, the first candidate of each set of
+	 * 		identical candidates in the order of the candidates
+	 */
+	public List<CandidateFluxDomain> collapse(List<CandidateFluxDomain> cfds) {
+		this.cfds = cfds;
+		int[][] sets = DistanceMatrixCalculator.getAddressSets(cfds);
+		IPSimilarityKernel kernel = new IPSimilarityKernel(gamma, sets);
+		HashMap<AddressSetKey, Integer> reps =
+			new HashMap<AddressSetKey, Integer>();
+		int[] groupOf = new int[sets.length];
+		int[] sizes = new int[sets.length];
+		int numGroups = 0;
+		for (int i = 0; i < sets.length; i++) {
+			Integer group = null;
+			if (kernel.distance(i, i) <= maxCutHeight) {
+				AddressSetKey key = new AddressSetKey(sets[i]);
+				group = reps.get(key);
+				if (group == null) {
+					reps.put(key, numGroups);
+				}
+			}
+			if (group == null) {
+				group = numGroups++;
+			}
+			groupOf[i] = group;
+			sizes[group]++;
+		}
+
+		groups = new int[numGroups][];
+		for (int g = 0; g < numGroups; g++) {
+			groups[g] = new int[sizes[g]];
+			sizes[g] = 0;
+		}
+		List<CandidateFluxDomain> retval =
+			new ArrayList<CandidateFluxDomain>(numGroups);
+		for (int i = 0; i < sets.length; i++) {
+			int g = groupOf[i];
+			if (sizes[g] == 0) {
+				retval.add(cfds.get(i));
+			}
+			groups[g][sizes[g]++] = i;
+		}
+		return retval;
+	}
+
+	/**
+	 * Expands a cluster of representatives to the candidates they stand
+	 * for.
+	 *
+	 * @param hcluster the cluster of representatives
+	 * @return the candidate flux domains of the cluster
+	 */
+	public List<CandidateFluxDomain> expand(HCluster hcluster) {
+		List<CandidateFluxDomain> retval = new ArrayList<CandidateFluxDomain>();
+		for (int rep : hcluster.getIndexes()) {
+			for (int i : groups[rep]) {
+				retval.add(cfds.get(i));
+			}
+		}
+		return retval;
+	}
+
+	/**
+	 * An address set usable as a hash key.
+	 */
+	private static class AddressSetKey {
+
+		private int[] set = null;
+
+		private int hash = 0;
+
+		/**
+		 * Instantiates a new address set key.
+		 *
+		 * @param set the address set in ascending order
+		 */
+		public AddressSetKey(int[] set) {
+			this.set = set;
+			this.hash = Arrays.hashCode(set);
+		}
+
+		/**
+		 * @see java.lang.Object#hashCode()
+		 */
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		/**
+		 * @see java.lang.Object#equals(java.lang.Object)
+		 */
+		@Override
+		public boolean equals(Object o) {
+			return o instanceof AddressSetKey
+					&& Arrays.equals(set, ((AddressSetKey) o).set);
+		}
+	}
+}
@@ -0,0 +1,269 @@
+/*
+* Copyright (C) 2012 Chris Neasbitt
+* Author: Chris Neasbitt
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 2 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package edu.uga.cs.fluxbuster.clustering;
+
+import java.util.Arrays;
+
+/**
+ * This class computes the distance between the IP address sets of
+ * candidate flux domains.  Each set is a sorted array of distinct integer
+ * addresses.  The size of the intersection of two sets is counted by
+ * merging the arrays, or by galloping through the larger array when the
+ * sizes are very different, and the size of the union is derived from it.
+ * When the addresses of all sets fall into a small universe, each set is
+ * also kept as a bitset and the intersection of two large sets is counted
+ * with population counts.  The gamma term of each set size is computed
+ * once, so the distances equal those computed from the formula pair by
+ * pair.
+ * 
+ * The Jaccard index of two sets can not exceed the ratio of the smaller
+ * set size to the larger set size, which bounds the distance from below
+ * without looking at the addresses.
+ *
+ * @author Chris Neasbitt
+ */
+public class IPSimilarityKernel {
+
+	private static final int GALLOPRATIO = 32;
+
+	private static final long MAXBITSETBYTES = 32L * 1024 * 1024;
+
+	private int[][] sets = null;
+
+	private long[][] bitsets = null;
+
+	private int bitsetWords = 0;
+
+	private float[] gammaFactors = null;
+
+	/**
+	 * Instantiates a new similarity kernel.
+	 *
+	 * @param gamma the gamma value to use in distance calculation
+	 * @param sets the address sets, each sorted in ascending order
+	 * 		without duplicates
+	 */
+	public IPSimilarityKernel(double gamma, int[][] sets) {
+		this.sets = sets;
+		int maxlen = 0;
+		long total = 0;
+		for (int[] set : sets) {
+			maxlen = Math.max(maxlen, set.length);
+			total += set.length;
+		}
+		gammaFactors = new float[maxlen + 1];
+		for (int m = 0; m <= maxlen; m++) {
+			float G = (float) Math.exp(gamma - m);
+			gammaFactors[m] = 1 / (1 + G);
+		}
+		createBitsets(total);
+	}
+
+	/**
+	 * Creates a bitset of each address set if the number of distinct
+	 * addresses is small enough that a bitset is shorter than the average
+	 * address set.
+	 *
+	 * @param total the total number of addresses in all sets
+	 */
+	private void createBitsets(long total) {
+		if (sets.length == 0 || total > Integer.MAX_VALUE) {
+			return;
+		}
+		int[] universe = new int[(int) total];
+		int len = 0;
+		for (int[] set : sets) {
+			System.arraycopy(set, 0, universe, len, set.length);
+			len += set.length;
+		}
+		Arrays.sort(universe);
+		int distinct = 0;
+		for (int i = 0; i < len; i++) {
+			if (distinct == 0 || universe[i] != universe[distinct - 1]) {
+				universe[distinct++] = universe[i];
+			}
+		}
+		int words = (distinct + 63) >>> 6;
+		if (words > total / sets.length
+				|| (long) words * 8 * sets.length > MAXBITSETBYTES) {
+			return;
+		}
+		bitsetWords = words;
+		bitsets = new long[sets.length][];
+		for (int s = 0; s < sets.length; s++) {
+			long[] bits = new long[words];
+			for (int addr : sets[s]) {
+				int bit = Arrays.binarySearch(universe, 0, distinct, addr);
+				bits[bit >>> 6] |= 1L << bit;
+			}
+			bitsets[s] = bits;
+		}
+	}
+
+	/**
+	 * Computes the distance between two address sets.
+	 *
+	 * @param x the index of the first set
+	 * @param y the index of the second set
+	 * @return the distance value
+	 */
+	public float distance(int x, int y) {
+		int[] a = sets[x];
+		int[] b = sets[y];
+		int ilen;
+		if (bitsets != null && 2 * bitsetWords < a.length + b.length) {
+			ilen = intersectionSize(bitsets[x], bitsets[y]);
+		} else {
+			ilen = intersectionSize(a, b);
+		}
+		return distanceFromSizes(ilen, a.length, b.length);
+	}
+
+	/**
+	 * Computes the distance between two address sets whose intersection
+	 * has already been counted.
+	 *
+	 * @param x the index of the first set
+	 * @param y the index of the second set
+	 * @param ilen the size of the intersection
+	 * @return the distance value
+	 */
+	public float distance(int x, int y, int ilen) {
+		return distanceFromSizes(ilen, sets[x].length, sets[y].length);
+	}
+
+	/**
+	 * Computes a lower bound of the distance between two address sets from
+	 * their sizes alone.  For a fixed smaller set the bound does not
+	 * decrease as the larger set grows.
+	 *
+	 * @param x the index of the first set
+	 * @param y the index of the second set
+	 * @return the distance the sets would have if the smaller set was a
+	 * 		subset of the larger set
+	 */
+	public float distanceBound(int x, int y) {
+		int alen = sets[x].length;
+		int blen = sets[y].length;
+		return distanceFromSizes(Math.min(alen, blen), alen, blen);
+	}
+
+	/**
+	 * Computes the distance value from the sizes of two address sets and
+	 * of their intersection.
+	 *
+	 * @param ilen the size of the intersection
+	 * @param alen the size of the first set
+	 * @param blen the size of the second set
+	 * @return the distance value
+	 */
+	private float distanceFromSizes(int ilen, int alen, int blen) {
+		int ulen = alen + blen - ilen;
+		if (ulen == 0) {
+			return 1.0f;
+		}
+		return 1.0f - ilen / ((float) ulen) * gammaFactors[Math.min(alen, blen)];
+	}
+
+	/**
+	 * Counts the addresses in both of two sorted address sets.
+	 *
+	 * @param a the first set in ascending order
+	 * @param b the second set in ascending order
+	 * @return the size of the intersection
+	 */
+	static int intersectionSize(int[] a, int[] b) {
+		if (a.length > b.length) {
+			int[] tmp = a;
+			a = b;
+			b = tmp;
+		}
+		if (a.length == 0) {
+			return 0;
+		}
+		if (b.length / a.length >= GALLOPRATIO) {
+			return gallopIntersectionSize(a, b);
+		}
+		int ilen = 0;
+		int i = 0, j = 0;
+		while (i < a.length && j < b.length) {
+			if (a[i] < b[j]) {
+				i++;
+			} else if (a[i] > b[j]) {
+				j++;
+			} else {
+				ilen++;
+				i++;
+				j++;
+			}
+		}
+		return ilen;
+	}
+
+	/**
+	 * Counts the addresses in both of two sorted address sets by searching
+	 * for each address of the smaller set in the larger set.  Each search
+	 * starts where the previous one ended, doubling its step until it
+	 * passes the address, and then bisects the last step.
+	 *
+	 * @param small the smaller set in ascending order
+	 * @param large the larger set in ascending order
+	 * @return the size of the intersection
+	 */
+	static int gallopIntersectionSize(int[] small, int[] large) {
+		int ilen = 0;
+		int lo = 0;
+		for (int addr : small) {
+			int step = 1;
+			int hi = lo;
+			while (hi < large.length && large[hi] < addr) {
+				lo = hi + 1;
+				hi += step;
+				step <<= 1;
+			}
+			int pos = Arrays.binarySearch(large, lo, Math.min(hi + 1,
+					large.length), addr);
+			if (pos >= 0) {
+				ilen++;
+				lo = pos + 1;
+			} else {
+				lo = -pos - 1;
+			}
+			if (lo >= large.length) {
+				break;
+			}
+		}
+		return ilen;
+	}
+
+	/**
+	 * Counts the bits set in both of two bitsets.
+	 *
+	 * @param a the first bitset
+	 * @param b the second bitset
+	 * @return the size of the intersection
+	 */
+	static int intersectionSize(long[] a, long[] b) {
+		int ilen = 0;
+		for (int w = 0; w < a.length; w++) {
+			ilen += Long.bitCount(a[w] & b[w]);
+		}
+		return ilen;
+	}
+}
@@ -0,0 +1,149 @@
+/*
+* Copyright (C) 2012 Chris Neasbitt
+* Author: Chris Neasbitt
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 2 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package edu.uga.cs.fluxbuster.clustering;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+
+import edu.uga.cs.fluxbuster.utils.PropertiesUtils;
+
+/**
+ * This class measures how many of the pairs of candidate flux domains
+ * which may be merged below the max cut height are proposed by the
+ * locality sensitive hash of the approximate distance matrix.  The
+ * sample is drawn from all candidate flux domains of a time period which
+ * are not whitelisted, before the candidates are selected for clustering,
+ * so it is not limited to MAX_CANDIDATE_DOMAINS domains.
+ *
+ * @author Chris Neasbitt
+ */
+public class LSHRecallBenchmark {
+
+	private static final String GAMMAKEY = "GAMMA";
+
+	private static final String MAXCUTHEIGHTKEY = "MAX_CUT_HEIGHT";
+
+	/**
+	 * Reports the recall of the approximate distance matrix on a sample of
+	 * the candidate flux domains of a time period.
+	 *
+	 * @param args the start and end times of the period in sec.,
+	 * 		optionally followed by the sample size and the target recalls
+	 * @throws Exception if the candidate flux domains can not be loaded
+	 */
+	public static void main(String[] args) throws Exception {
+		if (args.length < 2) {
+			System.out.println("usage: LSHRecallBenchmark startTime endTime "
+					+ "[sampleSize [recall ...]]");
+			return;
+		}
+		long startTime = Long.parseLong(args[0]);
+		long endTime = Long.parseLong(args[1]);
+		int sampleSize = args.length > 2 ? Integer.parseInt(args[2])
+				: Integer.MAX_VALUE;
+		double[] recalls = new double[] {0.8, 0.9, 0.95, 0.99};
+		if (args.length > 3) {
+			recalls = new double[args.length - 3];
+			for (int k = 3; k < args.length; k++) {
+				recalls[k - 3] = Double.parseDouble(args[k]);
+			}
+		}
+		Properties localprops = PropertiesUtils.loadProperties(
+				ClusterGenerator.class);
+		Properties appprops = PropertiesUtils.loadAppWideProperties();
+		double gamma = Double.parseDouble(localprops.getProperty(GAMMAKEY));
+		double maxCutHeight = Double.parseDouble(appprops
+				.getProperty(MAXCUTHEIGHTKEY));
+
+		CandidateFluxDomainStore store = new ClusterGenerator()
+				.loadCandidateFluxDomainStore(startTime, endTime);
+		try {
+			run(store.sample(sampleSize, new Random()), gamma, maxCutHeight,
+					recalls);
+		} finally {
+			store.close();
+		}
+	}
+
+	/**
+	 * Reports the recall of the approximate distance matrix of a list of
+	 * candidate flux domains for each target recall.
+	 *
+	 * @param cfds the candidate flux domains
+	 * @param gamma the gamma value to use in distance calculation
+	 * @param maxCutHeight the max cut height
+	 * @param recalls the target recalls
+	 */
+	public static void run(List<CandidateFluxDomain> cfds, double gamma,
+			double maxCutHeight, double[] recalls) {
+		int[][] sets = DistanceMatrixCalculator.getAddressSets(cfds);
+		IPSimilarityKernel kernel = new IPSimilarityKernel(gamma, sets);
+		long start = System.nanoTime();
+		long[] exact = new long[16];
+		int numExact = 0;
+		for (int i = 0; i < sets.length; i++) {
+			for (int j = i + 1; j < sets.length; j++) {
+				if (kernel.distance(j, i) <= maxCutHeight) {
+					if (numExact == exact.length) {
+						exact = Arrays.copyOf(exact, exact.length * 2);
+					}
+					exact[numExact++] = (long) i << 32 | j;
+				}
+			}
+		}
+		long exactTime = System.nanoTime() - start;
+		long n = sets.length;
+		System.out.printf("%d domains, %d pairs, %d pairs below cut height "
+				+ "%.3f, exact in %d ms%n", n, n * (n - 1) / 2, numExact,
+				maxCutHeight, exactTime / 1000000);
+
+		double minSimilarity = 1.0 - maxCutHeight;
+		if (minSimilarity <= 0.0) {
+			System.out.println("Every pair may be merged below the cut height.");
+			return;
+		}
+		System.out.println("target\tbands\trows\tproposed\tfound\trecall\tms");
+		for (double recall : recalls) {
+			MinHashLSH lsh = MinHashLSH.forThreshold(minSimilarity, recall,
+					MinHashLSH.DEFAULTSEED);
+			start = System.nanoTime();
+			long[] proposed = lsh.proposePairs(sets);
+			long lshTime = System.nanoTime() - start;
+			// both pair lists are sorted
+			int found = 0;
+			for (int k = 0, l = 0; k < numExact && l < proposed.length;) {
+				if (exact[k] < proposed[l]) {
+					k++;
+				} else if (exact[k] > proposed[l]) {
+					l++;
+				} else {
+					found++;
+					k++;
+					l++;
+				}
+			}
+			System.out.printf("%.3f\t%d\t%d\t%d\t%d\t%.4f\t%d%n", recall,
+					lsh.getNumBands(), lsh.getNumRows(), proposed.length, found,
+					numExact == 0 ? 1.0 : found / (double) numExact,
+					lshTime / 1000000);
+		}
+	}
+}
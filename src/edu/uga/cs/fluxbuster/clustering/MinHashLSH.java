@@ -0,0 +1,265 @@
+/*
+* Copyright (C) 2012 Chris Neasbitt
+* Author: Chris Neasbitt
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 2 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package edu.uga.cs.fluxbuster.clustering;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * This class proposes the pairs of address sets which are likely to be
+ * similar using locality sensitive hashing.  The MinHash signature of
+ * each set is split into bands of rows, and two sets are proposed if all
+ * rows of any band are equal.  Two sets with a Jaccard index of s are
+ * proposed with probability 1 - (1 - s^rows)^bands.
+ *
+ * @author Chris Neasbitt
+ */
+public class MinHashLSH {
+
+	/** The maximum length of the signatures chosen by forThreshold. */
+	public static final int MAXHASHES = 256;
+
+	private static final int MAXROWS = 8;
+
+	/** The seed of the hash functions used for clustering. */
+	public static final long DEFAULTSEED = 0x66c2a4b1e5d3f01dL;
+
+	private int numBands = 0;
+
+	private int numRows = 0;
+
+	private long[] multipliers = null, addends = null;
+
+	/**
+	 * Instantiates a new locality sensitive hash.
+	 *
+	 * @param numBands the number of bands
+	 * @param numRows the number of rows in each band
+	 * @param seed the seed of the hash functions
+	 */
+	public MinHashLSH(int numBands, int numRows, long seed) {
+		this.numBands = numBands;
+		this.numRows = numRows;
+		Random random = new Random(seed);
+		multipliers = new long[numBands * numRows];
+		addends = new long[numBands * numRows];
+		for (int k = 0; k < multipliers.length; k++) {
+			multipliers[k] = random.nextLong() | 1L;
+			addends[k] = random.nextLong();
+		}
+	}
+
+	/**
+	 * Creates a locality sensitive hash which proposes the pairs with at
+	 * least a minimum Jaccard index with at least a minimum probability.
+	 * The most rows per band which keep the signature within MAXHASHES
+	 * are used, as more rows propose fewer dissimilar pairs.
+	 *
+	 * @param similarity the minimum Jaccard index, greater than 0
+	 * @param recall the minimum probability, less than 1
+	 * @param seed the seed of the hash functions
+	 * @return the locality sensitive hash
+	 */
+	public static MinHashLSH forThreshold(double similarity, double recall,
+			long seed) {
+		int bestBands = calcNumBands(similarity, recall, 1);
+		int bestRows = 1;
+		for (int rows = 2; rows <= MAXROWS; rows++) {
+			int bands = calcNumBands(similarity, recall, rows);
+			if ((long) bands * rows > MAXHASHES) {
+				break;
+			}
+			bestBands = bands;
+			bestRows = rows;
+		}
+		return new MinHashLSH(bestBands, bestRows, seed);
+	}
+
+	/**
+	 * Calculates the number of bands needed to propose the pairs with a
+	 * Jaccard index with a probability.
+	 *
+	 * @param similarity the Jaccard index
+	 * @param recall the probability
+	 * @param rows the number of rows in each band
+	 * @return the number of bands
+	 */
+	private static int calcNumBands(double similarity, double recall,
+			int rows) {
+		double p = Math.pow(similarity, rows);
+		if (p >= 1.0) {
+			return 1;
+		}
+		double bands = Math.ceil(Math.log(1 - recall) / Math.log(1 - p));
+		return (int) Math.max(1, Math.min(Integer.MAX_VALUE, bands));
+	}
+
+	/**
+	 * Gets the number of bands.
+	 *
+	 * @return the number of bands
+	 */
+	public int getNumBands() {
+		return numBands;
+	}
+
+	/**
+	 * Gets the number of rows in each band.
+	 *
+	 * @return the number of rows
+	 */
+	public int getNumRows() {
+		return numRows;
+	}
+
+	/**
+	 * Gets the probability that a pair of sets is proposed.
+	 *
+	 * @param similarity the Jaccard index of the sets
+	 * @return the probability
+	 */
+	public double getProbability(double similarity) {
+		return 1 - Math.pow(1 - Math.pow(similarity, numRows), numBands);
+	}
+
+	/**
+	 * Computes the MinHash signature of an address set.
+	 *
+	 * @param set the address set
+	 * @return the signature
+	 */
+	public int[] signature(int[] set) {
+		int[] retval = new int[multipliers.length];
+		Arrays.fill(retval, Integer.MAX_VALUE);
+		for (int addr : set) {
+			for (int k = 0; k < retval.length; k++) {
+				int h = hash(addr, k);
+				if (h < retval[k]) {
+					retval[k] = h;
+				}
+			}
+		}
+		return retval;
+	}
+
+	/**
+	 * Computes a hash of an address.
+	 *
+	 * @param addr the address
+	 * @param k the index of the hash function
+	 * @return the hash
+	 */
+	private int hash(int addr, int k) {
+		long h = addr * multipliers[k] + addends[k];
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		return (int) (h >>> 32);
+	}
+
+	/**
+	 * Proposes the pairs of similar address sets.  Empty sets are never
+	 * proposed.
+	 *
+	 * @param sets the address sets
+	 * @return the proposed pairs, each as the index of the first set in the
+	 * 		upper 32 bits and the index of the greater second set in the
+	 * 		lower 32 bits, in ascending order without duplicates
+	 */
+	public long[] proposePairs(int[][] sets) {
+		int[][] signatures = new int[sets.length][];
+		int numNonEmpty = 0;
+		for (int i = 0; i < sets.length; i++) {
+			if (sets[i].length > 0) {
+				signatures[i] = signature(sets[i]);
+				numNonEmpty++;
+			}
+		}
+		long[] pairs = new long[Math.max(16, numNonEmpty)];
+		int numPairs = 0;
+		long[] buckets = new long[numNonEmpty];
+		for (int band = 0; band < numBands; band++) {
+			int len = 0;
+			for (int i = 0; i < sets.length; i++) {
+				if (signatures[i] != null) {
+					long key = bandKey(signatures[i], band);
+					buckets[len++] = key << 32 | i;
+				}
+			}
+			Arrays.sort(buckets, 0, len);
+			int start = 0;
+			while (start < len) {
+				int end = start + 1;
+				while (end < len && buckets[end] >>> 32 == buckets[start] >>> 32) {
+					end++;
+				}
+				// the sets of a bucket are in ascending order
+				for (int x = start; x < end; x++) {
+					for (int y = x + 1; y < end; y++) {
+						if (numPairs == pairs.length) {
+							pairs = Arrays.copyOf(pairs, pairs.length * 2);
+						}
+						pairs[numPairs++] = (buckets[x] & 0xFFFFFFFFL) << 32
+								| (buckets[y] & 0xFFFFFFFFL);
+					}
+				}
+				start = end;
+			}
+			if (numPairs > pairs.length / 2) {
+				numPairs = sortUnique(pairs, numPairs);
+			}
+		}
+		numPairs = sortUnique(pairs, numPairs);
+		return Arrays.copyOf(pairs, numPairs);
+	}
+
+	/**
+	 * Computes the 32 bit key of the rows of a band of a signature.
+	 *
+	 * @param signature the signature
+	 * @param band the band
+	 * @return the key
+	 */
+	private long bandKey(int[] signature, int band) {
+		long h = band;
+		for (int k = band * numRows; k < (band + 1) * numRows; k++) {
+			h = (h ^ signature[k]) * 0x9e3779b97f4a7c15L;
+			h ^= h >>> 29;
+		}
+		return h >>> 32;
+	}
+
+	/**
+	 * Sorts the start of an array and removes duplicates.
+	 *
+	 * @param vals the array
+	 * @param len the number of values at the start of the array
+	 * @return the number of distinct values moved to the start of the array
+	 */
+	private static int sortUnique(long[] vals, int len) {
+		Arrays.sort(vals, 0, len);
+		int retval = 0;
+		for (int k = 0; k < len; k++) {
+			if (retval == 0 || vals[k] != vals[retval - 1]) {
+				vals[retval++] = vals[k];
+			}
+		}
+		return retval;
+	}
+}
@@ -0,0 +1,264 @@
+/*
+* Copyright (C) 2012 Chris Neasbitt
+* Author: Chris Neasbitt
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 2 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package edu.uga.cs.fluxbuster.clustering;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+import java.util.Vector;
+
+import edu.uga.cs.fluxbuster.clustering.hierarchicalclustering.DistanceMatrix;
+import edu.uga.cs.fluxbuster.clustering.hierarchicalclustering.DistanceStorage;
+import edu.uga.cs.fluxbuster.clustering.hierarchicalclustering.HCluster;
+import edu.uga.cs.fluxbuster.clustering.hierarchicalclustering.HierarchicalClustering;
+import edu.uga.cs.fluxbuster.clustering.hierarchicalclustering.HierarchicalClustering.LinkageType;
+import edu.uga.cs.fluxbuster.clustering.hierarchicalclustering.SparseDistanceMatrix;
+import edu.uga.cs.fluxbuster.utils.PropertiesUtils;
+
+/**
+ * This class reports whether clustering with a quantized distance matrix
+ * assigns the candidate flux domains of a time period to different 
+ * clusters than clustering with a float distance matrix.  The sample is 
+ * drawn from all candidate flux domains of the period which are not 
+ * whitelisted, before the candidates are selected for clustering, so it 
+ * is not limited to MAX_CANDIDATE_DOMAINS domains.  The configured 
+ * DIST_MATRIX_STORAGE_BITS are always reported with the configured 
+ * DIST_MATRIX_QUANTIZATION_SCALE, as clustering uses them.
+ *
+ * @author Chris Neasbitt
+ */
+public class QuantizationReport {
+
+	private static final String GAMMAKEY = "GAMMA";
+
+	private static final String MAXCUTHEIGHTKEY = "MAX_CUT_HEIGHT";
+
+	private static final String LINKAGETYPEKEY = "LINKAGE_TYPE";
+
+	private static final String DISTBITSKEY = "DIST_MATRIX_STORAGE_BITS";
+
+	private static final String DISTSCALEKEY = "DIST_MATRIX_QUANTIZATION_SCALE";
+
+	/**
+	 * Reports the changes in cluster assignments of quantized distance 
+	 * matrices on a sample of the candidate flux domains of a time period.
+	 *
+	 * @param args the start and end times of the period in sec.,
+	 * 		optionally followed by the sample size and the numbers of bits
+	 * 		of the quantized distances
+	 * @throws Exception if the candidate flux domains can not be loaded
+	 */
+	public static void main(String[] args) throws Exception {
+		if (args.length < 2) {
+			System.out.println("usage: QuantizationReport startTime endTime "
+					+ "[sampleSize [bits ...]]");
+			return;
+		}
+		long startTime = Long.parseLong(args[0]);
+		long endTime = Long.parseLong(args[1]);
+		int sampleSize = args.length > 2 ? Integer.parseInt(args[2])
+				: Integer.MAX_VALUE;
+		int[] bits = new int[] {16, 8};
+		if (args.length > 3) {
+			bits = new int[args.length - 3];
+			for (int k = 3; k < args.length; k++) {
+				bits[k - 3] = Integer.parseInt(args[k]);
+			}
+		}
+		Properties localprops = PropertiesUtils.loadProperties(
+				ClusterGenerator.class);
+		Properties appprops = PropertiesUtils.loadAppWideProperties();
+		double gamma = Double.parseDouble(localprops.getProperty(GAMMAKEY));
+		double maxCutHeight = Double.parseDouble(appprops
+				.getProperty(MAXCUTHEIGHTKEY));
+		LinkageType linkage = HierarchicalClustering.parseLinkageType(
+				appprops.getProperty(LINKAGETYPEKEY));
+		int configBits = DistanceStorage.FLOATBITS;
+		String bitsStr = appprops.getProperty(DISTBITSKEY);
+		if (bitsStr != null && bitsStr.trim().length() > 0) {
+			configBits = Integer.parseInt(bitsStr.trim());
+		}
+		float configScale = 0;
+		String scaleStr = appprops.getProperty(DISTSCALEKEY);
+		if (scaleStr != null && scaleStr.trim().length() > 0) {
+			configScale = Float.parseFloat(scaleStr.trim());
+		}
+
+		CandidateFluxDomainStore store = new ClusterGenerator()
+				.loadCandidateFluxDomainStore(startTime, endTime);
+		try {
+			run(store.sample(sampleSize, new Random()), gamma, linkage, 
+					maxCutHeight, bits, configBits, configScale);
+		} finally {
+			store.close();
+		}
+	}
+
+	/**
+	 * Reports the changes in cluster assignments of quantized distance
+	 * matrices of a list of candidate flux domains for each number of 
+	 * bits.  The configured number of bits is reported with the
+	 * configured scale, and is added to the numbers of bits if missing.
+	 * The scale of any other number of bits is the largest which can
+	 * store the maximum distance.
+	 *
+	 * @param cfds the candidate flux domains
+	 * @param gamma the gamma value to use in distance calculation
+	 * @param linkage the linkage type to use when clustering
+	 * @param maxCutHeight the max cut height
+	 * @param bits the numbers of bits of the quantized distances
+	 * @param configBits the configured number of bits, 32 for float
+	 * 		distances
+	 * @param configScale the configured scale, 0 for the largest scale
+	 * @throws Exception if a distance matrix can not be computed
+	 */
+	public static void run(List<CandidateFluxDomain> cfds, double gamma,
+			LinkageType linkage, double maxCutHeight, int[] bits,
+			int configBits, float configScale) throws Exception {
+		int n = cfds.size();
+		long start = System.nanoTime();
+		int[] reference = cluster(cfds, gamma, linkage, maxCutHeight,
+				DistanceStorage.create(DistanceMatrix.getNumValues(n)));
+		long refTime = System.nanoTime() - start;
+		System.out.printf("%d domains, %s, cut height %.3f, float in %d ms%n",
+				n, linkage, maxCutHeight, refTime / 1000000);
+		System.out.println("bits\tscale\tMB\tclusters\tpairs\tref pairs\t"
+				+ "common pairs\tchanged domains\tms");
+		// the float distance matrix is the reference, the clustering
+		// engines break ties deterministically so it is not run again
+		int[] all = bits;
+		if (configBits != DistanceStorage.FLOATBITS) {
+			boolean found = false;
+			for (int b : bits) {
+				found |= b == configBits;
+			}
+			if (!found) {
+				all = new int[bits.length + 1];
+				all[0] = configBits;
+				System.arraycopy(bits, 0, all, 1, bits.length);
+			}
+		}
+		for (int b : all) {
+			long numValues = DistanceMatrix.getNumValues(n);
+			float scale = 0;
+			DistanceStorage storage;
+			if (b == DistanceStorage.FLOATBITS) {
+				storage = DistanceStorage.create(numValues);
+			} else {
+				scale = DistanceStorage.getMaxScale(b, 
+						SparseDistanceMatrix.MAXDISTANCE);
+				if (b == configBits && configScale > 0) {
+					scale = configScale;
+				}
+				storage = DistanceStorage.createQuantized(numValues, b, scale,
+						false, null);
+			}
+			start = System.nanoTime();
+			int[] labels = cluster(cfds, gamma, linkage, maxCutHeight, 
+					storage);
+			long time = System.nanoTime() - start;
+			report(b, scale, numValues * storage.getBytesPerValue(), 
+					reference, labels, time);
+		}
+	}
+
+	/**
+	 * Clusters candidate flux domains with a dense distance matrix kept 
+	 * in a storage.
+	 *
+	 * @param cfds the candidate flux domains
+	 * @param gamma the gamma value to use in distance calculation
+	 * @param linkage the linkage type to use when clustering
+	 * @param maxCutHeight the max cut height
+	 * @param storage the storage of the distance matrix
+	 * @return the cluster of each candidate flux domain
+	 * @throws Exception if the distance matrix can not be computed
+	 */
+	private static int[] cluster(List<CandidateFluxDomain> cfds, 
+			double gamma, LinkageType linkage, double maxCutHeight, 
+			DistanceStorage storage) throws Exception {
+		DistanceMatrix distMatrix = new DistanceMatrix(cfds.size(), linkage,
+				storage);
+		double pruneHeight = HierarchicalClustering.isMinMaxLinkage(linkage)
+				? maxCutHeight : Double.MAX_VALUE;
+		new DistanceMatrixCalculator(gamma, cfds, pruneHeight).compute(
+				distMatrix, 1);
+		HierarchicalClustering hc = new HierarchicalClustering(linkage);
+		hc.runClusterer(distMatrix, maxCutHeight);
+		Vector<HCluster> hclusters = hc.getDendrogram().getClusters(
+				maxCutHeight);
+		int[] retval = new int[cfds.size()];
+		for (int c = 0; c < hclusters.size(); c++) {
+			for (int index : hclusters.get(c).getIndexes()) {
+				retval[index] = c;
+			}
+		}
+		return retval;
+	}
+
+	/**
+	 * Prints the clusters and the pairs of domains in the same cluster of
+	 * an assignment, and how many of those pairs and domains agree with a 
+	 * reference assignment.  A domain is changed if the domains in its 
+	 * cluster differ from the domains in its reference cluster.
+	 *
+	 * @param bits the number of bits of the distances
+	 * @param scale the scale of quantized distances, 0 for floats
+	 * @param bytes the size of the distance matrix in bytes
+	 * @param reference the reference cluster of each domain
+	 * @param labels the cluster of each domain
+	 * @param time the clustering time in nanoseconds
+	 */
+	private static void report(int bits, float scale, long bytes, 
+			int[] reference, int[] labels, long time) {
+		int n = labels.length;
+		HashMap<Long, Integer> common = new HashMap<Long, Integer>();
+		int[] refSizes = new int[n], sizes = new int[n];
+		int numClusters = 0;
+		for (int i = 0; i < n; i++) {
+			refSizes[reference[i]]++;
+			if (sizes[labels[i]]++ == 0) {
+				numClusters++;
+			}
+			Long key = (long) reference[i] << 32 | labels[i];
+			Integer count = common.get(key);
+			common.put(key, count == null ? 1 : count + 1);
+		}
+		long pairs = 0, refPairs = 0, commonPairs = 0;
+		for (int c = 0; c < n; c++) {
+			pairs += (long) sizes[c] * (sizes[c] - 1) / 2;
+			refPairs += (long) refSizes[c] * (refSizes[c] - 1) / 2;
+		}
+		for (int count : common.values()) {
+			commonPairs += (long) count * (count - 1) / 2;
+		}
+		int changed = 0;
+		for (int i = 0; i < n; i++) {
+			int count = common.get((long) reference[i] << 32 | labels[i]);
+			if (count != sizes[labels[i]] || count != refSizes[reference[i]]) {
+				changed++;
+			}
+		}
+		System.out.printf("%d\t%s\t%d\t%d\t%d\t%d\t%d\t%d\t%d%n", bits,
+				scale == 0 ? "-" : String.format("%.1f", scale), bytes >> 20, 
+				numClusters, pairs, refPairs, commonPairs, changed,
+				time / 1000000);
+	}
+}
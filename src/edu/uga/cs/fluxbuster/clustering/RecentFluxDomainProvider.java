@@ -0,0 +1,240 @@
+/*
+* Copyright (C) 2012 Chris Neasbitt
+* Author: Chris Neasbitt
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 2 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package edu.uga.cs.fluxbuster.clustering;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.joda.time.DateTime;
+
+import edu.uga.cs.fluxbuster.classification.ClusterClass;
+import edu.uga.cs.fluxbuster.db.DBInterface;
+
+/**
+ * This class provides the 2LD's of the domains in the flux clusters of
+ * the runs preceding a run.  The 2LD's of all runs missing from the cache
+ * are retrieved with a single query.  Since the clusters of a past run do
+ * not change, the 2LD's of each run are kept in a snapshot file so later
+ * runs only query the runs they have not seen.  A run without flux clusters
+ * is not cached, as its clusters may not have been classified yet.
+ *
+ * @author Chris Neasbitt
+ */
+public class RecentFluxDomainProvider {
+
+	private static final int MAGIC = 0x46425246;
+
+	private static final int VERSION = 1;
+
+	private static final int BUFSIZE = 65536;
+
+	private DBInterface iface = null;
+
+	private File cacheFile = null;
+
+	private SimpleDateFormat dateFormat = new SimpleDateFormat("yyyyMMdd");
+
+	private static Log log = LogFactory.getLog(RecentFluxDomainProvider.class);
+
+	/**
+	 * Instantiates a new recent flux domain provider.
+	 *
+	 * @param iface the database interface, if null only the cached 2LD's
+	 * 		are provided
+	 * @param cacheFile the snapshot file of the 2LD's of past runs, if
+	 * 		null the 2LD's are not cached
+	 */
+	public RecentFluxDomainProvider(DBInterface iface, File cacheFile) {
+		this.iface = iface;
+		this.cacheFile = cacheFile;
+	}
+
+	/**
+	 * Gets the 2LD's of the domains in the flux clusters of the runs
+	 * on the days before a time.
+	 *
+	 * @param startTime unix epoch in sec.
+	 * @param numDays the number of preceding days
+	 * @return the 2LD's of recent flux domains, only the cached 2LD's if
+	 * 		the runs missing from the cache can not be loaded
+	 */
+	public Set<String> getRecentFlux2LDs(long startTime, int numDays) {
+		Set<String> retval = new HashSet<String>();
+		Map<String, Set<String>> cache = readCache();
+		DateTime startDateTime = new DateTime(startTime * 1000);
+		List<Date> missing = new ArrayList<Date>();
+		for (int i = 1; i <= numDays; i++) {
+			Date prevdate = new Date(startDateTime.minusDays(i).getMillis());
+			Set<String> slds = cache.get(dateFormat.format(prevdate));
+			if (slds != null) {
+				retval.addAll(slds);
+			} else {
+				missing.add(prevdate);
+			}
+		}
+		if (missing.isEmpty()) {
+			return retval;
+		}
+
+		if (iface == null) {
+			if(log.isErrorEnabled()){
+				log.error("Unable to load previous flux domains for "
+						+ missing.size() + " days, no database interface.");
+			}
+			return retval;
+		}
+		Map<Date, Set<String>> runs = null;
+		try {
+			runs = iface.getCluster2LDs(missing, ClusterClass.FLUX);
+		} catch (Exception e) {
+			if(log.isErrorEnabled()){
+				log.error("Error loading previous flux domains.", e);
+			}
+		}
+		if (runs == null) {
+			if(log.isErrorEnabled()){
+				log.error("Unable to load previous flux domains for "
+						+ missing.size() + " days.");
+			}
+			return retval;
+		}
+		Map<String, Set<String>> loaded = new HashMap<String, Set<String>>();
+		for (Map.Entry<Date, Set<String>> run : runs.entrySet()) {
+			loaded.put(dateFormat.format(run.getKey()), run.getValue());
+		}
+		boolean modified = false;
+		for (Date prevdate : missing) {
+			String day = dateFormat.format(prevdate);
+			Set<String> slds = loaded.get(day);
+			if (slds != null && slds.size() > 0) {
+				retval.addAll(slds);
+				cache.put(day, slds);
+				modified = true;
+			}
+		}
+		if (modified) {
+			writeCache(cache);
+		}
+		return retval;
+	}
+
+	/**
+	 * Reads the cached 2LD's of past runs.
+	 *
+	 * @return the 2LD's keyed by the run date as yyyyMMdd, empty if there
+	 * 		is no cache or it can not be read
+	 */
+	private Map<String, Set<String>> readCache() {
+		Map<String, Set<String>> retval = new HashMap<String, Set<String>>();
+		if (cacheFile == null || !cacheFile.exists()) {
+			return retval;
+		}
+		try {
+			DataInputStream in = new DataInputStream(new BufferedInputStream(
+					new FileInputStream(cacheFile), BUFSIZE));
+			try {
+				if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+					throw new IOException("Not a recent flux cache of a "
+							+ "supported version.");
+				}
+				int numDays = in.readInt();
+				for (int i = 0; i < numDays; i++) {
+					String day = in.readUTF();
+					int numSlds = in.readInt();
+					Set<String> slds = new HashSet<String>();
+					for (int j = 0; j < numSlds; j++) {
+						slds.add(in.readUTF());
+					}
+					retval.put(day, slds);
+				}
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			if(log.isWarnEnabled()){
+				log.warn("Ignoring unreadable recent flux cache " + cacheFile, e);
+			}
+			retval.clear();
+		}
+		return retval;
+	}
+
+	/**
+	 * Writes the cached 2LD's of past runs.  The cache is written under a
+	 * temporary name and renamed, so an interrupted write leaves the
+	 * previous cache.
+	 *
+	 * @param cache the 2LD's keyed by the run date as yyyyMMdd
+	 */
+	private void writeCache(Map<String, Set<String>> cache) {
+		if (cacheFile == null) {
+			return;
+		}
+		File tempFile = new File(cacheFile.getPath() + ".tmp");
+		try {
+			FileOutputStream fout = new FileOutputStream(tempFile);
+			try {
+				DataOutputStream out = new DataOutputStream(
+						new BufferedOutputStream(fout, BUFSIZE));
+				out.writeInt(MAGIC);
+				out.writeInt(VERSION);
+				out.writeInt(cache.size());
+				for (Map.Entry<String, Set<String>> day : cache.entrySet()) {
+					out.writeUTF(day.getKey());
+					out.writeInt(day.getValue().size());
+					for (String sld : day.getValue()) {
+						out.writeUTF(sld);
+					}
+				}
+				out.flush();
+				fout.getFD().sync();
+			} finally {
+				fout.close();
+			}
+			if (!tempFile.renameTo(cacheFile)) {
+				// some platforms do not replace an existing file
+				if (!cacheFile.delete() || !tempFile.renameTo(cacheFile)) {
+					throw new IOException("Unable to rename " + tempFile
+							+ " to " + cacheFile);
+				}
+			}
+		} catch (IOException e) {
+			tempFile.delete();
+			if(log.isErrorEnabled()){
+				log.error("Unable to write recent flux cache " + cacheFile, e);
+			}
+		}
+	}
+}
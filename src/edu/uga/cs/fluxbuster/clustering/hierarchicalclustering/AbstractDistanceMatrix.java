@@ -0,0 +1,164 @@
+/*
+ * Copyright (C) 2012 Chris Neasbitt
+ * Author: Chris Neasbitt
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package edu.uga.cs.fluxbuster.clustering.hierarchicalclustering;
+
+import java.io.Serializable;
+
+/**
+ * The base class of the distance matrices the hierarchical clustering
+ * algorithm runs on.  The clusters are addressed by their position in
+ * the list of clusters, when two clusters are merged the merged cluster
+ * takes the position of the first cluster and the clusters following
+ * the second cluster move up one position.
+ *
+ * @author Chris Neasbitt
+ */
+public abstract class AbstractDistanceMatrix implements Serializable {
+
+	static final long serialVersionUID = -1235809600124455376L;
+
+	private HierarchicalClustering.LinkageType linkMethod =
+			HierarchicalClustering.LinkageType.SINGLE_LINKAGE;
+
+	/**
+	 * Gets the linkage method to use when clustering.
+	 *
+	 * @return the linkage method
+	 */
+	public HierarchicalClustering.LinkageType getLinkMethod() {
+		return linkMethod;
+	}
+
+	/**
+	 * Sets the linkage method to use when clustering.
+	 *
+	 * @param linkMethod
+	 *            the linkage method
+	 */
+	protected void setLinkMethod(HierarchicalClustering.LinkageType linkMethod) {
+		this.linkMethod = linkMethod;
+	}
+
+	/**
+	 * Gets the num instances.
+	 *
+	 * @return the num instances
+	 */
+	public abstract int getNumInstances();
+
+	/**
+	 * Return the value at coordinates (i,j). If i = j then 0 is returned. If j
+	 * < i then the value at (j,i) is returned.
+	 *
+	 * @param i
+	 *            the row coordinate
+	 * @param j
+	 *            the column coordinate
+	 * @return the value at the specified coordinates, if the coordinates
+	 *         are not within the bounds of the distance matrix
+	 *         Float.MAX_VALUE is returned
+	 */
+	public abstract float distance(int i, int j);
+
+	/**
+	 * Checks whether any clusters have been merged.
+	 *
+	 * @return true if clustering has started
+	 */
+	abstract boolean isMerged();
+
+	/**
+	 * Find closest cluster pair in the distance matrix.
+	 *
+	 * @return the closest cluster index pair
+	 */
+	public abstract ClusterIndexPair findClosestClusterPair();
+
+	/**
+	 * Updates the distance matrix with the clusters at the supplied indexes
+	 * merged.
+	 *
+	 * @param pair
+	 *            the pair of clusters to merge.
+	 */
+	abstract void update(ClusterIndexPair pair);
+
+	/**
+	 * Checks whether the distance of a merged cluster can be computed by
+	 * {@link #link(float, float)} for a linkage type, which does not know
+	 * the sizes of the clusters.
+	 *
+	 * @param linkMethod
+	 *            the linkage type
+	 * @return true for single, complete and weighted linkage
+	 */
+	static boolean isLinkSupported(
+			HierarchicalClustering.LinkageType linkMethod) {
+		return linkMethod == HierarchicalClustering.LinkageType.SINGLE_LINKAGE
+				|| linkMethod == HierarchicalClustering.LinkageType.COMPLETE_LINKAGE
+				|| linkMethod == HierarchicalClustering.LinkageType.WEIGHTED_LINKAGE;
+	}
+
+	/**
+	 * Computes the distance between a merged cluster and another cluster
+	 * from the distances between the merged clusters and the other cluster.
+	 * The linkages which need the sizes of the clusters are not supported,
+	 * see {@link #isLinkSupported(HierarchicalClustering.LinkageType)}.
+	 *
+	 * @param a
+	 *            the distance from the first merged cluster
+	 * @param b
+	 *            the distance from the second merged cluster
+	 * @return the distance from the merged cluster
+	 */
+	protected float link(float a, float b) {
+		float c = Math.min(a, b); // default is single linkage
+
+		// this is redundant, it's here to make things clearer
+		if (linkMethod == HierarchicalClustering.LinkageType.SINGLE_LINKAGE)
+			c = Math.min(a, b);
+		else if (linkMethod == HierarchicalClustering.LinkageType.COMPLETE_LINKAGE)
+			c = Math.max(a, b);
+		else if (linkMethod == HierarchicalClustering.LinkageType.WEIGHTED_LINKAGE)
+			c = (a + b) / 2;
+		else
+			throw new UnsupportedOperationException(linkMethod 
+					+ " needs the cluster sizes.");
+
+		return c;
+	}
+
+	/**
+	 * Prints the distance matrix to stdout.
+	 */
+	public void printDistMatrix() {
+		int numInstances = getNumInstances();
+		for (int i = 0; i < numInstances; i++) {
+
+			for (int h = 0; h < i + 1; h++) {
+				System.out.print("x\t");
+			}
+
+			for (int j = i + 1; j < numInstances; j++)
+				System.out.printf("%.2f\t", distance(i, j));
+
+			System.out.println();
+		}
+	}
+}
@@ -18,133 +18,341 @@
 
 package edu.uga.cs.fluxbuster.clustering.hierarchicalclustering;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.Serializable;
-import java.util.Map;
-import java.util.TreeMap;
 import java.util.Vector;
 
-import org.apache.commons.logging.Log;
-import org.apache.commons.logging.LogFactory;
-
 /**
  * This class represents the result of hierarchical clustering represented
- * as a dendrogram
- * 
+ * as a dendrogram.  The dendrogram is kept as the list of merges in the
+ * order they were made, like a linkage matrix.  The instances are the
+ * clusters 0 to n - 1 and the k-th merge creates the cluster n + k from
+ * two clusters at a height, so the clusters at any cut height are built
+ * on demand by replaying the merges not beyond it.
+ *
  * @author Roberto Perdisci
  */
 public class Dendrogram implements Serializable {
 
 	static final long serialVersionUID = -1235809600124455376L;
 
-	private Map<Double, Vector<HCluster>> heights = 
-			new TreeMap<Double, Vector<HCluster>>();
-	
-	private static Log log = LogFactory.getLog(Dendrogram.class);
+	private static final int MAGIC = 0x46424447;
+
+	private static final int VERSION = 1;
+
+	private static final int BUFSIZE = 65536;
+
+	private int numInstances = 0;
+
+	private int numMerges = 0;
+
+	private int[] firsts = null, seconds = null, sizes = null;
+
+	private double[] heights = null;
+
+	private boolean[] merged = null;
 
 	/**
-	 * Adds the clusters at a specific height in the dendrogram.
+	 * Instantiates a new dendrogram without merges.
 	 *
-	 * @param height the height
-	 * @param clusters the clusters
+	 * @param numInstances the number of instances
 	 */
-	@SuppressWarnings("unchecked")
-	public void addClusters(double height, Vector<HCluster> clusters) {
-		// Makes a deep copy
-		Vector<HCluster> c = (Vector<HCluster>) deepCopy(clusters);
-		getHeights().put(height, c);
+	public Dendrogram(int numInstances) {
+		this.numInstances = numInstances;
+		int cap = Math.max(0, numInstances - 1);
+		firsts = new int[cap];
+		seconds = new int[cap];
+		sizes = new int[cap];
+		heights = new double[cap];
+		merged = new boolean[numInstances + cap];
 	}
 
 	/**
-	 * Creates a deep copy of any object.
+	 * Adds the next merge of two clusters.
 	 *
-	 * @param o the object to copy
-	 * @return the copy
+	 * @param first the first cluster, either an instance or a cluster
+	 * 		created by a previous merge
+	 * @param second the second cluster
+	 * @param height the height of the merge
+	 * @return the cluster created by the merge
+	 * @throws IllegalArgumentException if a cluster does not exist or has
+	 * 		already been merged
 	 */
-	public Object deepCopy(Object o) {
-		try {
-			ByteArrayOutputStream byteOut = new ByteArrayOutputStream();
-			ObjectOutputStream out = new ObjectOutputStream(byteOut);
-			out.writeObject(o);
-			out.close();
-
-			byte[] data = byteOut.toByteArray();
-			ObjectInputStream in = new ObjectInputStream(
-					new ByteArrayInputStream(data));
-			Object copy = in.readObject();
-			in.close();
+	public int addMerge(int first, int second, double height) {
+		int next = numInstances + numMerges;
+		if (numMerges == firsts.length || first < 0 || first >= next
+				|| second < 0 || second >= next || first == second
+				|| merged[first] || merged[second]) {
+			throw new IllegalArgumentException("Can not merge the clusters "
+					+ first + " and " + second + ".");
+		}
+		merged[first] = true;
+		merged[second] = true;
+		firsts[numMerges] = first;
+		seconds[numMerges] = second;
+		heights[numMerges] = height;
+		sizes[numMerges] = getSize(first) + getSize(second);
+		return numInstances + numMerges++;
+	}
 
-			return copy;
-		} catch (Exception e) {
-			if(log.isErrorEnabled()){
-				log.error("Error performing deep copy.", e);
-			}
+	/**
+	 * Gets the number of instances.
+	 *
+	 * @return the number of instances
+	 */
+	public int getNumInstances() {
+		return numInstances;
+	}
+
+	/**
+	 * Gets the number of merges.
+	 *
+	 * @return the number of merges
+	 */
+	public int getNumMerges() {
+		return numMerges;
+	}
+
+	/**
+	 * Gets the first cluster of a merge.
+	 *
+	 * @param k the merge
+	 * @return the first cluster
+	 */
+	public int getFirst(int k) {
+		return firsts[k];
+	}
+
+	/**
+	 * Gets the second cluster of a merge.
+	 *
+	 * @param k the merge
+	 * @return the second cluster
+	 */
+	public int getSecond(int k) {
+		return seconds[k];
+	}
+
+	/**
+	 * Gets the height of a merge.
+	 *
+	 * @param k the merge
+	 * @return the height
+	 */
+	public double getHeight(int k) {
+		return heights[k];
+	}
+
+	/**
+	 * Gets the number of instances of a cluster.
+	 *
+	 * @param cluster an instance or a cluster created by a merge
+	 * @return the number of instances
+	 */
+	public int getSize(int cluster) {
+		return cluster < numInstances ? 1 : sizes[cluster - numInstances];
+	}
+
+	/**
+	 * Gets the number of merges made up to a cut height, the merges up to
+	 * the first merge beyond it.
+	 *
+	 * @param cutHeight the cut height
+	 * @return the number of merges
+	 */
+	private int getNumMerges(double cutHeight) {
+		int k = 0;
+		while (k < numMerges && heights[k] <= cutHeight) {
+			k++;
 		}
+		return k;
+	}
 
-		return null;
+	/**
+	 * Gets the number of clusters at a cut height.
+	 *
+	 * @param cutHeight the cut height
+	 * @return the number of clusters
+	 */
+	public int getNumClusters(double cutHeight) {
+		return numInstances - getNumMerges(cutHeight);
 	}
 
 	/**
-	 * Gets the clusters at a particular cut height.
+	 * Gets the clusters at a particular cut height.  The clusters are in
+	 * ascending order of their smallest instances, and each cluster lists
+	 * the instances of the first of two merged clusters with the smaller
+	 * smallest instance before those of the other.
 	 *
 	 * @param cutHeight the cut height
 	 * @return the clusters
 	 */
 	public Vector<HCluster> getClusters(double cutHeight) {
-		double height = 0;
-		for (double h : getHeights().keySet()) {
-			if (h > cutHeight)
-				break;
-
-			height = h;
+		int count = getNumMerges(cutHeight);
+		// each cluster is a linked list of its instances, kept in the
+		// first instance of the list
+		int[] parents = new int[numInstances];
+		int[] tails = new int[numInstances];
+		int[] nexts = new int[numInstances];
+		int[] roots = new int[numInstances + count];
+		for (int a = 0; a < numInstances; a++) {
+			parents[a] = a;
+			tails[a] = a;
+			nexts[a] = -1;
+			roots[a] = a;
+		}
+		for (int k = 0; k < count; k++) {
+			int ra = roots[firsts[k]];
+			int rb = roots[seconds[k]];
+			if (rb < ra) {
+				int tmp = ra;
+				ra = rb;
+				rb = tmp;
+			}
+			parents[rb] = ra;
+			nexts[tails[ra]] = rb;
+			tails[ra] = tails[rb];
+			roots[numInstances + k] = ra;
 		}
 
-		return getHeights().get(height);
+		Vector<HCluster> retval = new Vector<HCluster>();
+		for (int a = 0; a < numInstances; a++) {
+			if (parents[a] == a) {
+				HCluster c = new HCluster();
+				for (int x = a; x >= 0; x = nexts[x]) {
+					c.getIndexes().add(x);
+				}
+				retval.add(c);
+			}
+		}
+		return retval;
 	}
 
 	/**
 	 * Prints the dendrogram to stdout.
 	 */
 	public void print() {
-		for (double h : getHeights().keySet()) {
-			System.out.println("h=" + h + " ---> ");
-			for (HCluster v : getHeights().get(h)) {
-				System.out.println(" " + v);
+		double height = 0;
+		printClusters(height);
+		for (int k = 0; k < numMerges; k++) {
+			if (heights[k] > height) {
+				height = heights[k];
+				printClusters(height);
 			}
 		}
 	}
 
+	/**
+	 * Prints the clusters at a height of the dendrogram, one per line.
+	 *
+	 * @param h the height
+	 */
+	private void printClusters(double h) {
+		System.out.println("h=" + h + " ---> ");
+		for (HCluster v : getClusters(h)) {
+			System.out.println(" " + v);
+		}
+	}
+
 	/**
 	 * Prints the clusters at a cut height.
 	 *
 	 * @param h the cut height.
 	 */
 	public void print(double h) {
+		Vector<HCluster> clusters = getClusters(h);
 		System.out.println("h=" + h + " ---> ");
-		for (HCluster v : getHeights().get(h)) {
+		for (HCluster v : clusters) {
 			System.out.print(" " + v + " ");
 		}
-		System.out.println("Num of clusters = " + getHeights().get(h).size());
+		System.out.println("Num of clusters = " + clusters.size());
 	}
 
 	/**
-	 * Sets the dendrogram with the list clusters at specific heights.
+	 * Writes the dendrogram to a binary file.  The dendrogram is written
+	 * under a temporary name and renamed, so an interrupted write leaves
+	 * the previous file.
 	 *
-	 * @param heights the heights, clusters map
+	 * @param file the file
+	 * @throws IOException if the file can not be written
 	 */
-	public void setHeights(Map<Double, Vector<HCluster>> heights) {
-		this.heights = heights;
+	public void write(File file) throws IOException {
+		File tempFile = new File(file.getPath() + ".tmp");
+		try {
+			FileOutputStream fout = new FileOutputStream(tempFile);
+			try {
+				DataOutputStream out = new DataOutputStream(
+						new BufferedOutputStream(fout, BUFSIZE));
+				out.writeInt(MAGIC);
+				out.writeInt(VERSION);
+				out.writeInt(numInstances);
+				out.writeInt(numMerges);
+				for (int k = 0; k < numMerges; k++) {
+					out.writeInt(firsts[k]);
+					out.writeInt(seconds[k]);
+					out.writeDouble(heights[k]);
+				}
+				out.flush();
+				fout.getFD().sync();
+			} finally {
+				fout.close();
+			}
+			if (!tempFile.renameTo(file)) {
+				// some platforms do not replace an existing file
+				if (!file.delete() || !tempFile.renameTo(file)) {
+					throw new IOException("Unable to rename " + tempFile
+							+ " to " + file);
+				}
+			}
+		} catch (IOException e) {
+			tempFile.delete();
+			throw e;
+		}
 	}
 
 	/**
-	 * Gets all of the clusters at each height.
+	 * Reads a dendrogram written by {@link #write(File)}.
 	 *
-	 * @return the heights, clusters map
+	 * @param file the file
+	 * @return the dendrogram
+	 * @throws IOException if the file can not be read or is not a
+	 * 		dendrogram
 	 */
-	public Map<Double, Vector<HCluster>> getHeights() {
-		return heights;
+	public static Dendrogram read(File file) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(
+				new FileInputStream(file), BUFSIZE));
+		try {
+			if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+				throw new IOException("Not a dendrogram of a supported "
+						+ "version.");
+			}
+			int numInstances = in.readInt();
+			int numMerges = in.readInt();
+			if (numInstances < 0 || numMerges < 0
+					|| numMerges > Math.max(0, numInstances - 1)) {
+				throw new IOException("Corrupt dendrogram.");
+			}
+			Dendrogram retval = new Dendrogram(numInstances);
+			for (int k = 0; k < numMerges; k++) {
+				int first = in.readInt();
+				int second = in.readInt();
+				double height = in.readDouble();
+				try {
+					retval.addMerge(first, second, height);
+				} catch (IllegalArgumentException e) {
+					throw new IOException("Corrupt dendrogram.", e);
+				}
+			}
+			return retval;
+		} finally {
+			in.close();
+		}
 	}
 }
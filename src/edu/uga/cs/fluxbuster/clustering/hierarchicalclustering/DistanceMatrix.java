@@ -21,27 +21,80 @@ package edu.uga.cs.fluxbuster.clustering.hierarchicalclustering;
 import java.io.BufferedReader;
 import java.io.FileReader;
 import java.io.IOException;
-import java.io.Serializable;
 import java.util.Vector;
 
-import org.apache.commons.logging.Log;
-import org.apache.commons.logging.LogFactory;
-
 /**
- * This class implements an upper trianglar distance matrix.
+ * This class implements an upper trianglar distance matrix.  The upper
+ * triangle of the distances between the original instances is stored
+ * condensed in row major order by a {@link DistanceStorage}, as floats or
+ * as quantized fixed point codes, either on the heap or in a memory 
+ * mapped file for matrices larger than the heap.  When two clusters are
+ * merged the distances of the merged cluster overwrite those of the first
+ * cluster and the second cluster is dropped from the list of active 
+ * instances, so no values are moved.
  * 
  * @author Roberto Perdisci
  */
-public class DistanceMatrix implements Serializable {
+public class DistanceMatrix extends AbstractDistanceMatrix {
 
 	static final long serialVersionUID = -1235809600124455376L;
 
-	private Vector<Vector<Float>> distMatrix = null;
+	private DistanceStorage storage = null;
+
+	private int numOriginal = 0;
+
+	private int[] active = null;
+
+	private int numActive = 0;
+
+	/**
+	 * Instantiates a new distance matrix with all distances set to 0.
+	 * 
+	 * @param numInstances
+	 *            the number of instances
+	 */
+	public DistanceMatrix(int numInstances) {
+		initActive(numInstances);
+		storage = DistanceStorage.create(getNumValues(numInstances));
+	}
 
-	private HierarchicalClustering.LinkageType linkMethod = 
-			HierarchicalClustering.LinkageType.SINGLE_LINKAGE;
-	
-	private static Log log = LogFactory.getLog(DistanceMatrix.class);
+	/**
+	 * Instantiates a new distance matrix with all distances set to 0.
+	 * 
+	 * @param numInstances
+	 *            the number of instances
+	 * @param linkMethod
+	 *            the linkage method to use when clustering
+	 */
+	public DistanceMatrix(int numInstances,
+			HierarchicalClustering.LinkageType linkMethod) {
+		this(numInstances);
+		this.setLinkMethod(linkMethod);
+	}
+
+	/**
+	 * Instantiates a new distance matrix kept in the supplied storage, 
+	 * such as a memory mapped or a quantized storage.
+	 * 
+	 * @param numInstances
+	 *            the number of instances
+	 * @param linkMethod
+	 *            the linkage method to use when clustering
+	 * @param storage
+	 *            the storage of the distances, holding 
+	 *            getNumValues(numInstances) values
+	 */
+	public DistanceMatrix(int numInstances,
+			HierarchicalClustering.LinkageType linkMethod, 
+			DistanceStorage storage) {
+		if (storage.getNumValues() != getNumValues(numInstances)) {
+			throw new IllegalArgumentException("The storage does not hold "
+					+ "the distances of " + numInstances + " instances.");
+		}
+		initActive(numInstances);
+		this.storage = storage;
+		this.setLinkMethod(linkMethod);
+	}
 
 	/**
 	 * Loads the distance matrix from a file which contains the upper triangle
@@ -53,15 +106,14 @@ public class DistanceMatrix implements Serializable {
 	 *             if the matrix values file can not be read
 	 */
 	public DistanceMatrix(String path) throws IOException {
-		distMatrix = new Vector<Vector<Float>>();
 		BufferedReader br = new BufferedReader(new FileReader(path));
 		String[] strvals = br.readLine().split("\\s");
-		Vector<Float> vals = new Vector<Float>();
-		for (String s : strvals) {
-			vals.add(Float.valueOf(s));
-		}
 		br.close();
-		populateDistanceMatrix(vals);
+		initActive(calcNumInstances(strvals.length));
+		storage = DistanceStorage.create(getNumValues(numOriginal));
+		for (int k = 0; k < strvals.length; k++) {
+			set(k, Float.parseFloat(strvals[k]));
+		}
 	}
 
 	/**
@@ -78,7 +130,7 @@ public class DistanceMatrix implements Serializable {
 	public DistanceMatrix(String path,
 			HierarchicalClustering.LinkageType linkMethod) throws IOException {
 		this(path);
-		this.linkMethod = linkMethod;
+		this.setLinkMethod(linkMethod);
 
 	}
 
@@ -90,8 +142,11 @@ public class DistanceMatrix implements Serializable {
 	 *            the matrix values
 	 */
 	public DistanceMatrix(Vector<Float> vals) {
-		distMatrix = new Vector<Vector<Float>>();
-		populateDistanceMatrix(vals);
+		initActive(calcNumInstances(vals.size()));
+		storage = DistanceStorage.create(getNumValues(numOriginal));
+		for (int k = 0; k < vals.size(); k++) {
+			set(k, vals.get(k));
+		}
 	}
 
 	/**
@@ -106,29 +161,129 @@ public class DistanceMatrix implements Serializable {
 	public DistanceMatrix(Vector<Float> vals,
 			HierarchicalClustering.LinkageType linkMethod) {
 		this(vals);
-		this.linkMethod = linkMethod;
+		this.setLinkMethod(linkMethod);
 
 	}
 
 	/**
-	 * Populate distance matrix from a list of matrix values specified in row
-	 * major order.
+	 * Calculates the number of instances from the number of values in the
+	 * upper triangle.
 	 * 
-	 * @param vals
-	 *            the matrix values
+	 * @param numValues
+	 *            the number of values
+	 * @return the number of instances
+	 */
+	private static int calcNumInstances(long numValues) {
+		return Math.max(1, (int) Math.ceil(Math.sqrt(2 * numValues)));
+	}
+
+	/**
+	 * Gets the number of values in the upper triangle of a distance 
+	 * matrix.
+	 * 
+	 * @param numInstances
+	 *            the number of instances
+	 * @return the number of values
+	 */
+	public static long getNumValues(int numInstances) {
+		return (long) numInstances * (numInstances - 1) / 2;
+	}
+
+	/**
+	 * Marks every instance active.
+	 * 
+	 * @param numInstances
+	 *            the number of instances
 	 */
-	private void populateDistanceMatrix(Vector<Float> vals) {
-		int matrixdim = (int) Math.ceil(Math.sqrt(2 * vals.size()));
-
-		int length = matrixdim - 1;
-		int start = 0;
-		for (int i = 0; i < matrixdim - 1; i++) {
-			Vector<Float> row = new Vector<Float>();
-			row.addAll(vals.subList(start, start + length));
-			distMatrix.add(row);
-			start += length;
-			length--;
+	private void initActive(int numInstances) {
+		numOriginal = numInstances;
+		active = new int[numInstances];
+		for (int i = 0; i < numInstances; i++) {
+			active[i] = i;
 		}
+		numActive = numInstances;
+	}
+
+	/**
+	 * Gets the offset of the distance between two original instances in
+	 * the condensed upper triangle.
+	 * 
+	 * @param a
+	 *            the lower original index
+	 * @param b
+	 *            the higher original index
+	 * @return the offset
+	 */
+	private long offset(int a, int b) {
+		return (long) a * (2L * numOriginal - a - 1) / 2 + (b - a - 1);
+	}
+
+	/**
+	 * Copies the distances of an original instance to the original 
+	 * instances following it, which are consecutive in the condensed 
+	 * upper triangle.
+	 * 
+	 * @param a
+	 *            the original instance
+	 * @param dists
+	 *            receives the distance to the instance a + 1 + k at k, 
+	 *            must hold the distances to the following instances
+	 */
+	public void getFollowingDistances(int a, float[] dists) {
+		long base = offset(a, a + 1);
+		for (int k = 0; k < numOriginal - a - 1; k++) {
+			dists[k] = get(base + k);
+		}
+	}
+
+	/**
+	 * Gets the distance a distance is read back as once it is set, which
+	 * differs from it if the storage is quantized.
+	 * 
+	 * @param dist
+	 *            the distance
+	 * @return the stored distance
+	 */
+	public float getStoredDistance(float dist) {
+		return storage.getStoredValue(dist);
+	}
+
+	/**
+	 * Gets the value at an offset in the condensed upper triangle.
+	 * 
+	 * @param k
+	 *            the offset
+	 * @return the value
+	 */
+	private float get(long k) {
+		return storage.get(k);
+	}
+
+	/**
+	 * Sets the value at an offset in the condensed upper triangle.
+	 * 
+	 * @param k
+	 *            the offset
+	 * @param val
+	 *            the value
+	 */
+	private void set(long k, float val) {
+		storage.set(k, val);
+	}
+
+	/**
+	 * Gets the offset of the distance between two active instances.
+	 * 
+	 * @param i
+	 *            the index of the first instance
+	 * @param j
+	 *            the index of the second instance, must not equal i
+	 * @return the offset
+	 */
+	private long activeOffset(int i, int j) {
+		int a = active[i];
+		int b = active[j];
+		return a < b ? offset(a, b) : offset(b, a);
 	}
 
 	/**
@@ -136,8 +291,9 @@ public class DistanceMatrix implements Serializable {
 	 * 
 	 * @return the num instances
 	 */
+	@Override
 	public int getNumInstances() {
-		return distMatrix.size() + 1;
+		return numActive;
 	}
 
 	/**
@@ -150,6 +306,7 @@ public class DistanceMatrix implements Serializable {
 	 *            the column coordinate
 	 * @return the value at the specified coordinates
 	 */
+	@Override
 	public float distance(int i, int j) {
 		return distance(new IndexPair(i, j));
 	}
@@ -182,42 +339,50 @@ public class DistanceMatrix implements Serializable {
 	private float distanceHelper(IndexPair p) {
 		int i = p.getI();
 		int j = p.getJ();
-		if (i >= 0 && i < distMatrix.size() && j >= 0 && j < distMatrix.size()) {
-			try {
-				Vector<Float> row = distMatrix.get(i);
-				return row.get(j);
-
-			} catch (Exception e) {
-				if(log.isErrorEnabled()){
-					log.error("Error retrieving distance.", e);
-				}
-			}
+		if (i >= 0 && i < numActive && j >= 0 && j < numActive) {
+			return get(activeOffset(i, j));
 		}
 		return Float.MAX_VALUE;
 	}
 
+	/**
+	 * Sets the distance between the clusters at the supplied indexes.  
+	 * Distinct pairs may be set concurrently by multiple threads before
+	 * clustering starts.
+	 * 
+	 * @param i
+	 *            the row coordinate
+	 * @param j
+	 *            the column coordinate, must not equal i
+	 * @param dist
+	 *            the distance between the clusters
+	 */
+	public void setDistance(int i, int j, float dist) {
+		set(activeOffset(i, j), dist);
+	}
+
 	/**
 	 * Find closest cluster pair in the distance matrix.
 	 * 
 	 * @return the closest cluster index pair
 	 */
+	@Override
 	public ClusterIndexPair findClosestClusterPair() {
 		ClusterIndexPair p = new ClusterIndexPair(-1, -1, Float.MAX_VALUE);
-
-		for (int k = 0; k < distMatrix.size(); k++) {
-			for (int l = 0; l < distMatrix.get(k).size(); l++) {
-				float d = distMatrix.get(k).get(l);
-				if (d < p.getDist()) {
-					p.setI(k);
-					p.setJ(l + k + 1);
-					p.setDist(d);
-				} else if (d == p.getDist()) { // in this case chooses at random
-					if (Math.random() < 0.5) {
-						p.setI(k);
-						p.setJ(l + k + 1);
-						p.setDist(d);
-					}
-				}
+		float mindist = Float.MAX_VALUE;
+
+		for (int k = 0; k < numActive - 1; k++) {
+			int a = active[k];
+			// the active instances stay in ascending order, so each of the
+			// row's values lies above the diagonal
+			long rowoffset = offset(a, a + 1) - (a + 1);
+			int l = storage.findMin(rowoffset, active, k + 1, numActive, 
+					mindist);
+			if (l >= 0) {
+				mindist = get(rowoffset + active[l]);
+				p.setI(k);
+				p.setJ(l);
+				p.setDist(mindist);
 			}
 		}
 
@@ -231,134 +396,99 @@ public class DistanceMatrix implements Serializable {
 	 * @param pair
 	 *            the pair of clusters to merge.
 	 */
+	@Override
 	void update(ClusterIndexPair pair) {
+		int pi = pair.getI();
+		int pj = pair.getJ();
 
-		for (int m = 0; m < pair.getI(); m++) { // explores the rows until the
-												// row pair.getI() that has to
-												// be updated
-
-			// System.out.println("0=================");
-			// this.printDistMatrix();
-
-			IndexPair p1 = translateCoordinates(m, pair.getI());
-			IndexPair p2 = translateCoordinates(m, pair.getJ());
-
-			float a = distMatrix.get(p1.getI()).get(p1.getJ());
-			float b = distMatrix.get(p2.getI()).get(p2.getJ());
-
-			float c = Math.min(a, b); // default is single linkage
-			
-			// this is redundant, it's here to make things clearer
-			if (linkMethod == HierarchicalClustering.LinkageType.SINGLE_LINKAGE) 
-				c = Math.min(a, b);
-			else if (linkMethod == HierarchicalClustering.LinkageType.COMPLETE_LINKAGE)
-				c = Math.max(a, b);
-
-			distMatrix.get(p1.getI()).set(p1.getJ(), c);
-			distMatrix.get(p2.getI()).remove(p2.getJ()); // removes the column
-															// related to the
-															// cluster that has
-															// been merged
-		}
-
-		// System.out.println("1=================");
-		// this.printDistMatrix();
-
-		// updates row pair.getI()
-		int numInst = this.getNumInstances();
-		for (int h = pair.getI() + 1; h < numInst; h++) {
-			// System.out.println(">>>  " + pair.getI() + "\t" + pair.getJ() +
-			// "\t" + h + "\t");
-
-			if (h != pair.getJ()) {
-				IndexPair p1 = translateCoordinates(pair.getI(), h);
-				IndexPair p2 = translateCoordinates(pair.getJ(), h);
-
-				// System.out.println(p1.getI() + "\t" + p1.getJ() + "\t" +
-				// p2.getI() + "\t" + p2.getJ());
-
-				float a = distMatrix.get(p1.getI()).get(p1.getJ());
-				float b = distMatrix.get(p2.getI()).get(p2.getJ());
-
-				float c = Math.min(a, b); // default is single linkage
-				
-				// this is redundant, it's here to make things clearer
-				if (linkMethod == HierarchicalClustering.LinkageType.SINGLE_LINKAGE) 
-					c = Math.min(a, b);
-				else if (linkMethod == HierarchicalClustering.LinkageType.COMPLETE_LINKAGE)
-					c = Math.max(a, b);
-
-				distMatrix.get(p1.getI()).set(p1.getJ(), c);
+		for (int m = 0; m < numActive; m++) {
+			if (m != pi && m != pj) {
+				link(activeOffset(m, pi), activeOffset(m, pj));
 			}
 		}
 
-		// System.out.println("2=================");
-		// this.printDistMatrix();
-
-		IndexPair p = translateCoordinates(pair.getI(), pair.getJ());
-		distMatrix.get(p.getI()).remove(p.getJ());
-
-		for (int m = pair.getI() + 1; m < pair.getJ(); m++) { // removes the
-																// columns
-																// related to
-																// the cluster
-																// that has been
-																// merged
-			IndexPair p1 = translateCoordinates(m, pair.getJ());
-
-			distMatrix.get(p1.getI()).remove(p1.getJ());
-		}
-
-		if (pair.getJ() < distMatrix.size())
-			distMatrix.remove(pair.getJ()); // removes the row related to the
-											// cluster that has been merged
-		else
-			distMatrix.remove(pair.getJ() - 1); // if pair.getJ() was the last
-												// row, then row pair.getJ()-1
-												// becomes useless (0 elements)
-
-		// System.out.println("3=================");
-		// this.printDistMatrix();
-
+		// drops the cluster that has been merged
+		System.arraycopy(active, pj + 1, active, pj, numActive - pj - 1);
+		numActive--;
 	}
 
 	/**
-	 * Translates coordinates from a square symmetric matrix to an upper
-	 * triangular matrix. This method produces erronous results if i == j.
+	 * Replaces a value with the linkage of two values.
 	 * 
-	 * @param i
-	 *            the row coordinate
-	 * @param j
-	 *            the column coordinate
-	 * @return the translated coordinates
+	 * @param k1
+	 *            the offset of the first value, which is replaced
+	 * @param k2
+	 *            the offset of the second value
 	 */
-	private IndexPair translateCoordinates(int i, int j) {
-		if (i > j) { // the distance matrix is symmetric, but we only store the
-						// upper triangle
-			int tmp = i;
-			i = j;
-			j = tmp;
+	private void link(long k1, long k2) {
+		// the storage takes the minimum or maximum of quantized values on
+		// their codes
+		HierarchicalClustering.LinkageType linkMethod = getLinkMethod();
+		if (linkMethod == HierarchicalClustering.LinkageType.SINGLE_LINKAGE) {
+			storage.min(k1, k2);
+		} else if (linkMethod == HierarchicalClustering.LinkageType.COMPLETE_LINKAGE) {
+			storage.max(k1, k2);
+		} else {
+			set(k1, link(get(k1), get(k2)));
 		}
-
-		return new IndexPair(i, j - i - 1);
 	}
 
 	/**
-	 * Prints the distance matrix to stdout.
+	 * @see edu.uga.cs.fluxbuster.clustering.hierarchicalclustering.AbstractDistanceMatrix#isMerged()
 	 */
-	public void printDistMatrix() {
-		for (int i = 0; i < distMatrix.size() + 1; i++) {
+	@Override
+	boolean isMerged() {
+		return numActive < numOriginal;
+	}
 
-			for (int h = 0; h < i + 1; h++) {
-				System.out.print("x\t");
-			}
+	/**
+	 * Gets the distance between two original instances, or between the
+	 * clusters they stand for if clusters are merged with 
+	 * {@link #linkOriginal(int, int, int)}.
+	 * 
+	 * @param a
+	 *            the first original instance
+	 * @param b
+	 *            the second original instance, must not equal a
+	 * @return the distance
+	 */
+	float originalDistance(int a, int b) {
+		return get(a < b ? offset(a, b) : offset(b, a));
+	}
 
-			if (i < distMatrix.size()) {
-				for (int j = 0; j < distMatrix.get(i).size(); j++)
-					System.out.printf("%.2f\t", distMatrix.get(i).get(j));
-			}
+	/**
+	 * Sets the distance between two original instances, or between the
+	 * clusters they stand for.  Once this is used the matrix may not be
+	 * clustered with {@link #findClosestClusterPair()} and 
+	 * {@link #update(ClusterIndexPair)}.
+	 * 
+	 * @param a
+	 *            the first original instance
+	 * @param b
+	 *            the second original instance, must not equal a
+	 * @param dist
+	 *            the distance
+	 */
+	void setOriginalDistance(int a, int b, float dist) {
+		set(a < b ? offset(a, b) : offset(b, a), dist);
+	}
 
-			System.out.println();
-		}
+	/**
+	 * Updates the distance of a cluster to another cluster when a third 
+	 * cluster is merged into it, each cluster standing for an original 
+	 * instance.  The active instances are not changed, so once this is 
+	 * used the matrix may not be clustered with 
+	 * {@link #findClosestClusterPair()} and {@link #update(ClusterIndexPair)}.
+	 * 
+	 * @param a
+	 *            the instance standing for the merged cluster
+	 * @param b
+	 *            the instance standing for the cluster merged into it
+	 * @param m
+	 *            the other instance
+	 */
+	void linkOriginal(int a, int b, int m) {
+		link(a < m ? offset(a, m) : offset(m, a), 
+				b < m ? offset(b, m) : offset(m, b));
 	}
 }
@@ -0,0 +1,717 @@
+/*
+ * Copyright (C) 2012 Chris Neasbitt
+ * Author: Chris Neasbitt
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package edu.uga.cs.fluxbuster.clustering.hierarchicalclustering;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * This class stores the values of a condensed distance matrix addressed
+ * by a long offset.  The values are kept in fixed size chunks, either
+ * on the java heap or in segments of a memory mapped temporary file which
+ * the operating system pages in and out as they are accessed.  Values are
+ * stored as floats, or quantized to 16 or 8 bit fixed point codes of a 
+ * scale, so a code is the value times the scale rounded to the nearest
+ * integer.  Codes keep the order of the values, so the minimum or maximum
+ * of two values is taken on their codes.  Distinct offsets may be set 
+ * concurrently by multiple threads.
+ *
+ * @author Chris Neasbitt
+ */
+public abstract class DistanceStorage implements Serializable {
+
+	static final long serialVersionUID = -1235809600124455376L;
+
+	/** The number of bits of a float value. */
+	public static final int FLOATBITS = 32;
+
+	private long numValues = 0;
+
+	/**
+	 * Instantiates a new storage.
+	 *
+	 * @param numValues the number of values
+	 */
+	private DistanceStorage(long numValues) {
+		this.numValues = numValues;
+	}
+
+	/**
+	 * Creates a new storage on the java heap with all values set to 0.
+	 *
+	 * @param numValues the number of values
+	 * @return the storage
+	 */
+	public static DistanceStorage create(long numValues) {
+		return new HeapStorage(numValues);
+	}
+
+	/**
+	 * Creates a new storage mapped from a temporary file with all values
+	 * set to 0.
+	 *
+	 * @param numValues the number of values
+	 * @param dir the directory of the temporary file, if null the default
+	 * 		temporary file directory is used
+	 * @return the storage
+	 * @throws IOException if the temporary file can not be created or 
+	 * 		mapped
+	 */
+	public static DistanceStorage createMapped(long numValues, File dir)
+			throws IOException {
+		return new MappedStorage(numValues, dir);
+	}
+
+	/**
+	 * Creates a new storage of the values quantized to fixed point codes
+	 * with all values set to 0.  Values above the largest code are stored
+	 * as the largest code.
+	 *
+	 * @param numValues the number of values
+	 * @param bits the number of bits of a code, 16 or 8
+	 * @param scale the number of codes per unit of value, so the largest
+	 * 		code is the value 2^bits - 1 divided by the scale
+	 * @param mapped true if the codes are mapped from a temporary file
+	 * @param dir the directory of the temporary file, if null the default
+	 * 		temporary file directory is used.  Ignored if the codes are not
+	 * 		mapped.
+	 * @return the storage
+	 * @throws IOException if the temporary file can not be created or 
+	 * 		mapped
+	 */
+	public static DistanceStorage createQuantized(long numValues, int bits,
+			float scale, boolean mapped, File dir) throws IOException {
+		if (bits != 16 && bits != 8) {
+			throw new IllegalArgumentException("Quantized values must have "
+					+ "16 or 8 bits.");
+		}
+		if (!(scale > 0)) {
+			throw new IllegalArgumentException("The scale must be positive.");
+		}
+		if (mapped) {
+			return new MappedQuantizedStorage(numValues, bits, scale, dir);
+		} else if (bits == 16) {
+			return new HeapShortStorage(numValues, scale);
+		}
+		return new HeapByteStorage(numValues, scale);
+	}
+
+	/**
+	 * Gets the largest scale of quantized values with a number of bits 
+	 * which can store every value up to a maximum value.
+	 *
+	 * @param bits the number of bits of a code
+	 * @param maxValue the maximum value
+	 * @return the scale
+	 */
+	public static float getMaxScale(int bits, float maxValue) {
+		return ((1 << bits) - 1) / maxValue;
+	}
+
+	/**
+	 * Gets the number of values.
+	 *
+	 * @return the number of values
+	 */
+	public long getNumValues() {
+		return numValues;
+	}
+
+	/**
+	 * Gets the number of bytes needed to store a value.
+	 *
+	 * @return the number of bytes
+	 */
+	public abstract int getBytesPerValue();
+
+	/**
+	 * Gets the value a value is read back as once it is stored.
+	 *
+	 * @param val the value
+	 * @return the stored value
+	 */
+	public float getStoredValue(float val) {
+		return val;
+	}
+
+	/**
+	 * Gets the value at an offset.
+	 *
+	 * @param k the offset
+	 * @return the value
+	 */
+	abstract float get(long k);
+
+	/**
+	 * Sets the value at an offset.
+	 *
+	 * @param k the offset
+	 * @param val the value
+	 */
+	abstract void set(long k, float val);
+
+	/**
+	 * Sets the value at an offset to the minimum of it and the value at
+	 * another offset.
+	 *
+	 * @param k the offset of the value to set
+	 * @param other the offset of the other value
+	 */
+	void min(long k, long other) {
+		set(k, Math.min(get(k), get(other)));
+	}
+
+	/**
+	 * Sets the value at an offset to the maximum of it and the value at
+	 * another offset.
+	 *
+	 * @param k the offset of the value to set
+	 * @param other the offset of the other value
+	 */
+	void max(long k, long other) {
+		set(k, Math.max(get(k), get(other)));
+	}
+
+	/**
+	 * Finds the smallest value at an offset plus each of a list of 
+	 * columns which does not exceed a current minimum.  A value equal to
+	 * the smallest value found so far replaces it with a probability of
+	 * 0.5.
+	 *
+	 * @param base the offset of column 0
+	 * @param cols the columns
+	 * @param from the index of the first column
+	 * @param to the index after the last column
+	 * @param min the current minimum
+	 * @return the index of the column of the value found, -1 if every 
+	 * 		value exceeds the current minimum
+	 */
+	int findMin(long base, int[] cols, int from, int to, float min) {
+		int retval = -1;
+		for (int l = from; l < to; l++) {
+			float d = get(base + cols[l]);
+			if (d < min) {
+				retval = l;
+				min = d;
+			} else if (d == min) { // in this case chooses at random
+				if (Math.random() < 0.5) {
+					retval = l;
+				}
+			}
+		}
+		return retval;
+	}
+
+	/**
+	 * Maps a temporary file in segments which do not exceed 2 GB.  The 
+	 * file is deleted as soon as it is mapped where the platform allows
+	 * it, its space is released once the segments are garbage collected.
+	 *
+	 * @param numValues the number of values
+	 * @param bytesPerValue the number of bytes of a value
+	 * @param segmentBits the log2 of the number of values in a segment
+	 * @param dir the directory of the temporary file, if null the default
+	 * 		temporary file directory is used
+	 * @return the segments in native byte order
+	 * @throws IOException if the temporary file can not be created or
+	 * 		mapped
+	 */
+	private static ByteBuffer[] mapSegments(long numValues, int bytesPerValue,
+			int segmentBits, File dir) throws IOException {
+		File file = File.createTempFile("fluxbuster", ".distmatrix", dir);
+		file.deleteOnExit();
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			raf.setLength(numValues * bytesPerValue);
+			FileChannel channel = raf.getChannel();
+			long segmentSize = 1L << segmentBits;
+			int numSegments = (int) ((numValues + segmentSize - 1) 
+					>>> segmentBits);
+			ByteBuffer[] retval = new ByteBuffer[numSegments];
+			for (int s = 0; s < numSegments; s++) {
+				long start = (long) s << segmentBits;
+				long len = Math.min(segmentSize, numValues - start);
+				retval[s] = channel.map(FileChannel.MapMode.READ_WRITE,
+						start * bytesPerValue, len * bytesPerValue)
+						.order(ByteOrder.nativeOrder());
+			}
+			return retval;
+		} finally {
+			// the mappings stay valid after the file is closed
+			raf.close();
+			file.delete();
+		}
+	}
+
+	/**
+	 * A storage whose chunks are float arrays of 2^24 values, so the 
+	 * number of values is not limited by the maximum array length.
+	 */
+	private static class HeapStorage extends DistanceStorage {
+
+		static final long serialVersionUID = -1235809600124455376L;
+
+		private static final int CHUNKBITS = 24;
+
+		private static final int CHUNKSIZE = 1 << CHUNKBITS;
+
+		private static final int CHUNKMASK = CHUNKSIZE - 1;
+
+		private float[][] chunks = null;
+
+		/**
+		 * Instantiates a new heap storage.
+		 *
+		 * @param numValues the number of values
+		 */
+		public HeapStorage(long numValues) {
+			super(numValues);
+			int numChunks = (int) ((numValues + CHUNKSIZE - 1) >>> CHUNKBITS);
+			chunks = new float[numChunks][];
+			for (int c = 0; c < numChunks; c++) {
+				chunks[c] = new float[(int) Math.min(CHUNKSIZE, numValues
+						- ((long) c << CHUNKBITS))];
+			}
+		}
+
+		@Override
+		public int getBytesPerValue() {
+			return 4;
+		}
+
+		@Override
+		float get(long k) {
+			return chunks[(int) (k >>> CHUNKBITS)][(int) (k & CHUNKMASK)];
+		}
+
+		@Override
+		void set(long k, float val) {
+			chunks[(int) (k >>> CHUNKBITS)][(int) (k & CHUNKMASK)] = val;
+		}
+
+		/**
+		 * Scans the chunk directly if all the values are in the same 
+		 * chunk.
+		 * 
+		 * @see edu.uga.cs.fluxbuster.clustering.hierarchicalclustering.DistanceStorage#findMin(long, int[], int, int, float)
+		 */
+		@Override
+		int findMin(long base, int[] cols, int from, int to, float min) {
+			if (from >= to || (base + cols[from]) >>> CHUNKBITS 
+					!= (base + cols[to - 1]) >>> CHUNKBITS) {
+				return super.findMin(base, cols, from, to, min);
+			}
+			int c = (int) ((base + cols[from]) >>> CHUNKBITS);
+			float[] chunk = chunks[c];
+			int off = (int) (base - ((long) c << CHUNKBITS));
+			int retval = -1;
+			for (int l = from; l < to; l++) {
+				float d = chunk[off + cols[l]];
+				if (d < min) {
+					retval = l;
+					min = d;
+				} else if (d == min) { // in this case chooses at random
+					if (Math.random() < 0.5) {
+						retval = l;
+					}
+				}
+			}
+			return retval;
+		}
+	}
+
+	/**
+	 * A storage whose chunks are mapped segments of a temporary file of 
+	 * 2^28 values.  Only absolute gets and puts are used on the buffers so
+	 * accesses do not change any buffer state.  The mapping is not 
+	 * serialized.
+	 */
+	private static class MappedStorage extends DistanceStorage {
+
+		static final long serialVersionUID = -1235809600124455376L;
+
+		private static final int SEGMENTBITS = 28;
+
+		private static final int SEGMENTMASK = (1 << SEGMENTBITS) - 1;
+
+		private transient FloatBuffer[] segments = null;
+
+		/**
+		 * Instantiates a new mapped storage.
+		 *
+		 * @param numValues the number of values
+		 * @param dir the directory of the temporary file, if null the
+		 * 		default temporary file directory is used
+		 * @throws IOException if the temporary file can not be created or
+		 * 		mapped
+		 */
+		public MappedStorage(long numValues, File dir) throws IOException {
+			super(numValues);
+			ByteBuffer[] bufs = mapSegments(numValues, 4, SEGMENTBITS, dir);
+			segments = new FloatBuffer[bufs.length];
+			for (int s = 0; s < bufs.length; s++) {
+				segments[s] = bufs[s].asFloatBuffer();
+			}
+		}
+
+		@Override
+		public int getBytesPerValue() {
+			return 4;
+		}
+
+		@Override
+		float get(long k) {
+			return segments[(int) (k >>> SEGMENTBITS)].get((int) (k & SEGMENTMASK));
+		}
+
+		@Override
+		void set(long k, float val) {
+			segments[(int) (k >>> SEGMENTBITS)].put((int) (k & SEGMENTMASK), val);
+		}
+	}
+
+	/**
+	 * A storage of fixed point codes of the values.
+	 */
+	private abstract static class QuantizedStorage extends DistanceStorage {
+
+		static final long serialVersionUID = -1235809600124455376L;
+
+		/** The log2 of the number of codes in a chunk. */
+		protected static final int CHUNKBITS = 24;
+
+		protected static final int CHUNKMASK = (1 << CHUNKBITS) - 1;
+
+		private float scale = 0, invScale = 0;
+
+		private int maxCode = 0;
+
+		/**
+		 * Instantiates a new quantized storage.
+		 *
+		 * @param numValues the number of values
+		 * @param bits the number of bits of a code
+		 * @param scale the number of codes per unit of value
+		 */
+		protected QuantizedStorage(long numValues, int bits, float scale) {
+			super(numValues);
+			this.scale = scale;
+			this.invScale = 1 / scale;
+			this.maxCode = (1 << bits) - 1;
+		}
+
+		/**
+		 * Gets the number of chunks needed for a number of values.
+		 *
+		 * @param numValues the number of values
+		 * @return the number of chunks
+		 */
+		protected static int getNumChunks(long numValues) {
+			return (int) ((numValues + (1 << CHUNKBITS) - 1) >>> CHUNKBITS);
+		}
+
+		/**
+		 * Gets the number of values in a chunk.
+		 *
+		 * @param numValues the number of values
+		 * @param c the chunk
+		 * @return the number of values in the chunk
+		 */
+		protected static int getChunkSize(long numValues, int c) {
+			return (int) Math.min(1 << CHUNKBITS, 
+					numValues - ((long) c << CHUNKBITS));
+		}
+
+		/**
+		 * Gets the code at an offset.
+		 *
+		 * @param k the offset
+		 * @return the code
+		 */
+		protected abstract int getCode(long k);
+
+		/**
+		 * Sets the code at an offset.
+		 *
+		 * @param k the offset
+		 * @param code the code
+		 */
+		protected abstract void setCode(long k, int code);
+
+		@Override
+		float get(long k) {
+			return getCode(k) * invScale;
+		}
+
+		@Override
+		public float getStoredValue(float val) {
+			float code = val * scale + 0.5f;
+			return (code >= maxCode ? maxCode : code > 0 ? (int) code : 0) 
+					* invScale;
+		}
+
+		@Override
+		void set(long k, float val) {
+			float code = val * scale + 0.5f;
+			// NaN and negative values are stored as 0
+			setCode(k, code >= maxCode ? maxCode : code > 0 ? (int) code : 0);
+		}
+
+		@Override
+		void min(long k, long other) {
+			setCode(k, Math.min(getCode(k), getCode(other)));
+		}
+
+		@Override
+		void max(long k, long other) {
+			setCode(k, Math.max(getCode(k), getCode(other)));
+		}
+
+		/**
+		 * Gets the code equal to a value, or one more than the largest 
+		 * code if the value exceeds the largest value.
+		 *
+		 * @param val the value
+		 * @return the code, -1 if no code equals the value
+		 */
+		protected int toCode(float val) {
+			if (val > maxCode * invScale) {
+				return maxCode + 1;
+			}
+			int code = (int) (val * scale + 0.5f);
+			return code >= 0 && code * invScale == val ? code : -1;
+		}
+	}
+
+	/**
+	 * A storage of 16 bit codes in short arrays on the java heap.
+	 */
+	private static class HeapShortStorage extends QuantizedStorage {
+
+		static final long serialVersionUID = -1235809600124455376L;
+
+		private short[][] chunks = null;
+
+		/**
+		 * Instantiates a new heap storage of 16 bit codes.
+		 *
+		 * @param numValues the number of values
+		 * @param scale the number of codes per unit of value
+		 */
+		public HeapShortStorage(long numValues, float scale) {
+			super(numValues, 16, scale);
+			chunks = new short[getNumChunks(numValues)][];
+			for (int c = 0; c < chunks.length; c++) {
+				chunks[c] = new short[getChunkSize(numValues, c)];
+			}
+		}
+
+		@Override
+		public int getBytesPerValue() {
+			return 2;
+		}
+
+		@Override
+		protected int getCode(long k) {
+			return chunks[(int) (k >>> CHUNKBITS)][(int) (k & CHUNKMASK)] & 0xFFFF;
+		}
+
+		@Override
+		protected void setCode(long k, int code) {
+			chunks[(int) (k >>> CHUNKBITS)][(int) (k & CHUNKMASK)] = (short) code;
+		}
+
+		/**
+		 * Scans the codes of the chunk directly if all the values are in
+		 * the same chunk and the minimum has a code.
+		 * 
+		 * @see edu.uga.cs.fluxbuster.clustering.hierarchicalclustering.DistanceStorage#findMin(long, int[], int, int, float)
+		 */
+		@Override
+		int findMin(long base, int[] cols, int from, int to, float min) {
+			int mincode = toCode(min);
+			if (mincode < 0 || from >= to || (base + cols[from]) >>> CHUNKBITS 
+					!= (base + cols[to - 1]) >>> CHUNKBITS) {
+				return super.findMin(base, cols, from, to, min);
+			}
+			int c = (int) ((base + cols[from]) >>> CHUNKBITS);
+			short[] chunk = chunks[c];
+			int off = (int) (base - ((long) c << CHUNKBITS));
+			int retval = -1;
+			for (int l = from; l < to; l++) {
+				int d = chunk[off + cols[l]] & 0xFFFF;
+				if (d < mincode) {
+					retval = l;
+					mincode = d;
+				} else if (d == mincode) { // in this case chooses at random
+					if (Math.random() < 0.5) {
+						retval = l;
+					}
+				}
+			}
+			return retval;
+		}
+	}
+
+	/**
+	 * A storage of 8 bit codes in byte arrays on the java heap.
+	 */
+	private static class HeapByteStorage extends QuantizedStorage {
+
+		static final long serialVersionUID = -1235809600124455376L;
+
+		private byte[][] chunks = null;
+
+		/**
+		 * Instantiates a new heap storage of 8 bit codes.
+		 *
+		 * @param numValues the number of values
+		 * @param scale the number of codes per unit of value
+		 */
+		public HeapByteStorage(long numValues, float scale) {
+			super(numValues, 8, scale);
+			chunks = new byte[getNumChunks(numValues)][];
+			for (int c = 0; c < chunks.length; c++) {
+				chunks[c] = new byte[getChunkSize(numValues, c)];
+			}
+		}
+
+		@Override
+		public int getBytesPerValue() {
+			return 1;
+		}
+
+		@Override
+		protected int getCode(long k) {
+			return chunks[(int) (k >>> CHUNKBITS)][(int) (k & CHUNKMASK)] & 0xFF;
+		}
+
+		@Override
+		protected void setCode(long k, int code) {
+			chunks[(int) (k >>> CHUNKBITS)][(int) (k & CHUNKMASK)] = (byte) code;
+		}
+
+		/**
+		 * Scans the codes of the chunk directly if all the values are in
+		 * the same chunk and the minimum has a code.
+		 * 
+		 * @see edu.uga.cs.fluxbuster.clustering.hierarchicalclustering.DistanceStorage#findMin(long, int[], int, int, float)
+		 */
+		@Override
+		int findMin(long base, int[] cols, int from, int to, float min) {
+			int mincode = toCode(min);
+			if (mincode < 0 || from >= to || (base + cols[from]) >>> CHUNKBITS 
+					!= (base + cols[to - 1]) >>> CHUNKBITS) {
+				return super.findMin(base, cols, from, to, min);
+			}
+			int c = (int) ((base + cols[from]) >>> CHUNKBITS);
+			byte[] chunk = chunks[c];
+			int off = (int) (base - ((long) c << CHUNKBITS));
+			int retval = -1;
+			for (int l = from; l < to; l++) {
+				int d = chunk[off + cols[l]] & 0xFF;
+				if (d < mincode) {
+					retval = l;
+					mincode = d;
+				} else if (d == mincode) { // in this case chooses at random
+					if (Math.random() < 0.5) {
+						retval = l;
+					}
+				}
+			}
+			return retval;
+		}
+	}
+
+	/**
+	 * A storage of 16 or 8 bit codes in mapped segments of a temporary 
+	 * file of 2^28 values.  Only absolute gets and puts are used on the 
+	 * buffers so accesses do not change any buffer state.  The mapping is
+	 * not serialized.
+	 */
+	private static class MappedQuantizedStorage extends QuantizedStorage {
+
+		static final long serialVersionUID = -1235809600124455376L;
+
+		private static final int SEGMENTBITS = 28;
+
+		private static final int SEGMENTMASK = (1 << SEGMENTBITS) - 1;
+
+		private transient ShortBuffer[] shorts = null;
+
+		private transient ByteBuffer[] bytes = null;
+
+		/**
+		 * Instantiates a new mapped storage of quantized values.
+		 *
+		 * @param numValues the number of values
+		 * @param bits the number of bits of a code, 16 or 8
+		 * @param scale the number of codes per unit of value
+		 * @param dir the directory of the temporary file, if null the
+		 * 		default temporary file directory is used
+		 * @throws IOException if the temporary file can not be created or
+		 * 		mapped
+		 */
+		public MappedQuantizedStorage(long numValues, int bits, float scale, 
+				File dir) throws IOException {
+			super(numValues, bits, scale);
+			bytes = mapSegments(numValues, bits / 8, SEGMENTBITS, dir);
+			if (bits == 16) {
+				shorts = new ShortBuffer[bytes.length];
+				for (int s = 0; s < bytes.length; s++) {
+					shorts[s] = bytes[s].asShortBuffer();
+				}
+				bytes = null;
+			}
+		}
+
+		@Override
+		public int getBytesPerValue() {
+			return shorts != null ? 2 : 1;
+		}
+
+		@Override
+		protected int getCode(long k) {
+			int s = (int) (k >>> SEGMENTBITS);
+			int i = (int) (k & SEGMENTMASK);
+			if (shorts != null) {
+				return shorts[s].get(i) & 0xFFFF;
+			}
+			return bytes[s].get(i) & 0xFF;
+		}
+
+		@Override
+		protected void setCode(long k, int code) {
+			int s = (int) (k >>> SEGMENTBITS);
+			int i = (int) (k & SEGMENTMASK);
+			if (shorts != null) {
+				shorts[s].put(i, (short) code);
+			} else {
+				bytes[s].put(i, (byte) code);
+			}
+		}
+	}
+}
@@ -19,6 +19,7 @@
 package edu.uga.cs.fluxbuster.clustering.hierarchicalclustering;
 
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.Vector;
 
 /**
@@ -38,7 +39,10 @@ public class HierarchicalClustering {
 	 * The linkage type to use during clustering.
 	 */
 	public enum LinkageType { /** single (minimum) linkage. */ SINGLE_LINKAGE, 
-		/** complete (maximum) linkage. */ COMPLETE_LINKAGE };
+		/** complete (maximum) linkage. */ COMPLETE_LINKAGE,
+		/** average linkage weighted by cluster size (UPGMA). */ AVERAGE_LINKAGE,
+		/** average linkage of the merged clusters (WPGMA). */ WEIGHTED_LINKAGE,
+		/** Ward's minimum variance linkage. */ WARD_LINKAGE };
 
 	private double m_cutHeight = 0;
 	
@@ -82,6 +86,36 @@ public class HierarchicalClustering {
 		this.setCutHeight(cutHeight);
 	}
 
+	/**
+	 * Gets the linkage type of a name, 'Single', 'Complete', 'Average', 
+	 * 'Weighted' or 'Ward' in any case.
+	 *
+	 * @param name the name of the linkage type
+	 * @return the linkage type
+	 * @throws IllegalArgumentException if the name is not a linkage type
+	 */
+	public static LinkageType parseLinkageType(String name) {
+		for (LinkageType linkage : LinkageType.values()) {
+			if (linkage.name().equalsIgnoreCase(name.trim() + "_LINKAGE")) {
+				return linkage;
+			}
+		}
+		throw new IllegalArgumentException("Unknown linkage type " + name);
+	}
+
+	/**
+	 * Checks whether a linkage type links clusters by the minimum or 
+	 * maximum of their distances.  Only then the distances beyond the
+	 * max cut height may be replaced by any other distance beyond it.
+	 *
+	 * @param linkage the linkage type
+	 * @return true for single and complete linkage
+	 */
+	public static boolean isMinMaxLinkage(LinkageType linkage) {
+		return linkage == LinkageType.SINGLE_LINKAGE
+				|| linkage == LinkageType.COMPLETE_LINKAGE;
+	}
+
 	/**
 	 * Sets the cut height.
 	 *
@@ -132,42 +166,97 @@ public class HierarchicalClustering {
 
 	/**
 	 * Runs the hierarchical clustering algorithm on the supplied
-	 * distance matrix.
+	 * distance matrix.  Single linkage on an unmerged distance matrix 
+	 * merges the edges of a {@link SingleLinkageMST}, complete linkage on
+	 * an unmerged dense distance matrix runs in O(n^2) time with 
+	 * {@link NNChain} and the other linkages on an unmerged dense distance
+	 * matrix are updated with {@link LanceWilliams}, otherwise the closest
+	 * pair is searched before each merge.  The closest pair search does 
+	 * not know the sizes of the clusters, so it does not support average 
+	 * and Ward linkage.
 	 *
 	 * @param distMatrix the distance matrix
 	 * @param maxCutHeight the maximum cut height
+	 * @throws IllegalArgumentException if the closest pair search would
+	 * 		be run with average or Ward linkage
 	 */
-	public void runClusterer(DistanceMatrix distMatrix, double maxCutHeight) {
-		dendrogram = new Dendrogram();
-		double currentHeight = 0;
-
-		Vector<HCluster> clusters = computeInitialClusters(distMatrix
-				.getNumInstances());
+	public void runClusterer(AbstractDistanceMatrix distMatrix,
+			double maxCutHeight) {
+		if ((distMatrix.isMerged() || !(distMatrix instanceof DistanceMatrix))
+				&& !AbstractDistanceMatrix.isLinkSupported(
+						distMatrix.getLinkMethod())) {
+			throw new IllegalArgumentException("Can not cluster a "
+					+ (distMatrix.isMerged() ? "merged " : "")
+					+ "distance matrix with " + distMatrix.getLinkMethod()
+					+ ".");
+		}
+		if (distMatrix.getLinkMethod() == LinkageType.SINGLE_LINKAGE
+				&& !distMatrix.isMerged()) {
+			runMerges(distMatrix.getNumInstances(), new SingleLinkageMST(
+					distMatrix).findMerges(maxCutHeight));
+			return;
+		}
+		if (distMatrix instanceof DistanceMatrix
+				&& distMatrix.getLinkMethod() == LinkageType.COMPLETE_LINKAGE
+				&& !distMatrix.isMerged()) {
+			runMerges(distMatrix.getNumInstances(), new NNChain(
+					(DistanceMatrix) distMatrix).findMerges(maxCutHeight));
+			return;
+		}
+		if (distMatrix instanceof DistanceMatrix && !distMatrix.isMerged()) {
+			runMerges(distMatrix.getNumInstances(), new LanceWilliams(
+					(DistanceMatrix) distMatrix).findMerges(maxCutHeight));
+			return;
+		}
+		int numInstances = distMatrix.getNumInstances();
+		dendrogram = new Dendrogram(numInstances);
+		int[] clusters = computeInitialClusters(numInstances);
+		int numClusters = numInstances;
 
-		while (clusters.size() > 1) {
+		while (numClusters > 1) {
 			ClusterIndexPair pair = distMatrix.findClosestClusterPair();
 			// if the distance between the closest pair is greater than
 			// the max cut height we stop
 			if (pair.getDist() > maxCutHeight) {
 				break;
 			}
-			if (pair.getDist() > currentHeight) { // updates the dendrogram
-													// before continuing
-				dendrogram.addClusters(currentHeight, clusters);
-				currentHeight = pair.getDist();
-			}
-
-			HCluster c = HCluster.merge(clusters.get(pair.getI()),
-					clusters.get(pair.getJ()));
-			clusters = updateClusters(clusters, c, pair);
+			numClusters = updateClusters(clusters, numClusters, pair);
 			distMatrix.update(pair);
 		}
-		// completes the top part of the dendrogram
-		dendrogram.addClusters(currentHeight, clusters);
 
 		System.gc();
 	}
 
+	/**
+	 * Builds the dendrogram from merges found without the closest pair
+	 * algorithm.  The merges are added in the order of the closest pair
+	 * algorithm, so the dendrogram has the same clusters at each height.
+	 *
+	 * @param numInstances the number of instances
+	 * @param merges the merges in the order they are made, each with the
+	 * 		smallest instances of the merged clusters in ascending order
+	 */
+	private void runMerges(int numInstances, ClusterIndexPair[] merges) {
+		dendrogram = new Dendrogram(numInstances);
+		int[] clusters = computeInitialClusters(numInstances);
+		// each cluster stands for its smallest instance, the clusters are
+		// in ascending order of their instances
+		int[] active = new int[numInstances];
+		for (int i = 0; i < numInstances; i++) {
+			active[i] = i;
+		}
+		int numActive = numInstances;
+
+		for (ClusterIndexPair merge : merges) {
+			int i = Arrays.binarySearch(active, 0, numActive, merge.getI());
+			int j = Arrays.binarySearch(active, 0, numActive, merge.getJ());
+			updateClusters(clusters, numActive, new ClusterIndexPair(i, j,
+					merge.getDist()));
+			System.arraycopy(active, j + 1, active, j, numActive - j - 1);
+			numActive--;
+		}
+	}
+
 	// merges clusters until there is a single cluster left or the maxCutHeight
 	// is reached
 	/**
@@ -201,38 +290,40 @@ public class HierarchicalClustering {
 
 	/**
 	 * Initializes the clustering algorithm. At the beginning each 
-	 * cluster contains only one instance (only the index of the 
-	 * instance in the dataset).
+	 * cluster contains only one instance, so the dendrogram cluster of 
+	 * each position is the instance at that position.
 	 *
 	 * @param numInstances the num instances in the dataset
-	 * @return the initialized clusters
+	 * @return the dendrogram cluster of each position
 	 */
-	private Vector<HCluster> computeInitialClusters(int numInstances) {
-		Vector<HCluster> v = new Vector<HCluster>();
+	private int[] computeInitialClusters(int numInstances) {
+		int[] v = new int[numInstances];
 
 		for (int i = 0; i < numInstances; i++) {
-			HCluster c = new HCluster(i);
-			v.add(c);
+			v[i] = i;
 		}
 
 		return v;
 	}
 
 	/**
-	 * Update this list of clusters after two clusters have been merged.
+	 * Update this list of clusters after two clusters have been merged,
+	 * adding the merge to the dendrogram.
 	 *
-	 * @param clusters the list of clusters
-	 * @param c the new merged cluster
+	 * @param clusters the dendrogram cluster of each position
+	 * @param numClusters the number of clusters
 	 * @param pair the indexes of the clusters merged
-	 * @return the updated list of clusters
+	 * @return the updated number of clusters
 	 */
-	private Vector<HCluster> updateClusters(Vector<HCluster> clusters,
-			HCluster c, ClusterIndexPair pair) {
-
-		clusters.set(pair.getI(), c);
-		clusters.remove(pair.getJ());
-
-		return clusters;
+	private int updateClusters(int[] clusters, int numClusters,
+			ClusterIndexPair pair) {
+		int i = pair.getI();
+		int j = pair.getJ();
+		clusters[i] = dendrogram.addMerge(clusters[i], clusters[j], 
+				pair.getDist());
+		System.arraycopy(clusters, j + 1, clusters, j, numClusters - j - 1);
+
+		return numClusters - 1;
 	}
 
 	/**
@@ -251,15 +342,8 @@ public class HierarchicalClustering {
 	 * @return the number of clusters
 	 */
 	public int numberOfClusters(){
-		double cutH = 0;
-		for (double h : dendrogram.getHeights().keySet()) {
-			if (h <= m_cutHeight)
-				cutH = h;
-			else
-				break;
-		}
-		dendrogram.print(cutH); // only for printing purposes
-		return dendrogram.getHeights().get(cutH).size();
+		dendrogram.print(m_cutHeight); // only for printing purposes
+		return dendrogram.getNumClusters(m_cutHeight);
 	}
 
 	/**
@@ -0,0 +1,329 @@
+/*
+ * Copyright (C) 2012 Chris Neasbitt
+ * Author: Chris Neasbitt
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package edu.uga.cs.fluxbuster.clustering.hierarchicalclustering;
+
+import edu.uga.cs.fluxbuster.clustering.hierarchicalclustering.HierarchicalClustering.LinkageType;
+
+/**
+ * This class finds the merges of agglomerative clustering with any
+ * linkage whose distances can be updated with the Lance-Williams formula
+ * from the distances of the merged clusters and their sizes.  Each
+ * cluster caches its nearest neighbor among the clusters following it,
+ * and the clusters are kept in a priority queue by the distance to that
+ * neighbor.  The cached distance is a lower bound, a cluster whose cached
+ * neighbor has moved away is rescanned when it reaches the head of the
+ * queue, so a merge costs O(n log n) instead of a scan of the whole
+ * matrix.
+ *
+ * The merged cluster takes the row of the second cluster in the distance
+ * matrix, only the clusters before it need their cached neighbors
+ * checked.
+ *
+ * @author Chris Neasbitt
+ */
+class LanceWilliams {
+
+	private DistanceMatrix distMatrix = null;
+
+	private LinkageType linkage = null;
+
+	/**
+	 * Instantiates a new Lance-Williams clustering on a distance matrix of
+	 * unmerged instances.
+	 *
+	 * @param distMatrix the distance matrix, its distances are overwritten
+	 */
+	public LanceWilliams(DistanceMatrix distMatrix) {
+		this.distMatrix = distMatrix;
+		this.linkage = distMatrix.getLinkMethod();
+	}
+
+	/**
+	 * Computes the distance of a merged cluster to another cluster.
+	 *
+	 * @param linkage the linkage type
+	 * @param dki the distance of the other cluster to the first cluster
+	 * @param dkj the distance of the other cluster to the second cluster
+	 * @param dij the distance of the merged clusters
+	 * @param ni the size of the first cluster
+	 * @param nj the size of the second cluster
+	 * @param nk the size of the other cluster
+	 * @return the distance of the other cluster to the merged cluster
+	 */
+	static float update(LinkageType linkage, float dki, float dkj, float dij,
+			int ni, int nj, int nk) {
+		switch (linkage) {
+		case SINGLE_LINKAGE:
+			return Math.min(dki, dkj);
+		case COMPLETE_LINKAGE:
+			return Math.max(dki, dkj);
+		case AVERAGE_LINKAGE:
+			return (float) (((double) ni * dki + (double) nj * dkj) / (ni + nj));
+		case WEIGHTED_LINKAGE:
+			return (float) (((double) dki + dkj) / 2);
+		case WARD_LINKAGE:
+			// updates the squared distances, so the merge heights stay
+			// in units of the distances
+			double sq = ((double) (ni + nk) * dki * dki
+					+ (double) (nj + nk) * dkj * dkj
+					- (double) nk * dij * dij) / (ni + nj + nk);
+			return (float) Math.sqrt(Math.max(0.0, sq));
+		default:
+			throw new IllegalArgumentException("Unknown linkage " + linkage);
+		}
+	}
+
+	/**
+	 * Finds the merges not beyond a max cut height.
+	 *
+	 * @param maxCutHeight the max cut height
+	 * @return the merges in the order they are made, each with the
+	 * 		smallest instances of the merged clusters in ascending order and
+	 * 		their distance
+	 */
+	public ClusterIndexPair[] findMerges(double maxCutHeight) {
+		int n = distMatrix.getNumInstances();
+		boolean[] active = new boolean[n];
+		int[] sizes = new int[n];
+		int[] smallest = new int[n];
+		int[] neighbors = new int[n];
+		float[] mindists = new float[n];
+		for (int x = 0; x < n; x++) {
+			active[x] = true;
+			sizes[x] = 1;
+			smallest[x] = x;
+		}
+		for (int x = 0; x < n; x++) {
+			findNeighbor(x, active, neighbors, mindists);
+		}
+		RowQueue queue = new RowQueue(mindists);
+
+		ClusterIndexPair[] merges = new ClusterIndexPair[Math.max(0, n - 1)];
+		int numMerges = 0;
+		while (numMerges < n - 1) {
+			int a = queue.peek();
+			// the cached neighbor may have moved away
+			while (neighbors[a] >= 0
+					&& mindists[a] != distMatrix.originalDistance(a, neighbors[a])) {
+				findNeighbor(a, active, neighbors, mindists);
+				queue.update(a);
+				a = queue.peek();
+			}
+			int b = neighbors[a];
+			float dist = mindists[a];
+			if (b < 0 || dist > maxCutHeight) {
+				break;
+			}
+
+			merges[numMerges++] = new ClusterIndexPair(Math.min(smallest[a],
+					smallest[b]), Math.max(smallest[a], smallest[b]), dist);
+			active[a] = false;
+			queue.remove(a);
+			for (int x = 0; x < n; x++) {
+				if (active[x] && x != b) {
+					distMatrix.setOriginalDistance(x, b, update(linkage,
+							distMatrix.originalDistance(x, a),
+							distMatrix.originalDistance(x, b), dist,
+							sizes[a], sizes[b], sizes[x]));
+				}
+			}
+			sizes[b] += sizes[a];
+			smallest[b] = Math.min(smallest[a], smallest[b]);
+
+			for (int x = 0; x < b; x++) {
+				if (!active[x]) {
+					continue;
+				}
+				if (neighbors[x] == a) {
+					// checked when x reaches the head of the queue
+					neighbors[x] = b;
+				}
+				float d = distMatrix.originalDistance(x, b);
+				if (d < mindists[x]) {
+					neighbors[x] = b;
+					mindists[x] = d;
+					queue.update(x);
+				}
+			}
+			findNeighbor(b, active, neighbors, mindists);
+			queue.update(b);
+		}
+
+		ClusterIndexPair[] retval = new ClusterIndexPair[numMerges];
+		System.arraycopy(merges, 0, retval, 0, numMerges);
+		return retval;
+	}
+
+	/**
+	 * Finds the nearest neighbor of a cluster among the clusters following
+	 * it.
+	 *
+	 * @param x the row of the cluster
+	 * @param active true for the rows of the clusters
+	 * @param neighbors the nearest neighbor of each cluster, -1 if there
+	 * 		is none
+	 * @param mindists the distance to the nearest neighbor of each
+	 * 		cluster, Float.POSITIVE_INFINITY if there is none
+	 */
+	private void findNeighbor(int x, boolean[] active, int[] neighbors,
+			float[] mindists) {
+		int nn = -1;
+		float mindist = Float.POSITIVE_INFINITY;
+		for (int y = x + 1; y < active.length; y++) {
+			if (active[y]) {
+				float d = distMatrix.originalDistance(x, y);
+				if (d < mindist) {
+					mindist = d;
+					nn = y;
+				}
+			}
+		}
+		neighbors[x] = nn;
+		mindists[x] = mindist;
+	}
+
+	/**
+	 * A binary heap of rows ordered by their cached nearest neighbor
+	 * distances, which tracks the position of each row so a row can be
+	 * moved or removed after its distance changes.
+	 */
+	private static class RowQueue {
+
+		private float[] keys = null;
+
+		private int[] heap = null;
+
+		private int[] positions = null;
+
+		private int size = 0;
+
+		/**
+		 * Instantiates a new queue of all rows.
+		 *
+		 * @param keys the distance of each row, read whenever rows are
+		 * 		compared
+		 */
+		public RowQueue(float[] keys) {
+			this.keys = keys;
+			size = keys.length;
+			heap = new int[size];
+			positions = new int[size];
+			for (int x = 0; x < size; x++) {
+				heap[x] = x;
+				positions[x] = x;
+			}
+			for (int p = size / 2 - 1; p >= 0; p--) {
+				siftDown(p);
+			}
+		}
+
+		/**
+		 * Gets the row with the smallest distance.
+		 *
+		 * @return the row
+		 */
+		public int peek() {
+			return heap[0];
+		}
+
+		/**
+		 * Restores the order after the distance of a row changed.
+		 *
+		 * @param x the row
+		 */
+		public void update(int x) {
+			siftDown(siftUp(positions[x]));
+		}
+
+		/**
+		 * Removes a row.
+		 *
+		 * @param x the row
+		 */
+		public void remove(int x) {
+			int p = positions[x];
+			size--;
+			if (p < size) {
+				move(heap[size], p);
+				siftDown(siftUp(p));
+			}
+			positions[x] = -1;
+		}
+
+		/**
+		 * Checks whether a row comes before another row, rows with equal
+		 * distances are in ascending order.
+		 *
+		 * @param x the first row
+		 * @param y the second row
+		 * @return true if the first row comes first
+		 */
+		private boolean before(int x, int y) {
+			return keys[x] < keys[y] || (keys[x] == keys[y] && x < y);
+		}
+
+		/**
+		 * Places a row at a position of the heap.
+		 *
+		 * @param x the row
+		 * @param p the position
+		 */
+		private void move(int x, int p) {
+			heap[p] = x;
+			positions[x] = p;
+		}
+
+		/**
+		 * Moves the row at a position up while it comes before its parent.
+		 *
+		 * @param p the position
+		 * @return the new position
+		 */
+		private int siftUp(int p) {
+			int x = heap[p];
+			while (p > 0 && before(x, heap[(p - 1) / 2])) {
+				move(heap[(p - 1) / 2], p);
+				p = (p - 1) / 2;
+			}
+			move(x, p);
+			return p;
+		}
+
+		/**
+		 * Moves the row at a position down while a child comes before it.
+		 *
+		 * @param p the position
+		 */
+		private void siftDown(int p) {
+			int x = heap[p];
+			while (2 * p + 1 < size) {
+				int c = 2 * p + 1;
+				if (c + 1 < size && before(heap[c + 1], heap[c])) {
+					c++;
+				}
+				if (!before(heap[c], x)) {
+					break;
+				}
+				move(heap[c], p);
+				p = c;
+			}
+			move(x, p);
+		}
+	}
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright (C) 2012 Chris Neasbitt
+ * Author: Chris Neasbitt
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package edu.uga.cs.fluxbuster.clustering.hierarchicalclustering;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * This class finds the merges of complete linkage clustering with the
+ * nearest neighbor chain algorithm in O(n^2) time.  A chain of clusters
+ * is grown in which each cluster is the nearest neighbor of the cluster
+ * before it, until two clusters are each other's nearest neighbor and
+ * are merged.  With complete linkage the distance of a merged cluster to
+ * any other cluster is not below the distances of the clusters it was
+ * merged from, so the chain stays valid after a merge and the merges
+ * sorted by distance are the merges of the closest pair algorithm.
+ *
+ * Each cluster stands for its smallest original instance, the distances
+ * of a merged cluster overwrite those of that instance in the distance
+ * matrix.  A cluster whose nearest neighbor is beyond the max cut height
+ * can not be merged any more and is dropped.
+ *
+ * @author Chris Neasbitt
+ */
+class NNChain {
+
+	private DistanceMatrix distMatrix = null;
+
+	/**
+	 * Instantiates a new nearest neighbor chain on a distance matrix of
+	 * unmerged instances.
+	 *
+	 * @param distMatrix the distance matrix, its distances are overwritten
+	 */
+	public NNChain(DistanceMatrix distMatrix) {
+		this.distMatrix = distMatrix;
+	}
+
+	/**
+	 * Finds the merges not beyond a max cut height.
+	 *
+	 * @param maxCutHeight the max cut height
+	 * @return the merges in the order of the closest pair algorithm, each
+	 * 		with the smallest instances of the merged clusters in ascending
+	 * 		order and their distance
+	 */
+	public ClusterIndexPair[] findMerges(double maxCutHeight) {
+		int n = distMatrix.getNumInstances();
+		int[] alive = new int[n];
+		int[] positions = new int[n];
+		for (int a = 0; a < n; a++) {
+			alive[a] = a;
+			positions[a] = a;
+		}
+		int numAlive = n;
+		int[] chain = new int[n];
+		int len = 0;
+		ClusterIndexPair[] merges = new ClusterIndexPair[Math.max(0, n - 1)];
+		int numMerges = 0;
+
+		while (numAlive > 1) {
+			if (len == 0) {
+				chain[len++] = alive[0];
+			}
+			int c = chain[len - 1];
+			// prefers the previous cluster of the chain on ties, so the
+			// chain can not cycle
+			int nn = len > 1 ? chain[len - 2] : -1;
+			float mindist = nn >= 0 ? distMatrix.originalDistance(c, nn)
+					: Float.MAX_VALUE;
+			for (int k = 0; k < numAlive; k++) {
+				int x = alive[k];
+				if (x != c) {
+					float d = distMatrix.originalDistance(c, x);
+					if (d < mindist) {
+						mindist = d;
+						nn = x;
+					}
+				}
+			}
+
+			if (nn < 0 || mindist > maxCutHeight) {
+				// only happens when c is alone in the chain, as its
+				// predecessor would be closer
+				numAlive = drop(alive, positions, numAlive, c);
+				len--;
+			} else if (len > 1 && nn == chain[len - 2]) {
+				len -= 2;
+				int a = Math.min(c, nn);
+				int b = Math.max(c, nn);
+				merges[numMerges++] = new ClusterIndexPair(a, b, mindist);
+				numAlive = drop(alive, positions, numAlive, b);
+				for (int k = 0; k < numAlive; k++) {
+					if (alive[k] != a) {
+						distMatrix.linkOriginal(a, b, alive[k]);
+					}
+				}
+			} else {
+				chain[len++] = nn;
+			}
+		}
+
+		ClusterIndexPair[] retval = Arrays.copyOf(merges, numMerges);
+		// the sort is stable, so a merge stays after the merges of the
+		// clusters it merges
+		Arrays.sort(retval, new Comparator<ClusterIndexPair>() {
+			@Override
+			public int compare(ClusterIndexPair o1, ClusterIndexPair o2) {
+				return Float.compare(o1.getDist(), o2.getDist());
+			}
+		});
+		return retval;
+	}
+
+	/**
+	 * Drops a cluster from the clusters which may be merged.
+	 *
+	 * @param alive the clusters which may be merged
+	 * @param positions the position of each cluster in alive
+	 * @param numAlive the number of clusters which may be merged
+	 * @param a the cluster to drop
+	 * @return the new number of clusters which may be merged
+	 */
+	private static int drop(int[] alive, int[] positions, int numAlive,
+			int a) {
+		int last = alive[numAlive - 1];
+		alive[positions[a]] = last;
+		positions[last] = positions[a];
+		return numAlive - 1;
+	}
+}
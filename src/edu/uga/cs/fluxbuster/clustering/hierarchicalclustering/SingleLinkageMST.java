@@ -0,0 +1,274 @@
+/*
+ * Copyright (C) 2012 Chris Neasbitt
+ * Author: Chris Neasbitt
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package edu.uga.cs.fluxbuster.clustering.hierarchicalclustering;
+
+import java.util.Arrays;
+
+/**
+ * This class finds the merges of single linkage clustering as the
+ * minimum spanning forest of the instance pairs not beyond the max cut
+ * height.  The pairs are sorted by distance and each pair joining two
+ * clusters is a merge, the clusters are tracked with a union-find
+ * structure.  For a sparse distance matrix only the stored pairs not 
+ * beyond the cut height are kept, so it is clustered without looking at
+ * its missing pairs.  For a dense distance matrix the pairs are the 
+ * edges of its minimum spanning tree, found with Prim's algorithm in
+ * O(n^2) time while reading the matrix in place, so only O(n) memory is
+ * needed besides the matrix.
+ *
+ * @author Chris Neasbitt
+ */
+class SingleLinkageMST {
+
+	private AbstractDistanceMatrix distMatrix = null;
+
+	private long[] keys = null;
+
+	private int[] firsts = null, seconds = null;
+
+	private int numEdges = 0;
+
+	private int[] parents = null, sizes = null, smallest = null;
+
+	/**
+	 * Instantiates a new minimum spanning forest on a distance matrix of
+	 * unmerged instances.
+	 *
+	 * @param distMatrix the distance matrix, either a
+	 * 		{@link DistanceMatrix} or a {@link SparseDistanceMatrix}
+	 */
+	public SingleLinkageMST(AbstractDistanceMatrix distMatrix) {
+		this.distMatrix = distMatrix;
+	}
+
+	/**
+	 * Finds the merges not beyond a max cut height.
+	 *
+	 * @param maxCutHeight the max cut height
+	 * @return the merges in the order of the closest pair algorithm, each
+	 * 		with the smallest instances of the merged clusters in ascending
+	 * 		order and their distance
+	 */
+	public ClusterIndexPair[] findMerges(double maxCutHeight) {
+		int n = distMatrix.getNumInstances();
+		collectEdges(maxCutHeight);
+		Arrays.sort(keys, 0, numEdges);
+
+		parents = new int[n];
+		sizes = new int[n];
+		smallest = new int[n];
+		for (int a = 0; a < n; a++) {
+			parents[a] = a;
+			sizes[a] = 1;
+			smallest[a] = a;
+		}
+		ClusterIndexPair[] merges = new ClusterIndexPair[Math.max(0, n - 1)];
+		int numMerges = 0;
+		for (int k = 0; k < numEdges && numMerges < n - 1; k++) {
+			int e = (int) keys[k];
+			float dist = fromSortable((int) (keys[k] >> 32));
+			ClusterIndexPair merge = union(firsts[e], seconds[e], dist);
+			if (merge != null) {
+				merges[numMerges++] = merge;
+			}
+		}
+		keys = null;
+		firsts = null;
+		seconds = null;
+
+		// a sparse matrix merges the clusters without a stored distance
+		// at the maximum distance, in the order of their positions
+		if (distMatrix instanceof SparseDistanceMatrix
+				&& SparseDistanceMatrix.MAXDISTANCE <= maxCutHeight) {
+			int first = find(0);
+			for (int a = 1; a < n; a++) {
+				ClusterIndexPair merge = union(first, a,
+						SparseDistanceMatrix.MAXDISTANCE);
+				if (merge != null) {
+					merges[numMerges++] = merge;
+					first = find(0);
+				}
+			}
+		}
+		return Arrays.copyOf(merges, numMerges);
+	}
+
+	/**
+	 * Collects the instance pairs not beyond a max cut height.
+	 *
+	 * @param maxCutHeight the max cut height
+	 */
+	private void collectEdges(double maxCutHeight) {
+		int n = distMatrix.getNumInstances();
+		keys = new long[Math.max(16, n)];
+		firsts = new int[keys.length];
+		seconds = new int[keys.length];
+		numEdges = 0;
+		if (distMatrix instanceof SparseDistanceMatrix) {
+			SparseDistanceMatrix sparse = (SparseDistanceMatrix) distMatrix;
+			for (int a = 0; a < n; a++) {
+				int[] cols = sparse.getNeighbors(a);
+				float[] dists = sparse.getDistances(a);
+				for (int k = 0; k < cols.length; k++) {
+					if (cols[k] > a && dists[k] <= maxCutHeight) {
+						addEdge(a, cols[k], dists[k]);
+					}
+				}
+			}
+		} else {
+			collectTreeEdges((DistanceMatrix) distMatrix, maxCutHeight);
+		}
+	}
+
+	/**
+	 * Collects the edges of the minimum spanning tree of a dense distance
+	 * matrix not beyond a max cut height.  The clusters of single linkage
+	 * at any height are the components of the tree edges not beyond it.
+	 *
+	 * @param dense the dense distance matrix
+	 * @param maxCutHeight the max cut height
+	 */
+	private void collectTreeEdges(DistanceMatrix dense, double maxCutHeight) {
+		int n = dense.getNumInstances();
+		if (n == 0) {
+			return;
+		}
+		// the instances not in the tree, with the distance to their 
+		// closest instance in the tree
+		int[] remaining = new int[n];
+		int[] closest = new int[n];
+		float[] mindists = new float[n];
+		for (int a = 0; a < n; a++) {
+			remaining[a] = a;
+			mindists[a] = Float.POSITIVE_INFINITY;
+		}
+		int numRemaining = n - 1;
+		remaining[0] = n - 1;
+		int added = 0;
+		while (numRemaining > 0) {
+			int best = -1;
+			for (int k = 0; k < numRemaining; k++) {
+				int x = remaining[k];
+				float d = dense.originalDistance(added, x);
+				if (d < mindists[x]) {
+					mindists[x] = d;
+					closest[x] = added;
+				}
+				if (best < 0 || mindists[x] < mindists[remaining[best]]
+						|| (mindists[x] == mindists[remaining[best]] 
+						&& x < remaining[best])) {
+					best = k;
+				}
+			}
+			added = remaining[best];
+			remaining[best] = remaining[--numRemaining];
+			if (mindists[added] <= maxCutHeight) {
+				addEdge(Math.min(added, closest[added]), 
+						Math.max(added, closest[added]), mindists[added]);
+			}
+		}
+	}
+
+	/**
+	 * Adds an instance pair.
+	 *
+	 * @param a the first instance
+	 * @param b the second instance
+	 * @param dist the distance of the instances
+	 */
+	private void addEdge(int a, int b, float dist) {
+		if (numEdges == keys.length) {
+			int cap = (int) Math.min(Integer.MAX_VALUE - 8, 2L * keys.length);
+			keys = Arrays.copyOf(keys, cap);
+			firsts = Arrays.copyOf(firsts, cap);
+			seconds = Arrays.copyOf(seconds, cap);
+		}
+		// each key holds the distance in the upper and the pair in the
+		// lower 32 bits, so sorting the keys sorts the pairs by distance
+		// and keeps equal distances in the order they were added
+		keys[numEdges] = (long) toSortable(dist) << 32 | numEdges;
+		firsts[numEdges] = a;
+		seconds[numEdges] = b;
+		numEdges++;
+	}
+
+	/**
+	 * Converts a float to an int with the same order.
+	 *
+	 * @param f the float
+	 * @return the int
+	 */
+	private static int toSortable(float f) {
+		int bits = Float.floatToIntBits(f);
+		return bits < 0 ? bits ^ 0x7FFFFFFF : bits;
+	}
+
+	/**
+	 * Converts an int created by {@link #toSortable(float)} back to the
+	 * float.
+	 *
+	 * @param bits the int
+	 * @return the float
+	 */
+	private static float fromSortable(int bits) {
+		return Float.intBitsToFloat(bits < 0 ? bits ^ 0x7FFFFFFF : bits);
+	}
+
+	/**
+	 * Finds the root of the cluster of an instance, halving the path to
+	 * it.
+	 *
+	 * @param a the instance
+	 * @return the root
+	 */
+	private int find(int a) {
+		while (parents[a] != a) {
+			parents[a] = parents[parents[a]];
+			a = parents[a];
+		}
+		return a;
+	}
+
+	/**
+	 * Merges the clusters of two instances.
+	 *
+	 * @param a the first instance
+	 * @param b the second instance
+	 * @param dist the distance of the merge
+	 * @return the merge, null if the instances are in the same cluster
+	 */
+	private ClusterIndexPair union(int a, int b, float dist) {
+		int ra = find(a);
+		int rb = find(b);
+		if (ra == rb) {
+			return null;
+		}
+		ClusterIndexPair retval = new ClusterIndexPair(Math.min(smallest[ra],
+				smallest[rb]), Math.max(smallest[ra], smallest[rb]), dist);
+		if (sizes[ra] < sizes[rb]) {
+			int tmp = ra;
+			ra = rb;
+			rb = tmp;
+		}
+		parents[rb] = ra;
+		sizes[ra] += sizes[rb];
+		smallest[ra] = Math.min(smallest[ra], smallest[rb]);
+		return retval;
+	}
+}
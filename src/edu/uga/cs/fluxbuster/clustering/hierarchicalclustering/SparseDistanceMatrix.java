@@ -0,0 +1,407 @@
+/*
+ * Copyright (C) 2012 Chris Neasbitt
+ * Author: Chris Neasbitt
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package edu.uga.cs.fluxbuster.clustering.hierarchicalclustering;
+
+import java.util.Arrays;
+
+/**
+ * This class implements a distance matrix which only stores the distances
+ * below the maximum distance of 1.0, every other distance is 1.0.  Each
+ * instance keeps the instances it has a stored distance to and the
+ * distances in ascending order of the instances.  When two clusters are
+ * merged only the distances to the clusters they have stored distances to
+ * are updated.
+ *
+ * @author Chris Neasbitt
+ */
+public class SparseDistanceMatrix extends AbstractDistanceMatrix {
+
+	static final long serialVersionUID = -1235809600124455376L;
+
+	/** The distance of the instance pairs without a stored distance. */
+	public static final float MAXDISTANCE = 1.0f;
+
+	private int[][] neighbors = null;
+
+	private float[][] distances = null;
+
+	private int[] degrees = null;
+
+	private int[] active = null;
+
+	private int numActive = 0;
+
+	/**
+	 * Instantiates a new sparse distance matrix with all distances set to
+	 * the maximum distance.
+	 *
+	 * @param numInstances
+	 *            the number of instances
+	 */
+	public SparseDistanceMatrix(int numInstances) {
+		neighbors = new int[numInstances][];
+		distances = new float[numInstances][];
+		degrees = new int[numInstances];
+		active = new int[numInstances];
+		for (int i = 0; i < numInstances; i++) {
+			neighbors[i] = new int[0];
+			distances[i] = new float[0];
+			active[i] = i;
+		}
+		numActive = numInstances;
+	}
+
+	/**
+	 * Instantiates a new sparse distance matrix with all distances set to
+	 * the maximum distance.  Only single and complete linkage are
+	 * supported, as the other linkages would average the maximum distance
+	 * of the missing pairs into their merges.
+	 *
+	 * @param numInstances
+	 *            the number of instances
+	 * @param linkMethod
+	 *            the linkage method to use when clustering
+	 * @throws IllegalArgumentException
+	 *             if the linkage method is not single or complete linkage
+	 */
+	public SparseDistanceMatrix(int numInstances,
+			HierarchicalClustering.LinkageType linkMethod) {
+		this(numInstances);
+		if (!HierarchicalClustering.isMinMaxLinkage(linkMethod)) {
+			throw new IllegalArgumentException("A sparse distance matrix "
+					+ "does not support " + linkMethod + ".");
+		}
+		this.setLinkMethod(linkMethod);
+	}
+
+	/**
+	 * Sets the stored distances of an instance to other instances.  
+	 * Distances of the maximum distance or more are not stored.  The 
+	 * distance of a pair of instances must be set in only one of their 
+	 * rows.  The rows of distinct instances may be set concurrently by 
+	 * multiple threads before clustering starts, the mirrored distances 
+	 * are added by {@link #complete()}.
+	 *
+	 * @param i
+	 *            the instance
+	 * @param cols
+	 *            the other instances
+	 * @param dists
+	 *            the distances to the other instances
+	 * @param len
+	 *            the number of other instances
+	 */
+	public void setRow(int i, int[] cols, float[] dists, int len) {
+		int[] rowcols = new int[len];
+		float[] rowdists = new float[len];
+		int deg = 0;
+		for (int k = 0; k < len; k++) {
+			if (dists[k] < MAXDISTANCE) {
+				rowcols[deg] = cols[k];
+				rowdists[deg] = dists[k];
+				deg++;
+			}
+		}
+		neighbors[i] = rowcols;
+		distances[i] = rowdists;
+		degrees[i] = deg;
+	}
+
+	/**
+	 * Adds the mirrored distance of each distance set with
+	 * {@link #setRow(int, int[], float[], int)} and sorts each row, so 
+	 * every instance stores the distances to all instances it has a 
+	 * distance below the maximum distance to.  Must be called once after 
+	 * all rows have been set.
+	 */
+	public void complete() {
+		int n = neighbors.length;
+		int[] counts = new int[n];
+		for (int i = 0; i < n; i++) {
+			counts[i] += degrees[i];
+			for (int k = 0; k < degrees[i]; k++) {
+				counts[neighbors[i][k]]++;
+			}
+		}
+		// each entry holds the instance in the upper and the distance in 
+		// the lower 32 bits, so sorting the entries sorts the instances
+		long[][] entries = new long[n][];
+		int[] fill = new int[n];
+		for (int i = 0; i < n; i++) {
+			entries[i] = new long[counts[i]];
+		}
+		for (int i = 0; i < n; i++) {
+			for (int k = 0; k < degrees[i]; k++) {
+				int j = neighbors[i][k];
+				long bits = Float.floatToRawIntBits(distances[i][k]) & 0xFFFFFFFFL;
+				entries[i][fill[i]++] = (long) j << 32 | bits;
+				entries[j][fill[j]++] = (long) i << 32 | bits;
+			}
+			neighbors[i] = null;
+			distances[i] = null;
+		}
+		for (int i = 0; i < n; i++) {
+			long[] row = entries[i];
+			Arrays.sort(row);
+			int[] cols = new int[row.length];
+			float[] dists = new float[row.length];
+			for (int k = 0; k < row.length; k++) {
+				cols[k] = (int) (row[k] >>> 32);
+				dists[k] = Float.intBitsToFloat((int) row[k]);
+			}
+			entries[i] = null;
+			neighbors[i] = cols;
+			distances[i] = dists;
+			degrees[i] = row.length;
+		}
+	}
+
+	/**
+	 * Gets the number of stored distances.
+	 *
+	 * @return the number of instance pairs with a distance below the
+	 *         maximum distance
+	 */
+	public long getNumStored() {
+		long retval = 0;
+		for (int i = 0; i < numActive; i++) {
+			retval += degrees[active[i]];
+		}
+		return retval / 2;
+	}
+
+	/**
+	 * Gets the instances an instance has a stored distance to.
+	 *
+	 * @param i
+	 *            the instance
+	 * @return a copy of the other instances in ascending order
+	 */
+	public int[] getNeighbors(int i) {
+		return Arrays.copyOf(neighbors[i], degrees[i]);
+	}
+
+	/**
+	 * Gets the stored distances of an instance.
+	 *
+	 * @param i
+	 *            the instance
+	 * @return a copy of the distances in the order of
+	 *         {@link #getNeighbors(int)}
+	 */
+	public float[] getDistances(int i) {
+		return Arrays.copyOf(distances[i], degrees[i]);
+	}
+
+	/**
+	 * @see edu.uga.cs.fluxbuster.clustering.hierarchicalclustering.AbstractDistanceMatrix#getNumInstances()
+	 */
+	@Override
+	public int getNumInstances() {
+		return numActive;
+	}
+
+	/**
+	 * @see edu.uga.cs.fluxbuster.clustering.hierarchicalclustering.AbstractDistanceMatrix#isMerged()
+	 */
+	@Override
+	boolean isMerged() {
+		return numActive < neighbors.length;
+	}
+
+	/**
+	 * @see edu.uga.cs.fluxbuster.clustering.hierarchicalclustering.AbstractDistanceMatrix#distance(int, int)
+	 */
+	@Override
+	public float distance(int i, int j) {
+		if (i == j) {
+			return 0;
+		}
+		if (i < 0 || i >= numActive || j < 0 || j >= numActive) {
+			return Float.MAX_VALUE;
+		}
+		int a = active[i];
+		int k = Arrays.binarySearch(neighbors[a], 0, degrees[a], active[j]);
+		return k >= 0 ? distances[a][k] : MAXDISTANCE;
+	}
+
+	/**
+	 * Find closest cluster pair in the distance matrix.  If no distances
+	 * below the maximum distance remain the first two clusters are
+	 * returned.
+	 *
+	 * @return the closest cluster index pair
+	 */
+	@Override
+	public ClusterIndexPair findClosestClusterPair() {
+		int besta = -1, bestb = -1;
+		float mindist = Float.MAX_VALUE;
+
+		for (int k = 0; k < numActive; k++) {
+			int a = active[k];
+			int[] cols = neighbors[a];
+			float[] dists = distances[a];
+			for (int l = 0; l < degrees[a]; l++) {
+				if (cols[l] < a) {
+					continue;
+				}
+				float d = dists[l];
+				if (d < mindist) {
+					besta = a;
+					bestb = cols[l];
+					mindist = d;
+				} else if (d == mindist) { // in this case chooses at random
+					if (Math.random() < 0.5) {
+						besta = a;
+						bestb = cols[l];
+					}
+				}
+			}
+		}
+
+		if (besta < 0) {
+			if (numActive < 2) {
+				return new ClusterIndexPair(-1, -1, Float.MAX_VALUE);
+			}
+			return new ClusterIndexPair(0, 1, MAXDISTANCE);
+		}
+		return new ClusterIndexPair(position(besta), position(bestb), mindist);
+	}
+
+	/**
+	 * Gets the position of an active instance.
+	 *
+	 * @param a
+	 *            the instance
+	 * @return the position
+	 */
+	private int position(int a) {
+		return Arrays.binarySearch(active, 0, numActive, a);
+	}
+
+	/**
+	 * @see edu.uga.cs.fluxbuster.clustering.hierarchicalclustering.AbstractDistanceMatrix#update(edu.uga.cs.fluxbuster.clustering.hierarchicalclustering.ClusterIndexPair)
+	 */
+	@Override
+	void update(ClusterIndexPair pair) {
+		int pi = pair.getI();
+		int pj = pair.getJ();
+		int a = active[pi];
+		int b = active[pj];
+
+		// merges the rows of both clusters, a missing distance is the
+		// maximum distance
+		int[] acols = neighbors[a], bcols = neighbors[b];
+		float[] adists = distances[a], bdists = distances[b];
+		int adeg = degrees[a], bdeg = degrees[b];
+		int[] cols = new int[adeg + bdeg];
+		float[] dists = new float[adeg + bdeg];
+		int deg = 0;
+		int x = 0, y = 0;
+		while (x < adeg || y < bdeg) {
+			int m;
+			float c;
+			if (y >= bdeg || (x < adeg && acols[x] < bcols[y])) {
+				m = acols[x];
+				c = link(adists[x++], MAXDISTANCE);
+			} else if (x >= adeg || bcols[y] < acols[x]) {
+				m = bcols[y];
+				c = link(MAXDISTANCE, bdists[y++]);
+			} else {
+				m = acols[x];
+				c = link(adists[x++], bdists[y++]);
+			}
+			if (m == a || m == b) {
+				continue;
+			}
+			if (c < MAXDISTANCE) {
+				cols[deg] = m;
+				dists[deg] = c;
+				deg++;
+			}
+		}
+
+		for (int l = 0; l < bdeg; l++) {
+			if (bcols[l] != a) {
+				remove(bcols[l], b);
+			}
+		}
+		for (int l = 0; l < adeg; l++) {
+			if (acols[l] != b) {
+				remove(acols[l], a);
+			}
+		}
+		for (int l = 0; l < deg; l++) {
+			insert(cols[l], a, dists[l]);
+		}
+		neighbors[a] = cols;
+		distances[a] = dists;
+		degrees[a] = deg;
+		neighbors[b] = new int[0];
+		distances[b] = new float[0];
+		degrees[b] = 0;
+
+		// drops the cluster that has been merged
+		System.arraycopy(active, pj + 1, active, pj, numActive - pj - 1);
+		numActive--;
+	}
+
+	/**
+	 * Removes the stored distance to an instance from an instance's row.
+	 *
+	 * @param row
+	 *            the instance whose row is updated
+	 * @param col
+	 *            the instance to remove
+	 */
+	private void remove(int row, int col) {
+		int k = Arrays.binarySearch(neighbors[row], 0, degrees[row], col);
+		if (k >= 0) {
+			int tail = degrees[row] - k - 1;
+			System.arraycopy(neighbors[row], k + 1, neighbors[row], k, tail);
+			System.arraycopy(distances[row], k + 1, distances[row], k, tail);
+			degrees[row]--;
+		}
+	}
+
+	/**
+	 * Inserts the stored distance to an instance into an instance's row.
+	 *
+	 * @param row
+	 *            the instance whose row is updated
+	 * @param col
+	 *            the instance to insert, not present in the row
+	 * @param dist
+	 *            the distance
+	 */
+	private void insert(int row, int col, float dist) {
+		int deg = degrees[row];
+		int k = -Arrays.binarySearch(neighbors[row], 0, deg, col) - 1;
+		if (deg == neighbors[row].length) {
+			int cap = Math.max(4, deg + (deg >> 1));
+			neighbors[row] = Arrays.copyOf(neighbors[row], cap);
+			distances[row] = Arrays.copyOf(distances[row], cap);
+		}
+		System.arraycopy(neighbors[row], k, neighbors[row], k + 1, deg - k);
+		System.arraycopy(distances[row], k, distances[row], k + 1, deg - k);
+		neighbors[row][k] = col;
+		distances[row][k] = dist;
+		degrees[row]++;
+	}
+}
@@ -24,6 +24,7 @@ import java.sql.SQLException;
 import java.util.Date;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import com.jolbox.bonecp.BoneCP;
 
@@ -151,6 +152,20 @@ public abstract class DBInterface {
 	public abstract StoredDomainCluster getCluster(Date logdate, int clusterId);
 	
 	
+	/**
+	 * Return the 2LD's of the domains in the clusters having the supplied 
+	 * cluster classification for each of a list of runs, using a single
+	 * query over all of the runs.
+	 * 
+	 * @param logdates the dates of the runs
+	 * @param cls the cluster class
+	 * @return the 2LD's keyed by the date of their run, runs without such
+	 * 		clusters are absent, or null in case of an error
+	 */
+	public abstract Map<Date, Set<String>> getCluster2LDs(List<Date> logdates, 
+			ClusterClass cls);
+	
+	
 	/**
 	 * Store the ip cluster similarities in the database.
 	 *
@@ -30,6 +30,7 @@ import java.sql.Statement;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.Formatter;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
@@ -294,6 +295,67 @@ public class PostgresDBInterface extends DBInterface {
 	}
 	
 	
+	/**
+	 * @see edu.uga.cs.fluxbuster.db.DBInterface#getCluster2LDs(java.util.List, edu.uga.cs.fluxbuster.classification.ClusterClass)
+	 */
+	@Override
+	public Map<Date, Set<String>> getCluster2LDs(List<Date> logdates, 
+			ClusterClass cls){
+		Map<Date, Set<String>> retval = new HashMap<Date, Set<String>>();
+		if(logdates.isEmpty()){
+			return retval;
+		}
+		StringBuilder dates = new StringBuilder();
+		for(Date logdate : logdates){
+			if(dates.length() > 0){
+				dates.append(", ");
+			}
+			dates.append("'").append(dateFormatStr.format(logdate)).append("'");
+		}
+		// the parent tables span all runs, the log date check constraints
+		// of the per run tables limit the scan to the requested runs
+		String query = "select distinct domains.log_date, " +
+				"domains.second_level_domain_name from domains, clusters, " +
+				"cluster_classes where domains.log_date in (" + dates + 
+				") and clusters.log_date = " +
+				"domains.log_date and clusters.domain_id = domains.domain_id and " +
+				"cluster_classes.log_date = clusters.log_date and " +
+				"cluster_classes.cluster_id = clusters.cluster_id and " +
+				"cluster_classes.class = '" + cls + "'";
+		ResultSet rs = executeQueryWithResult(query);
+		if(rs == null){
+			return null;
+		}
+		try{
+			while(rs.next()){
+				Date logdate = new Date(rs.getDate(1).getTime());
+				Set<String> slds = retval.get(logdate);
+				if(slds == null){
+					slds = new HashSet<String>();
+					retval.put(logdate, slds);
+				}
+				slds.add(DomainNameUtils.reverseDomainName(rs.getString(2)));
+			}
+		} catch (SQLException e) {
+			if(log.isErrorEnabled()){
+				log.error("Error retrieving cluster 2LDs.", e);
+			}
+			retval = null;
+		} finally {
+			try {
+				if(!rs.isClosed()){
+					rs.close();
+				}
+			} catch (SQLException e) {
+				if(log.isErrorEnabled()){
+					log.error(e);
+				}
+			}
+		}
+		return retval;
+	}
+	
+	
 	/**
 	 * Get the features needed for cluster classification.
 	 * 
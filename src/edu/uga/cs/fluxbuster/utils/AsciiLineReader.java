@@ -0,0 +1,120 @@
+/*
+* Copyright (C) 2012 Chris Neasbitt
+* Author: Chris Neasbitt
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 2 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package edu.uga.cs.fluxbuster.utils;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * This class reads lines of single byte characters from an input stream
+ * into a reusable character buffer.  Unlike a BufferedReader no String
+ * is created for a line.  Each byte is widened to the character with the
+ * same value, i.e. the input is decoded as ISO-8859-1.
+ *
+ * @author Chris Neasbitt
+ */
+public class AsciiLineReader {
+
+	private static final int BUFSIZE = 65536;
+
+	private InputStream in = null;
+
+	private byte[] buf = new byte[BUFSIZE];
+
+	private int bufpos = 0, buflen = 0;
+
+	private char[] line = new char[256];
+
+	/**
+	 * Instantiates a new line reader.
+	 *
+	 * @param in the input stream to read from
+	 */
+	public AsciiLineReader(InputStream in) {
+		this.in = in;
+	}
+
+	/**
+	 * Reads the next line into the line buffer.  The line terminator,
+	 * either '\n' or "\r\n", is not included.
+	 *
+	 * @return the length of the line or -1 at the end of the stream
+	 * @throws IOException if the stream can not be read
+	 */
+	public int readLine() throws IOException {
+		int len = 0;
+		boolean read = false;
+		while (true) {
+			if (bufpos == buflen) {
+				buflen = in.read(buf, 0, buf.length);
+				bufpos = 0;
+				if (buflen <= 0) {
+					buflen = 0;
+					break;
+				}
+			}
+			read = true;
+			int start = bufpos;
+			int end = start;
+			while (end < buflen && buf[end] != '\n') {
+				end++;
+			}
+			int n = end - start;
+			if (len + n > line.length) {
+				char[] temp = new char[Math.max(line.length * 2, len + n)];
+				System.arraycopy(line, 0, temp, 0, len);
+				line = temp;
+			}
+			for (int i = start; i < end; i++) {
+				line[len++] = (char) (buf[i] & 0xFF);
+			}
+			if (end < buflen) {
+				bufpos = end + 1;
+				if (len > 0 && line[len - 1] == '\r') {
+					len--;
+				}
+				return len;
+			}
+			bufpos = buflen;
+		}
+		if (len > 0 && line[len - 1] == '\r') {
+			len--;
+		}
+		return read ? len : -1;
+	}
+
+	/**
+	 * Gets the buffer holding the last line read.  The buffer is reused
+	 * by the next call to readLine.
+	 *
+	 * @return the line buffer
+	 */
+	public char[] getLine() {
+		return line;
+	}
+
+	/**
+	 * Closes the underlying input stream.
+	 *
+	 * @throws IOException if the stream can not be closed
+	 */
+	public void close() throws IOException {
+		in.close();
+	}
+}
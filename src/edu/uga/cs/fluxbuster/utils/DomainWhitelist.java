@@ -0,0 +1,257 @@
+/*
+* Copyright (C) 2012 Chris Neasbitt
+* Author: Chris Neasbitt
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 2 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package edu.uga.cs.fluxbuster.utils;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * This class is a set of whitelisted domain names.  A domain name is
+ * whitelisted if it or one of its parent domains is in the set, so
+ * "www.example.com" and "example.com" are matched by "example.com" but
+ * "evilexample.com" is not.  Names are compared ignoring ASCII case.
+ *
+ * The names are kept as ASCII bytes in a single array and indexed by an
+ * open addressing hash table.  The hash of a name is computed from its
+ * last character to its first, so the hashes of all suffixes of a domain
+ * name are found in one pass and a lookup probes the table once for
+ * each label of the domain name.
+ *
+ * @author Chris Neasbitt
+ */
+public class DomainWhitelist {
+
+	private byte[] names = new byte[1024];
+
+	private int namesLength = 0;
+
+	private int[] offsets = new int[65];
+
+	private int[] hashes = new int[64];
+
+	// open addressing table of index + 1, 0 marks an empty slot
+	private int[] table = new int[128];
+
+	private int size = 0;
+
+	private static Log log = LogFactory.getLog(DomainWhitelist.class);
+
+	/**
+	 * Instantiates a new empty whitelist.
+	 */
+	public DomainWhitelist() {}
+
+	/**
+	 * Loads a whitelist from a file with one domain name per line.
+	 * Leading and trailing dots are ignored, as are blank lines.
+	 *
+	 * @param filename the path to the whitelist file
+	 * @return the whitelist
+	 * @throws IOException if the file can not be read
+	 */
+	public static DomainWhitelist load(String filename) throws IOException {
+		DomainWhitelist retval = new DomainWhitelist();
+		BufferedReader br = new BufferedReader(new FileReader(filename));
+		try {
+			String line;
+			while ((line = br.readLine()) != null) {
+				line = DomainNameUtils.stripDots(line.trim());
+				if (line.length() > 0) {
+					retval.add(line);
+				}
+			}
+		} finally {
+			br.close();
+		}
+		return retval;
+	}
+
+	/**
+	 * Adds a domain name to the whitelist.  Names containing non ASCII
+	 * characters can not be added and are ignored.
+	 *
+	 * @param domainname the domain name without leading or trailing dots
+	 */
+	public void add(String domainname) {
+		int len = domainname.length();
+		int hash = 0;
+		for (int i = len - 1; i >= 0; i--) {
+			char c = domainname.charAt(i);
+			if (c > 127) {
+				if(log.isWarnEnabled()){
+					log.warn("Ignoring non ASCII whitelist entry " + domainname);
+				}
+				return;
+			}
+			hash = toLowerCase(c) + 31 * hash;
+		}
+		if (find(domainname, 0, hash)) {
+			return;
+		}
+		if (size == hashes.length) {
+			hashes = Arrays.copyOf(hashes, size * 2);
+			offsets = Arrays.copyOf(offsets, size * 2 + 1);
+		}
+		if (namesLength + len > names.length) {
+			names = Arrays.copyOf(names, Math.max(names.length * 2,
+					namesLength + len));
+		}
+		for (int i = 0; i < len; i++) {
+			names[namesLength++] = (byte) toLowerCase(domainname.charAt(i));
+		}
+		offsets[size + 1] = namesLength;
+		hashes[size] = hash;
+		size++;
+		if (size * 2 > table.length) {
+			rehash(table.length * 2);
+		} else {
+			insert(size - 1);
+		}
+	}
+
+	/**
+	 * Determines if a domain name or one of its parent domains is in
+	 * the whitelist.
+	 *
+	 * @param domainname the domain name without a trailing dot
+	 * @return true, if the domain name is whitelisted
+	 */
+	public boolean isWhitelisted(String domainname) {
+		if (size == 0) {
+			return false;
+		}
+		int hash = 0;
+		for (int i = domainname.length() - 1; i >= 0; i--) {
+			hash = toLowerCase(domainname.charAt(i)) + 31 * hash;
+			if (i == 0 || domainname.charAt(i - 1) == '.') {
+				if (find(domainname, i, hash)) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Gets the number of domain names in the whitelist.
+	 *
+	 * @return the number of domain names
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Determines if a suffix of a domain name is in the table.
+	 *
+	 * @param domainname the domain name
+	 * @param start the index of the first character of the suffix
+	 * @param hash the hash of the suffix
+	 * @return true, if the suffix is in the table
+	 */
+	private boolean find(String domainname, int start, int hash) {
+		int mask = table.length - 1;
+		int slot = mix(hash) & mask;
+		while (table[slot] != 0) {
+			int index = table[slot] - 1;
+			if (hashes[index] == hash && suffixEquals(index, domainname, start)) {
+				return true;
+			}
+			slot = (slot + 1) & mask;
+		}
+		return false;
+	}
+
+	/**
+	 * Compares a stored name to a suffix of a domain name.
+	 *
+	 * @param index the index of the stored name
+	 * @param domainname the domain name
+	 * @param start the index of the first character of the suffix
+	 * @return true, if the names are equal ignoring ASCII case
+	 */
+	private boolean suffixEquals(int index, String domainname, int start) {
+		int off = offsets[index];
+		int len = offsets[index + 1] - off;
+		if (len != domainname.length() - start) {
+			return false;
+		}
+		for (int i = 0; i < len; i++) {
+			if (names[off + i] != toLowerCase(domainname.charAt(start + i))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Inserts a stored name into the table.
+	 *
+	 * @param index the index of the stored name
+	 */
+	private void insert(int index) {
+		int mask = table.length - 1;
+		int slot = mix(hashes[index]) & mask;
+		while (table[slot] != 0) {
+			slot = (slot + 1) & mask;
+		}
+		table[slot] = index + 1;
+	}
+
+	/**
+	 * Rebuilds the table with a new size.
+	 *
+	 * @param length the new table length, a power of 2
+	 */
+	private void rehash(int length) {
+		table = new int[length];
+		for (int i = 0; i < size; i++) {
+			insert(i);
+		}
+	}
+
+	/**
+	 * Spreads the bits of a hash code over the table.
+	 *
+	 * @param hash the hash code
+	 * @return the mixed hash code
+	 */
+	private static int mix(int hash) {
+		hash *= 0x9E3779B9;
+		return hash ^ (hash >>> 16);
+	}
+
+	/**
+	 * Converts an ASCII upper case letter to lower case.
+	 *
+	 * @param c the character
+	 * @return the lower case character
+	 */
+	private static int toLowerCase(char c) {
+		if (c >= 'A' && c <= 'Z') {
+			return c + ('a' - 'A');
+		}
+		return c;
+	}
+}
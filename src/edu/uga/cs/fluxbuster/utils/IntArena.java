@@ -0,0 +1,316 @@
+/*
+* Copyright (C) 2012 Chris Neasbitt
+* Author: Chris Neasbitt
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 2 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package edu.uga.cs.fluxbuster.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * This class is an append only store of int values addressed by a long
+ * index.  The values are kept in fixed size chunks which are allocated
+ * on the java heap, outside of the java heap or in a memory mapped
+ * temporary file.  Once appended values are never moved, so any number
+ * of threads may read the arena concurrently while no values are being
+ * appended.
+ *
+ * @author Chris Neasbitt
+ */
+public abstract class IntArena {
+
+	/**
+	 * The storage used for the arena's chunks.
+	 */
+	public enum Backing {
+
+		/** Chunks are int arrays on the java heap. */
+		HEAP,
+
+		/** Chunks are direct buffers outside of the java heap. */
+		DIRECT,
+
+		/** Chunks are mapped from a temporary file. */
+		MAPPED
+	}
+
+	/** The number of values in a chunk, must be a power of 2. */
+	protected static final int CHUNKSIZE = 1 << 20;
+
+	protected static final int CHUNKSHIFT = 20;
+
+	protected static final int CHUNKMASK = CHUNKSIZE - 1;
+
+	private long size = 0;
+
+	private int numChunks = 0;
+
+	/**
+	 * Creates a new empty arena.
+	 *
+	 * @param backing the storage used for the chunks
+	 * @param dir the directory of the temporary file of a MAPPED arena,
+	 * 		if null the default temporary file directory is used. Ignored
+	 * 		for the other backings.
+	 * @return the arena
+	 * @throws IOException if the temporary file can not be created
+	 */
+	public static IntArena create(Backing backing, File dir)
+			throws IOException {
+		switch (backing) {
+		case DIRECT:
+			return new BufferArena(null);
+		case MAPPED:
+			File file = File.createTempFile("fluxbuster", ".arena", dir);
+			file.deleteOnExit();
+			return new BufferArena(file);
+		default:
+			return new HeapArena();
+		}
+	}
+
+	/**
+	 * Appends values to the arena.
+	 *
+	 * @param src the array holding the values
+	 * @param off the offset of the first value in src
+	 * @param len the number of values to append
+	 * @return the index of the first appended value
+	 * @throws IOException if a chunk of a MAPPED arena can not be mapped
+	 */
+	public long append(int[] src, int off, int len) throws IOException {
+		long retval = size;
+		while (len > 0) {
+			int chunk = (int) (size >>> CHUNKSHIFT);
+			int pos = (int) (size & CHUNKMASK);
+			if (chunk == numChunks) {
+				allocateChunk(chunk);
+				numChunks++;
+			}
+			int n = Math.min(len, CHUNKSIZE - pos);
+			write(chunk, pos, src, off, n);
+			size += n;
+			off += n;
+			len -= n;
+		}
+		return retval;
+	}
+
+	/**
+	 * Gets a single value.
+	 *
+	 * @param index the index of the value
+	 * @return the value
+	 */
+	public abstract int get(long index);
+
+	/**
+	 * Copies values out of the arena.
+	 *
+	 * @param index the index of the first value
+	 * @param dst the destination array
+	 * @param off the offset in dst of the first value
+	 * @param len the number of values to copy
+	 */
+	public void get(long index, int[] dst, int off, int len) {
+		while (len > 0) {
+			int chunk = (int) (index >>> CHUNKSHIFT);
+			int pos = (int) (index & CHUNKMASK);
+			int n = Math.min(len, CHUNKSIZE - pos);
+			read(chunk, pos, dst, off, n);
+			index += n;
+			off += n;
+			len -= n;
+		}
+	}
+
+	/**
+	 * Gets the number of values in the arena.
+	 *
+	 * @return the number of values
+	 */
+	public long size() {
+		return size;
+	}
+
+	/**
+	 * Gets the number of bytes allocated by the arena.
+	 *
+	 * @return the allocated bytes
+	 */
+	public long getAllocatedBytes() {
+		return (long) numChunks * CHUNKSIZE * 4;
+	}
+
+	/**
+	 * Releases the arena's chunks.  The arena can not be used afterwards.
+	 *
+	 * @throws IOException if the temporary file of a MAPPED arena can not
+	 * 		be closed
+	 */
+	public abstract void close() throws IOException;
+
+	/**
+	 * Allocates a chunk.
+	 *
+	 * @param chunk the index of the new chunk
+	 * @throws IOException if the chunk can not be mapped
+	 */
+	protected abstract void allocateChunk(int chunk) throws IOException;
+
+	/**
+	 * Writes values into a single chunk.
+	 *
+	 * @param chunk the chunk index
+	 * @param pos the position in the chunk
+	 * @param src the source array
+	 * @param off the offset in src
+	 * @param len the number of values
+	 */
+	protected abstract void write(int chunk, int pos, int[] src, int off,
+			int len);
+
+	/**
+	 * Reads values from a single chunk.
+	 *
+	 * @param chunk the chunk index
+	 * @param pos the position in the chunk
+	 * @param dst the destination array
+	 * @param off the offset in dst
+	 * @param len the number of values
+	 */
+	protected abstract void read(int chunk, int pos, int[] dst, int off,
+			int len);
+
+	/**
+	 * An arena whose chunks are int arrays.
+	 */
+	private static class HeapArena extends IntArena {
+
+		private int[][] chunks = new int[16][];
+
+		@Override
+		public int get(long index) {
+			return chunks[(int) (index >>> CHUNKSHIFT)][(int) (index & CHUNKMASK)];
+		}
+
+		@Override
+		public void close() {
+			chunks = null;
+		}
+
+		@Override
+		protected void allocateChunk(int chunk) {
+			if (chunk == chunks.length) {
+				chunks = Arrays.copyOf(chunks, chunks.length * 2);
+			}
+			chunks[chunk] = new int[CHUNKSIZE];
+		}
+
+		@Override
+		protected void write(int chunk, int pos, int[] src, int off, int len) {
+			System.arraycopy(src, off, chunks[chunk], pos, len);
+		}
+
+		@Override
+		protected void read(int chunk, int pos, int[] dst, int off, int len) {
+			System.arraycopy(chunks[chunk], pos, dst, off, len);
+		}
+	}
+
+	/**
+	 * An arena whose chunks are direct or memory mapped buffers.  Only
+	 * absolute gets are used on the buffers so reads do not change any
+	 * buffer state.
+	 */
+	private static class BufferArena extends IntArena {
+
+		private IntBuffer[] chunks = new IntBuffer[16];
+
+		private File file = null;
+
+		private RandomAccessFile raf = null;
+
+		private FileChannel channel = null;
+
+		/**
+		 * Instantiates a new buffer arena.
+		 *
+		 * @param file the file to map the chunks from, if null direct
+		 * 		buffers are used
+		 * @throws IOException if the file can not be opened
+		 */
+		public BufferArena(File file) throws IOException {
+			this.file = file;
+			if (file != null) {
+				raf = new RandomAccessFile(file, "rw");
+				channel = raf.getChannel();
+			}
+		}
+
+		@Override
+		public int get(long index) {
+			return chunks[(int) (index >>> CHUNKSHIFT)].get((int) (index & CHUNKMASK));
+		}
+
+		@Override
+		public void close() throws IOException {
+			chunks = null;
+			if (raf != null) {
+				raf.close();
+				file.delete();
+			}
+		}
+
+		@Override
+		protected void allocateChunk(int chunk) throws IOException {
+			if (chunk == chunks.length) {
+				chunks = Arrays.copyOf(chunks, chunks.length * 2);
+			}
+			ByteBuffer buf;
+			if (channel != null) {
+				buf = channel.map(FileChannel.MapMode.READ_WRITE,
+						(long) chunk * CHUNKSIZE * 4, CHUNKSIZE * 4);
+			} else {
+				buf = ByteBuffer.allocateDirect(CHUNKSIZE * 4);
+			}
+			chunks[chunk] = buf.order(ByteOrder.nativeOrder()).asIntBuffer();
+		}
+
+		@Override
+		protected void write(int chunk, int pos, int[] src, int off, int len) {
+			IntBuffer buf = chunks[chunk];
+			for (int i = 0; i < len; i++) {
+				buf.put(pos + i, src[off + i]);
+			}
+		}
+
+		@Override
+		protected void read(int chunk, int pos, int[] dst, int off, int len) {
+			IntBuffer buf = chunks[chunk];
+			for (int i = 0; i < len; i++) {
+				dst[off + i] = buf.get(pos + i);
+			}
+		}
+	}
+}
@@ -0,0 +1,854 @@
+/*
+* Copyright (C) 2012 Chris Neasbitt
+* Author: Chris Neasbitt
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 2 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package edu.uga.cs.fluxbuster.utils;
+
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * This class decompresses a gzip file made of multiple members on
+ * several threads.  The file is cut into ranges of compressed data and
+ * each range is inflated by a task on an executor, the decoded ranges
+ * are returned by the stream in file order.
+ *
+ * If the members of the file are BGZF blocks, as written by bgzip, the
+ * block sizes stored in the member headers are used as an index of the
+ * member boundaries.  Otherwise a task starts at the first gzip header
+ * found in its range.  A header found this way may be a false match
+ * inside compressed data, so the stream only uses the output of a task
+ * which starts exactly where the output of the preceding data ends, and
+ * inflates any data not covered by such a task itself.  Every member's
+ * CRC and size are checked.
+ *
+ * Files with a single member can not be split and are read with a
+ * GZIPInputStream, see {@link #open(String, ExecutorService, int)}.
+ *
+ * @author Chris Neasbitt
+ */
+public class ParallelGzipInputStream extends InputStream {
+
+	private static final int SPLITSIZE = 1 << 20;
+
+	private static final int PROBES = 8;
+
+	private static final int MAXRANGEOUTPUT = 64 << 20;
+
+	private static final int BLOCKSIZE = 65536;
+
+	private static final int FHCRC = 2, FEXTRA = 4, FNAME = 8,
+			FCOMMENT = 16, FRESERVED = 0xE0;
+
+	private RandomAccessFile raf = null;
+
+	private FileChannel channel = null;
+
+	private long fileSize = 0;
+
+	private ExecutorService executor = null;
+
+	private int maxPending = 1;
+
+	// the start offsets of the ranges, the last entry is the file size
+	private long[] splits = null;
+
+	// true if the range starts are known member boundaries
+	private boolean exact = false;
+
+	private int nextSplit = 0;
+
+	private LinkedList<Future<Range>> pending = new LinkedList<Future<Range>>();
+
+	// the compressed offset of the next member to return
+	private long position = 0;
+
+	private List<byte[]> blocks = null;
+
+	private int blockIndex = 0, blockPos = 0, lastBlockLength = 0;
+
+	private MemberDecoder decoder = null;
+
+	private byte[] single = new byte[1];
+
+	private static Log log = LogFactory.getLog(ParallelGzipInputStream.class);
+
+	/**
+	 * Instantiates a new parallel gzip input stream.
+	 *
+	 * @param raf the gzip file
+	 * @param splits the start offsets of the ranges followed by the
+	 * 		file size
+	 * @param exact true if the range starts are member boundaries
+	 * @param executor the executor running the decompression tasks
+	 * @param maxPending the maximum number of ranges decompressed ahead
+	 * 		of the reader
+	 * @throws IOException if the file size can not be determined
+	 */
+	private ParallelGzipInputStream(RandomAccessFile raf, long[] splits,
+			boolean exact, ExecutorService executor, int maxPending)
+					throws IOException {
+		this.raf = raf;
+		this.channel = raf.getChannel();
+		this.fileSize = channel.size();
+		this.splits = splits;
+		this.exact = exact;
+		this.executor = executor;
+		this.maxPending = Math.max(1, maxPending);
+	}
+
+	/**
+	 * Opens a gzip file for reading.  If the file consists of multiple
+	 * members it is decompressed in parallel by a ParallelGzipInputStream,
+	 * otherwise a GZIPInputStream is returned.
+	 *
+	 * @param filename the path to the gzip file
+	 * @param executor the executor running the decompression tasks
+	 * @param threads the number of threads of the executor available
+	 * 		to this stream
+	 * @return the decompressed input stream
+	 * @throws IOException if the file can not be opened
+	 */
+	public static InputStream open(String filename, ExecutorService executor,
+			int threads) throws IOException {
+		return open(filename, executor, threads, SPLITSIZE);
+	}
+
+	/**
+	 * Opens a gzip file for reading with a given range size.
+	 *
+	 * @param filename the path to the gzip file
+	 * @param executor the executor running the decompression tasks
+	 * @param threads the number of threads of the executor available
+	 * 		to this stream
+	 * @param splitSize the number of compressed bytes per range
+	 * @return the decompressed input stream
+	 * @throws IOException if the file can not be opened
+	 */
+	static InputStream open(String filename, ExecutorService executor,
+			int threads, int splitSize) throws IOException {
+		if (threads > 1) {
+			RandomAccessFile raf = new RandomAccessFile(filename, "r");
+			InputStream retval = null;
+			try {
+				FileChannel channel = raf.getChannel();
+				long size = channel.size();
+				long[] splits = null;
+				boolean exact = false;
+				if (size >= 2L * splitSize) {
+					splits = getBlockSplits(channel, size, splitSize);
+					exact = splits != null;
+					if (splits == null && hasSecondMember(channel, size, splitSize)) {
+						splits = getSplits(size, splitSize);
+					}
+				}
+				if (splits != null) {
+					if(log.isDebugEnabled()){
+						log.debug("Decompressing " + filename + " in "
+								+ (splits.length - 1) + " ranges.");
+					}
+					retval = new ParallelGzipInputStream(raf, splits, exact,
+							executor, threads * 2);
+				}
+			} finally {
+				if (retval == null) {
+					raf.close();
+				}
+			}
+			if (retval != null) {
+				return retval;
+			}
+		}
+		return new GZIPInputStream(new FileInputStream(filename), BLOCKSIZE);
+	}
+
+	@Override
+	public int read() throws IOException {
+		int n;
+		while ((n = read(single, 0, 1)) == 0) {}
+		return n < 0 ? -1 : single[0] & 0xFF;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (len == 0) {
+			return 0;
+		}
+		while (true) {
+			if (blocks != null) {
+				int end = blockIndex == blocks.size() - 1 ? lastBlockLength
+						: BLOCKSIZE;
+				if (blockPos < end) {
+					int n = Math.min(len, end - blockPos);
+					System.arraycopy(blocks.get(blockIndex), blockPos, b, off, n);
+					blockPos += n;
+					return n;
+				}
+				if (blockIndex < blocks.size() - 1) {
+					blockIndex++;
+					blockPos = 0;
+					continue;
+				}
+				blocks = null;
+			}
+			if (decoder != null) {
+				int n = decoder.read(b, off, len);
+				if (n > 0) {
+					return n;
+				}
+				position = decoder.getEnd();
+				decoder = null;
+			}
+			if (!advance()) {
+				return -1;
+			}
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		for (Future<Range> future : pending) {
+			future.cancel(true);
+		}
+		pending.clear();
+		blocks = null;
+		if (decoder != null) {
+			decoder.end();
+			decoder = null;
+		}
+		raf.close();
+	}
+
+	/**
+	 * Moves to the next source of decompressed data, either the output
+	 * of a task starting at the current position or the member at the
+	 * current position inflated by the reading thread.
+	 *
+	 * @return false at the end of the file
+	 * @throws IOException if the file can not be read
+	 */
+	private boolean advance() throws IOException {
+		while (true) {
+			while (nextSplit < splits.length - 1 && pending.size() < maxPending) {
+				pending.add(executor.submit(new RangeInflater(
+						splits[nextSplit], splits[nextSplit + 1])));
+				nextSplit++;
+			}
+			if (pending.isEmpty()) {
+				if (position < fileSize && isHeader(position)) {
+					decoder = newDecoder(position);
+					return true;
+				}
+				return false;
+			}
+			Range range = getResult(pending.getFirst());
+			if (range.start < 0 || range.start < position) {
+				// no member starts in the range or the range started at
+				// a false header inside a member already read
+				pending.removeFirst();
+				continue;
+			}
+			if (range.start == position && !range.failed) {
+				pending.removeFirst();
+				position = range.end;
+				if (range.blocks.size() > 0) {
+					blocks = range.blocks;
+					blockIndex = 0;
+					blockPos = 0;
+					lastBlockLength = range.lastBlockLength;
+				}
+				return true;
+			}
+			if (range.start == position) {
+				pending.removeFirst();
+			}
+			decoder = newDecoder(position);
+			return true;
+		}
+	}
+
+	/**
+	 * Waits for the result of a decompression task.
+	 *
+	 * @param future the task's result
+	 * @return the decompressed range
+	 * @throws IOException if the task failed or the wait was interrupted
+	 */
+	private Range getResult(Future<Range> future) throws IOException {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while decompressing.");
+		} catch (ExecutionException e) {
+			IOException ioe = new IOException("Decompression task failed.");
+			ioe.initCause(e.getCause());
+			throw ioe;
+		}
+	}
+
+	/**
+	 * Determines if a gzip header could start at an offset.
+	 *
+	 * @param offset the file offset
+	 * @return true, if the bytes at the offset look like a gzip header
+	 * @throws IOException if the file can not be read
+	 */
+	private boolean isHeader(long offset) throws IOException {
+		ByteBuffer buf = ByteBuffer.allocate(4);
+		while (buf.hasRemaining()) {
+			if (channel.read(buf, offset + buf.position()) < 0) {
+				return false;
+			}
+		}
+		return isHeader(buf.array(), 0);
+	}
+
+	/**
+	 * Determines if a gzip header could start at an index of a buffer.
+	 *
+	 * @param buf the buffer, with at least 4 bytes from the index
+	 * @param i the index
+	 * @return true, if the bytes at the index look like a gzip header
+	 */
+	private static boolean isHeader(byte[] buf, int i) {
+		return buf[i] == (byte) 0x1F && buf[i + 1] == (byte) 0x8B
+				&& buf[i + 2] == 8 && (buf[i + 3] & FRESERVED) == 0;
+	}
+
+	/**
+	 * Finds the first possible gzip header in a region of a file.
+	 *
+	 * @param channel the file
+	 * @param size the file size
+	 * @param from the start of the region
+	 * @param to the end of the region, exclusive
+	 * @return the offset of the header or -1 if there is none
+	 * @throws IOException if the file can not be read
+	 */
+	private static long findHeader(FileChannel channel, long size, long from,
+			long to) throws IOException {
+		byte[] buf = new byte[BLOCKSIZE + 3];
+		ByteBuffer bb = ByteBuffer.wrap(buf);
+		long pos = from;
+		while (pos < to) {
+			bb.clear();
+			bb.limit((int) Math.min(buf.length, size - pos));
+			while (bb.hasRemaining() && channel.read(bb, pos + bb.position()) >= 0) {}
+			int scan = Math.min(bb.position() - 3, (int) Math.min(BLOCKSIZE, to - pos));
+			for (int i = 0; i < scan; i++) {
+				if (isHeader(buf, i)) {
+					return pos + i;
+				}
+			}
+			if (scan <= 0) {
+				break;
+			}
+			pos += scan;
+		}
+		return -1;
+	}
+
+	/**
+	 * Determines if a file has a member after its first member by trying
+	 * to inflate from a header found near evenly spaced offsets of the
+	 * file.
+	 *
+	 * @param channel the file
+	 * @param size the file size
+	 * @param splitSize the number of bytes searched from each offset
+	 * @return true, if a second member was found
+	 * @throws IOException if the file can not be read
+	 */
+	private static boolean hasSecondMember(FileChannel channel, long size,
+			int splitSize) throws IOException {
+		byte[] probe = new byte[BLOCKSIZE];
+		for (int i = 0; i < PROBES; i++) {
+			long from = Math.max(1, size / PROBES * i);
+			long offset = findHeader(channel, size, from,
+					Math.min(size, from + splitSize));
+			while (offset >= 0) {
+				MemberDecoder decoder = new MemberDecoder(channel, size, offset);
+				try {
+					decoder.read(probe, 0, probe.length);
+					return true;
+				} catch (IOException e) {
+					offset = findHeader(channel, size, offset + 1,
+							Math.min(size, from + splitSize));
+				} finally {
+					decoder.end();
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Cuts a file into ranges of equal size.
+	 *
+	 * @param size the file size
+	 * @param splitSize the range size
+	 * @return the range starts followed by the file size
+	 */
+	private static long[] getSplits(long size, int splitSize) {
+		int count = (int) ((size + splitSize - 1) / splitSize);
+		long[] retval = new long[count + 1];
+		for (int i = 0; i < count; i++) {
+			retval[i] = (long) i * splitSize;
+		}
+		retval[count] = size;
+		return retval;
+	}
+
+	/**
+	 * Cuts a BGZF file into ranges of whole blocks using the block sizes
+	 * in the block headers.
+	 *
+	 * @param channel the file
+	 * @param size the file size
+	 * @param splitSize the minimum number of bytes per range
+	 * @return the range starts followed by the file size or null if the
+	 * 		file is not a BGZF file
+	 * @throws IOException if the file can not be read
+	 */
+	private static long[] getBlockSplits(FileChannel channel, long size,
+			int splitSize) throws IOException {
+		ByteBuffer header = ByteBuffer.allocate(12);
+		ByteBuffer extra = ByteBuffer.allocate(0xFFFF);
+		long[] retval = new long[16];
+		int count = 0;
+		long rangeStart = -1;
+		long pos = 0;
+		while (pos < size) {
+			header.clear();
+			while (header.hasRemaining()
+					&& channel.read(header, pos + header.position()) >= 0) {}
+			byte[] h = header.array();
+			if (header.hasRemaining() || !isHeader(h, 0) || (h[3] & FEXTRA) == 0) {
+				return null;
+			}
+			int xlen = (h[10] & 0xFF) | (h[11] & 0xFF) << 8;
+			extra.clear();
+			extra.limit(xlen);
+			while (extra.hasRemaining()
+					&& channel.read(extra, pos + 12 + extra.position()) >= 0) {}
+			int blockSize = getBlockSize(extra.array(), extra.position());
+			if (blockSize < 0) {
+				return null;
+			}
+			if (rangeStart < 0 || pos - rangeStart >= splitSize) {
+				if (count == retval.length - 1) {
+					long[] temp = new long[retval.length * 2];
+					System.arraycopy(retval, 0, temp, 0, count);
+					retval = temp;
+				}
+				retval[count++] = pos;
+				rangeStart = pos;
+			}
+			pos += blockSize;
+		}
+		if (pos != size) {
+			return null;
+		}
+		long[] temp = new long[count + 1];
+		System.arraycopy(retval, 0, temp, 0, count);
+		temp[count] = size;
+		return temp;
+	}
+
+	/**
+	 * Finds the BGZF block size in the extra field of a gzip header.
+	 *
+	 * @param extra the extra field
+	 * @param xlen the length of the extra field
+	 * @return the total size of the block or -1 if the field has no
+	 * 		BGZF subfield
+	 */
+	private static int getBlockSize(byte[] extra, int xlen) {
+		int i = 0;
+		while (i + 4 <= xlen) {
+			int slen = (extra[i + 2] & 0xFF) | (extra[i + 3] & 0xFF) << 8;
+			if (extra[i] == 'B' && extra[i + 1] == 'C' && slen == 2
+					&& i + 6 <= xlen) {
+				return ((extra[i + 4] & 0xFF) | (extra[i + 5] & 0xFF) << 8) + 1;
+			}
+			i += 4 + slen;
+		}
+		return -1;
+	}
+
+	/**
+	 * The decompressed output of a range.
+	 */
+	private static class Range {
+
+		// offset of the first member or -1 if no member starts in the range
+		private long start = -1;
+
+		// offset after the last member
+		private long end = -1;
+
+		private boolean failed = false;
+
+		private List<byte[]> blocks = new ArrayList<byte[]>();
+
+		private int lastBlockLength = 0;
+	}
+
+	/**
+	 * Inflates the members starting in a range of the file.  The member
+	 * crossing the end of the range is inflated completely, so the range
+	 * ends at a member boundary.
+	 */
+	private class RangeInflater implements Callable<Range> {
+
+		private long from, to;
+
+		/**
+		 * Instantiates a new range inflater.
+		 *
+		 * @param from the start of the range
+		 * @param to the end of the range, exclusive
+		 */
+		public RangeInflater(long from, long to) {
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		public Range call() throws Exception {
+			long offset = from;
+			if (!exact && from > 0) {
+				offset = findHeader(channel, fileSize, from, to);
+			}
+			while (offset >= 0) {
+				Range retval = new Range();
+				retval.start = offset;
+				boolean started = false;
+				try {
+					inflate(retval);
+					return retval;
+				} catch (IOException e) {
+					started = retval.end > offset;
+				}
+				if (exact || offset == 0 || started) {
+					// the reading thread inflates the range and reports
+					// the error if the data is corrupt
+					retval.failed = true;
+					retval.blocks = null;
+					return retval;
+				}
+				offset = findHeader(channel, fileSize, offset + 1, to);
+			}
+			return new Range();
+		}
+
+		/**
+		 * Inflates the members starting before the end of the range.
+		 *
+		 * @param range the range, whose start is a possible member start
+		 * @throws IOException if a member is corrupt, the range output
+		 * 		is too large or the file can not be read
+		 */
+		private void inflate(Range range) throws IOException {
+			long total = 0;
+			byte[] block = null;
+			int blockPos = BLOCKSIZE;
+			long pos = range.start;
+			while (pos < to && pos < fileSize && (pos == range.start || isHeader(pos))) {
+				MemberDecoder member = new MemberDecoder(channel, fileSize, pos);
+				try {
+					while (true) {
+						if (blockPos == BLOCKSIZE) {
+							if (Thread.interrupted()) {
+								throw new IOException("Interrupted.");
+							}
+							block = new byte[BLOCKSIZE];
+							range.blocks.add(block);
+							blockPos = 0;
+						}
+						int n = member.read(block, blockPos, BLOCKSIZE - blockPos);
+						if (n < 0) {
+							break;
+						}
+						blockPos += n;
+						total += n;
+						if (total > MAXRANGEOUTPUT) {
+							throw new IOException("Range output too large.");
+						}
+					}
+				} finally {
+					member.end();
+				}
+				pos = member.getEnd();
+				range.end = pos;
+			}
+			range.end = pos;
+			range.lastBlockLength = blockPos;
+			if (blockPos == 0 && range.blocks.size() > 0) {
+				range.blocks.remove(range.blocks.size() - 1);
+				range.lastBlockLength = BLOCKSIZE;
+			}
+		}
+	}
+
+	/**
+	 * Creates a decoder for the member at an offset of this stream's file.
+	 *
+	 * @param offset the member offset
+	 * @return the decoder
+	 * @throws IOException if there is no gzip header at the offset
+	 */
+	private MemberDecoder newDecoder(long offset) throws IOException {
+		return new MemberDecoder(channel, fileSize, offset);
+	}
+
+	/**
+	 * Inflates a single gzip member read with positional reads from a
+	 * file channel, so several decoders can share the channel.
+	 */
+	private static class MemberDecoder {
+
+		private FileChannel channel = null;
+
+		private long fileSize = 0;
+
+		private byte[] buf = new byte[BLOCKSIZE];
+
+		// file offset of buf[0], the number of valid and consumed bytes
+		private long bufStart = 0;
+
+		private int bufLen = 0, bufPos = 0;
+
+		private Inflater inflater = new Inflater(true);
+
+		private CRC32 crc = new CRC32();
+
+		private long size = 0;
+
+		private long end = -1;
+
+		/**
+		 * Instantiates a new member decoder and reads the member header.
+		 *
+		 * @param channel the file
+		 * @param fileSize the file size
+		 * @param offset the offset of the member
+		 * @throws IOException if there is no gzip header at the offset
+		 */
+		public MemberDecoder(FileChannel channel, long fileSize, long offset)
+				throws IOException {
+			this.channel = channel;
+			this.fileSize = fileSize;
+			this.bufStart = offset;
+			try {
+				readHeader();
+			} catch (IOException e) {
+				inflater.end();
+				throw e;
+			}
+			inflater.setInput(buf, bufPos, bufLen - bufPos);
+			bufPos = bufLen;
+		}
+
+		/**
+		 * Reads decompressed data of the member.
+		 *
+		 * @param b the buffer
+		 * @param off the offset in the buffer
+		 * @param len the maximum number of bytes, greater than 0
+		 * @return the number of bytes read or -1 at the end of the member
+		 * @throws IOException if the member is corrupt or the file can not
+		 * 		be read
+		 */
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (end >= 0) {
+				return -1;
+			}
+			while (true) {
+				int n;
+				try {
+					n = inflater.inflate(b, off, len);
+				} catch (DataFormatException e) {
+					throw new ZipException(e.getMessage());
+				}
+				if (n > 0) {
+					crc.update(b, off, n);
+					size += n;
+					return n;
+				}
+				if (inflater.finished()) {
+					bufPos = bufLen - inflater.getRemaining();
+					readTrailer();
+					return -1;
+				}
+				if (inflater.needsDictionary()) {
+					throw new ZipException("Unexpected preset dictionary.");
+				}
+				if (inflater.needsInput()) {
+					if (!fill()) {
+						throw new EOFException("Unexpected end of ZLIB input stream");
+					}
+					inflater.setInput(buf, 0, bufLen);
+					bufPos = bufLen;
+				}
+			}
+		}
+
+		/**
+		 * Gets the offset after the member.
+		 *
+		 * @return the end offset, -1 until the member is read completely
+		 */
+		public long getEnd() {
+			return end;
+		}
+
+		/**
+		 * Releases the inflater.
+		 */
+		public void end() {
+			inflater.end();
+		}
+
+		/**
+		 * Reads and checks the member header.
+		 *
+		 * @throws IOException if the header is not a valid gzip header
+		 */
+		private void readHeader() throws IOException {
+			if (readByte() != 0x1F || readByte() != 0x8B) {
+				throw new ZipException("Not in GZIP format");
+			}
+			if (readByte() != 8) {
+				throw new ZipException("Unsupported compression method");
+			}
+			int flags = readByte();
+			if ((flags & FRESERVED) != 0) {
+				throw new ZipException("Not in GZIP format");
+			}
+			for (int i = 0; i < 6; i++) {
+				readByte();
+			}
+			if ((flags & FEXTRA) != 0) {
+				int xlen = readByte() | readByte() << 8;
+				for (int i = 0; i < xlen; i++) {
+					readByte();
+				}
+			}
+			if ((flags & FNAME) != 0) {
+				while (readByte() != 0) {}
+			}
+			if ((flags & FCOMMENT) != 0) {
+				while (readByte() != 0) {}
+			}
+			if ((flags & FHCRC) != 0) {
+				readByte();
+				readByte();
+			}
+		}
+
+		/**
+		 * Reads and checks the member trailer.
+		 *
+		 * @throws IOException if the CRC or size does not match
+		 */
+		private void readTrailer() throws IOException {
+			long expectedCrc = readInt();
+			long expectedSize = readInt();
+			if (expectedCrc != crc.getValue()) {
+				throw new ZipException("Corrupt GZIP trailer");
+			}
+			if (expectedSize != (size & 0xFFFFFFFFL)) {
+				throw new ZipException("Corrupt GZIP trailer");
+			}
+			end = bufStart + bufPos;
+			inflater.end();
+		}
+
+		/**
+		 * Reads an unsigned little endian int.
+		 *
+		 * @return the value
+		 * @throws IOException if the file ends
+		 */
+		private long readInt() throws IOException {
+			long retval = 0;
+			for (int i = 0; i < 4; i++) {
+				retval |= (long) readByte() << (8 * i);
+			}
+			return retval;
+		}
+
+		/**
+		 * Reads a byte of compressed data.
+		 *
+		 * @return the byte
+		 * @throws IOException if the file ends
+		 */
+		private int readByte() throws IOException {
+			if (bufPos == bufLen && !fill()) {
+				throw new EOFException("Unexpected end of file");
+			}
+			return buf[bufPos++] & 0xFF;
+		}
+
+		/**
+		 * Reads the data following the buffer into the buffer.
+		 *
+		 * @return false at the end of the file
+		 * @throws IOException if the file can not be read
+		 */
+		private boolean fill() throws IOException {
+			bufStart += bufLen;
+			bufPos = 0;
+			bufLen = 0;
+			if (bufStart >= fileSize) {
+				return false;
+			}
+			ByteBuffer bb = ByteBuffer.wrap(buf, 0,
+					(int) Math.min(buf.length, fileSize - bufStart));
+			while (bb.hasRemaining()) {
+				if (channel.read(bb, bufStart + bb.position()) < 0) {
+					break;
+				}
+			}
+			bufLen = bb.position();
+			return bufLen > 0;
+		}
+	}
+}